@@ -0,0 +1,132 @@
+package com.msc.cache;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <P>Set of keys that answers "definitely not there" or "maybe there" in a few nanoseconds and about 10 bits
+ * per key (for a 1% false positive rate): a key never added is reported as present with probability
+ * getFalsePositiveRate() at most, while it holds no more than the expected number of keys. Keys can't be
+ * removed.</P>
+ *
+ * <P>Keys are hashed by their hashCode(), spread over 64 bits; the bits of a key are picked by double hashing
+ * the two halves of it. Adding and testing are lock free.</P>
+ *
+ * <P>The false positive rate grows with the bits set: past the expected number of keys (or with keys that
+ * were added and are gone, whose bits stay set), isDegraded() tells when it's over twice the designed rate
+ * and the filter is worth rebuilding.</P>
+ */
+public class BloomFilter {
+    private final AtomicLongArray bits;
+    private final long bitCount;
+    private final int hashCount;
+    private final long expectedInsertions;
+    private final double falsePositiveRate;
+    private final AtomicLong setBits = new AtomicLong();
+    /** Number of bits set beyond which the false positive rate is over twice falsePositiveRate. */
+    private final long degradedBits;
+
+    /**
+     * @param expectedInsertions Number of keys it will hold.
+     * @param falsePositiveRate  Probability of a key never added being reported as present, once it holds them.
+     */
+    public BloomFilter(long expectedInsertions, double falsePositiveRate) {
+        this.expectedInsertions = Math.max(1, expectedInsertions);
+        this.falsePositiveRate = falsePositiveRate;
+        //Optimal sizes: m = -n ln(p) / (ln 2)^2 bits and k = m/n ln(2) hashes.
+        long m = (long) Math.ceil(-this.expectedInsertions * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        this.bitCount = Math.max(64, (m + 63) / 64 * 64);
+        this.hashCount = Math.max(1, (int) Math.round((double) this.bitCount / this.expectedInsertions * Math.log(2)));
+        this.bits = new AtomicLongArray((int) (this.bitCount / 64));
+        //A key is a false positive if its k bits are all set: (setBits / m)^k.
+        this.degradedBits = (long) (this.bitCount * Math.pow(Math.min(1, 2 * falsePositiveRate), 1.0 / this.hashCount));
+    }
+
+    public void put(Object key) {
+        long hash = spread(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= this.hashCount; i++) {
+            this.set(index(h1 + i * h2));
+        }
+    }
+
+    /**
+     * @return false if the key was never added; true if it probably was.
+     */
+    public boolean mightContain(Object key) {
+        long hash = spread(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= this.hashCount; i++) {
+            long bit = index(h1 + i * h2);
+            if ((this.bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private long index(int combined) {
+        return (combined & Integer.MAX_VALUE) % this.bitCount;
+    }
+
+    private void set(long bit) {
+        int word = (int) (bit >>> 6);
+        long mask = 1L << bit;
+        long current;
+        do {
+            current = this.bits.get(word);
+            if ((current & mask) != 0) {
+                return;
+            }
+        } while (!this.bits.compareAndSet(word, current, current | mask));
+        this.setBits.incrementAndGet();
+    }
+
+    /**
+     * @return The probability of a key never added being reported as present, as of now.
+     */
+    public double getCurrentFalsePositiveRate() {
+        return Math.pow((double) this.setBits.get() / this.bitCount, this.hashCount);
+    }
+
+    /**
+     * @return Whether the false positive rate is over twice the designed one.
+     */
+    public boolean isDegraded() {
+        return this.setBits.get() > this.degradedBits;
+    }
+
+    /**
+     * Spreads the hashCode of the key over 64 bits (MurmurHash3 finalizer).
+     */
+    private static long spread(Object key) {
+        long h = key == null ? 0 : key.hashCode();
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    public long getExpectedInsertions() {
+        return expectedInsertions;
+    }
+
+    public double getFalsePositiveRate() {
+        return falsePositiveRate;
+    }
+
+    /**
+     * @return Size of the filter, in bits.
+     */
+    public long getBitCount() {
+        return bitCount;
+    }
+
+    public int getHashCount() {
+        return hashCount;
+    }
+}
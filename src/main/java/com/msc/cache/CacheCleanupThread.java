@@ -1,5 +1,6 @@
 package com.msc.cache;
 
+import com.msc.cache.cleanup.CacheCleanupPolicy;
 
 import java.util.logging.Logger;
 
@@ -15,20 +16,38 @@ public class CacheCleanupThread extends Thread {
      * Replacement for the deprecated stop() method on Thread class.
      */
     private boolean shouldKeepRunning = true;
-    /** The time that this thread should sleep until the next kick off of clean up threads */
+    /** The time (in milliseconds) that this thread should sleep until the next kick off of clean up threads */
     private long timeToSleep ;
     /** The Manager that this thread is being associated with. */
     private com.msc.cache.CacheContract cacheManager;
+    /** The policy this thread runs, or null for all the policies of the manager. */
+    private CacheCleanupPolicy cleanupPolicy;
 
 	private static Logger logger = Logger.getLogger(CacheCleanupThread.class.getName());
     /**
      * Constructor that applies necessary values for the mandatory fields - timeToLive and cacheManager.
      */
-    public CacheCleanupThread(int timeToSleep, CacheContract cacheManager) {
+    public CacheCleanupThread(long timeToSleep, CacheContract cacheManager) {
+        this(timeToSleep, cacheManager, null);
+    }
+
+    /**
+     * Constructor for a thread cleaning up something else than a CacheContract: subclasses override runCleanup().
+     */
+    protected CacheCleanupThread(long timeToSleep) {
+        this(timeToSleep, null, null);
+    }
+
+    /**
+     * Constructor for a thread running a single cleanup policy of the manager, every timeToSleep milliseconds.
+     */
+    public CacheCleanupThread(long timeToSleep, CacheContract cacheManager, CacheCleanupPolicy cleanupPolicy) {
         super("CacheCleanupThread");
         setPriority(Thread.MIN_PRIORITY);
-        this.timeToSleep = timeToSleep;
+        //Never 0: that would clean up in a busy loop.
+        this.timeToSleep = Math.max(timeToSleep, 1);
         this.cacheManager = cacheManager;
+        this.cleanupPolicy = cleanupPolicy;
     }
 
     /**
@@ -52,13 +71,24 @@ public class CacheCleanupThread extends Thread {
             }
             //expire objects
             try {
-                this.cacheManager.cleanup();
+                this.runCleanup();
             } catch (Exception e) {
                 e.printStackTrace();  //To change body of catch statement use Options | File Templates.
             }
         }
     }
 
+    /**
+     * Runs the cleanup policy of the thread, or all of them.
+     */
+    protected void runCleanup() throws Exception {
+        if (this.cleanupPolicy == null) {
+            this.cacheManager.cleanup();
+        } else {
+            this.cacheManager.cleanup(this.cleanupPolicy);
+        }
+    }
+
 //    private synchronized boolean shouldKeepRunning() {
 //        return this.shouldKeepRunning;
 //    }
@@ -32,6 +32,20 @@ public interface CacheContract {
 	 * synchronize the cache.
 	 */
 	public void refresh(Cacheable entity) throws Exception;
+	/**
+	 * Writes the entity to the persistence storage through the CacheWriterPolicy (right away or behind,
+	 * depending on the policy) and caches it. Without a writer policy, it only caches it.
+	 *
+	 * @param entity The entity created or modified.
+	 */
+	public void put(Cacheable entity) throws Exception;
+	/**
+	 * Deletes the entity from the persistence storage through the CacheWriterPolicy and invalidates it.
+	 * Without a writer policy, it only invalidates it.
+	 *
+	 * @param cacheKey The key of the entity deleted.
+	 */
+	public void remove(Object cacheKey) throws Exception;
 	/**
 	 * Read Method - This method is used when the user wants to extract one instance of a cached entity
 	 * out of the cache.
@@ -140,6 +154,10 @@ public interface CacheContract {
 	 * associated entity caches.
 	 */
 	public void cleanup() throws Exception;
+	/**
+	 * Runs a single cleanup policy of this cache: each policy is run on its own frequency.
+	 */
+	public void cleanup(CacheCleanupPolicy cleanupPolicy) throws Exception;
 	/**
 	 * Getter method for the grouped property.
 	 */
@@ -254,5 +272,43 @@ public interface CacheContract {
      * @throws Exception
      */
     public long getSize() throws Exception;
+    /**
+     * Retrieves how many secondary keys the cached entities can be found by.
+     *
+     * @return the number of secondary keys indexed.
+     * @throws Exception
+     */
+    public long getSecondaryKeyCount() throws Exception;
+    /**
+     * Retrieves how many entities the cleanup policies removed.
+     *
+     * @return the number of evictions.
+     * @throws Exception
+     */
+    public long getEvictionCounter() throws Exception;
+    /**
+     * Retrieves how many get() returned null right away, because the key is known not to exist.
+     *
+     * @return the number of negative hits.
+     * @throws Exception
+     */
+    public long getNegativeHitCounter() throws Exception;
+    /**
+     * Retrieves the total weight of the cached entities (their number, if the cache has no Weigher).
+     *
+     * @return the current weight of the cache.
+     * @throws Exception
+     */
+    public long getWeight() throws Exception;
+    /**
+     * Getter method for the maxWeight property.
+     */
+    public long getMaxWeight() throws Exception;
+    /**
+     * Setter method for the maxWeight property.
+     *
+     * @param maxWeight Hard limit for the weight of the cache, or 0 or less for none.
+     */
+    public void setMaxWeight(long maxWeight) throws Exception;
 
 }
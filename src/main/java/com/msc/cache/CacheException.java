@@ -15,11 +15,13 @@ package com.msc.cache;
  * @errorMessage error.platform.cache.lockingProblem=Problems locking the cache for read.
  * @errorMessage error.platform.cache.notAGroup=Invalid method call. Loader is not a Group Loader.
  * @errorMessage error.platform.cache.invalidGroup=Invalid GroupCacheable: unable to mix groups!
+ * @errorMessage error.platform.cache.noIndex=There is no index on the attribute queried.
  */
 public class CacheException extends Exception {
 	private static final String ERROR_KEY="error.platform.cache.configurationProblem";
 	public static final String ERROR_NOT_A_GROUP="error.platform.cache.notAGroup";
 	public static final String ERROR_INVALID_GROUP="error.platform.cache.invalidGroup";
+	public static final String ERROR_NO_INDEX="error.platform.cache.noIndex";
 	public CacheException(String msg, String problem) {
 		super(msg +  problem);
 	}
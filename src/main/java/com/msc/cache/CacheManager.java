@@ -1,20 +1,44 @@
 package com.msc.cache;
 
 
+import com.msc.cache.cleanup.AbstractCleanupPolicy;
 import com.msc.cache.cleanup.CacheCleanupPolicy;
+import com.msc.cache.cleanup.EvictionCleanupPolicy;
 import com.msc.cache.cleanup.ExpiredCleanupPolicy;
+import com.msc.cache.cleanup.ExpiryCleanupPolicy;
 import com.msc.cache.cleanup.IdleTimeCleanupPolicy;
+import com.msc.cache.cleanup.LRUCleanupPolicy;
 import com.msc.cache.cleanup.TimeToLiveCleanupPolicy;
+import com.msc.cache.expiry.ExpiryPolicy;
+import com.msc.cache.index.AttributeIndex;
 import com.msc.cache.initializer.CacheInitializerPolicy;
+import com.msc.cache.initializer.FullInitializationPolicy;
 import com.msc.cache.loader.CacheGroupLoaderPolicy;
+import com.msc.cache.loader.CacheKeyLoaderPolicy;
 import com.msc.cache.loader.CacheLoaderPolicy;
 import com.msc.cache.notifier.CacheNotifierPolicy;
 import com.msc.cache.notifier.NotificationMessage;
+import com.msc.cache.notifier.NotificationType;
+import com.msc.cache.writer.CacheWriterPolicy;
+import com.msc.cache.writer.WriteBehindCacheWriterPolicy;
 
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
 import java.util.*;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * <p>The CacheManager is responsible for holding entities being cached. It is also responsible
@@ -59,8 +83,11 @@ public class CacheManager implements CacheContract {
 	 */
 	private String name;
 	/**
-	 * Those will be implemented in the near future... They are not that necessary for a v1.0
-	 * of our caching mechanism. It's more like a enhancement!
+	 * Size based eviction. Sizes are weights given by the weigher (number of entries if there's no weigher).
+	 * When the weight of the cache goes over highWaterMark, the LRUCleanupPolicy evicts the least recently
+	 * used entities down to lowWaterMark. maxWeight is a hard limit, enforced as entities are registered:
+	 * going over it evicts the least recently used entities right away (or those the EvictionCleanupPolicy
+	 * among the cleanup policies picks), down to lowWaterMark (or maxWeight). 0 or less means no limit.
 	 */
 	private long highWaterMark;
 	/**
@@ -68,11 +95,24 @@ public class CacheManager implements CacheContract {
 	 * of our caching mechanism. It's more like a enhancement!
 	 */
 	private long treshHold;
+	private long lowWaterMark;
+	private long maxWeight = -1;
 	/**
-	 * Those will be implemented in the near future... They are not that necessary for a v1.0
-	 * of our caching mechanism. It's more like a enhancement!
+	 * Temporary limit under maxWeight (see HeapPressureController), or 0 or less for none. Kept apart from
+	 * maxWeight, which the user or the registry sets, so neither overwrites the other: the cache is held to the
+	 * lower of the two.
 	 */
-	private long lowWaterMark;
+	private long weightCap = -1;
+	private Weigher weigher;
+	private final AtomicLong totalWeight = new AtomicLong();
+	private final AtomicBoolean shrinking = new AtomicBoolean();
+	/**
+	 * How the entities are held (see ValueReference), and where the references to the entities the garbage
+	 * collector reclaimed are queued until their entries are removed.
+	 */
+	private ValueReference valueReference = ValueReference.STRONG;
+	private final ReferenceQueue<Cacheable> collectedQueue = new ReferenceQueue<Cacheable>();
+	private final AtomicLong collectedCounter = new AtomicLong();
 
 	/**
 	 * Default idle time applied to each entity and group being added to the cache.
@@ -93,7 +133,8 @@ public class CacheManager implements CacheContract {
 	private boolean distributable = false;
 	/**
 	 * Whether, when the cache is running across a cluster, if we have to maintain the caches synchronized
-	 * or not.
+	 * or not. Cluster notifiers (see ClusterNotifierPolicy) deliver the changes before returning to the caller
+	 * when this is true, instead of batching them.
 	 */
 	private boolean syncCluster = false;
 	/**
@@ -110,8 +151,29 @@ public class CacheManager implements CacheContract {
 	 * If it is a simple Cacheable, it will be placed on the "Default" group.
 	 * Otherwise, it will figure out the group that it belongs and place it (creating a Group if necessary)
 	 * on the right group!
+	 * Groups can be changed by threads other than the caller's (cleanup threads, notifications from remote
+	 * caches) so this is a concurrent Map.
 	 */
-	private Map<Object, GroupCacheable> groups = new HashMap<Object, GroupCacheable>();
+	private Map<Object, GroupCacheable> groups = new ConcurrentHashMap<Object, GroupCacheable>();
+	/**
+	 * Every entity held by the groups, by its primary key and by its secondary keys (see CompoundKeyCacheable).
+	 * Lets get() find an entity without asking every group for it. Entities are only added to and removed from
+	 * the groups together with the index (see store(), removeEntry(), evict()).
+	 */
+	private final KeyIndex keyIndex = new KeyIndex();
+	/**
+	 * Number of entities removed by the cleanup policies.
+	 */
+	private final AtomicLong evictionCounter = new AtomicLong();
+	/**
+	 * Indexes of the cached entities by their attributes, by attribute name (see query()).
+	 */
+	private Map<String, AttributeIndex> attributeIndexes = new ConcurrentHashMap<String, AttributeIndex>();
+	/**
+	 * Group loads in progress (see loadGroupOnce()), and how many misses waited for one instead of loading.
+	 */
+	private final ConcurrentMap<Object, FutureTask<Collection<Cacheable>>> groupLoads = new ConcurrentHashMap<Object, FutureTask<Collection<Cacheable>>>();
+	private final AtomicLong sharedGroupLoadCounter = new AtomicLong();
 	/**
 	 * Identifies whether the entities on this group are treated as atomic - one single unit of information.
 	 * Meaning: if a piece of information changes, the entire group is affected.
@@ -157,12 +219,67 @@ public class CacheManager implements CacheContract {
 	 * at the cache.
 	 */
 	private List<CacheCleanupPolicy> cleanupPolicies = new ArrayList<CacheCleanupPolicy>();
+	/** The first EvictionCleanupPolicy of cleanupPolicies: it picks the entities evicted over maxWeight. */
+	private volatile EvictionCleanupPolicy evictionPolicy;
+	/**
+	 * Decides how long each entry stays cached, when it's cached, replaced and read - instead of
+	 * defaultIdleTime/defaultTimeToLive. Entries are scheduled on a timer wheel, which an ExpiryCleanupPolicy
+	 * (set up automatically) advances every second; expired entries are also never returned by get()/peek().
+	 */
+	private ExpiryPolicy expiryPolicy;
+	private volatile ExpirationWheel expirationWheel;
+	private final AtomicLong expiredCounter = new AtomicLong();
+	/**
+	 * Where the time comes from: entry timestamps, expiration, the negative cache and the cleanup policies all
+	 * read it (see currentTimeMillis()). Its first reading is anchored to the wall clock.
+	 */
+	private volatile Ticker ticker = Ticker.SYSTEM;
+	private volatile long tickerOrigin = Ticker.SYSTEM.read();
+	private volatile long originMillis = System.currentTimeMillis();
 	/**
 	 * When the cache is running distributed, we have to somehow notify Caches on different JVMs. For this
 	 * purpose, we can plug in a notification mechanism.
 	 * If there's no notifier policy, it will be treated as a local cache with no need for synchronization.
 	 */
 	private CacheNotifierPolicy notifierPolicy;
+	/**
+	 * Writes the entities put() and remove()d to the underlying persistence storage. If there's no writer
+	 * policy, the application writes to the storage itself and put()/remove() only change the cache.
+	 */
+	private CacheWriterPolicy writerPolicy;
+	/**
+	 * Keys the loader didn't find are remembered for negativeTimeToLive seconds (up to negativeCacheSize of
+	 * them), so get() returns null for them without asking the loader again. Disabled if the size is 0.
+	 */
+	private int negativeCacheSize;
+	private long negativeTimeToLive = 60;
+	private volatile NegativeCache negativeCache;
+	/**
+	 * With keyFilter set, every key that exists goes into a Bloom filter on init(), and get()/peek() for keys
+	 * that aren't in it return null without looking any further (see rebuildKeyFilter()). Keys cached or
+	 * changed afterwards are added to it; when its false positive rate drifts over twice
+	 * keyFilterFalsePositiveRate, it's rebuilt in the background.
+	 */
+	private boolean keyFilter;
+	private double keyFilterFalsePositiveRate = 0.01;
+	private volatile BloomFilter keyBloomFilter;
+	/** While the filter is being rebuilt, the keys admitted meanwhile. */
+	private volatile Queue<Object> admittedDuringRebuild;
+	private final AtomicBoolean rebuildingKeyFilter = new AtomicBoolean();
+	/** evictionCounter when the key filter was built out of the cached keys, or -1 if it wasn't. */
+	private volatile long keyFilterEvictions = -1;
+	private final AtomicLong keyFilterRebuildCounter = new AtomicLong();
+	private final AtomicLong negativeHitCounter = new AtomicLong();
+	/**
+	 * One reusable NotificationMessage per thread, so publishing an event does not allocate anything.
+	 * Notifiers must copy() the message if they need to keep it after notifyCache returns.
+	 */
+	private final ThreadLocal<ThreadMessage> notificationMessages = new ThreadLocal<ThreadMessage>() {
+		@Override
+		protected ThreadMessage initialValue() {
+			return new ThreadMessage();
+		}
+	};
 	/**
 	 * This Policy doesn't provide any generic behavior. Basically because each cached entity is very specific
 	 * and we have to somehow teach the Cache how to retrieve it's information.
@@ -177,11 +294,45 @@ public class CacheManager implements CacheContract {
 	 * whether it is grouped or not: No groups exists yet and no entities are cached.
 	 */
 	private boolean grouped;
+	/**
+	 * Whether getByGroup() and getAll() hand back a read-only view over the cached group instead of a copy
+	 * of it (see GroupCachedEntity.entitiesView()). Views cost the same whatever the size of the group, but
+	 * they can't be changed and they reflect later changes of the group. Either way a group read counts as
+	 * one hit of the group; with views the entities of the group are not hit one by one.
+	 */
+	private boolean readOnlyViews = false;
+
+	/**
+	 * Stale load protection:
+	 * A miss reads the persistence storage and then caches what it read. If the entity is invalidated
+	 * (or refreshed, or its group flushed) while that read is in progress, caching the result would put
+	 * back the very information the invalidation was meant to drop - and it would stay there until it expires.
+	 * To avoid it, every change is stamped with a number of the changeSequence, every load takes a ticket
+	 * from the same sequence when it starts, and a load only caches its result if nothing it read has
+	 * changed after its ticket. Stale results are still returned to the caller, they are just not cached.
+	 * Changes are only remembered while some load that started before them is still running.
+	 */
+	private final AtomicLong changeSequence = new AtomicLong();
+	/** Tickets of the loads currently running. */
+	private final ConcurrentSkipListSet<Long> loadsInFlight = new ConcurrentSkipListSet<Long>();
+	/** cacheKey -> sequence number of its last invalidation/refresh. */
+	private final ConcurrentMap<Object, Long> keyChanges = new ConcurrentHashMap<Object, Long>();
+	/** groupKey -> sequence number of its last flush. */
+	private final ConcurrentMap<Object, Long> groupChanges = new ConcurrentHashMap<Object, Long>();
+	/** Sequence number of the last flushAll. */
+	private volatile long lastFlushAll;
+	/** Number of changes remembered that triggers a purge of the ones no load cares about anymore. */
+	private static final int CHANGES_PURGE_THRESHOLD = 1024;
+	/** Number of loads whose result was not cached because it was stale when they completed. */
+	private final AtomicLong discardedLoadCounter = new AtomicLong();
 
 
 	private Logger logger = Logger.getLogger(CacheManager.class.getName());
     private ArrayList<CacheCleanupThread> childThreads = new ArrayList<CacheCleanupThread>();
-    private ReadWriteLock lock = new ReentrantReadWriteLock();
+	/**
+	 * Registry this cache joins on init(), sharing its budget and maintenance threads. Null for a cache on its own.
+	 */
+	private CacheRegistry registry;
 
 
     /**
@@ -191,25 +342,450 @@ public class CacheManager implements CacheContract {
 	 * @param entity The new entity being registered into the cache!
 	 */
 	protected void register(Cacheable entity) throws CacheException {
+		this.store(entity, this.changeSequence.get());
+		this.notifyCache(NotificationType.REGISTER, entity, null, null, 0);
+
+	}
+	/**
+	 * Registers an entity read from the persistence storage by the load holding the given ticket (see
+	 * beginLoad()). The entity is not cached if it was invalidated, refreshed or flushed after the load started.
+	 *
+	 * @return Whether the entity was cached.
+	 */
+	protected boolean registerLoaded(Cacheable entity, long ticket) throws CacheException {
+		Object groupKey = groupKeyOf(entity);
+		if (!this.isStale(ticket, entity.getCacheKey(), groupKey)) {
+			CachedEntity newEntity = this.store(entity, ticket);
+			//An invalidation might have slipped in between the check and the store. Check again and take
+			//our entry back out if so (only ours: a refresh might have replaced it already).
+			if (!this.isStale(ticket, entity.getCacheKey(), groupKey)) {
+				this.notifyCache(NotificationType.REGISTER, entity, null, null, 0);
+				return true;
+			}
+			this.removeEntry(newEntity);
+		}
+		if (logger.isLoggable(Level.FINE)) {
+			logger.fine("Not caching stale entity " + entity.getCacheKey() + ": it changed while being loaded");
+		}
+		this.discardedLoadCounter.incrementAndGet();
+		return false;
+	}
+	/**
+	 * Creates a new CachedEntity for the entity and adds it to its group.
+	 */
+	private CachedEntity store(Cacheable entity, long version) throws CacheException {
 		logger.fine("Registering new entity: " + entity.getCacheKey());
-		CachedEntity newEntity = new CachedEntity();
-		newEntity.setMaxIdleTime(this.getDefaultIdleTime());
-		newEntity.setMaxTimeToLive(this.getDefaultTimeToLive());
-		newEntity.setEntity(entity);
-		//add the new entity into the cache:
-		if (entity instanceof GroupCacheable) {
-			//Find his group:
-			Object groupKey = ((GroupCacheable) entity).getGroupKey();
-			logger.finest("\tUnder Group: " + groupKey);
+		if (this.valueReference != ValueReference.STRONG) {
+			this.drainCollected();
+		}
+		CachedEntity newEntity = this.newCachedEntity(entity, version);
+		//add the new entity into the cache - under his group, or the Default group if he's not grouped:
+		Object groupKey = groupKeyOf(entity);
+		logger.finest("\tUnder Group: " + groupKey);
+		Object primaryKey = entity.getCacheKey();
+		long expiresAt = this.expiryPolicy == null ? CachedEntity.Expiry.NEVER : this.expireAfterWrite(newEntity, entity);
+		while (true) {
 			GroupCachedEntity aGroup = getGroupUnconditional(groupKey);
-			aGroup.addCachedEntity(newEntity);
-		} else { //Add the entity to the Default group:
-			GroupCachedEntity defaultGroup = getGroupUnconditional(DEFAULT_GROUP_KEY);
-			defaultGroup.addCachedEntity(newEntity);
+			synchronized (this.keyIndex.lockFor(primaryKey)) {
+				aGroup.addCachedEntity(newEntity);
+				this.index(newEntity, groupKey);
+				if (this.groups.get(groupKey) == aGroup) {
+					//Scheduled holding the lock, so it's not scheduled after it's replaced.
+					this.schedule(newEntity, expiresAt);
+					break;
+				}
+				//The group was flushed meanwhile: take it back out and add it to the new one.
+				this.unindex(newEntity);
+				aGroup.removeEntity(primaryKey, newEntity);
+			}
 		}
-		NotificationMessage nf = new NotificationMessage(NotificationMessage.REGISTER_MESSAGE, entity);
-		this.notifyCache(nf);
+		this.enforceMaxWeight();
+		return newEntity;
+	}
+	private void schedule(CachedEntity cached, long expiresAt) {
+		ExpirationWheel wheel = this.expirationWheel;
+		if (wheel != null) {
+			wheel.schedule(cached, expiresAt);
+		}
+	}
+	/**
+	 * Asks the ExpiryPolicy how long the new entry has - as a replacement of the cached one, if any.
+	 *
+	 * @return The time it expires at.
+	 */
+	private long expireAfterWrite(CachedEntity newEntity, Cacheable entity) {
+		long now = this.ticker.read();
+		CachedEntity previous = this.keyIndex.get(entity.getCacheKey());
+		Cacheable previousEntity = previous == null ? null : previous.getEntity();
+		long duration = previousEntity == null ? this.expiryPolicy.expireAfterCreate(entity)
+		                                       : this.expiryPolicy.expireAfterUpdate(entity, previousEntity, previous.timeLeft(now));
+		return newEntity.expireAfter(duration, now);
+	}
+	/**
+	 * Asks the ExpiryPolicy how long an entry just hit has left - unless its time is up already, in which case
+	 * it's expired.
+	 *
+	 * @return Whether the entry is still cached.
+	 */
+	private boolean expireAfterRead(CachedEntity cached, Cacheable entity) {
+		long now = this.ticker.read();
+		if (cached.isExpired(now)) {
+			this.expire(cached);
+			return false;
+		}
+		long expiresAt = cached.getExpiresAt();
+		long renewed = cached.expireAfter(this.expiryPolicy.expireAfterRead(entity, cached.timeLeft(now)), now);
+		ExpirationWheel wheel = this.expirationWheel;
+		if (renewed < expiresAt && wheel != null) { //Later ones are moved when their bucket is reached.
+			wheel.schedule(cached, renewed);
+		}
+		return true;
+	}
+	/**
+	 * Evicts the entries whose time, as the ExpiryPolicy set it, is up. Meant for the ExpiryCleanupPolicy.
+	 *
+	 * @return Number of entries expired.
+	 */
+	public int expireEntries() {
+		ExpirationWheel wheel = this.expirationWheel;
+		if (wheel == null) {
+			return 0;
+		}
+		int count = 0;
+		for (CachedEntity cached : wheel.advance(this.ticker.read())) {
+			if (this.expire(cached)) {
+				count++;
+			}
+		}
+		return count;
+	}
+	private boolean expire(CachedEntity cached) {
+		GroupCachedEntity group = (GroupCachedEntity) this.groups.get(groupKeyOf(cached));
+		if (group != null && group.isAtomicGroup()) { //One expired entity expires all of them.
+			int count = this.unindex((GroupCachedEntity) this.groups.remove(group.getGroupKey()));
+			this.evictionCounter.addAndGet(count);
+			this.expiredCounter.addAndGet(count);
+			return count > 0;
+		}
+		if (this.removeEntry(cached)) {
+			this.evictionCounter.incrementAndGet();
+			this.expiredCounter.incrementAndGet();
+			return true;
+		}
+		return false;
+	}
+	/**
+	 * Evicts entities (see EvictionCleanupPolicy) if the cache weighs more than maxWeight. Only one thread
+	 * evicts at a time; the others go on.
+	 */
+	private void enforceMaxWeight() {
+		long limit = this.getEffectiveMaxWeight();
+		if (limit > 0 && this.totalWeight.get() > limit && this.shrinking.compareAndSet(false, true)) {
+			try {
+				long target = this.lowWaterMark > 0 && this.lowWaterMark < limit ? this.lowWaterMark : limit;
+				EvictionCleanupPolicy eviction = this.evictionPolicy;
+				if (eviction != null) {
+					eviction.evict(this, target);
+				} else {
+					LRUCleanupPolicy.evictLeastRecentlyUsed(this, target);
+				}
+			} finally {
+				this.shrinking.set(false);
+			}
+		}
+	}
+	private long weightOf(CachedEntity cached) {
+		ValueReference.Collectable reference = cached.getCollectable();
+		return reference != null ? reference.getWeight() : this.weigh(cached.getEntity());
+	}
+	private long weigh(Cacheable entity) {
+		return this.weigher == null ? 1 : this.weigher.weigh(entity);
+	}
+	/**
+	 * Removes the entries whose entities the garbage collector reclaimed (see ValueReference).
+	 */
+	protected void drainCollected() {
+		for (Reference<? extends Cacheable> reference = this.collectedQueue.poll(); reference != null; reference = this.collectedQueue.poll()) {
+			this.evictCollected(((ValueReference.Collectable) reference).getOwner());
+		}
+	}
+	private void evictCollected(CachedEntity cached) {
+		if (this.removeEntry(cached)) {
+			this.evictionCounter.incrementAndGet();
+			this.collectedCounter.incrementAndGet();
+		}
+	}
+	private CachedEntity newCachedEntity(Cacheable entity, long version) {
+		//Expires as defaultIdleTime/defaultTimeToLive say, unless overridden by setMaxIdleTime()/setMaxTimeToLive().
+		CachedEntity newEntity = new CachedEntity(this.currentSeconds());
+		if (this.valueReference == ValueReference.STRONG && this.weigher == null) {
+			newEntity.setEntity(entity);
+		} else {
+			newEntity.setEntity(entity, this.valueReference, this.weigh(entity), this.collectedQueue);
+		}
+		newEntity.setVersion(version);
+		return newEntity;
+	}
+	/**
+	 * Indexes an entity just added to its group, replacing its previous version - which is taken out of its
+	 * group too, if it was under another one. Must be called holding keyIndex.lockFor() its key.
+	 */
+	private void index(CachedEntity newEntity, Object groupKey) {
+		CachedEntity previous = this.keyIndex.put(newEntity);
+		this.indexed(newEntity, previous);
+		Cacheable entity = newEntity.getEntity();
+		if ((this.keyBloomFilter != null || this.admittedDuringRebuild != null) && entity != null) {
+			for (Object key : KeyIndex.keysOf(entity)) {
+				this.admitKey(key);
+			}
+		}
+		this.totalWeight.addAndGet(this.weightOf(newEntity) - (previous == null ? 0 : this.weightOf(previous)));
+		for (AttributeIndex index : this.attributeIndexes.values()) {
+			if (previous != null) {
+				index.remove(previous);
+			}
+			index.add(newEntity);
+		}
+		if (previous != null) {
+			ExpirationWheel wheel = this.expirationWheel;
+			if (wheel != null) {
+				wheel.remove(previous);
+			}
+			Object previousGroupKey = groupKeyOf(previous);
+			if (!previousGroupKey.equals(groupKey)) {
+				GroupCachedEntity previousGroup = (GroupCachedEntity) this.groups.get(previousGroupKey);
+				if (previousGroup != null) {
+					previousGroup.removeEntity(previous.getCacheKey(), previous);
+				}
+			}
+		}
+	}
+	/**
+	 * Called once an entity is in the key index, holding the lock of its key. Nothing to do by default.
+	 *
+	 * @param previous The entry it replaced, or null.
+	 */
+	void indexed(CachedEntity cached, CachedEntity previous) {
+	}
+	/**
+	 * Called once an entity is out of the key index, holding the lock of its key. Nothing to do by default.
+	 */
+	void unindexed(CachedEntity cached) {
+	}
+	/**
+	 * Removes an entity from its group and from the index.
+	 *
+	 * @param cacheKey The primary or a secondary key of the entity.
+	 * @return The entity removed, or null if it was not cached.
+	 */
+	protected Cacheable removeEntry(Object cacheKey) {
+		CachedEntity cached = this.keyIndex.get(cacheKey);
+		return cached != null && this.removeEntry(cached) ? cached.getEntity() : null;
+	}
+	private boolean removeEntry(CachedEntity cached) {
+		Object primaryKey = cached.getCacheKey();
+		synchronized (this.keyIndex.lockFor(primaryKey)) {
+			if (this.unindex(cached)) {
+				GroupCachedEntity aGroup = (GroupCachedEntity) this.groups.get(groupKeyOf(cached));
+				if (aGroup != null) {
+					aGroup.removeEntity(primaryKey, cached);
+				}
+				return true;
+			}
+			return false;
+		}
+	}
+	private static Object groupKeyOf(Cacheable entity) {
+		return entity instanceof GroupCacheable ? ((GroupCacheable) entity).getGroupKey() : DEFAULT_GROUP_KEY;
+	}
+	private static Object groupKeyOf(CachedEntity cached) {
+		ValueReference.Collectable reference = cached.getCollectable();
+		return reference != null ? reference.getGroupKey() : groupKeyOf(cached.getEntity());
+	}
 
+	/**
+	 * Starts tracking a load from the persistence storage. Every call must be paired with an endLoad().
+	 *
+	 * @return The ticket of the load, to be passed to registerLoaded() and endLoad().
+	 */
+	protected long beginLoad() {
+		long ticket = this.changeSequence.incrementAndGet();
+		this.loadsInFlight.add(ticket);
+		return ticket;
+	}
+	protected void endLoad(long ticket) {
+		this.loadsInFlight.remove(ticket);
+		if (this.keyChanges.size() + this.groupChanges.size() > CHANGES_PURGE_THRESHOLD) {
+			this.purgeChanges();
+		}
+	}
+	/**
+	 * @return Whether the key, its group or the whole cache changed after the load holding the ticket started.
+	 */
+	protected boolean isStale(long ticket, Object cacheKey, Object groupKey) {
+		if (this.lastFlushAll > ticket) {
+			return true;
+		}
+		Long changed = cacheKey == null ? null : this.keyChanges.get(cacheKey);
+		if (changed != null && changed > ticket) {
+			return true;
+		}
+		changed = groupKey == null ? null : this.groupChanges.get(groupKey);
+		return changed != null && changed > ticket;
+	}
+	/**
+	 * Records that the entity represented by the key changed. A load registered after this point reads
+	 * the new information, so only the loads already running need to know about it. Takes the lock of the
+	 * key: must not be called holding the lock of another one.
+	 */
+	protected void recordKeyChange(Object cacheKey) {
+		//It might exist now.
+		this.forgetMissing(cacheKey);
+		long sequence = this.changeSequence.incrementAndGet();
+		if (!this.loadsInFlight.isEmpty()) {
+			this.keyChanges.put(cacheKey, sequence);
+		}
+	}
+	/**
+	 * @return Whether the key is known not to exist because it's not in the key filter.
+	 */
+	private boolean isFilteredOut(Object cacheKey) {
+		BloomFilter filter = this.keyBloomFilter;
+		return filter != null && !filter.mightContain(cacheKey);
+	}
+	/**
+	 * @return Whether the key is known not to exist because the loader didn't find it lately.
+	 */
+	private boolean isKnownMissing(Object cacheKey) {
+		NegativeCache missing = this.negativeCache;
+		return missing != null && missing.contains(cacheKey);
+	}
+	private void rememberMissing(Object cacheKey, long ticket) {
+		NegativeCache missing = this.negativeCache;
+		//Unless it was created while we were looking for it.
+		if (missing != null && !this.isStale(ticket, cacheKey, null)) {
+			missing.add(cacheKey);
+		}
+	}
+	private void forgetMissing(Object cacheKey) {
+		NegativeCache missing = this.negativeCache;
+		if (missing != null) {
+			missing.remove(cacheKey);
+		}
+		if (this.keyBloomFilter != null || this.admittedDuringRebuild != null) {
+			synchronized (this.keyIndex.lockFor(cacheKey)) {
+				this.admitKey(cacheKey);
+			}
+		}
+	}
+	/**
+	 * Adds the key to the key filter (if any), rebuilding it in the background if it's getting too full.
+	 * Must be called holding keyIndex.lockFor() some key, so it doesn't run while the filter is swapped.
+	 */
+	private void admitKey(Object cacheKey) {
+		//Read together: the filter can't be swapped while a key lock is held.
+		BloomFilter filter = this.keyBloomFilter;
+		Queue<Object> admitted = this.admittedDuringRebuild;
+		if (admitted != null) { //Even while the first filter is being built.
+			admitted.add(cacheKey);
+		}
+		if (filter != null) {
+			filter.put(cacheKey);
+			if (filter.isDegraded()) {
+				this.rebuildKeyFilterInBackground();
+			}
+		}
+	}
+	/**
+	 * Builds the key filter out of every key that exists, replacing the current one. The keys are the ones the
+	 * loader lists if it's a CacheKeyLoaderPolicy - which must then list every key get() is called with,
+	 * secondary ones included. Otherwise, if the cache was fully initialized (FullInitializationPolicy), they
+	 * are the keys cached - as long as none was evicted, since the keys evicted would be lost.
+	 *
+	 * @return Whether the filter was rebuilt.
+	 */
+	public boolean rebuildKeyFilter() throws CacheException {
+		boolean listed = this.loaderPolicy instanceof CacheKeyLoaderPolicy;
+		long evictions = this.evictionCounter.get();
+		if (!this.canListKeys()) {
+			logger.warning("Unable to list every key of " + this.name + ": key filter not rebuilt");
+			return false;
+		}
+		//Keys admitted while we list them might be missing from the list.
+		final Queue<Object> admitted = new ConcurrentLinkedQueue<Object>();
+		this.admittedDuringRebuild = admitted;
+		try {
+			Collection<Object> keys = listed ? ((CacheKeyLoaderPolicy) this.loaderPolicy).fetchKeys() : this.keyIndex.keys();
+			//Room for as many new keys before it degrades.
+			final BloomFilter filter = new BloomFilter(Math.max(2L * keys.size(), 1024), this.keyFilterFalsePositiveRate);
+			for (Object key : keys) {
+				filter.put(key);
+			}
+			//Keys are admitted holding a key lock (see index() and forgetMissing()): none is admitted while we swap.
+			this.keyIndex.runExclusively(new Runnable() {
+				public void run() {
+					for (Object key : admitted) {
+						filter.put(key);
+					}
+					keyBloomFilter = filter;
+					admittedDuringRebuild = null;
+				}
+			});
+		} finally {
+			this.admittedDuringRebuild = null;
+		}
+		this.keyFilterEvictions = listed ? -1 : evictions;
+		this.keyFilterRebuildCounter.incrementAndGet();
+		return true;
+	}
+	private boolean canListKeys() {
+		return this.loaderPolicy instanceof CacheKeyLoaderPolicy || (this.initializerPolicy instanceof FullInitializationPolicy
+				&& (this.keyBloomFilter == null || this.keyFilterEvictions == this.evictionCounter.get()));
+	}
+	private void rebuildKeyFilterInBackground() {
+		if (this.canListKeys() && this.rebuildingKeyFilter.compareAndSet(false, true)) {
+			Thread rebuilder = new Thread("KeyFilterRebuild-" + this.name) {
+				public void run() {
+					try {
+						rebuildKeyFilter();
+					} catch (Exception e) {
+						logger.log(Level.WARNING, "Unable to rebuild the key filter of " + name, e);
+					} finally {
+						rebuildingKeyFilter.set(false);
+					}
+				}
+			};
+			rebuilder.setDaemon(true);
+			rebuilder.start();
+		}
+	}
+	protected void recordGroupChange(Object groupKey) {
+		long sequence = this.changeSequence.incrementAndGet();
+		if (!this.loadsInFlight.isEmpty()) {
+			this.groupChanges.put(groupKey, sequence);
+		}
+	}
+	/**
+	 * Forgets the changes older than every load still running.
+	 */
+	protected void purgeChanges() {
+		//With no load running, any load starting from now on gets a ticket newer than the current sequence.
+		long oldest = this.changeSequence.get();
+		try {
+			oldest = this.loadsInFlight.first();
+		} catch (NoSuchElementException ignored) {
+			//No load running.
+		}
+		for (Iterator<Long> iterator = this.keyChanges.values().iterator(); iterator.hasNext(); ) {
+			if (iterator.next() < oldest) {
+				iterator.remove();
+			}
+		}
+		for (Iterator<Long> iterator = this.groupChanges.values().iterator(); iterator.hasNext(); ) {
+			if (iterator.next() < oldest) {
+				iterator.remove();
+			}
+		}
 	}
 	/**
 	 * This method tries to find the requested group on the current collection of groups.
@@ -223,15 +799,20 @@ public class CacheManager implements CacheContract {
 	protected GroupCachedEntity getGroupUnconditional(Object groupKey) {
 		GroupCachedEntity group = (GroupCachedEntity) this.groups.get(groupKey);
 		if (group == null) {
-			group = new GroupCachedEntity();
-			group.setMaxIdleTime(this.getDefaultIdleTime());
-			group.setMaxTimeToLive(this.getDefaultTimeToLive());
-			group.setAtomicGroup(this.isAtomicGroup());
+			group = this.newGroup();
 			logger.finest("Adding group " + groupKey);
-			this.groups.put(groupKey, group);
+			GroupCachedEntity existing = (GroupCachedEntity) this.groups.putIfAbsent(groupKey, group);
+			if (existing != null) {
+				group = existing;
+			}
 		}
 		return group;
 	}
+	private GroupCachedEntity newGroup() {
+		GroupCachedEntity group = new GroupCachedEntity();
+		group.setAtomicGroup(this.isAtomicGroup());
+		return group;
+	}
 
 	/**
 	 * Every time an entity gets invalidated somewhere(deleted from persistence store, or not accessible any
@@ -251,18 +832,39 @@ public class CacheManager implements CacheContract {
 		} else {
 			aGroup = this.findGroupForEntity(entity.getCacheKey());
 		}
+		this.recordKeyChange(entity.getCacheKey());
 		if (aGroup != null) {//Group found invalidate it...
 			//if atomicGroup is true, invalidate the entire group.
 			if (aGroup.isAtomicGroup()) {
-				this.flushGroup(aGroup.getGroupKey());
+				this.removeGroup(aGroup.getGroupKey());
 			} else {
 				//otherwise invalidate the entity.
-				aGroup.remove(entity.getCacheKey());
+				this.removeEntry(entity.getCacheKey());
 			}
-			NotificationMessage nf = new NotificationMessage(NotificationMessage.INVALIDATION_MESSAGE, entity);
-			this.notifyCache(nf);
 		} //Group Not available any more, maybe invalidate elsewhere...
-
+		//Notify even if it's not cached here - other caches (on other JVMs) might be holding it.
+		this.notifyCache(NotificationType.INVALIDATE, entity, null, null, 0);
+	}
+	/**
+	 * Same as invalidate(Cacheable), for when only the key of the entity is known - for instance, when the
+	 * invalidation comes from a remote cache.
+	 *
+	 * @param cacheKey The key of the entity being invalidated.
+	 */
+	public void invalidateKey(Object cacheKey) {
+		logger.fine("Invalidating key: " + cacheKey);
+		//Loads in progress know the entity by its primary key:
+		Object primaryKey = this.keyIndex.getPrimaryKey(cacheKey);
+		this.recordKeyChange(primaryKey != null ? primaryKey : cacheKey);
+		GroupCachedEntity aGroup = this.findGroupForEntity(cacheKey);
+		if (aGroup != null) {
+			if (aGroup.isAtomicGroup()) {
+				this.removeGroup(aGroup.getGroupKey());
+			} else {
+				this.removeEntry(cacheKey);
+			}
+		}
+		this.notifyCache(NotificationType.INVALIDATE, null, cacheKey, null, 0);
 	}
 	/**
 	 * Every time an entity gets created or modified somewhere, the responsible class can call this method
@@ -279,25 +881,57 @@ public class CacheManager implements CacheContract {
 		} else {
 			aGroup = this.findGroupForEntity(entity.getCacheKey());
 		}
+		//Loads running right now might have read the old version of it:
+		this.recordKeyChange(entity.getCacheKey());
 		if (aGroup != null) {
 			//If atomicGroup is true, invalidate the entire group.
 			if (aGroup.isAtomicGroup()) {
-				//Have to refresh the Group out of the DB:
+				//Have to refresh the Group out of the DB. Readers keep getting the old group until the new one
+				//is swapped in, and loads of the old one already running won't be cached:
 				Object groupKey = aGroup.getGroupKey();
-				this.flushGroup(groupKey);
-				this.fetchByGroup(groupKey);
+				this.recordGroupChange(groupKey);
+				this.loadGroup(groupKey);
 			} else { //otherwise refresh the entity.
 				//aGroup.getCachedEntities().put(entity.getCacheKey(), entity);
 				this.register(entity);
 			}
-			NotificationMessage nf = new NotificationMessage(NotificationMessage.REFRESH_MESSAGE, entity);
-			this.notifyCache(nf);
+			this.notifyCache(NotificationType.REFRESH, entity, null, null, 0);
 		} else { //Registering a new entity...
 			this.register(entity);
-
+			//Other caches (on other JVMs) might be holding an old copy of it:
+			this.notifyCache(NotificationType.REFRESH, entity, null, null, 0);
 		}
 
 	}
+	/**
+	 * Writes the entity through the writer policy (if any) and caches it. With a write-through writer, the
+	 * entity is cached only if it was written.
+	 *
+	 * @param entity The entity created or modified.
+	 */
+	public void put(Cacheable entity) throws Exception {
+		logger.fine("Putting entity: " + entity.getCacheKey());
+		if (this.writerPolicy != null) {
+			this.writerPolicy.write(entity);
+		}
+		//Loads running right now might have read the old version of it:
+		this.recordKeyChange(entity.getCacheKey());
+		//Even in an atomic group: the group stays complete, no need to read it back from the storage.
+		this.register(entity);
+		this.notifyCache(NotificationType.REFRESH, entity, null, null, 0);
+	}
+	/**
+	 * Deletes the entity through the writer policy (if any) and invalidates it.
+	 *
+	 * @param cacheKey The key of the entity deleted.
+	 */
+	public void remove(Object cacheKey) throws Exception {
+		logger.fine("Removing key: " + cacheKey);
+		if (this.writerPolicy != null) {
+			this.writerPolicy.delete(cacheKey);
+		}
+		this.invalidateKey(cacheKey);
+	}
 	/**
 	 * Since Groups are a internal representation of data, sometimes we have to find which group a specific
 	 * instance belongs to.
@@ -306,15 +940,8 @@ public class CacheManager implements CacheContract {
 	 * @return The group that holds the cached entity represented by the key.
 	 */
 	protected GroupCachedEntity findGroupForEntity(Object cacheKey) {
-		//First implementation... first finding out on which group it exists...
-		//Maybe we need a better (faster approach...)
-		boolean found = false;
-		GroupCachedEntity aGroup = null;
-		for (Iterator iterator = this.groups.values().iterator(); iterator.hasNext() && !found;) {
-			aGroup = (GroupCachedEntity) iterator.next();
-			found = aGroup.get(cacheKey) != null;
-		}
-		return (found ? aGroup : null);
+		CachedEntity cached = this.keyIndex.get(cacheKey);
+		return cached == null ? null : (GroupCachedEntity) this.groups.get(groupKeyOf(cached));
 	}
 	/**
 	 * Read Method - This method is used when the user wants to extract one instance of a cached entity
@@ -324,39 +951,65 @@ public class CacheManager implements CacheContract {
 	 * @return An instance of the cached entity or null if none found.
 	 */
 	public Cacheable get(Object cacheKey) throws Exception {
-		logger.fine("Reading object from cache: (" + cacheKey + ")");
-		logger.finest("cache class: " + cacheKey.getClass().getName());
+		//get() is the hot path: avoid building log messages nobody will read.
+		if (logger.isLoggable(Level.FINE)) {
+			logger.fine("Reading object from cache: (" + cacheKey + ")");
+			logger.finest("cache class: " + cacheKey.getClass().getName());
+		}
+		if (this.isFilteredOut(cacheKey)) { //Doesn't exist: no need to look for it.
+			this.negativeHitCounter.incrementAndGet();
+			return null;
+		}
 		//Try to get the entity out of the cached entities...
-		GroupCachedEntity aGroup = this.findGroupForEntity(cacheKey); //IF entity not foud, returns NULL!
-		if (aGroup != null) { //If available, great.. It's a hit.
+		CachedEntity cachedEntity = this.keyIndex.get(cacheKey); //IF entity not foud, returns NULL!
+		Cacheable entity = cachedEntity == null ? null : cachedEntity.getEntity();
+		if (cachedEntity != null && entity == null) { //Reclaimed by the garbage collector: it's gone.
+			this.evictCollected(cachedEntity);
+		}
+		if (entity != null && this.expiryPolicy != null && !this.expireAfterRead(cachedEntity, entity)) {
+			entity = null; //Its time is up: load it again.
+		}
+		if (entity != null) { //If available, great.. It's a hit.
 			logger.finest("CacheManager::It's a Hit!!!");
 			this.hitCounter++;
-			CachedEntity cachedEntity = aGroup.get(cacheKey);
-			aGroup.hit();
-			cachedEntity.hit();
-			NotificationMessage nf = new NotificationMessage(NotificationMessage.CACHE_HIT_INSTANCE, cacheKey);
-			this.notifyCache(nf);
-			return cachedEntity.getEntity();
+			int now = this.currentSeconds();
+			GroupCachedEntity aGroup = (GroupCachedEntity) this.groups.get(groupKeyOf(cachedEntity));
+			if (aGroup != null) {
+				aGroup.hit(now);
+			}
+			cachedEntity.hit(now);
+			this.notifyCache(NotificationType.HIT_INSTANCE, null, cacheKey, null, 0);
+			return entity;
+		} else if (this.isKnownMissing(cacheKey)) { //Not in the DB either, as far as we know.
+			this.negativeHitCounter.incrementAndGet();
+			return null;
 		} else { //Otherwise it's a miss... Go fetch it from the DB.
 			logger.finest("CacheManager::Ooops! It's a Miss");
 			this.missCounter++;
+			long start = System.nanoTime();
 			Cacheable result = this.fetchEntity(cacheKey);
 			if (result instanceof GroupCacheable && this.isAtomicGroup()) {
 				this.fetchByGroup(((GroupCacheable) result).getGroupKey());
 			}
-			NotificationMessage nf = new NotificationMessage(NotificationMessage.CACHE_MISS_INSTANCE, cacheKey);
-			this.notifyCache(nf);
+			this.notifyCache(NotificationType.MISS_INSTANCE, result, cacheKey, null, System.nanoTime() - start);
 			return result;
 		}
 	}
 
 	public Cacheable peek(Object cacheKey) throws Exception {
-		logger.fine("Peeking object from cache: (" + cacheKey + ")");
-		logger.finest("cache class: " + cacheKey.getClass().getName());
+		if (logger.isLoggable(Level.FINE)) {
+			logger.fine("Peeking object from cache: (" + cacheKey + ")");
+			logger.finest("cache class: " + cacheKey.getClass().getName());
+		}
+		if (this.isFilteredOut(cacheKey)) {
+			return null;
+		}
 		//Try to get the entity out of the cached entities...
-		GroupCachedEntity aGroup = this.findGroupForEntity(cacheKey);
-		if (aGroup != null) { //If available, great.. It's a hit.
-			CachedEntity cachedEntity = aGroup.get(cacheKey);
+		CachedEntity cachedEntity = this.keyIndex.get(cacheKey);
+		if (cachedEntity != null) { //If available, great.. It's a hit.
+			if (this.expiryPolicy != null && cachedEntity.isExpired(this.ticker.read())) {
+				return null;
+			}
 			return cachedEntity.getEntity();
 		} else { //Otherwise it's a miss... peek returns NULL
 			return null;
@@ -379,22 +1032,25 @@ public class CacheManager implements CacheContract {
 		GroupCachedEntity aGroup = (GroupCachedEntity) this.groups.get(groupKey);
 		if (aGroup != null) { //If available, great... It's a hit
 			logger.finest("CacheManager::It's a Hit!!!");
-			aGroup.hit();
-			//Extract all Cacheable Entities out of the group and retrieve them
-			NotificationMessage nf = new NotificationMessage(NotificationMessage.CACHE_HIT_GROUP);
-			nf.setGroupKey(groupKey);
-			this.notifyCache(nf);
-			return aGroup.extractEntities();
+			this.hitCounter++;
+			this.notifyCache(NotificationType.HIT_GROUP, null, null, groupKey, 0);
+			return this.readGroup(aGroup);
 		} else { //Otherwise it's a miss. Go fetch it from the DB.
 			logger.finest("CacheManager::Ooops! It's a Miss");
 			this.missCounter++;
-			Collection<Cacheable> result = this.fetchByGroup(groupKey);
-			NotificationMessage nf = new NotificationMessage(NotificationMessage.CACHE_MISS_GROUP);
-			nf.setGroupKey(groupKey);
-			this.notifyCache(nf);
+			long start = System.nanoTime();
+			Collection<Cacheable> result = this.loadGroupOnce(groupKey);
+			this.notifyCache(NotificationType.MISS_GROUP, null, null, groupKey, System.nanoTime() - start);
 			return result;
 		}
 	}
+	/**
+	 * Extracts all Cacheable entities out of a cached group (a read-only view of them, with readOnlyViews).
+	 */
+	Collection<Cacheable> readGroup(GroupCachedEntity aGroup) {
+		aGroup.hit(this.currentSeconds());
+		return this.readOnlyViews ? aGroup.entitiesView(this.currentTimeMillis()) : aGroup.extractEntities(this.currentSeconds());
+	}
 	/**
 	 * This method is used only when the CacheManager is using the Default Group.
 	 * By no means we'll expose all groups at once, since this will restrict on how we implement it.
@@ -408,22 +1064,88 @@ public class CacheManager implements CacheContract {
 			if (aGroup != null) { //If available, great... It's a hit
 				logger.finest("CacheManager::It's a Hit!!!");
 				this.hitCounter++;
-				aGroup.hit();
-				NotificationMessage nf = new NotificationMessage(NotificationMessage.CACHE_HIT_ALL);
-				this.notifyCache(nf);
-				//Extract all Cacheable Entities out of the group and retrieve them
-				return aGroup.extractEntities();
+				this.notifyCache(NotificationType.HIT_ALL, null, null, null, 0);
+				return this.readGroup(aGroup);
 			} else { //Otherwise it's a miss. Go fetch it from the DB. ONLY if is not grouped
 				logger.finest("CacheManager::Ooops! It's a Miss");
 				this.missCounter++;
+				long start = System.nanoTime();
 				Collection<Cacheable> result = this.fetchAll();
-				NotificationMessage nf = new NotificationMessage(NotificationMessage.CACHE_MISS_ALL);
-				this.notifyCache(nf);
+				this.notifyCache(NotificationType.MISS_ALL, null, null, null, System.nanoTime() - start);
 				return result;
 			}
 		}
 		return null;
 	}
+	/**
+	 * Scans the cached entities of every group, without copying them and without blocking writers - for
+	 * bulk exports and analytics over large caches. The scan is weakly consistent: entities registered or
+	 * removed while it runs may or may not be seen. It only sees what is cached (it never goes to the
+	 * persistence storage) and it doesn't count as hits.
+	 *
+	 * @return A sequential Stream of the cached entities.
+	 */
+	public Stream<Cacheable> stream() {
+		return StreamSupport.stream(CacheSpliterator.over(this.groups.values(), this.keyIndex.getPrimaryKeyCount()), false);
+	}
+	/**
+	 * Same as stream(), but parallel: the groups, and the entries of large groups, are split among the
+	 * workers of the common ForkJoinPool.
+	 *
+	 * @return A parallel Stream of the cached entities.
+	 */
+	public Stream<Cacheable> parallelStream() {
+		return StreamSupport.stream(CacheSpliterator.over(this.groups.values(), this.keyIndex.getPrimaryKeyCount()), true);
+	}
+	/**
+	 * Scans the cached entities of a group. See stream().
+	 *
+	 * @param groupKey The group to be scanned.
+	 * @return A sequential Stream of the entities of the group - empty if the group is not cached.
+	 */
+	public Stream<Cacheable> stream(Object groupKey) {
+		GroupCachedEntity aGroup = (GroupCachedEntity) this.groups.get(groupKey);
+		if (aGroup == null) {
+			return Stream.empty();
+		}
+		return StreamSupport.stream(CacheSpliterator.over(aGroup), false);
+	}
+	/**
+	 * Finds the cached entities whose attribute has a value, through the AttributeIndex on that attribute.
+	 * Unlike getAll() and getByGroup() followed by a filter, it doesn't copy whole groups - but it only sees
+	 * what is cached: it never goes to the persistence storage.
+	 *
+	 * @param attribute The attribute (as named by its AttributeIndex).
+	 * @param value     The value looked for.
+	 * @return The cached entities with that value.
+	 * @throws CacheException If there's no index on the attribute.
+	 */
+	public Collection<Cacheable> query(String attribute, Object value) throws CacheException {
+		return this.indexOn(attribute).query(value);
+	}
+	/**
+	 * Finds the cached entities whose attribute is within a range, through the (sorted) AttributeIndex on that
+	 * attribute. See query(String, Object).
+	 *
+	 * @param from Lowest value (inclusive), or null for no lower bound.
+	 * @param to   Highest value (inclusive), or null for no upper bound.
+	 * @return The cached entities within the range, ordered by the attribute.
+	 * @throws CacheException If there's no sorted index on the attribute.
+	 */
+	public Collection<Cacheable> query(String attribute, Object from, Object to) throws CacheException {
+		AttributeIndex index = this.indexOn(attribute);
+		if (!index.isSorted()) {
+			throw new CacheException("Range query on an unsorted index: " + attribute + " - ", CacheException.ERROR_NO_INDEX);
+		}
+		return index.query(from, to);
+	}
+	private AttributeIndex indexOn(String attribute) throws CacheException {
+		AttributeIndex index = this.attributeIndexes.get(attribute);
+		if (index == null) {
+			throw new CacheException("No index on attribute " + attribute + " - ", CacheException.ERROR_NO_INDEX);
+		}
+		return index;
+	}
 
 	/**
 	 * This method flushes an entire Group of cached entities. This method can be called by any user that
@@ -437,7 +1159,70 @@ public class CacheManager implements CacheContract {
 	 */
 	public void flushGroup(Object groupKey) {
 		logger.info("Flushing group: " + groupKey);
-		this.groups.remove(groupKey);
+		this.removeGroup(groupKey);
+		this.notifyCache(NotificationType.FLUSH_GROUP, null, null, groupKey, 0);
+	}
+	/**
+	 * Internal removal of a group - as opposed to flushGroup, it does not notify anyone, since it's
+	 * part of a bigger operation (invalidate, refresh) which is notified on its own.
+	 */
+	protected void removeGroup(Object groupKey) {
+		this.recordGroupChange(groupKey);
+		this.unindex((GroupCachedEntity) this.groups.remove(groupKey));
+	}
+	/**
+	 * Drops the entities of a group (already removed from the groups) from the index.
+	 *
+	 * @return How many were dropped.
+	 */
+	private int unindex(GroupCachedEntity aGroup) {
+		int removed = 0;
+		if (aGroup != null) {
+			for (Iterator<CachedEntity> iterator = aGroup.iterator(); iterator.hasNext(); ) {
+				CachedEntity cached = iterator.next();
+				synchronized (this.keyIndex.lockFor(cached.getCacheKey())) {
+					if (this.unindex(cached)) {
+						removed++;
+					}
+				}
+			}
+		}
+		return removed;
+	}
+	/**
+	 * Drops an entity from the key and attribute indexes, if it's still the one indexed under its primary key.
+	 * Must be called holding keyIndex.lockFor() its key.
+	 */
+	private boolean unindex(CachedEntity cached) {
+		if (this.keyIndex.remove(cached)) {
+			this.unindexed(cached);
+			this.totalWeight.addAndGet(-this.weightOf(cached));
+			ExpirationWheel wheel = this.expirationWheel;
+			if (wheel != null) {
+				wheel.remove(cached);
+			}
+			for (AttributeIndex index : this.attributeIndexes.values()) {
+				index.remove(cached);
+			}
+			return true;
+		}
+		return false;
+	}
+	/**
+	 * Removes an expired (or otherwise unwanted) entity. Meant for the cleanup policies: no one is notified,
+	 * it's just not cached anymore.
+	 */
+	public void evict(CachedEntity cached) {
+		if (this.removeEntry(cached)) {
+			this.evictionCounter.incrementAndGet();
+		}
+	}
+	/**
+	 * Removes an entire group on behalf of the cleanup policies (for atomic groups, where one expired entity
+	 * expires all of them).
+	 */
+	public void evictGroup(Object groupKey) {
+		this.evictionCounter.addAndGet(this.unindex((GroupCachedEntity) this.groups.remove(groupKey)));
 	}
 	/**
 	 * This method removes all instances from the Cache. Again, if you refresh a specific entity or even
@@ -448,7 +1233,26 @@ public class CacheManager implements CacheContract {
 	 */
 	public void flushAll() {
 		logger.info("Flushing Cache...");
-		this.groups.clear();
+		this.lastFlushAll = this.changeSequence.incrementAndGet();
+		this.keyIndex.runExclusively(new Runnable() {
+			public void run() {
+				groups.clear();
+				keyIndex.clear();
+				totalWeight.set(0);
+				for (AttributeIndex index : attributeIndexes.values()) {
+					index.clear();
+				}
+			}
+		});
+		NegativeCache missing = this.negativeCache;
+		if (missing != null) {
+			missing.clear();
+		}
+		ExpirationWheel wheel = this.expirationWheel;
+		if (wheel != null) {
+			wheel.clear();
+		}
+		this.notifyCache(NotificationType.FLUSH_ALL, null, null, null, 0);
 	}
 
 	/**
@@ -480,13 +1284,130 @@ public class CacheManager implements CacheContract {
 	 */
 	protected Collection<Cacheable> fetchByGroup(Object groupKey) throws CacheException {
 		if (this.loaderPolicy instanceof CacheGroupLoaderPolicy) {
-			Collection<Cacheable> group = ((CacheGroupLoaderPolicy) this.loaderPolicy).fetchByGroup(groupKey);
-			//Cache all entities under the manager:
-			this.cacheEntities(group);
-			return group;
+			long ticket = this.beginLoad();
+			try {
+				Collection<Cacheable> group = ((CacheGroupLoaderPolicy) this.loaderPolicy).fetchByGroup(groupKey);
+				//Cache all entities under the manager:
+				this.cacheLoadedEntities(group, ticket);
+				return group;
+			} finally {
+				this.endLoad(ticket);
+			}
+		} else {
+			throw new CacheException("Invalid method call. Loader is not a GroupLoader", CacheException.ERROR_NOT_A_GROUP);
+		}
+	}
+
+	/**
+	 * Loads a group (see loadGroup()) - once, however many threads ask for it at the same time: the
+	 * others wait for the load in progress and get its result.
+	 */
+	protected Collection<Cacheable> loadGroupOnce(final Object groupKey) throws Exception {
+		FutureTask<Collection<Cacheable>> load = new FutureTask<Collection<Cacheable>>(new Callable<Collection<Cacheable>>() {
+			public Collection<Cacheable> call() throws Exception {
+				return loadGroup(groupKey);
+			}
+		});
+		FutureTask<Collection<Cacheable>> running = this.groupLoads.putIfAbsent(groupKey, load);
+		if (running == null) {
+			try {
+				load.run();
+			} finally {
+				this.groupLoads.remove(groupKey, load);
+			}
+			running = load;
 		} else {
+			this.sharedGroupLoadCounter.incrementAndGet();
+		}
+		try {
+			return running.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception) {
+				throw (Exception) e.getCause();
+			}
+			throw (Error) e.getCause();
+		}
+	}
+	/**
+	 * Reads a group from the persistence storage and builds a new group off to the side, then swaps it in for
+	 * the cached one at once: readers see either the old group or the whole new one, never a partial or
+	 * missing group.
+	 */
+	protected Collection<Cacheable> loadGroup(Object groupKey) throws CacheException {
+		if (!(this.loaderPolicy instanceof CacheGroupLoaderPolicy)) {
 			throw new CacheException("Invalid method call. Loader is not a GroupLoader", CacheException.ERROR_NOT_A_GROUP);
 		}
+		long ticket = this.beginLoad();
+		try {
+			Collection<Cacheable> group = ((CacheGroupLoaderPolicy) this.loaderPolicy).fetchByGroup(groupKey);
+			if (group != null) {
+				this.publishGroup(groupKey, group, ticket);
+			}
+			return group;
+		} finally {
+			this.endLoad(ticket);
+		}
+	}
+	void publishGroup(final Object groupKey, Collection<Cacheable> entities, final long ticket) throws CacheException {
+		final GroupCachedEntity newGroup = this.newGroup();
+		for (Cacheable entity : entities) {
+			if (!this.isCachedHere(entity.getCacheKey())) {
+				continue;
+			}
+			if (groupKeyOf(entity).equals(groupKey)) {
+				CachedEntity cached = this.newCachedEntity(entity, ticket);
+				if (this.expiryPolicy != null) { //Same as store(): the wheel is told once the group is swapped in.
+					this.expireAfterWrite(cached, entity);
+				}
+				newGroup.addCachedEntity(cached);
+			} else { //The loader handed back an entity of another group: cache it there.
+				this.registerLoaded(entity, ticket);
+			}
+		}
+		final long loaded = newGroup.size();
+		this.keyIndex.runExclusively(new Runnable() {
+			public void run() {
+				if (isStale(ticket, null, groupKey)) {
+					newGroup.clear();
+					return;
+				}
+				for (Iterator<CachedEntity> iterator = newGroup.iterator(); iterator.hasNext(); ) {
+					CachedEntity cached = iterator.next();
+					if (isStale(ticket, cached.getCacheKey(), groupKey)) {
+						iterator.remove();
+					}
+				}
+				GroupCachedEntity oldGroup = (GroupCachedEntity) groups.put(groupKey, newGroup);
+				for (Iterator<CachedEntity> iterator = newGroup.iterator(); iterator.hasNext(); ) {
+					CachedEntity cached = iterator.next();
+					index(cached, groupKey);
+					schedule(cached, cached.getExpiresAt());
+				}
+				if (oldGroup != null) {
+					//Entries the new group replaced are not indexed anymore; this drops the ones it doesn't have.
+					for (Iterator<CachedEntity> iterator = oldGroup.iterator(); iterator.hasNext(); ) {
+						unindex(iterator.next());
+					}
+				}
+			}
+		});
+		if (newGroup.size() < loaded) {
+			logger.fine("Not caching " + (loaded - newGroup.size()) + " stale entities of group " + groupKey + ": they changed while being loaded");
+			this.discardedLoadCounter.addAndGet(loaded - newGroup.size());
+		}
+		for (Iterator<CachedEntity> iterator = newGroup.iterator(); iterator.hasNext(); ) {
+			Cacheable entity = iterator.next().getEntity();
+			if (entity != null) {
+				this.notifyCache(NotificationType.REGISTER, entity, null, null, 0);
+			}
+		}
+	}
+	/**
+	 * Whether entities with this key are cached by this manager when their group is loaded. Always, unless
+	 * the manager holds only some keys (see PartitionedCacheManager).
+	 */
+	protected boolean isCachedHere(Object cacheKey) {
+		return true;
 	}
 
 	/**
@@ -497,12 +1418,26 @@ public class CacheManager implements CacheContract {
 	 * @return An instance of a cached entity.
 	 */
 	protected Cacheable fetchEntity(Object cacheKey) throws CacheException {
-		Cacheable entity = this.loaderPolicy.fetchEntity(cacheKey);
-		//Cache the entity under the manager:
-		if (entity != null) {
-			this.register(entity);
+		long ticket = this.beginLoad();
+		try {
+			Cacheable entity;
+			WriteBehindCacheWriterPolicy.PendingWrite pending = this.writerPolicy instanceof WriteBehindCacheWriterPolicy ?
+			                                                    ((WriteBehindCacheWriterPolicy) this.writerPolicy).getPending(cacheKey) : null;
+			if (pending != null) { //The storage doesn't have it yet.
+				entity = pending.getEntity();
+			} else {
+				entity = this.loaderPolicy.fetchEntity(cacheKey);
+			}
+			//Cache the entity under the manager:
+			if (entity != null) {
+				this.registerLoaded(entity, ticket);
+			} else {
+				this.rememberMissing(cacheKey, ticket);
+			}
+			return entity;
+		} finally {
+			this.endLoad(ticket);
 		}
-		return entity;
 	}
 
 	/**
@@ -512,10 +1447,15 @@ public class CacheManager implements CacheContract {
 	 * @return A Collection of entities to be cached by this manager.
 	 */
 	protected Collection<Cacheable> fetchAll() throws Exception {
-		Collection<Cacheable> entities = this.loaderPolicy.fetchAll();
-		//Cache all entities under the manager;
-		this.cacheEntities(entities);
-		return entities;
+		long ticket = this.beginLoad();
+		try {
+			Collection<Cacheable> entities = this.loaderPolicy.fetchAll();
+			//Cache all entities under the manager;
+			this.cacheLoadedEntities(entities, ticket);
+			return entities;
+		} finally {
+			this.endLoad(ticket);
+		}
 	}
 
 	/**
@@ -528,6 +1468,15 @@ public class CacheManager implements CacheContract {
 	 * </UL>
 	 */
 	protected void init() throws Exception {
+		if (this.notifierPolicy instanceof CacheManagerAware) {
+			((CacheManagerAware) this.notifierPolicy).setCacheManager(this);
+		}
+		if (this.loaderPolicy instanceof CacheManagerAware) {
+			((CacheManagerAware) this.loaderPolicy).setCacheManager(this);
+		}
+		if (this.writerPolicy instanceof CacheManagerAware) {
+			((CacheManagerAware) this.writerPolicy).setCacheManager(this);
+		}
         if (getDefaultIdleTime() > 0 && getDefaultTimeToLive() > 0) {
             addCleanupPolicy(new ExpiredCleanupPolicy());
         } else if (getDefaultIdleTime() > 0) {
@@ -535,20 +1484,57 @@ public class CacheManager implements CacheContract {
         } else if (getDefaultTimeToLive() > 0) {
             addCleanupPolicy(new TimeToLiveCleanupPolicy());
         }
+        if (this.expiryPolicy != null && !this.hasCleanupPolicy(ExpiryCleanupPolicy.class)) {
+            addCleanupPolicy(new ExpiryCleanupPolicy());
+        }
         //Make sure we DO have an initializerPolicy!
 		if (this.initializerPolicy != null) {
 			Collection<Cacheable> entities = this.initializerPolicy.init(this.loaderPolicy);
 			//Cache all entities under the manager:
 			this.cacheEntities(entities);
 		}
+		if (this.keyFilter) {
+			this.rebuildKeyFilter();
+		}
+		this.startCleanup();
+	}
+
+	/**
+	 * Has the cleanup policies run periodically, each on its own frequency: by the registry, if the cache is in
+	 * one, or by a thread per policy.
+	 */
+	protected void startCleanup() {
+        if (this.registry != null) {
+            //Cleaned up by the registry's shared scheduler.
+            this.registry.register(this);
+            return;
+        }
         for (CacheCleanupPolicy cp: this.getCleanupPolicies()) {
-            CacheCleanupThread aThread = new CacheCleanupThread(cp.getFrequency(), this);
-            this.childThreads.add(aThread);
+            CacheCleanupThread aThread = new CacheCleanupThread(TimeUnit.SECONDS.toMillis(frequencyOf(cp)), this, cp);
+            synchronized (this.childThreads) {
+                this.childThreads.add(aThread);
+            }
             aThread.start();
         }
 
     }
 
+	/**
+	 * @return How often (in seconds) the policy should run: its frequency, or AbstractCleanupPolicy.DEFAULT_FREQUENCY
+	 * if it has none.
+	 */
+	static int frequencyOf(CacheCleanupPolicy cleanupPolicy) {
+		return cleanupPolicy.getFrequency() > 0 ? cleanupPolicy.getFrequency() : AbstractCleanupPolicy.DEFAULT_FREQUENCY;
+	}
+	private boolean hasCleanupPolicy(Class<? extends CacheCleanupPolicy> type) {
+		for (CacheCleanupPolicy cleanupPolicy : this.getCleanupPolicies()) {
+			if (type.isInstance(cleanupPolicy)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
 	/**
 	 * Getter method for the name property.
 	 *
@@ -591,11 +1577,50 @@ public class CacheManager implements CacheContract {
 
 
         this.cleanupPolicies = newValue;
+		this.evictionPolicy = null;
+		for (CacheCleanupPolicy cleanupPolicy : newValue) {
+			this.useForEviction(cleanupPolicy);
+		}
 	}
 	public List<CacheCleanupPolicy> getCleanupPolicies() {
 		return this.cleanupPolicies;
 	}
 
+	/**
+	 * Setter method for the attribute indexes of this cache manager (see query()).
+	 *
+	 * @param newValue The indexes to be kept over the cached entities.
+	 */
+	public void setAttributeIndexes(List<AttributeIndex> newValue) {
+		this.attributeIndexes.clear();
+		for (AttributeIndex index : newValue) {
+			this.addAttributeIndex(index);
+		}
+	}
+	public Collection<AttributeIndex> getAttributeIndexes() {
+		return this.attributeIndexes.values();
+	}
+	/**
+	 * Adds an index on an attribute of the cached entities, indexing the entities already cached.
+	 *
+	 * @param index The index, replacing any other index on the same attribute.
+	 */
+	public void addAttributeIndex(AttributeIndex index) {
+		this.attributeIndexes.put(index.getAttribute(), index);
+		for (GroupCacheable group : this.groups.values()) {
+			for (Iterator<CachedEntity> iterator = ((GroupCachedEntity) group).iterator(); iterator.hasNext(); ) {
+				CachedEntity cached = iterator.next();
+				synchronized (this.keyIndex.lockFor(cached.getCacheKey())) {
+					//Entities registered meanwhile were already indexed, and removed ones must not be.
+					if (this.keyIndex.get(cached.getCacheKey()) == cached) {
+						index.remove(cached);
+						index.add(cached);
+					}
+				}
+			}
+		}
+	}
+
 	/**
 	 * Adds a new instance of a CacheCleanupPolicy concrete implementation to the existent list of
 	 * clean up policies assossiated with this cache manager.
@@ -604,6 +1629,12 @@ public class CacheManager implements CacheContract {
 	 */
 	public void addCleanupPolicy(CacheCleanupPolicy newValue) {
 		this.cleanupPolicies.add(newValue);
+		this.useForEviction(newValue);
+	}
+	private void useForEviction(CacheCleanupPolicy cleanupPolicy) {
+		if (this.evictionPolicy == null && cleanupPolicy instanceof EvictionCleanupPolicy) {
+			this.evictionPolicy = (EvictionCleanupPolicy) cleanupPolicy;
+		}
 	}
 	/**
 	 * Setter method for the Notifier policy to be used with this cache.
@@ -613,6 +1644,70 @@ public class CacheManager implements CacheContract {
 	public void setNotifierPolicy(CacheNotifierPolicy newValue) {
 		this.notifierPolicy = newValue;
 	}
+	/**
+	 * @return The current time as the cache sees it (see setTicker()), in milliseconds since 1970.
+	 */
+	public long currentTimeMillis() {
+		return this.originMillis + TimeUnit.NANOSECONDS.toMillis(this.ticker.read() - this.tickerOrigin);
+	}
+	/**
+	 * @return The current time as the entries keep it: seconds after CachedEntity.EPOCH.
+	 */
+	private int currentSeconds() {
+		return CachedEntity.toSeconds(this.currentTimeMillis());
+	}
+	public Ticker getTicker() {
+		return ticker;
+	}
+	/**
+	 * Setter method for the ticker property. Set it before anything is cached: the times already kept are
+	 * not converted.
+	 *
+	 * @param ticker Where the cache reads the time from (Ticker.SYSTEM by default, a FakeTicker in tests).
+	 */
+	public void setTicker(Ticker ticker) {
+		this.originMillis = this.currentTimeMillis();
+		this.tickerOrigin = ticker.read();
+		this.ticker = ticker;
+		this.resetNegativeCache();
+		if (this.expiryPolicy != null) {
+			this.expirationWheel = new ExpirationWheel(this.keyIndex, ticker.read());
+		}
+	}
+	public ExpiryPolicy getExpiryPolicy() {
+		return expiryPolicy;
+	}
+	/**
+	 * Setter method for the expiryPolicy property. Set it before the cache is initialized: the entries
+	 * already cached don't expire.
+	 *
+	 * @param expiryPolicy Decides how long each entry stays cached, or null for the defaults.
+	 */
+	public void setExpiryPolicy(ExpiryPolicy expiryPolicy) {
+		this.expiryPolicy = expiryPolicy;
+		this.expirationWheel = expiryPolicy == null ? null : new ExpirationWheel(this.keyIndex, this.ticker.read());
+	}
+	ExpirationWheel getExpirationWheel() {
+		return this.expirationWheel;
+	}
+	/**
+	 * @return Number of entries evicted because the ExpiryPolicy said their time was up.
+	 */
+	public long getExpiredCounter() {
+		return expiredCounter.get();
+	}
+	public CacheWriterPolicy getWriterPolicy() {
+		return writerPolicy;
+	}
+	/**
+	 * Setter method for the writerPolicy property: a CacheWriterPolicy to write through, or one wrapped by a
+	 * WriteBehindCacheWriterPolicy to write behind.
+	 *
+	 * @param writerPolicy The new value to be assigned to this property.
+	 */
+	public void setWriterPolicy(CacheWriterPolicy writerPolicy) {
+		this.writerPolicy = writerPolicy;
+	}
 	public CacheNotifierPolicy getNotifierPolicy() {
 		return this.notifierPolicy;
 	}
@@ -631,23 +1726,41 @@ public class CacheManager implements CacheContract {
 	/**
 	 * This method uses the list of CacheCleanup policies to delegate the cleanup mechanism of it's
 	 * associated entity caches.
+	 * No lock is held meanwhile: entries are evicted one by one (see evict()), and gets and registers go on
+	 * while the policies run. The expiration policies go through a bounded number of entries per call (see
+	 * IncrementalCleanupPolicy).
 	 */
 	public void cleanup() throws Exception {
+		this.purgeChanges();
+		this.drainCollected();
 		//Make sure we have something to cleanup
 		if (this.getSize() > 0) {
 			//Make sure we have some cleanup policies
 			if (this.cleanupPolicies != null && !this.cleanupPolicies.isEmpty()) {
                 for (CacheCleanupPolicy cleanupPolicy : this.cleanupPolicies) {
-                    try {
-                        lock.writeLock().lock();
-                        cleanupPolicy.cleanup(this);
-                    } catch (Exception e) {
-                        lock.writeLock().unlock();
-                    }
+                    this.runCleanupPolicy(cleanupPolicy);
                 }
 			}
 		}
 	}
+	/**
+	 * Same as cleanup(), for a single policy: what the cleanup threads (and the registry) run, each policy on
+	 * its own frequency, so a policy that runs every second doesn't have the others run as often.
+	 */
+	public void cleanup(CacheCleanupPolicy cleanupPolicy) throws Exception {
+		this.purgeChanges();
+		this.drainCollected();
+		if (this.getSize() > 0) {
+			this.runCleanupPolicy(cleanupPolicy);
+		}
+	}
+	private void runCleanupPolicy(CacheCleanupPolicy cleanupPolicy) {
+		try {
+			cleanupPolicy.cleanup(this);
+		} catch (Exception e) {
+			logger.log(Level.WARNING, "Cleanup policy " + cleanupPolicy.getClass().getName() + " failed", e);
+		}
+	}
 
 	/**
 	 * This method delegates a notification for the installed nofitier cache mechanism.
@@ -658,6 +1771,40 @@ public class CacheManager implements CacheContract {
 		}
 	}
 
+	/**
+	 * Publishes an event to the notifier policy using this thread's reusable message. Does nothing (and
+	 * allocates nothing) if there's no notifier policy installed.
+	 *
+	 * @param elapsedTime Time, in nanoseconds, spent loading the information for misses. 0 otherwise.
+	 */
+	protected void notifyCache(NotificationType type, Cacheable entity, Object key, Object groupKey, long elapsedTime) {
+		CacheNotifierPolicy notifier = this.notifierPolicy;
+		if (notifier != null) {
+			ThreadMessage threadMessage = this.notificationMessages.get();
+			if (threadMessage.inUse) {
+				//Published by a listener (reading the cache, say) while this thread's message is being delivered:
+				//reusing it would change the message the other listeners get.
+				notifier.notifyCache(new NotificationMessage().reset(type, this.name, entity, key, groupKey, elapsedTime));
+				return;
+			}
+			NotificationMessage nf = threadMessage.message.reset(type, this.name, entity, key, groupKey, elapsedTime);
+			threadMessage.inUse = true;
+			try {
+				notifier.notifyCache(nf);
+			} finally {
+				threadMessage.inUse = false;
+				nf.clear();
+			}
+		}
+	}
+	/**
+	 * The reusable message of a thread, and whether it's being delivered.
+	 */
+	private static final class ThreadMessage {
+		final NotificationMessage message = new NotificationMessage();
+		boolean inUse;
+	}
+
 	/**
 	 * Helper method to encapsulate possible cacheable entities on CachedEntities instances for
 	 * internal cache manipulation.
@@ -671,6 +1818,16 @@ public class CacheManager implements CacheContract {
             }
 		}
 	}
+	/**
+	 * Same as cacheEntities, for entities read by the load holding the given ticket. Stale ones are skipped.
+	 */
+	protected void cacheLoadedEntities(Collection<Cacheable> entities, long ticket) throws CacheException {
+		if (entities != null) {
+			for (Cacheable entity : entities) {
+				this.registerLoaded(entity, ticket);
+			}
+		}
+	}
 	/**
 	 * Getter method for the grouped property.
 	 */
@@ -685,6 +1842,17 @@ public class CacheManager implements CacheContract {
 	public void setGrouped(boolean newValue) {
 		this.grouped = newValue;
 	}
+	public boolean isReadOnlyViews() {
+		return this.readOnlyViews;
+	}
+	/**
+	 * Setter method for the readOnlyViews property.
+	 *
+	 * @param newValue Whether getByGroup() and getAll() return read-only views instead of copies.
+	 */
+	public void setReadOnlyViews(boolean newValue) {
+		this.readOnlyViews = newValue;
+	}
 	/**
 	 * Getter method for the highWaterMark property.
 	 */
@@ -727,6 +1895,97 @@ public class CacheManager implements CacheContract {
 	public void setLowWaterMark(long lowWaterMark) {
 		this.lowWaterMark = lowWaterMark;
 	}
+	public long getMaxWeight() {
+		return maxWeight;
+	}
+	/**
+	 * Setter method for the maxWeight property.
+	 *
+	 * @param maxWeight Hard limit for the weight of the cache, or 0 or less for none.
+	 */
+	public void setMaxWeight(long maxWeight) {
+		this.maxWeight = maxWeight;
+		this.enforceMaxWeight();
+	}
+	public long getWeightCap() {
+		return weightCap;
+	}
+	/**
+	 * Setter method for the weightCap property: a temporary limit under maxWeight, set by the
+	 * HeapPressureController. A registry rebalancing maxWeight doesn't lift it.
+	 *
+	 * @param weightCap Limit for the weight of the cache, or 0 or less for none.
+	 */
+	public void setWeightCap(long weightCap) {
+		this.weightCap = weightCap;
+		this.enforceMaxWeight();
+	}
+	/**
+	 * @return The limit the cache is held to: the lower of maxWeight and weightCap, or 0 or less for none.
+	 */
+	public long getEffectiveMaxWeight() {
+		long max = this.maxWeight;
+		long cap = this.weightCap;
+		if (cap <= 0) {
+			return max;
+		}
+		return max > 0 ? Math.min(max, cap) : cap;
+	}
+	public CacheRegistry getRegistry() {
+		return registry;
+	}
+	/**
+	 * Setter method for the registry property. A cache in a registry gets its maxWeight from the registry's
+	 * budget and has its cleanup run by the registry, instead of by threads of its own.
+	 *
+	 * @param registry The registry to join on init().
+	 */
+	public void setRegistry(CacheRegistry registry) {
+		this.registry = registry;
+	}
+	/**
+	 * Called by a registry this cache is added to: from now on the registry runs its cleanup, so the threads
+	 * of its own it may have started on init() are stopped.
+	 */
+	void joinRegistry(CacheRegistry registry) {
+		this.registry = registry;
+		synchronized (this.childThreads) {
+			for (CacheCleanupThread aThread : this.childThreads) {
+				aThread.halt();
+			}
+			this.childThreads.clear();
+		}
+	}
+	public ValueReference getValueReference() {
+		return valueReference;
+	}
+	/**
+	 * Setter method for the valueReference property. Set it before anything is cached.
+	 *
+	 * @param valueReference STRONG (the default), SOFT or WEAK.
+	 */
+	public void setValueReference(ValueReference valueReference) {
+		this.valueReference = valueReference;
+	}
+	/**
+	 * @return How many entries were removed because the garbage collector reclaimed their entities (they are
+	 * counted as evictions too).
+	 */
+	public long getCollectedCounter() {
+		return this.collectedCounter.get();
+	}
+	public Weigher getWeigher() {
+		return weigher;
+	}
+	/**
+	 * Setter method for the weigher. Set it before anything is cached: an entity is weighed once, when it's
+	 * cached, and its entry keeps that weight until it's removed - even if the entity changes in place.
+	 *
+	 * @param weigher Gives the weight of each entity, or null to count entries.
+	 */
+	public void setWeigher(Weigher weigher) {
+		this.weigher = weigher;
+	}
 	/**
 	 * Getter method for the distributable property.
 	 */
@@ -809,6 +2068,18 @@ public class CacheManager implements CacheContract {
 	public long getHitCounter() {
 		return this.hitCounter;
 	}
+	/**
+	 * @return How many loads were not cached because the information changed while it was being loaded.
+	 */
+	public long getDiscardedLoadCounter() {
+		return this.discardedLoadCounter.get();
+	}
+	/**
+	 * @return How many group misses waited for a load of the same group already in progress.
+	 */
+	public long getSharedGroupLoadCounter() {
+		return this.sharedGroupLoadCounter.get();
+	}
 	/**
 	 * Calculates the ratio of hits and misses (evaluate how well the cache is performing...)
 	 * a value closer to 0 means that the cache is going very frequent to the persistence storage for the
@@ -828,13 +2099,96 @@ public class CacheManager implements CacheContract {
 	}
 
 	public long getSize() throws Exception {
-		long result = 0;
-		if (this.groups != null && !this.groups.isEmpty()) {
-            for (GroupCacheable groupCacheable : this.groups.values()) {
-                result += groupCacheable.size();
-            }
+		return this.keyIndex.getPrimaryKeyCount();
+	}
+	/**
+	 * @return Total weight of the cached entities (see Weigher) - their number if there's no weigher.
+	 */
+	public long getWeight() {
+		return this.totalWeight.get();
+	}
+	/**
+	 * @return Number of entities and weight of the cache, taken together.
+	 */
+	public CacheSize getSizeInfo() {
+		return new CacheSize(this.keyIndex.getPrimaryKeyCount(), this.totalWeight.get(), this.getEffectiveMaxWeight());
+	}
+	/**
+	 * @return Number of secondary keys (see CompoundKeyCacheable) the cached entities can be found by.
+	 */
+	public long getSecondaryKeyCount() {
+		return this.keyIndex.getSecondaryKeyCount();
+	}
+	/**
+	 * @return Number of entities removed by the cleanup policies.
+	 */
+	public long getEvictionCounter() {
+		return this.evictionCounter.get();
+	}
+	/**
+	 * @return Number of get() answered with null because the key is known not to exist (neither hits nor misses).
+	 */
+	public long getNegativeHitCounter() {
+		return this.negativeHitCounter.get();
+	}
+	/**
+	 * @return Number of keys the negative cache holds.
+	 */
+	public int getNegativeCacheCount() {
+		NegativeCache missing = this.negativeCache;
+		return missing == null ? 0 : missing.size();
+	}
+	public int getNegativeCacheSize() {
+		return negativeCacheSize;
+	}
+	/**
+	 * Setter method for the negativeCacheSize property. Clears the negative cache.
+	 *
+	 * @param negativeCacheSize Maximum number of keys remembered as missing, or 0 to remember none.
+	 */
+	public void setNegativeCacheSize(int negativeCacheSize) {
+		this.negativeCacheSize = negativeCacheSize;
+		this.resetNegativeCache();
+	}
+	public long getNegativeTimeToLive() {
+		return negativeTimeToLive;
+	}
+	/**
+	 * Setter method for the negativeTimeToLive property. Clears the negative cache.
+	 *
+	 * @param negativeTimeToLive Time, in seconds, a key is remembered as missing.
+	 */
+	public void setNegativeTimeToLive(long negativeTimeToLive) {
+		this.negativeTimeToLive = negativeTimeToLive;
+		this.resetNegativeCache();
+	}
+	private void resetNegativeCache() {
+		this.negativeCache = this.negativeCacheSize > 0 ? new NegativeCache(this.negativeCacheSize, TimeUnit.SECONDS.toNanos(this.negativeTimeToLive), this.ticker) : null;
+	}
+	public boolean isKeyFilter() {
+		return keyFilter;
+	}
+	/**
+	 * Setter method for the keyFilter property. The filter is built on init(); the loader must implement
+	 * CacheKeyLoaderPolicy, or the initializer must be a FullInitializationPolicy.
+	 */
+	public void setKeyFilter(boolean keyFilter) {
+		this.keyFilter = keyFilter;
+		if (!keyFilter) {
+			this.keyBloomFilter = null;
 		}
-		return result;
+	}
+	/**
+	 * @return How many times the key filter was built.
+	 */
+	public long getKeyFilterRebuildCounter() {
+		return this.keyFilterRebuildCounter.get();
+	}
+	public double getKeyFilterFalsePositiveRate() {
+		return keyFilterFalsePositiveRate;
+	}
+	public void setKeyFilterFalsePositiveRate(double keyFilterFalsePositiveRate) {
+		this.keyFilterFalsePositiveRate = keyFilterFalsePositiveRate;
 	}
 
 	/**
@@ -847,17 +2201,22 @@ public class CacheManager implements CacheContract {
 		return this.groups;
 	}
 
+	/**
+	 * @param cacheKey A primary or secondary key.
+	 * @return Whether an entity is cached under the key.
+	 */
+	boolean isIndexed(Object cacheKey) {
+		return this.keyIndex.get(cacheKey) != null;
+	}
 	 void setMaxIdleTime(Object key, long newValue) {
-		GroupCachedEntity aGroup = this.findGroupForEntity(key);
-		if (aGroup != null) { //If available, great.. It's a hit.
-			CachedEntity cachedEntity = aGroup.get(key);
+		CachedEntity cachedEntity = this.keyIndex.get(key);
+		if (cachedEntity != null) { //If available, great.. It's a hit.
 			cachedEntity.setMaxIdleTime(newValue);
 		}
 	}
 	 void setMaxTimeToLive(Object key, long newValue) {
-		GroupCachedEntity aGroup = this.findGroupForEntity(key);
-		if (aGroup != null) { //If available, great.. It's a hit.
-			CachedEntity cachedEntity = aGroup.get(key);
+		CachedEntity cachedEntity = this.keyIndex.get(key);
+		if (cachedEntity != null) { //If available, great.. It's a hit.
 			cachedEntity.setMaxTimeToLive(newValue);
 		}
 	}
@@ -0,0 +1,10 @@
+package com.msc.cache;
+
+/**
+ * Policies that need a reference back to the CacheManager they are plugged into (for instance to apply
+ * notifications received from remote caches) implement this interface. The CacheManager hands itself
+ * over during init().
+ */
+public interface CacheManagerAware {
+	public void setCacheManager(CacheManager cacheManager);
+}
@@ -0,0 +1,409 @@
+package com.msc.cache;
+
+import com.msc.cache.cleanup.CacheCleanupPolicy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <P>Keeps track of the CacheManagers of a JVM, so they can be run together instead of one by one:</P>
+ * <UL>
+ * <LI>Their cleanup runs on one shared scheduler of maintenanceThreads threads, instead of a thread per
+ * cleanup policy of every cache (see CacheManager.setRegistry()). Each policy runs on its own frequency.</LI>
+ * <LI>If a budget is set, they share it: each cache gets an allocation of it as its maxWeight (in the units
+ * of its weigher - entries, without one). Every rebalanceInterval milliseconds, a step of the budget moves from
+ * the cache that would lose the fewest hits to the cache that would gain the most, if it gains more than the
+ * other loses. The gain of a cache is its misses since the last rebalance per unit of its allocation, counted
+ * only if it's using its allocation up (more room would turn some of those misses into hits). The loss is its
+ * hits per unit of weight - none, if it doesn't use its allocation up. A cap a HeapPressureController puts on
+ * a cache holds whatever its allocation (see CacheManager.setWeightCap()).</LI>
+ * <LI>Their aggregated metrics (see CacheRegistryMBean).</LI>
+ * </UL>
+ *
+ * <P>Registering a cache gives it an even share of the budget, taken from the other caches in proportion to
+ * their allocations. Unregistering it gives its allocation back to the others.</P>
+ */
+public class CacheRegistry implements CacheRegistryMBean {
+    private static final Logger logger = Logger.getLogger(CacheRegistry.class.getName());
+
+    private final List<CacheManager> caches = new CopyOnWriteArrayList<CacheManager>();
+    /** Total weight shared by the caches, or -1 if they keep their own maxWeight. */
+    private long budget = -1;
+    /** Fraction of the budget moved per rebalance. */
+    private double rebalanceStep = 0.05;
+    /** Time (in milliseconds) between rebalances. */
+    private long rebalanceInterval = 10000;
+    /** Time (in milliseconds) between runs of the cleanup policies that have no frequency. */
+    private long maintenanceInterval = 60000;
+    private int maintenanceThreads = 2;
+
+    /** Guarded by this. */
+    private final Map<CacheManager, Allocation> allocations = new IdentityHashMap<CacheManager, Allocation>();
+    private final Map<CacheManager, List<ScheduledFuture<?>>> cleanups = new IdentityHashMap<CacheManager, List<ScheduledFuture<?>>>();
+    private ScheduledExecutorService scheduler;
+
+    public CacheRegistry() {
+    }
+
+    /**
+     * Starts the shared scheduler. Caches registered from now on are cleaned up by it.
+     */
+    public synchronized void init() {
+        if (this.scheduler != null) {
+            return;
+        }
+        final AtomicInteger count = new AtomicInteger();
+        this.scheduler = new ScheduledThreadPoolExecutor(this.maintenanceThreads, new ThreadFactory() {
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, "CacheRegistry-maintenance-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        for (CacheManager cache : this.caches) {
+            this.scheduleCleanup(cache);
+        }
+        if (this.budget > 0 && this.rebalanceInterval > 0) {
+            this.scheduler.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    try {
+                        rebalance();
+                    } catch (RuntimeException e) {
+                        logger.log(Level.WARNING, "Unable to rebalance the caches", e);
+                    }
+                }
+            }, this.rebalanceInterval, this.rebalanceInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stops the shared scheduler. The caches keep their current maxWeight.
+     */
+    public synchronized void shutdown() {
+        if (this.scheduler != null) {
+            this.scheduler.shutdownNow();
+            this.scheduler = null;
+            this.cleanups.clear();
+        }
+    }
+
+    /**
+     * Adds a cache to the registry: its cleanup is scheduled (instead of run by threads of its own) and, if
+     * there's a budget, it gets its share.
+     */
+    public synchronized void register(CacheManager cache) {
+        if (this.allocations.containsKey(cache)) {
+            return;
+        }
+        cache.joinRegistry(this);
+        this.caches.add(cache);
+        this.allocations.put(cache, new Allocation(cache));
+        if (this.budget > 0) {
+            Allocation newcomer = this.allocations.get(cache);
+            int count = this.allocations.size();
+            for (Allocation allocation : this.allocations.values()) {
+                if (allocation != newcomer) {
+                    allocation.weight -= allocation.weight / count;
+                    allocation.apply();
+                }
+            }
+            newcomer.weight = this.unallocated();
+            newcomer.apply();
+        }
+        if (this.scheduler != null) {
+            this.scheduleCleanup(cache);
+        }
+    }
+
+    public synchronized void unregister(CacheManager cache) {
+        Allocation removed = this.allocations.remove(cache);
+        if (removed == null) {
+            return;
+        }
+        this.caches.remove(cache);
+        List<ScheduledFuture<?>> cleanups = this.cleanups.remove(cache);
+        if (cleanups != null) {
+            for (ScheduledFuture<?> cleanup : cleanups) {
+                cleanup.cancel(false);
+            }
+        }
+        if (this.budget > 0 && !this.allocations.isEmpty()) {
+            long each = removed.weight / this.allocations.size();
+            for (Allocation allocation : this.allocations.values()) {
+                allocation.weight += each;
+            }
+            this.allocations.values().iterator().next().weight += this.unallocated();
+            for (Allocation allocation : this.allocations.values()) {
+                allocation.apply();
+            }
+        }
+    }
+
+    private long unallocated() {
+        long allocated = 0;
+        for (Allocation allocation : this.allocations.values()) {
+            allocated += allocation.weight;
+        }
+        return this.budget - allocated;
+    }
+
+    /**
+     * Schedules each cleanup policy of the cache on its own frequency.
+     */
+    private void scheduleCleanup(final CacheManager cache) {
+        List<ScheduledFuture<?>> scheduled = new ArrayList<ScheduledFuture<?>>();
+        for (final CacheCleanupPolicy policy : cache.getCleanupPolicies()) {
+            long interval = policy.getFrequency() > 0 ? TimeUnit.SECONDS.toMillis(policy.getFrequency()) : this.maintenanceInterval;
+            scheduled.add(this.scheduler.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    try {
+                        cache.cleanup(policy);
+                    } catch (Exception e) {
+                        logger.log(Level.WARNING, "Cleanup of " + cache.getName() + " failed", e);
+                    }
+                }
+            }, interval, interval, TimeUnit.MILLISECONDS));
+        }
+        if (!scheduled.isEmpty()) {
+            this.cleanups.put(cache, scheduled);
+        }
+    }
+
+    /**
+     * Moves a step of the budget from the cache that would lose the fewest hits to the one that would gain
+     * the most, if it's worth it.
+     *
+     * @return Whether some budget moved.
+     */
+    public synchronized boolean rebalance() {
+        if (this.budget <= 0 || this.allocations.size() < 2) {
+            return false;
+        }
+        Allocation receiver = null;
+        double bestGain = 0;
+        Allocation donor = null;
+        double leastLoss = Double.MAX_VALUE;
+        for (Allocation allocation : this.allocations.values()) {
+            allocation.sample();
+            if (allocation.isFull() && allocation.gain() > bestGain) {
+                receiver = allocation;
+                bestGain = allocation.gain();
+            }
+        }
+        long step = Math.max(1, (long) (this.budget * this.rebalanceStep));
+        for (Allocation allocation : this.allocations.values()) {
+            if (allocation != receiver && allocation.weight > 1 && allocation.loss() < leastLoss) {
+                donor = allocation;
+                leastLoss = allocation.loss();
+            }
+        }
+        if (receiver == null || donor == null || bestGain <= leastLoss) {
+            return false;
+        }
+        long moved = Math.min(step, donor.weight - 1);
+        donor.weight -= moved;
+        receiver.weight += moved;
+        donor.apply();
+        receiver.apply();
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("Moved " + moved + " from " + donor.cache.getName() + " to " + receiver.cache.getName());
+        }
+        return true;
+    }
+
+    /**
+     * @return The registered cache with that name, or null.
+     */
+    public CacheManager getCache(String name) {
+        for (CacheManager cache : this.caches) {
+            if (name.equals(cache.getName())) {
+                return cache;
+            }
+        }
+        return null;
+    }
+
+    public List<CacheManager> getCaches() {
+        return Collections.unmodifiableList(new ArrayList<CacheManager>(this.caches));
+    }
+
+    /**
+     * Registers every cache of the list (see register()).
+     */
+    public void setCaches(List<CacheManager> caches) {
+        for (CacheManager cache : caches) {
+            this.register(cache);
+        }
+    }
+
+    /**
+     * @return The share of the budget the cache has, or -1 if it isn't registered or there's no budget.
+     */
+    public synchronized long getAllocation(CacheManager cache) {
+        Allocation allocation = this.allocations.get(cache);
+        return allocation == null || this.budget <= 0 ? -1 : allocation.weight;
+    }
+
+    public int getCacheCount() {
+        return this.caches.size();
+    }
+
+    public long getSize() {
+        long total = 0;
+        for (CacheManager cache : this.caches) {
+            total += cache.getSizeInfo().getCount();
+        }
+        return total;
+    }
+
+    public long getWeight() {
+        long total = 0;
+        for (CacheManager cache : this.caches) {
+            total += cache.getWeight();
+        }
+        return total;
+    }
+
+    public long getHitCounter() {
+        long total = 0;
+        for (CacheManager cache : this.caches) {
+            total += cache.getHitCounter();
+        }
+        return total;
+    }
+
+    public long getMissCounter() {
+        long total = 0;
+        for (CacheManager cache : this.caches) {
+            total += cache.getMissCounter();
+        }
+        return total;
+    }
+
+    public long getEvictionCounter() {
+        long total = 0;
+        for (CacheManager cache : this.caches) {
+            total += cache.getEvictionCounter();
+        }
+        return total;
+    }
+
+    public double getHitRatio() {
+        long hits = this.getHitCounter();
+        long requests = hits + this.getMissCounter();
+        return requests == 0 ? 0 : (double) hits / requests;
+    }
+
+    public long getBudget() {
+        return budget;
+    }
+
+    /**
+     * Setter method for the budget property. Set it before registering the caches.
+     *
+     * @param budget Total weight shared by the caches, or -1 for none.
+     */
+    public void setBudget(long budget) {
+        this.budget = budget;
+    }
+
+    public double getRebalanceStep() {
+        return rebalanceStep;
+    }
+
+    public void setRebalanceStep(double rebalanceStep) {
+        this.rebalanceStep = rebalanceStep;
+    }
+
+    public long getRebalanceInterval() {
+        return rebalanceInterval;
+    }
+
+    public void setRebalanceInterval(long rebalanceInterval) {
+        this.rebalanceInterval = rebalanceInterval;
+    }
+
+    public long getMaintenanceInterval() {
+        return maintenanceInterval;
+    }
+
+    public void setMaintenanceInterval(long maintenanceInterval) {
+        this.maintenanceInterval = maintenanceInterval;
+    }
+
+    public int getMaintenanceThreads() {
+        return maintenanceThreads;
+    }
+
+    public void setMaintenanceThreads(int maintenanceThreads) {
+        this.maintenanceThreads = maintenanceThreads;
+    }
+
+    /**
+     * The share of the budget of a cache, and its counters as of the last rebalance.
+     */
+    private static class Allocation {
+        final CacheManager cache;
+        long weight;
+        long lastHits;
+        long lastMisses;
+        long lastEvictions;
+        long hits;
+        long misses;
+        long evictions;
+
+        Allocation(CacheManager cache) {
+            this.cache = cache;
+            this.lastHits = cache.getHitCounter();
+            this.lastMisses = cache.getMissCounter();
+            this.lastEvictions = cache.getEvictionCounter();
+        }
+
+        void apply() {
+            this.cache.setMaxWeight(Math.max(1, this.weight));
+        }
+
+        /**
+         * Takes the counters since the last sample.
+         */
+        void sample() {
+            long currentHits = this.cache.getHitCounter();
+            long currentMisses = this.cache.getMissCounter();
+            long currentEvictions = this.cache.getEvictionCounter();
+            this.hits = currentHits - this.lastHits;
+            this.misses = currentMisses - this.lastMisses;
+            this.evictions = currentEvictions - this.lastEvictions;
+            this.lastHits = currentHits;
+            this.lastMisses = currentMisses;
+            this.lastEvictions = currentEvictions;
+        }
+
+        /**
+         * @return Whether the cache is held back by its allocation: it's nearly using it up, or evicting.
+         */
+        boolean isFull() {
+            return this.evictions > 0 || this.cache.getWeight() * 10 >= this.weight * 9;
+        }
+
+        double gain() {
+            return (double) this.misses / Math.max(1, this.weight);
+        }
+
+        double loss() {
+            return this.isFull() ? (double) this.hits / Math.max(1, this.cache.getWeight()) : 0;
+        }
+    }
+}
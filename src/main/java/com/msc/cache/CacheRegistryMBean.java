@@ -0,0 +1,25 @@
+package com.msc.cache;
+
+/**
+ * Metrics of all the caches of a CacheRegistry, for JMX (see JMXAdapter.registerMBean()).
+ */
+public interface CacheRegistryMBean {
+    public int getCacheCount();
+
+    /**
+     * @return Number of entries cached by all the caches.
+     */
+    public long getSize();
+
+    public long getWeight();
+
+    public long getHitCounter();
+
+    public long getMissCounter();
+
+    public long getEvictionCounter();
+
+    public double getHitRatio();
+
+    public long getBudget();
+}
@@ -0,0 +1,45 @@
+package com.msc.cache;
+
+import java.io.Serializable;
+
+/**
+ * Snapshot of how much a CacheManager holds: its number of entries and their total weight (see Weigher).
+ */
+public class CacheSize implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	private final long count;
+	private final long weight;
+	private final long maxWeight;
+
+	public CacheSize(long count, long weight, long maxWeight) {
+		this.count = count;
+		this.weight = weight;
+		this.maxWeight = maxWeight;
+	}
+
+	/**
+	 * @return Number of entities cached.
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return Total weight of the entities cached - the same as the count if there's no Weigher.
+	 */
+	public long getWeight() {
+		return weight;
+	}
+
+	/**
+	 * @return The maximum weight of the cache, or -1 if unbounded.
+	 */
+	public long getMaxWeight() {
+		return maxWeight;
+	}
+
+	public String toString() {
+		return this.count + " entries, weight " + this.weight + (this.maxWeight > 0 ? " of " + this.maxWeight : "");
+	}
+}
@@ -0,0 +1,110 @@
+package com.msc.cache;
+
+import java.util.Collection;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+
+/**
+ * <P>Spliterator over the entities of a CacheManager, straight out of its groups: nothing is copied and
+ * writers are never blocked. It splits by groups first and then splits the entries of a group, so a
+ * parallel scan of an ungrouped cache (a single group) is spread over the workers as well.</P>
+ *
+ * <P>Weakly consistent, like the iterators of the groups: entities registered or removed during the scan
+ * may or may not be seen, and none is seen twice.</P>
+ */
+class CacheSpliterator implements Spliterator<Cacheable> {
+    private final Spliterator<GroupCacheable> groups;
+    private Spliterator<CachedEntity> entries;
+    private long estimate;
+    private final Unwrapper unwrapper = new Unwrapper();
+
+    private CacheSpliterator(Spliterator<GroupCacheable> groups, Spliterator<CachedEntity> entries, long estimate) {
+        this.groups = groups;
+        this.entries = entries;
+        this.estimate = estimate;
+    }
+
+    /**
+     * @param estimate Expected number of entities (CacheManager.getSize()), used to balance parallel scans.
+     */
+    static CacheSpliterator over(Collection<GroupCacheable> groups, long estimate) {
+        return new CacheSpliterator(groups.spliterator(), null, estimate);
+    }
+
+    static CacheSpliterator over(GroupCachedEntity group) {
+        return new CacheSpliterator(Spliterators.<GroupCacheable>emptySpliterator(), group.spliterator(), group.size());
+    }
+
+    public boolean tryAdvance(Consumer<? super Cacheable> action) {
+        this.unwrapper.action = action;
+        do {
+            while (this.entries != null && this.entries.tryAdvance(this.unwrapper)) {
+                if (this.unwrapper.accepted) {
+                    return true;
+                }
+            }
+        } while (this.nextGroup());
+        return false;
+    }
+
+    public void forEachRemaining(Consumer<? super Cacheable> action) {
+        this.unwrapper.action = action;
+        do {
+            if (this.entries != null) {
+                this.entries.forEachRemaining(this.unwrapper);
+            }
+        } while (this.nextGroup());
+    }
+
+    private boolean nextGroup() {
+        this.entries = null;
+        return this.groups.tryAdvance(new Consumer<GroupCacheable>() {
+            public void accept(GroupCacheable group) {
+                entries = ((GroupCachedEntity) group).spliterator();
+            }
+        });
+    }
+
+    public Spliterator<Cacheable> trySplit() {
+        Spliterator<GroupCacheable> someGroups = this.groups.trySplit();
+        if (someGroups != null) {
+            this.estimate >>>= 1;
+            return new CacheSpliterator(someGroups, null, this.estimate);
+        }
+        //Down to one group (or none) besides the current one: split its entries.
+        if (this.entries == null && !this.nextGroup()) {
+            return null;
+        }
+        Spliterator<CachedEntity> someEntries = this.entries.trySplit();
+        if (someEntries != null) {
+            this.estimate >>>= 1;
+            return new CacheSpliterator(Spliterators.<GroupCacheable>emptySpliterator(), someEntries, this.estimate);
+        }
+        return null;
+    }
+
+    public long estimateSize() {
+        return this.estimate;
+    }
+
+    public int characteristics() {
+        return CONCURRENT | NONNULL;
+    }
+
+    /**
+     * Hands the entities to the action, skipping the ones reclaimed by the garbage collector (see ValueReference).
+     */
+    private static class Unwrapper implements Consumer<CachedEntity> {
+        Consumer<? super Cacheable> action;
+        boolean accepted;
+
+        public void accept(CachedEntity cached) {
+            Cacheable entity = cached.getEntity();
+            this.accepted = entity != null;
+            if (this.accepted) {
+                this.action.accept(entity);
+            }
+        }
+    }
+}
@@ -1,10 +1,16 @@
 package com.msc.cache;
 
+import java.lang.ref.ReferenceQueue;
+
 /**
  * This class acts as a wrapper for any Cacheable java object being placed on a Cache.
  * It is the class responsible for controling the statistics of each entity, for proper analisys
  * of clean up, notification and loading mechanisms of the CacheManager.
  *
+ * <P>There's one of these per cached entity, so it's kept compact: timestamps are int seconds from a common
+ * epoch, the hit counter saturates at 65535, and the expiration times are the CacheManager's defaults unless
+ * they were overridden for this entry (see getMaxIdleTime(long)) - about 40 bytes per entry instead of 72.</P>
+ *
  * @author <a href="mailto:mscaldas@gmail.com">Marcelo Caldas</a>
  */
 public class CachedEntity implements Cacheable {
@@ -18,87 +24,201 @@ public class CachedEntity implements Cacheable {
 	 * theoretically be live for an unlimited time.
 	 */
 	public static final long UNDEFINED_TIME_TO_LIVE = -1;
-
 	/**
-	 * The maxIdleTime specifies how long an object can live on the cache without any hit.
-	 * if the maxIdleTime is UNDEFINED, then it is not taken into consideration during clean up
-	 * mechanism.
-	 * Idle Time is defined in Number of Seconds.
+	 * Timestamps of the entries are seconds after this time (68 years of range).
 	 */
-	private long maxIdleTime;
+	static final long EPOCH = System.currentTimeMillis();
 	/**
-	 * Every time a object receives a hit, the lastAccessedTime is updated, for future recalculation of
-	 * cleanup when maxIdleTime is defined.
+	 * numberOfHits stops counting here.
 	 */
-	private long lastAccessedTime ;
+	public static final long MAX_HITS = Character.MAX_VALUE;
 
 	/**
-	 * The maxTimeToLive specifies how long an object can live on the cache.
-	 * if the maxTimeToLive is UNDEFINED, then it is not taken into consideration during clean up
-	 * mechanism.
+	 * The maxIdleTime specifies how long an object can live on the cache without any hit, and maxTimeToLive
+	 * how long it can live on the cache at all. Both are defined in Number of Seconds, and if UNDEFINED they're
+	 * not taken into consideration during clean up mechanism. If the CacheManager has an ExpiryPolicy, the
+	 * time this entry expires at (a reading of the CacheManager's Ticker) is kept here too.
+	 * Unless they were set for this entry, they're null: the entry expires as its CacheManager's defaults say.
 	 */
-	private long maxTimeToLive;
+	private Expiry expiry;
+	/**
+	 * Every time a object receives a hit, the lastAccessedTime is updated, for future recalculation of
+	 * cleanup when maxIdleTime is defined. Seconds after EPOCH.
+	 */
+	private int lastAccessedTime;
 	/**
 	 * Every time a new entity is registered, the creationTime is set for the current timestamp of the system.
-	 * This property is used for future cleanup mechanisms when maxTimeToLive is defined.
+	 * This property is used for future cleanup mechanisms when maxTimeToLive is defined. Seconds after EPOCH.
 	 */
-	private long creationTime ;
+	private int creationTime;
 
 	/**
 	 * This property points to the actual entity being cached. This is the information that a user wants
-	 * when hitting a cache.
+	 * when hitting a cache. Either the Cacheable itself or, if its CacheManager holds entities by soft or weak
+	 * references (see ValueReference), a ValueReference.Collectable reference to it.
 	 */
-	private Cacheable entity;
+	private Object entity;
 
 	/** a boolean indicating whether the entity has been invalidated or not. */
 	private boolean invaldiated;
 
 	/**
-	 * Counter for how many times this entity have been hit.
+	 * Counter for how many times this entity have been hit, up to MAX_HITS.
 	 * This property is used for cleanup mechanisms based on the number of hits (least resource used, etc)
 	 */
-	private long numberOfHits;
+	private char numberOfHits;
+
+	/**
+	 * Position of this entry on its CacheManager's change sequence: entries loaded from the persistence
+	 * storage carry the sequence number observed when the load started. Used to tell apart an entry that
+	 * was read before an invalidation from one read after it.
+	 */
+	private long version;
 
     public CachedEntity() {
-        long currentTime = System.currentTimeMillis();
-        this.lastAccessedTime = currentTime;
-        this.creationTime = currentTime;
+        this(now());
     }
 
+	/**
+	 * @param currentTime The time of the CacheManager (see CacheManager.currentTimeMillis()): seconds after EPOCH.
+	 */
+	CachedEntity(int currentTime) {
+		this.lastAccessedTime = currentTime;
+		this.creationTime = currentTime;
+	}
+
+	/**
+	 * @return The current time as the entries keep it: seconds after EPOCH.
+	 */
+	static int now() {
+		return toSeconds(System.currentTimeMillis());
+	}
+	static int toSeconds(long timeMillis) {
+		return (int) ((timeMillis - EPOCH) / 1000);
+	}
+	static long toMillis(int seconds) {
+		return EPOCH + seconds * 1000L;
+	}
+
 	public Object getCacheKey() {
-		return this.entity.getCacheKey();
+		Object current = this.entity;
+		return current instanceof ValueReference.Collectable ? ((ValueReference.Collectable) current).getCacheKey()
+		                                                      : ((Cacheable) current).getCacheKey();
 	}
 
+	/**
+	 * @return The maxIdleTime set for this entry, or UNDEFINED_IDLE_TIME if it has its CacheManager's.
+	 */
 	public long getMaxIdleTime() {
-		return maxIdleTime;
+		return this.getMaxIdleTime(UNDEFINED_IDLE_TIME);
+	}
+	/**
+	 * @param inherited The defaultIdleTime of the CacheManager.
+	 * @return The maxIdleTime of this entry.
+	 */
+	public long getMaxIdleTime(long inherited) {
+		Expiry current = this.expiry;
+		return current == null || current.maxIdleTime == Expiry.INHERITED ? inherited : current.maxIdleTime;
 	}
-
 	public void setMaxIdleTime(long maxIdleTime) {
-		this.maxIdleTime = maxIdleTime;
+		Expiry current = this.expiry;
+		this.expiry = current == null ? new Expiry(maxIdleTime, Expiry.INHERITED, Expiry.NEVER)
+		                              : new Expiry(maxIdleTime, current.maxTimeToLive, current.expiresAt);
 	}
-
 	public long getLastAccessedTime() {
-		return lastAccessedTime;
+		return toMillis(this.lastAccessedTime);
 	}
+	/**
+	 * @return The maxTimeToLive set for this entry, or UNDEFINED_TIME_TO_LIVE if it has its CacheManager's.
+	 */
 	public long getMaxTimeToLive() {
-		return maxTimeToLive;
+		return this.getMaxTimeToLive(UNDEFINED_TIME_TO_LIVE);
+	}
+	/**
+	 * @param inherited The defaultTimeToLive of the CacheManager.
+	 * @return The maxTimeToLive of this entry.
+	 */
+	public long getMaxTimeToLive(long inherited) {
+		Expiry current = this.expiry;
+		return current == null || current.maxTimeToLive == Expiry.INHERITED ? inherited : current.maxTimeToLive;
 	}
-
 	public void setMaxTimeToLive(long maxTimeToLive) {
-		this.maxTimeToLive = maxTimeToLive;
+		Expiry current = this.expiry;
+		this.expiry = current == null ? new Expiry(Expiry.INHERITED, maxTimeToLive, Expiry.NEVER)
+		                              : new Expiry(current.maxIdleTime, maxTimeToLive, current.expiresAt);
+	}
+	/**
+	 * @return The reading of the CacheManager's Ticker this entry expires at, or Expiry.NEVER.
+	 */
+	long getExpiresAt() {
+		Expiry current = this.expiry;
+		return current == null ? Expiry.NEVER : current.expiresAt;
+	}
+	/**
+	 * @param nanoseconds Time left before this entry expires, or UNDEFINED_TIME_TO_LIVE if it doesn't.
+	 * @param now         The current reading of the CacheManager's Ticker.
+	 * @return The reading it expires at, or Expiry.NEVER.
+	 */
+	long expireAfter(long nanoseconds, long now) {
+		Expiry current = this.expiry;
+		long expiresAt = Expiry.NEVER;
+		if (nanoseconds >= 0) {
+			expiresAt = now + nanoseconds;
+			if (expiresAt < now || expiresAt == Expiry.NEVER) { //Overflow: as far as it can get.
+				expiresAt = Expiry.NEVER - 1;
+			}
+		}
+		if (current == null) {
+			if (expiresAt != Expiry.NEVER) {
+				this.expiry = new Expiry(Expiry.INHERITED, Expiry.INHERITED, expiresAt);
+			}
+		} else if (current.expiresAt != expiresAt) {
+			this.expiry = new Expiry(current.maxIdleTime, current.maxTimeToLive, expiresAt);
+		}
+		return expiresAt;
+	}
+	/**
+	 * @return Nanoseconds left before this entry expires (0 if it's expired), or UNDEFINED_TIME_TO_LIVE if it doesn't.
+	 */
+	long timeLeft(long now) {
+		long expiresAt = this.getExpiresAt();
+		return expiresAt == Expiry.NEVER ? UNDEFINED_TIME_TO_LIVE : Math.max(0, expiresAt - now);
+	}
+	boolean isExpired(long now) {
+		return this.getExpiresAt() <= now;
 	}
-
 	public long getCreationTime() {
-		return creationTime;
+		return toMillis(this.creationTime);
 	}
+	/**
+	 * @return The entity cached, or null if it was held by a soft or weak reference and the garbage collector
+	 * reclaimed it.
+	 */
 	public Cacheable getEntity() {
-		return entity;
+		Object current = this.entity;
+		return current instanceof ValueReference.Collectable ? ((ValueReference.Collectable) current).get() : (Cacheable) current;
 	}
 
 	public void setEntity(Cacheable entity) {
 		this.entity = entity;
 	}
 
+	/**
+	 * Holds the entity as the mode says, remembering the weight it's cached with. For SOFT and WEAK, the
+	 * reference is enqueued on the queue once the entity is reclaimed.
+	 */
+	void setEntity(Cacheable entity, ValueReference mode, long weight, ReferenceQueue<Cacheable> queue) {
+		this.entity = mode == ValueReference.STRONG ? mode.hold(this, entity, weight) : mode.wrap(this, entity, weight, queue);
+	}
+
+	/**
+	 * @return The reference holding the entity, or null if it's held strongly without one.
+	 */
+	ValueReference.Collectable getCollectable() {
+		Object current = this.entity;
+		return current instanceof ValueReference.Collectable ? (ValueReference.Collectable) current : null;
+	}
+
 	public boolean isInvaldiated() {
 		return invaldiated;
 	}
@@ -107,11 +227,51 @@ public class CachedEntity implements Cacheable {
 		this.invaldiated = invaldiated;
 	}
 
+	public long getVersion() {
+		return version;
+	}
+
+	public void setVersion(long version) {
+		this.version = version;
+	}
+
 	public long getNumberOfHits() {
 		return numberOfHits;
 	}
 	public void hit() {
-		this.numberOfHits++;
-		this.lastAccessedTime = System.currentTimeMillis();
+		this.hit(now());
+	}
+	/**
+	 * @param currentTime The time of the CacheManager: seconds after EPOCH.
+	 */
+	void hit(int currentTime) {
+		if (this.numberOfHits != Character.MAX_VALUE) {
+			this.numberOfHits++;
+		}
+		this.lastAccessedTime = currentTime;
+	}
+
+	/**
+	 * Expiration times set for one entry. Immutable, so they're always read consistently.
+	 */
+	static final class Expiry {
+		static final int INHERITED = Integer.MIN_VALUE;
+		/** expiresAt of the entries that don't expire. */
+		static final long NEVER = Long.MAX_VALUE;
+
+		final int maxIdleTime;
+		final int maxTimeToLive;
+		/** Reading of the CacheManager's Ticker, as its ExpiryPolicy set it. */
+		final long expiresAt;
+
+		Expiry(long maxIdleTime, long maxTimeToLive, long expiresAt) {
+			this.maxIdleTime = clamp(maxIdleTime);
+			this.maxTimeToLive = clamp(maxTimeToLive);
+			this.expiresAt = expiresAt;
+		}
+
+		private static int clamp(long seconds) {
+			return seconds > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) Math.max(seconds, INHERITED);
+		}
 	}
 }
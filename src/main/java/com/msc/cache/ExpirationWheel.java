@@ -0,0 +1,142 @@
+package com.msc.cache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <P>Hierarchical timer wheel of the entries of a CacheManager with an ExpiryPolicy, so the ones whose time is
+ * up are found without going through the whole cache. Level 0 has a bucket per 2^20 nanoseconds (about a
+ * millisecond) for the next 64 of them, level 1 a bucket per 64 of those for the next 4 seconds, and so on
+ * (level 5 reaches 2.3 years; entries further away go to its buckets and are visited early). As time goes by,
+ * the buckets it passes are emptied: their entries are expired if their time is up, or scheduled again into
+ * a finer bucket otherwise.</P>
+ *
+ * <P>Entries are scheduled when cached, and taken off the wheel when they're replaced or removed - it never
+ * holds more than the entries cached. When a read extends the time an entry has left, it's not moved: it's
+ * rescheduled once its bucket is reached (a read shortening it moves it). Times are readings of the
+ * CacheManager's Ticker.</P>
+ */
+class ExpirationWheel {
+    private static final int RESOLUTION = 20;
+    private static final int BITS = 6;
+    private static final int SLOTS = 1 << BITS;
+    private static final int MASK = SLOTS - 1;
+    private static final int LEVELS = 6;
+
+    private final KeyIndex keyIndex;
+    /** Entries of each bucket, told apart by identity. Created when first used. */
+    private final List<Set<CachedEntity>> buckets = new ArrayList<Set<CachedEntity>>(LEVELS * SLOTS);
+    /** Bucket of each entry scheduled. Guarded by this. */
+    private final Map<CachedEntity, Set<CachedEntity>> slots = new IdentityHashMap<CachedEntity, Set<CachedEntity>>();
+    /** Ticker reading the wheel started at: times are kept relative to it, so they're never negative. */
+    private final long origin;
+    /** Time up to which the buckets were emptied, relative to origin. Guarded by this. */
+    private long current;
+
+    ExpirationWheel(KeyIndex keyIndex, long now) {
+        this.keyIndex = keyIndex;
+        this.origin = now;
+        for (int i = 0; i < LEVELS * SLOTS; i++) {
+            this.buckets.add(null);
+        }
+    }
+
+    /**
+     * Schedules the entry at that time, moving it if it was already scheduled.
+     */
+    synchronized void schedule(CachedEntity cached, long expiresAt) {
+        this.remove(cached);
+        if (expiresAt == CachedEntity.Expiry.NEVER) {
+            return;
+        }
+        //Due within the bucket being emptied (or already): it goes to the next one.
+        long at = Math.max(expiresAt - this.origin, ((this.current >>> RESOLUTION) + 1) << RESOLUTION);
+        long delta = (at >>> RESOLUTION) - (this.current >>> RESOLUTION);
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= 1L << (BITS * (level + 1))) {
+            level++;
+        }
+        int index = level * SLOTS + (int) ((at >>> (RESOLUTION + BITS * level)) & MASK);
+        Set<CachedEntity> bucket = this.buckets.get(index);
+        if (bucket == null) {
+            bucket = Collections.newSetFromMap(new IdentityHashMap<CachedEntity, Boolean>());
+            this.buckets.set(index, bucket);
+        }
+        bucket.add(cached);
+        this.slots.put(cached, bucket);
+    }
+
+    /**
+     * Takes the entry off the wheel, if it's on it.
+     */
+    synchronized void remove(CachedEntity cached) {
+        Set<CachedEntity> bucket = this.slots.remove(cached);
+        if (bucket != null) {
+            bucket.remove(cached);
+        }
+    }
+
+    /**
+     * Empties the buckets between the last time it advanced and now.
+     *
+     * @return The entries expired meanwhile - still indexed when they were checked.
+     */
+    synchronized List<CachedEntity> advance(long now) {
+        List<CachedEntity> expired = new ArrayList<CachedEntity>();
+        long previous = this.current;
+        if (now - this.origin <= previous) {
+            return expired;
+        }
+        this.current = now - this.origin;
+        List<CachedEntity> due = new ArrayList<CachedEntity>();
+        for (int level = 0; level < LEVELS; level++) {
+            int shift = RESOLUTION + BITS * level;
+            long previousTicks = previous >>> shift;
+            long ticks = this.current >>> shift;
+            if (ticks == previousTicks) { //Neither will the coarser levels.
+                break;
+            }
+            long count = Math.min(ticks - previousTicks, SLOTS);
+            for (long tick = ticks - count + 1; tick <= ticks; tick++) {
+                Set<CachedEntity> bucket = this.buckets.get(level * SLOTS + (int) (tick & MASK));
+                if (bucket != null) {
+                    for (CachedEntity cached : bucket) {
+                        this.slots.remove(cached);
+                    }
+                    due.addAll(bucket);
+                    bucket.clear();
+                }
+            }
+        }
+        for (CachedEntity cached : due) {
+            if (this.keyIndex.get(cached.getCacheKey()) != cached) { //Being replaced or removed right now.
+                continue;
+            }
+            long expiresAt = cached.getExpiresAt();
+            if (expiresAt <= now) {
+                expired.add(cached);
+            } else {
+                this.schedule(cached, expiresAt);
+            }
+        }
+        return expired;
+    }
+
+    synchronized void clear() {
+        for (int i = 0; i < this.buckets.size(); i++) {
+            this.buckets.set(i, null);
+        }
+        this.slots.clear();
+    }
+
+    /**
+     * @return Number of entries scheduled.
+     */
+    synchronized int size() {
+        return this.slots.size();
+    }
+}
@@ -0,0 +1,75 @@
+package com.msc.cache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * <P>ObjectInputStream for bytes coming from the network: it only deserializes the classes it's allowed
+ * to, so whoever sends them can't pick which classes get instantiated (and run their readObject()). The
+ * boxed primitives, String, BigInteger, BigDecimal, UUID, Date and arrays of them are always allowed; any
+ * other class (enums included) must be listed - by name, or by package with a name ending in "." (for
+ * instance "com.acme."). Superclasses are checked too. A class that isn't allowed fails with an InvalidClassException before it's
+ * loaded. Proxies are never allowed.</P>
+ */
+public class FilteredObjectInputStream extends ObjectInputStream {
+    private static final Set<String> ALWAYS_ALLOWED = new HashSet<String>(Arrays.asList(
+            "java.lang.String", "java.lang.Boolean", "java.lang.Byte", "java.lang.Character", "java.lang.Short",
+            "java.lang.Integer", "java.lang.Long", "java.lang.Float", "java.lang.Double", "java.lang.Number",
+            "java.lang.Enum", "java.math.BigInteger", "java.math.BigDecimal", "java.util.UUID", "java.util.Date"));
+
+    private final Collection<String> allowedClasses;
+
+    /**
+     * @param allowedClasses Classes (or packages, ending in ".") allowed besides the always allowed ones.
+     */
+    public FilteredObjectInputStream(InputStream in, Collection<String> allowedClasses) throws IOException {
+        super(in);
+        this.allowedClasses = allowedClasses;
+    }
+
+    @Override
+    protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+        if (!isAllowed(desc.getName(), this.allowedClasses)) {
+            throw new InvalidClassException(desc.getName(), "not allowed to be deserialized");
+        }
+        return super.resolveClass(desc);
+    }
+
+    @Override
+    protected Class<?> resolveProxyClass(String[] interfaces) throws IOException {
+        throw new InvalidClassException("Proxy classes are not allowed to be deserialized");
+    }
+
+    /**
+     * @param className A class name, as found in the stream ("[Ljava.lang.String;" for arrays).
+     * @return Whether the class (or the type of the elements, for arrays) may be deserialized.
+     */
+    public static boolean isAllowed(String className, Collection<String> allowedClasses) {
+        String name = className;
+        if (name.startsWith("[")) {
+            name = name.substring(name.lastIndexOf('[') + 1);
+            if (name.length() == 1) { //Array of primitives.
+                return true;
+            }
+            name = name.substring(1, name.length() - 1); //"Lcom.acme.Type;"
+        }
+        if (ALWAYS_ALLOWED.contains(name)) {
+            return true;
+        }
+        if (allowedClasses != null) {
+            for (String allowed : allowedClasses) {
+                if (allowed.endsWith(".") ? name.startsWith(allowed) : name.equals(allowed)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
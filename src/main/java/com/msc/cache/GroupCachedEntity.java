@@ -1,21 +1,26 @@
 package com.msc.cache;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @author <a href="mailto:mscaldas@gmail.com">Marcelo Caldas</a>
  */
 public class GroupCachedEntity extends CachedEntity implements GroupCacheable {
-	private Map<Object, CachedEntity> cachedEntities = new HashMap<Object, CachedEntity>();
-	//In case the Cacheable has other keys it can be referenced by, we'll populate
-	//this Array of Map - one map for each key, with those secondary keys.
-	private Map<Object, CachedEntity>[] secondaryReferences;
+	//Entities by their primary key. Secondary keys (see CompoundKeyCacheable) are resolved by the
+	//CacheManager's KeyIndex.
+	private Map<Object, CachedEntity> cachedEntities = new ConcurrentHashMap<Object, CachedEntity>();
 
 	private boolean atomicGroup;
 	/**
 	 * this property keeps track of the Group Key this Cached entity is handling.
 	 */
 	private Object groupKey;
+	/**
+	 * Last time the group was read through entitiesView(). Views don't touch the entities they hand out, so
+	 * the idle time of the entities of a group read this way counts from here.
+	 */
+	private volatile long lastViewedTime;
 
 	public GroupCachedEntity() {
 		super();
@@ -29,23 +34,36 @@ public class GroupCachedEntity extends CachedEntity implements GroupCacheable {
 //		return cachedEntities;
 //	}
 //
-	public Iterator iterator() {
+	public Iterator<CachedEntity> iterator() {
 		return this.cachedEntities.values().iterator();
 	}
+	/**
+	 * @return Weakly consistent Spliterator over the entries of the group (see CacheManager.stream()).
+	 */
+	public Spliterator<CachedEntity> spliterator() {
+		return this.cachedEntities.values().spliterator();
+	}
+	/**
+	 * @param key The primary key of the entity.
+	 */
 	public CachedEntity get(Object key) {
-		Object result = this.cachedEntities.get(key);
-		if (result == null && this.secondaryReferences != null) {
-            for (Map secondaryReference : secondaryReferences) {
-                result = secondaryReference.get(key);
-            }
-		}
-		return (CachedEntity) result;
+		return this.cachedEntities.get(key);
 	}
 
 	public void removeEntity(Object cacheKey) {
 		this.cachedEntities.remove(cacheKey);
 	}
 
+	/**
+	 * Removes the entity marked by this key only if it is still the given instance - i.e., nobody replaced
+	 * it in the meantime.
+	 *
+	 * @return Whether the entity was removed.
+	 */
+	public boolean removeEntity(Object cacheKey, CachedEntity expected) {
+		return this.cachedEntities.remove(cacheKey, expected);
+	}
+
 	public void addCachedEntity(CachedEntity newValue) throws CacheException {
 		Object newGroupKey = CacheManager.DEFAULT_GROUP_KEY;
 		final Cacheable entity = newValue.getEntity();
@@ -56,16 +74,6 @@ public class GroupCachedEntity extends CachedEntity implements GroupCacheable {
 			throw new CacheException("Invalid GroupCacheable: unable to mix groups!", CacheException.ERROR_INVALID_GROUP);
 		}
 		this.cachedEntities.put(newValue.getCacheKey(), newValue);
-		//Populate the secondaryReferences Maps
-		if (entity instanceof CompoundKeyCacheable) {
-			Object[] keys = ((CompoundKeyCacheable) entity).getSecondaryKeys();
-			if (this.secondaryReferences == null) {
-				this.secondaryReferences = new HashMap[keys.length];
-			}
-			for (int i = 0; i < keys.length; i++) {
-				this.secondaryReferences[i].put(keys[i], newValue);
-			}
-		}
 
 		if (this.groupKey == null) {
 			this.groupKey = newGroupKey;
@@ -85,33 +93,19 @@ public class GroupCachedEntity extends CachedEntity implements GroupCacheable {
 	}
 
 	/**
-	 * This method will remove the entity marked by this key from the cache!
+	 * This method will remove the entity marked by this key from the group. It doesn't touch the
+	 * CacheManager's KeyIndex: use CacheManager.invalidateKey() or evict() to remove cached entities.
 	 *
-	 * @param cacheKey The key for the cached object we want to remove.
+	 * @param cacheKey The primary key for the cached object we want to remove.
 	 */
 	public void remove(Object cacheKey) {
-		CachedEntity entity = this.cachedEntities.get(cacheKey);
-		// Since cacheKey could be any of the available keys for a specific entity,
-		// We need to make sure we get the Primary key first before trying to remove it!
-
-		if (this.secondaryReferences != null) {
-			for (int i = 0; i < secondaryReferences.length && entity != null; i++) {
-				entity = secondaryReferences[i].get(cacheKey);
-				if (entity != null) {
-					cacheKey = entity.getCacheKey();
-				}
-			}
-			//Make sure we clean all Maps before deleting the stuff
-			if (entity instanceof CompoundKeyCacheable) {
-				Object[] keys = ((CompoundKeyCacheable) entity).getSecondaryKeys();
-				for (int i = 0; i < keys.length; i++) {
-					this.secondaryReferences[i].remove(keys[i]);
-				}
-			}
-		}
 		this.cachedEntities.remove(cacheKey);
 	}
 
+	void clear() {
+		this.cachedEntities.clear();
+	}
+
 	/**
 	 * helper method to extract the "real" entities out of a collection of CachedEntities, to give it back to
 	 * the user.
@@ -119,11 +113,94 @@ public class GroupCachedEntity extends CachedEntity implements GroupCacheable {
 	 * @return A collection of "real" entities ready to be given for user manipulation.
 	 */
 	public Collection<Cacheable> extractEntities() {
+		return this.extractEntities(now());
+	}
+	/**
+	 * @param currentTime The time of the CacheManager: seconds after EPOCH.
+	 */
+	Collection<Cacheable> extractEntities(int currentTime) {
 		Collection<Cacheable> result = new ArrayList<Cacheable>();
         for (CachedEntity entity : this.cachedEntities.values()) {
-            entity.hit();
-            result.add(entity.getEntity());
+            Cacheable cacheable = entity.getEntity();
+            if (cacheable != null) { //null: reclaimed by the garbage collector (see ValueReference)
+                entity.hit(currentTime);
+                result.add(cacheable);
+            }
         }
 		return result;
 	}
+
+	/**
+	 * Read-only, lazily iterated view over the "real" entities of the group - nothing is copied and no entity
+	 * is touched, so handing back a group is O(1) whatever its size. The view is live and weakly consistent:
+	 * it reflects the entities registered and removed while it's iterated, and never throws
+	 * ConcurrentModificationException. Copy it if a snapshot is needed.
+	 *
+	 * @return The entities of the group.
+	 */
+	public Collection<Cacheable> entitiesView() {
+		return this.entitiesView(System.currentTimeMillis());
+	}
+	/**
+	 * @param viewedAt The time of the CacheManager (see CacheManager.currentTimeMillis()).
+	 */
+	Collection<Cacheable> entitiesView(long viewedAt) {
+		this.lastViewedTime = viewedAt;
+		return new EntitiesView(this.cachedEntities.values());
+	}
+
+	public long getLastViewedTime() {
+		return this.lastViewedTime;
+	}
+
+	/**
+	 * @return When an entity of this group was last read: by itself (get()) or with its group (entitiesView()).
+	 */
+	public long getLastAccessedTime(CachedEntity member) {
+		return Math.max(member.getLastAccessedTime(), this.lastViewedTime);
+	}
+
+	private static class EntitiesView extends AbstractCollection<Cacheable> {
+		private final Collection<CachedEntity> cachedEntities;
+
+		EntitiesView(Collection<CachedEntity> cachedEntities) {
+			this.cachedEntities = cachedEntities;
+		}
+
+		public Iterator<Cacheable> iterator() {
+			final Iterator<CachedEntity> iterator = this.cachedEntities.iterator();
+			return new Iterator<Cacheable>() {
+				//Read ahead, to skip the entities reclaimed by the garbage collector (see ValueReference).
+				private Cacheable next;
+
+				public boolean hasNext() {
+					while (this.next == null && iterator.hasNext()) {
+						this.next = iterator.next().getEntity();
+					}
+					return this.next != null;
+				}
+
+				public Cacheable next() {
+					if (!this.hasNext()) {
+						throw new NoSuchElementException();
+					}
+					Cacheable result = this.next;
+					this.next = null;
+					return result;
+				}
+
+				public void remove() {
+					throw new UnsupportedOperationException("Cached groups are read-only");
+				}
+			};
+		}
+
+		public int size() {
+			return this.cachedEntities.size();
+		}
+
+		public boolean isEmpty() {
+			return this.cachedEntities.isEmpty();
+		}
+	}
 }
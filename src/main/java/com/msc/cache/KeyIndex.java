@@ -0,0 +1,207 @@
+package com.msc.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <P>Index of every entry held by a CacheManager: maps each primary key straight to its CachedEntity (so
+ * finding an entity doesn't mean asking every group for it) and each secondary key of CompoundKeyCacheable
+ * entities to its primary key. Any key resolves in O(1).</P>
+ *
+ * <P>Changes to the entries of the same primary key are serialized by a striped lock (see lockFor()), which
+ * the CacheManager also holds while it changes the groups - so the groups, the primary and the secondary keys
+ * of an entry are changed together. Lookups don't lock.</P>
+ */
+public class KeyIndex {
+    private static final int STRIPES = 64;
+    private static final Object[] NO_KEYS = new Object[0];
+
+    private final ConcurrentMap<Object, CachedEntity> primaryKeys = new ConcurrentHashMap<Object, CachedEntity>();
+    private final ConcurrentMap<Object, Object> secondaryKeys = new ConcurrentHashMap<Object, Object>();
+    private final Object[] locks = new Object[STRIPES];
+
+    public KeyIndex() {
+        for (int i = 0; i < STRIPES; i++) {
+            this.locks[i] = new Object();
+        }
+    }
+
+    /**
+     * @return The monitor guarding the changes of the entry of this primary key.
+     */
+    public Object lockFor(Object primaryKey) {
+        int h = primaryKey == null ? 0 : primaryKey.hashCode();
+        h ^= (h >>> 16);
+        return this.locks[h & (STRIPES - 1)];
+    }
+
+    /**
+     * Runs the task holding every lock of the index, i.e. with no entry changing meanwhile. Lookups go on.
+     */
+    void runExclusively(Runnable task) {
+        this.runExclusively(task, 0);
+    }
+
+    private void runExclusively(Runnable task, int stripe) {
+        if (stripe == STRIPES) {
+            task.run();
+        } else {
+            //Always taken in the same order: no deadlock among exclusive tasks, and other changes take one lock only.
+            synchronized (this.locks[stripe]) {
+                this.runExclusively(task, stripe + 1);
+            }
+        }
+    }
+
+    /**
+     * @param cacheKey A primary or secondary key.
+     * @return The primary key it stands for, or null if it's not cached.
+     */
+    public Object getPrimaryKey(Object cacheKey) {
+        if (this.primaryKeys.containsKey(cacheKey)) {
+            return cacheKey;
+        }
+        return this.secondaryKeys.get(cacheKey);
+    }
+
+    /**
+     * @param cacheKey A primary or secondary key.
+     * @return The entry cached under the key, or null if none.
+     */
+    public CachedEntity get(Object cacheKey) {
+        CachedEntity cached = this.primaryKeys.get(cacheKey);
+        if (cached == null) {
+            Object primaryKey = this.secondaryKeys.get(cacheKey);
+            if (primaryKey != null) {
+                cached = this.primaryKeys.get(primaryKey);
+            }
+        }
+        return cached;
+    }
+
+    /**
+     * Indexes a new entry, replacing the one with the same primary key (if any). Must be called holding lockFor().
+     *
+     * @return The entry replaced, or null.
+     */
+    CachedEntity put(CachedEntity cached) {
+        Object primaryKey = cached.getCacheKey();
+        CachedEntity previous = this.primaryKeys.put(primaryKey, cached);
+        Object[] keys = secondaryKeysOf(cached);
+        for (Object key : keys) {
+            this.secondaryKeys.put(key, primaryKey);
+        }
+        if (previous != null) {
+            //Drop the secondary keys the new version doesn't have anymore.
+            Set<Object> kept = new HashSet<Object>(Arrays.asList(keys));
+            for (Object key : secondaryKeysOf(previous)) {
+                if (!kept.contains(key)) {
+                    this.secondaryKeys.remove(key, primaryKey);
+                }
+            }
+        }
+        return previous;
+    }
+
+    /**
+     * Drops an entry - only if it's still the one indexed under its primary key. Must be called holding lockFor().
+     *
+     * @return Whether it was removed.
+     */
+    boolean remove(CachedEntity cached) {
+        Object primaryKey = cached.getCacheKey();
+        if (this.primaryKeys.remove(primaryKey, cached)) {
+            this.unlinkSecondaryKeys(cached, primaryKey);
+            return true;
+        }
+        return false;
+    }
+
+    private void unlinkSecondaryKeys(CachedEntity cached, Object primaryKey) {
+        for (Object key : secondaryKeysOf(cached)) {
+            //Only if no other entity claimed it in the meantime.
+            this.secondaryKeys.remove(key, primaryKey);
+        }
+    }
+
+    /**
+     * @return The secondary keys the entry is indexed under, without nulls.
+     */
+    static Object[] secondaryKeysOf(CachedEntity cached) {
+        Object[] keys = null;
+        ValueReference.Collectable reference = cached.getCollectable();
+        if (reference != null) { //The entity might be gone already: use the keys it had.
+            keys = reference.getSecondaryKeys();
+        } else if (cached.getEntity() instanceof CompoundKeyCacheable) {
+            keys = ((CompoundKeyCacheable) cached.getEntity()).getSecondaryKeys();
+        }
+        if (keys == null) {
+            return NO_KEYS;
+        }
+        int nulls = 0;
+        for (Object key : keys) {
+            if (key == null) {
+                nulls++;
+            }
+        }
+        if (nulls == 0) {
+            return keys;
+        }
+        Object[] nonNull = new Object[keys.length - nulls];
+        int i = 0;
+        for (Object key : keys) {
+            if (key != null) {
+                nonNull[i++] = key;
+            }
+        }
+        return nonNull;
+    }
+
+    /**
+     * @return A snapshot of every key indexed, primary and secondary.
+     */
+    List<Object> keys() {
+        List<Object> keys = new ArrayList<Object>(this.primaryKeys.size() + this.secondaryKeys.size());
+        keys.addAll(this.primaryKeys.keySet());
+        keys.addAll(this.secondaryKeys.keySet());
+        return keys;
+    }
+
+    /**
+     * @return The keys the entity is indexed under: its primary key and its secondary keys.
+     */
+    static Object[] keysOf(Cacheable entity) {
+        Object[] secondary = entity instanceof CompoundKeyCacheable ? ((CompoundKeyCacheable) entity).getSecondaryKeys() : null;
+        if (secondary == null || secondary.length == 0) {
+            return new Object[]{entity.getCacheKey()};
+        }
+        Object[] keys = new Object[secondary.length + 1];
+        keys[0] = entity.getCacheKey();
+        System.arraycopy(secondary, 0, keys, 1, secondary.length);
+        return keys;
+    }
+
+    void clear() {
+        this.primaryKeys.clear();
+        this.secondaryKeys.clear();
+    }
+
+    /**
+     * @return Number of primary keys indexed (i.e., of entries cached).
+     */
+    public int getPrimaryKeyCount() {
+        return this.primaryKeys.size();
+    }
+
+    /**
+     * @return Number of secondary keys indexed.
+     */
+    public int getSecondaryKeyCount() {
+        return this.secondaryKeys.size();
+    }
+}
@@ -0,0 +1,55 @@
+package com.msc.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keys the loader didn't find, remembered for timeToLive nanoseconds (of the CacheManager's Ticker) so asking
+ * for them again doesn't go to the persistence storage. Holds up to capacity keys; beyond that, the oldest ones are forgotten first.
+ */
+class NegativeCache {
+    private final Ticker ticker;
+    private final long timeToLive;
+    /** Key -> when it expires. Insertion ordered, i.e. by expiration. Guarded by this. */
+    private final Map<Object, Long> expirations;
+
+    NegativeCache(final int capacity, long timeToLive, Ticker ticker) {
+        this.ticker = ticker;
+        this.timeToLive = timeToLive;
+        this.expirations = new LinkedHashMap<Object, Long>(Math.min(capacity, 1024), 0.75f) {
+            protected boolean removeEldestEntry(Map.Entry<Object, Long> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    synchronized boolean contains(Object cacheKey) {
+        Long expiration = this.expirations.get(cacheKey);
+        if (expiration == null) {
+            return false;
+        }
+        if (expiration - this.ticker.read() < 0) {
+            this.expirations.remove(cacheKey);
+            return false;
+        }
+        return true;
+    }
+
+    synchronized void add(Object cacheKey) {
+        //Re-inserted, so it moves to the end along with its new expiration.
+        this.expirations.remove(cacheKey);
+        this.expirations.put(cacheKey, this.ticker.read() + this.timeToLive);
+    }
+
+    synchronized void remove(Object cacheKey) {
+        this.expirations.remove(cacheKey);
+    }
+
+    synchronized void clear() {
+        this.expirations.clear();
+    }
+
+    synchronized int size() {
+        return this.expirations.size();
+    }
+}
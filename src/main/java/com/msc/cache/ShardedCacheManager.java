@@ -0,0 +1,790 @@
+package com.msc.cache;
+
+import com.msc.cache.cleanup.CacheCleanupPolicy;
+import com.msc.cache.expiry.ExpiryPolicy;
+import com.msc.cache.initializer.CacheInitializerPolicy;
+import com.msc.cache.loader.CacheGroupLoaderPolicy;
+import com.msc.cache.loader.CacheLoaderPolicy;
+import com.msc.cache.notifier.CacheNotifierPolicy;
+import com.msc.cache.notifier.NotificationType;
+import com.msc.cache.writer.CacheWriterPolicy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <P>Cache split into shardCount independent CacheManagers (the shards) by the hash of the keys, so threads
+ * caching, refreshing or reading different keys work on different maps, counters and locks. Every shard
+ * is cleaned up on its own: the cleanup policies keep their state (where a sweep is, the eviction
+ * candidates...) per shard, and a cleanup runs the shards in parallel on up to cleanupThreads threads.</P>
+ *
+ * <P>The configuration is applied to every shard. Size limits (maxWeight, highWaterMark, lowWaterMark and
+ * treshHold) are for the whole cache: each shard gets its share of them, so a shard fuller than the others
+ * evicts a bit before the cache is full. Counters are the sums of those of the shards.</P>
+ *
+ * <P>Groups are split among the shards too, by the keys of their entities. A group (or, without groups,
+ * the whole cache) is a hit only if every shard holds its part of it; otherwise it's read from the loader
+ * once and its entities cached in their shards. Entities are in the shard of their primary key, along with
+ * their secondary keys; a secondary key that falls in another shard is also routed from that shard to the
+ * primary key, so an entity is found by any of its keys looking at two shards at most. An entity loaded by
+ * a secondary key of another shard is handed to its own shard, which caches it unless it had any change
+ * while the entity was being read (it doesn't know which keys the load was about). Policies that need to
+ * know their CacheManager (CacheManagerAware) are not supported: they would see a single shard.</P>
+ */
+public class ShardedCacheManager implements CacheContract {
+    private static final Logger logger = Logger.getLogger(ShardedCacheManager.class.getName());
+
+    private final Shard[] shards;
+    private String name;
+    private CacheInitializerPolicy initializerPolicy;
+    /** Whole cache limits, split among the shards. */
+    private long highWaterMark;
+    private long treshHold;
+    private long lowWaterMark;
+    private long maxWeight = -1;
+    private int cleanupThreads;
+
+    private final List<CacheCleanupThread> childThreads = new ArrayList<CacheCleanupThread>();
+    private volatile ExecutorService cleanupExecutor;
+    /** Group (and getAll()) reads, counted once for all the shards. */
+    private final AtomicLong groupHitCounter = new AtomicLong();
+    private final AtomicLong groupMissCounter = new AtomicLong();
+
+    public ShardedCacheManager() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public ShardedCacheManager(int shardCount) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("shardCount must be positive: " + shardCount);
+        }
+        this.shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            this.shards[i] = new Shard();
+        }
+        this.cleanupThreads = Math.min(shardCount, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Initializes every shard, caches what the initializer policy loads (once, each entity in its shard) and
+     * starts a cleanup thread per cleanup policy.
+     */
+    public void init() throws Exception {
+        for (Shard shard : this.shards) {
+            shard.init();
+        }
+        if (this.initializerPolicy != null) {
+            Collection<Cacheable> entities = this.initializerPolicy.init(this.getLoaderPolicy());
+            if (entities != null) {
+                for (Cacheable entity : entities) {
+                    this.shardFor(entity.getCacheKey()).register(entity);
+                }
+            }
+        }
+        final AtomicInteger count = new AtomicInteger();
+        this.cleanupExecutor = Executors.newFixedThreadPool(Math.max(1, this.cleanupThreads), new ThreadFactory() {
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, "ShardedCacheManager-cleanup-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        for (CacheCleanupPolicy cp : this.getCleanupPolicies()) {
+            CacheCleanupThread aThread = new CacheCleanupThread(TimeUnit.SECONDS.toMillis(CacheManager.frequencyOf(cp)), this, cp);
+            this.childThreads.add(aThread);
+            aThread.start();
+        }
+    }
+
+    /**
+     * Stops the cleanup threads.
+     */
+    public void shutdown() {
+        for (CacheCleanupThread t : this.childThreads) {
+            t.halt();
+        }
+        this.childThreads.clear();
+        ExecutorService executor = this.cleanupExecutor;
+        this.cleanupExecutor = null;
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    private int shardIndex(Object cacheKey) {
+        int h = cacheKey == null ? 0 : cacheKey.hashCode();
+        h ^= (h >>> 16);
+        return (h & 0x7fffffff) % this.shards.length;
+    }
+
+    /**
+     * @return The shard holding the entity of this key.
+     */
+    CacheManager shardFor(Object cacheKey) {
+        return this.shards[this.shardIndex(cacheKey)];
+    }
+
+    /**
+     * @return The shard caching an entity under this key (a secondary key may be cached in another shard,
+     * which its own shard routes to), or the shard of the key if none does.
+     */
+    private CacheManager locate(Object cacheKey) {
+        Shard home = this.shards[this.shardIndex(cacheKey)];
+        Object primaryKey = home.routes.get(cacheKey);
+        if (primaryKey == null || home.isIndexed(cacheKey)) {
+            return home;
+        }
+        return this.shardFor(primaryKey);
+    }
+
+    /**
+     * @return The shards, for the settings that are not applied to all of them by this class.
+     */
+    public List<CacheManager> getShards() {
+        return Collections.<CacheManager>unmodifiableList(Arrays.asList(this.shards));
+    }
+
+    public void invalidate(Cacheable entity) throws Exception {
+        this.shardFor(entity.getCacheKey()).invalidate(entity);
+    }
+
+    public void invalidateKey(Object cacheKey) {
+        this.locate(cacheKey).invalidateKey(cacheKey);
+    }
+
+    public void refresh(Cacheable entity) throws Exception {
+        this.shardFor(entity.getCacheKey()).refresh(entity);
+    }
+
+    public void put(Cacheable entity) throws Exception {
+        this.shardFor(entity.getCacheKey()).put(entity);
+    }
+
+    public void remove(Object cacheKey) throws Exception {
+        this.locate(cacheKey).remove(cacheKey);
+    }
+
+    public Cacheable get(Object cacheKey) throws Exception {
+        return this.locate(cacheKey).get(cacheKey);
+    }
+
+    public Cacheable peek(Object cacheKey) throws Exception {
+        return this.locate(cacheKey).peek(cacheKey);
+    }
+
+    public Collection<Cacheable> getByGroup(Object groupKey) throws Exception {
+        return this.readGroup(groupKey, NotificationType.HIT_GROUP, NotificationType.MISS_GROUP);
+    }
+
+    public Collection<Cacheable> getAll() throws Exception {
+        if (this.isGrouped()) {
+            return null;
+        }
+        return this.readGroup(CacheManager.DEFAULT_GROUP_KEY, NotificationType.HIT_ALL, NotificationType.MISS_ALL);
+    }
+
+    private Collection<Cacheable> readGroup(Object groupKey, NotificationType hit, NotificationType miss) throws Exception {
+        GroupCachedEntity[] parts = new GroupCachedEntity[this.shards.length];
+        boolean cached = true;
+        for (int i = 0; i < this.shards.length && cached; i++) {
+            parts[i] = (GroupCachedEntity) this.shards[i].getGroups().get(groupKey);
+            cached = parts[i] != null;
+        }
+        if (cached) {
+            this.groupHitCounter.incrementAndGet();
+            this.shards[0].notifyCache(hit, null, null, hit == NotificationType.HIT_ALL ? null : groupKey, 0);
+            List<Cacheable> entities = new ArrayList<Cacheable>();
+            for (int i = 0; i < this.shards.length; i++) {
+                entities.addAll(this.shards[i].readGroup(parts[i]));
+            }
+            return entities;
+        }
+        this.groupMissCounter.incrementAndGet();
+        long start = System.nanoTime();
+        Collection<Cacheable> result = this.loadGroup(groupKey);
+        this.shards[0].notifyCache(miss, null, null, miss == NotificationType.MISS_ALL ? null : groupKey, System.nanoTime() - start);
+        return result;
+    }
+
+    /**
+     * Reads a group (all the entities, for the default group) from the loader and hands each shard its part
+     * of it, which replaces the one it has (see CacheManager.loadGroup()).
+     */
+    private Collection<Cacheable> loadGroup(Object groupKey) throws CacheException {
+        CacheLoaderPolicy loaderPolicy = this.getLoaderPolicy();
+        boolean all = CacheManager.DEFAULT_GROUP_KEY.equals(groupKey) && !this.isGrouped();
+        if (!all && !(loaderPolicy instanceof CacheGroupLoaderPolicy)) {
+            throw new CacheException("Invalid method call. Loader is not a GroupLoader", CacheException.ERROR_NOT_A_GROUP);
+        }
+        long[] tickets = new long[this.shards.length];
+        for (int i = 0; i < this.shards.length; i++) {
+            tickets[i] = this.shards[i].beginLoad();
+        }
+        try {
+            Collection<Cacheable> entities = all ? loaderPolicy.fetchAll() : ((CacheGroupLoaderPolicy) loaderPolicy).fetchByGroup(groupKey);
+            if (entities != null) {
+                List<List<Cacheable>> parts = new ArrayList<List<Cacheable>>(this.shards.length);
+                for (int i = 0; i < this.shards.length; i++) {
+                    parts.add(new ArrayList<Cacheable>());
+                }
+                for (Cacheable entity : entities) {
+                    parts.get(this.shardIndex(entity.getCacheKey())).add(entity);
+                }
+                for (int i = 0; i < this.shards.length; i++) {
+                    this.shards[i].publishGroup(groupKey, parts.get(i), tickets[i]);
+                }
+            }
+            return entities;
+        } finally {
+            for (int i = 0; i < this.shards.length; i++) {
+                this.shards[i].endLoad(tickets[i]);
+            }
+        }
+    }
+
+    public void flushGroup(Object groupKey) throws Exception {
+        for (Shard shard : this.shards) {
+            shard.flushGroup(groupKey);
+        }
+    }
+
+    public void flushAll() throws Exception {
+        for (Shard shard : this.shards) {
+            shard.flushAll();
+        }
+        for (Shard shard : this.shards) {
+            shard.routes.clear();
+        }
+    }
+
+    /**
+     * Cleans up every shard, in parallel once initialized, and waits for all of them.
+     */
+    public void cleanup() throws Exception {
+        this.cleanupShards(null);
+    }
+
+    /**
+     * Runs a single cleanup policy on every shard, like cleanup().
+     */
+    public void cleanup(CacheCleanupPolicy cleanupPolicy) throws Exception {
+        this.cleanupShards(cleanupPolicy);
+    }
+
+    /**
+     * @param cleanupPolicy The policy to run, or null for all of them.
+     */
+    private void cleanupShards(final CacheCleanupPolicy cleanupPolicy) throws Exception {
+        ExecutorService executor = this.cleanupExecutor;
+        if (executor == null) {
+            for (Shard shard : this.shards) {
+                shard.cleanupWith(cleanupPolicy);
+            }
+            return;
+        }
+        List<Future<Void>> cleanups = new ArrayList<Future<Void>>(this.shards.length);
+        for (final Shard shard : this.shards) {
+            cleanups.add(executor.submit(new Callable<Void>() {
+                public Void call() throws Exception {
+                    shard.cleanupWith(cleanupPolicy);
+                    return null;
+                }
+            }));
+        }
+        for (Future<Void> cleanup : cleanups) {
+            try {
+                cleanup.get();
+            } catch (ExecutionException e) {
+                logger.log(Level.WARNING, "Cleanup of a shard of " + this.name + " failed", e.getCause());
+            }
+        }
+    }
+
+    /**
+     * @return The share of a whole cache limit each shard gets.
+     */
+    private long perShard(long limit) {
+        return limit > 0 ? (limit + this.shards.length - 1) / this.shards.length : limit;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @param name Name of the cache; the shards are named after it.
+     */
+    public void setName(String name) {
+        this.name = name;
+        for (int i = 0; i < this.shards.length; i++) {
+            this.shards[i].setName(name + "-" + i);
+        }
+    }
+
+    public int getShardCount() {
+        return this.shards.length;
+    }
+
+    /**
+     * @return Maximum number of shards cleaned up at the same time.
+     */
+    public int getCleanupThreads() {
+        return cleanupThreads;
+    }
+
+    /**
+     * @param cleanupThreads Maximum number of shards cleaned up at the same time. Set it before init().
+     */
+    public void setCleanupThreads(int cleanupThreads) {
+        this.cleanupThreads = cleanupThreads;
+    }
+
+    public void setInitializerPolicy(CacheInitializerPolicy newValue) {
+        this.initializerPolicy = newValue;
+    }
+
+    public CacheInitializerPolicy getInitializerPolicy() {
+        return initializerPolicy;
+    }
+
+    public void setCleanupPolicies(List<CacheCleanupPolicy> newValue) {
+        for (Shard shard : this.shards) {
+            shard.setCleanupPolicies(new ArrayList<CacheCleanupPolicy>(newValue));
+        }
+    }
+
+    public List<CacheCleanupPolicy> getCleanupPolicies() {
+        return this.shards[0].getCleanupPolicies();
+    }
+
+    public void addCleanupPolicy(CacheCleanupPolicy newValue) {
+        for (Shard shard : this.shards) {
+            shard.addCleanupPolicy(newValue);
+        }
+    }
+
+    public void setNotifierPolicy(CacheNotifierPolicy newValue) {
+        for (Shard shard : this.shards) {
+            shard.setNotifierPolicy(newValue);
+        }
+    }
+
+    public CacheNotifierPolicy getNotifierPolicy() {
+        return this.shards[0].getNotifierPolicy();
+    }
+
+    public void setLoaderPolicy(CacheLoaderPolicy newValue) {
+        for (Shard shard : this.shards) {
+            shard.setLoaderPolicy(newValue);
+        }
+    }
+
+    public CacheLoaderPolicy getLoaderPolicy() {
+        return this.shards[0].getLoaderPolicy();
+    }
+
+    public void setWriterPolicy(CacheWriterPolicy writerPolicy) {
+        for (Shard shard : this.shards) {
+            shard.setWriterPolicy(writerPolicy);
+        }
+    }
+
+    public CacheWriterPolicy getWriterPolicy() {
+        return this.shards[0].getWriterPolicy();
+    }
+
+    public void setExpiryPolicy(ExpiryPolicy expiryPolicy) {
+        for (Shard shard : this.shards) {
+            shard.setExpiryPolicy(expiryPolicy);
+        }
+    }
+
+    public ExpiryPolicy getExpiryPolicy() {
+        return this.shards[0].getExpiryPolicy();
+    }
+
+    public void setWeigher(Weigher weigher) {
+        for (Shard shard : this.shards) {
+            shard.setWeigher(weigher);
+        }
+    }
+
+    public Weigher getWeigher() {
+        return this.shards[0].getWeigher();
+    }
+
+    public void setTicker(Ticker ticker) {
+        for (Shard shard : this.shards) {
+            shard.setTicker(ticker);
+        }
+    }
+
+    public Ticker getTicker() {
+        return this.shards[0].getTicker();
+    }
+
+    public void setValueReference(ValueReference valueReference) {
+        for (Shard shard : this.shards) {
+            shard.setValueReference(valueReference);
+        }
+    }
+
+    public ValueReference getValueReference() {
+        return this.shards[0].getValueReference();
+    }
+
+    public void setReadOnlyViews(boolean newValue) {
+        for (Shard shard : this.shards) {
+            shard.setReadOnlyViews(newValue);
+        }
+    }
+
+    public boolean isReadOnlyViews() {
+        return this.shards[0].isReadOnlyViews();
+    }
+
+    /**
+     * @param negativeCacheSize Number of missing keys remembered by each shard.
+     */
+    public void setNegativeCacheSize(int negativeCacheSize) {
+        for (Shard shard : this.shards) {
+            shard.setNegativeCacheSize(negativeCacheSize);
+        }
+    }
+
+    public int getNegativeCacheSize() {
+        return this.shards[0].getNegativeCacheSize();
+    }
+
+    public void setNegativeTimeToLive(long negativeTimeToLive) {
+        for (Shard shard : this.shards) {
+            shard.setNegativeTimeToLive(negativeTimeToLive);
+        }
+    }
+
+    public long getNegativeTimeToLive() {
+        return this.shards[0].getNegativeTimeToLive();
+    }
+
+    public void setKeyFilter(boolean keyFilter) {
+        for (Shard shard : this.shards) {
+            shard.setKeyFilter(keyFilter);
+        }
+    }
+
+    public boolean isKeyFilter() {
+        return this.shards[0].isKeyFilter();
+    }
+
+    public boolean isGrouped() {
+        return this.shards[0].isGrouped();
+    }
+
+    public void setGrouped(boolean newValue) {
+        for (Shard shard : this.shards) {
+            shard.setGrouped(newValue);
+        }
+    }
+
+    public long getHighWaterMark() {
+        return highWaterMark;
+    }
+
+    public void setHighWaterMark(long highWaterMark) {
+        this.highWaterMark = highWaterMark;
+        for (Shard shard : this.shards) {
+            shard.setHighWaterMark(this.perShard(highWaterMark));
+        }
+    }
+
+    public long getTreshHold() {
+        return treshHold;
+    }
+
+    public void setTreshHold(long treshHold) {
+        this.treshHold = treshHold;
+        for (Shard shard : this.shards) {
+            shard.setTreshHold(this.perShard(treshHold));
+        }
+    }
+
+    public long getLowWaterMark() {
+        return lowWaterMark;
+    }
+
+    public void setLowWaterMark(long lowWaterMark) {
+        this.lowWaterMark = lowWaterMark;
+        for (Shard shard : this.shards) {
+            shard.setLowWaterMark(this.perShard(lowWaterMark));
+        }
+    }
+
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    /**
+     * @param maxWeight Hard limit for the weight of the whole cache, or 0 or less for none.
+     */
+    public void setMaxWeight(long maxWeight) {
+        this.maxWeight = maxWeight;
+        for (Shard shard : this.shards) {
+            shard.setMaxWeight(this.perShard(maxWeight));
+        }
+    }
+
+    public boolean isDistributable() {
+        return this.shards[0].isDistributable();
+    }
+
+    public void setDistributable(boolean distributable) {
+        for (Shard shard : this.shards) {
+            shard.setDistributable(distributable);
+        }
+    }
+
+    public boolean isSyncCluster() {
+        return this.shards[0].isSyncCluster();
+    }
+
+    public void setSyncCluster(boolean syncCache) {
+        for (Shard shard : this.shards) {
+            shard.setSyncCluster(syncCache);
+        }
+    }
+
+    public boolean isAtomicGroup() {
+        return this.shards[0].isAtomicGroup();
+    }
+
+    public void setAtomicGroup(boolean atomicGroup) {
+        for (Shard shard : this.shards) {
+            shard.setAtomicGroup(atomicGroup);
+        }
+    }
+
+    public long getDefaultIdleTime() {
+        return this.shards[0].getDefaultIdleTime();
+    }
+
+    public void setDefaultIdleTime(long defaultIdleTime) {
+        for (Shard shard : this.shards) {
+            shard.setDefaultIdleTime(defaultIdleTime);
+        }
+    }
+
+    public long getDefaultTimeToLive() {
+        return this.shards[0].getDefaultTimeToLive();
+    }
+
+    public void setDefaultTimeToLive(long defaultTimeToLive) {
+        for (Shard shard : this.shards) {
+            shard.setDefaultTimeToLive(defaultTimeToLive);
+        }
+    }
+
+    public long getMissCounter() {
+        long total = this.groupMissCounter.get();
+        for (Shard shard : this.shards) {
+            total += shard.getMissCounter();
+        }
+        return total;
+    }
+
+    public long getHitCounter() {
+        long total = this.groupHitCounter.get();
+        for (Shard shard : this.shards) {
+            total += shard.getHitCounter();
+        }
+        return total;
+    }
+
+    public double getHitRatio() {
+        long hits = this.getHitCounter();
+        long requests = hits + this.getMissCounter();
+        return requests == 0 ? 0 : (double) hits / requests;
+    }
+
+    public long getSize() throws Exception {
+        long total = 0;
+        for (Shard shard : this.shards) {
+            total += shard.getSize();
+        }
+        return total;
+    }
+
+    public long getSecondaryKeyCount() {
+        long total = 0;
+        for (Shard shard : this.shards) {
+            total += shard.getSecondaryKeyCount();
+        }
+        return total;
+    }
+
+    public long getEvictionCounter() {
+        long total = 0;
+        for (Shard shard : this.shards) {
+            total += shard.getEvictionCounter();
+        }
+        return total;
+    }
+
+    public long getNegativeHitCounter() {
+        long total = 0;
+        for (Shard shard : this.shards) {
+            total += shard.getNegativeHitCounter();
+        }
+        return total;
+    }
+
+    public long getWeight() {
+        long total = 0;
+        for (Shard shard : this.shards) {
+            total += shard.getWeight();
+        }
+        return total;
+    }
+
+    /**
+     * A CacheManager holding the keys of one shard, cleaned up by the ShardedCacheManager.
+     */
+    private class Shard extends CacheManager {
+        /** Secondary keys of this shard cached with an entity of another shard, to its primary key. */
+        private final ConcurrentMap<Object, Object> routes = new ConcurrentHashMap<Object, Object>();
+        /** When each running load started (System.nanoTime()), by ticket. */
+        private final ConcurrentMap<Long, Long> loadStarts = new ConcurrentHashMap<Long, Long>();
+        /** When this shard last had a change (System.nanoTime()). */
+        private volatile long lastChange = System.nanoTime();
+
+        @Override
+        protected boolean isCachedHere(Object cacheKey) {
+            return shardFor(cacheKey) == this;
+        }
+
+        /**
+         * Entities of other shards (loaded by one of their secondary keys, or handed back by the loader along
+         * with the one asked for) are handed to their own shard.
+         */
+        @Override
+        protected boolean registerLoaded(Cacheable entity, long ticket) throws CacheException {
+            Shard owner = shards[shardIndex(entity.getCacheKey())];
+            if (owner == this) {
+                return super.registerLoaded(entity, ticket);
+            }
+            Long started = this.loadStarts.get(ticket);
+            return started != null && owner.adopt(entity, started);
+        }
+
+        /**
+         * Caches an entity another shard loaded, unless anything changed here since the load started: the
+         * changes recorded here are not comparable with the tickets of that shard.
+         */
+        private boolean adopt(Cacheable entity, long started) throws CacheException {
+            //Changes from now on are caught by this ticket; the ones before it, by lastChange.
+            long ticket = this.beginLoad();
+            try {
+                return this.lastChange - started < 0 && super.registerLoaded(entity, ticket);
+            } finally {
+                this.endLoad(ticket);
+            }
+        }
+
+        @Override
+        protected long beginLoad() {
+            long ticket = super.beginLoad();
+            this.loadStarts.put(ticket, System.nanoTime());
+            return ticket;
+        }
+
+        @Override
+        protected void endLoad(long ticket) {
+            this.loadStarts.remove(ticket);
+            super.endLoad(ticket);
+        }
+
+        //Set before the change gets its sequence number, so an adopt() ticket taken after it sees it.
+        @Override
+        protected void recordKeyChange(Object cacheKey) {
+            this.lastChange = System.nanoTime();
+            super.recordKeyChange(cacheKey);
+        }
+
+        @Override
+        protected void recordGroupChange(Object groupKey) {
+            this.lastChange = System.nanoTime();
+            super.recordGroupChange(groupKey);
+        }
+
+        @Override
+        public void flushAll() {
+            this.lastChange = System.nanoTime();
+            super.flushAll();
+        }
+
+        @Override
+        void indexed(CachedEntity cached, CachedEntity previous) {
+            Object primaryKey = cached.getCacheKey();
+            Object[] keys = KeyIndex.secondaryKeysOf(cached);
+            for (Object key : keys) {
+                Shard home = shards[shardIndex(key)];
+                if (home != this) {
+                    home.routes.put(key, primaryKey);
+                }
+            }
+            if (previous != null) {
+                //Drop the routes of the secondary keys the new version doesn't have anymore.
+                List<Object> kept = Arrays.asList(keys);
+                for (Object key : KeyIndex.secondaryKeysOf(previous)) {
+                    if (!kept.contains(key)) {
+                        this.unroute(key, primaryKey);
+                    }
+                }
+            }
+        }
+
+        @Override
+        void unindexed(CachedEntity cached) {
+            for (Object key : KeyIndex.secondaryKeysOf(cached)) {
+                this.unroute(key, cached.getCacheKey());
+            }
+        }
+
+        private void unroute(Object key, Object primaryKey) {
+            Shard home = shards[shardIndex(key)];
+            if (home != this) {
+                //Only if no other entity claimed it in the meantime.
+                home.routes.remove(key, primaryKey);
+            }
+        }
+
+        void cleanupWith(CacheCleanupPolicy cleanupPolicy) throws Exception {
+            if (cleanupPolicy == null) {
+                this.cleanup();
+            } else {
+                this.cleanup(cleanupPolicy);
+            }
+        }
+
+        @Override
+        protected void startCleanup() {
+            //All the shards at once, by the ShardedCacheManager.
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.msc.cache;
+
+/**
+ * <P>The time source of a CacheManager: entry timestamps, expiration (see ExpiryPolicy), the negative cache and
+ * the cleanup policies all read the time from its ticker, so a test can plug a FakeTicker in and move time
+ * forward instead of sleeping.</P>
+ *
+ * <P>A ticker reads nanoseconds from an arbitrary origin, like System.nanoTime(): only the difference between
+ * two readings means something. The CacheManager anchors its first reading to the wall clock, so the times it
+ * reports (see CachedEntity.getCreationTime()) are still milliseconds since 1970.</P>
+ */
+public interface Ticker {
+    /**
+     * Reads System.nanoTime().
+     */
+    public static final Ticker SYSTEM = new Ticker() {
+        public long read() {
+            return System.nanoTime();
+        }
+    };
+
+    /**
+     * @return Nanoseconds elapsed since an arbitrary, fixed origin.
+     */
+    public long read();
+}
@@ -0,0 +1,175 @@
+package com.msc.cache;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+
+/**
+ * <P>How a CacheManager holds the entities it caches (see CacheManager.setValueReference()):</P>
+ * <UL>
+ * <LI>STRONG - until they are invalidated or evicted. The default.</LI>
+ * <LI>SOFT - the garbage collector may reclaim them when the heap runs low, so the cache can grow into the
+ * free heap without risking an OutOfMemoryError.</LI>
+ * <LI>WEAK - the garbage collector reclaims them as soon as nothing else uses them.</LI>
+ * </UL>
+ * Entries whose entity was reclaimed read as misses, and are removed from their group and the indexes by
+ * the maintenance of the CacheManager (they count as evictions).
+ */
+public enum ValueReference {
+	STRONG, SOFT, WEAK;
+
+	/**
+	 * Reference to a cached entity that remembers what the CacheManager needs to remove its entry once the
+	 * entity is gone: the entry itself, its keys and its weight.
+	 */
+	interface Collectable {
+		Cacheable get();
+		CachedEntity getOwner();
+		Object getCacheKey();
+		Object getGroupKey();
+		Object[] getSecondaryKeys();
+		long getWeight();
+	}
+
+	Reference<Cacheable> wrap(CachedEntity owner, Cacheable entity, long weight, ReferenceQueue<Cacheable> queue) {
+		switch (this) {
+			case SOFT:
+				return new SoftEntity(owner, entity, weight, queue);
+			case WEAK:
+				return new WeakEntity(owner, entity, weight, queue);
+			default:
+				throw new IllegalStateException("Strong references are not wrapped");
+		}
+	}
+
+	/**
+	 * Holds an entity strongly, but remembers its keys and weight like the references do: used by the caches
+	 * with a Weigher, so an entity changed in place leaves with the weight it was cached with.
+	 */
+	Collectable hold(CachedEntity owner, Cacheable entity, long weight) {
+		return new StrongEntity(owner, entity, weight);
+	}
+
+	private static Object groupKeyOf(Cacheable entity) {
+		return entity instanceof GroupCacheable ? ((GroupCacheable) entity).getGroupKey() : CacheManager.DEFAULT_GROUP_KEY;
+	}
+
+	private static Object[] secondaryKeysOf(Cacheable entity) {
+		return entity instanceof CompoundKeyCacheable ? ((CompoundKeyCacheable) entity).getSecondaryKeys() : null;
+	}
+
+	private static class SoftEntity extends SoftReference<Cacheable> implements Collectable {
+		private final CachedEntity owner;
+		private final Object cacheKey;
+		private final Object groupKey;
+		private final Object[] secondaryKeys;
+		private final long weight;
+
+		SoftEntity(CachedEntity owner, Cacheable entity, long weight, ReferenceQueue<Cacheable> queue) {
+			super(entity, queue);
+			this.owner = owner;
+			this.cacheKey = entity.getCacheKey();
+			this.groupKey = groupKeyOf(entity);
+			this.secondaryKeys = secondaryKeysOf(entity);
+			this.weight = weight;
+		}
+
+		public CachedEntity getOwner() {
+			return owner;
+		}
+
+		public Object getCacheKey() {
+			return cacheKey;
+		}
+
+		public Object getGroupKey() {
+			return groupKey;
+		}
+
+		public Object[] getSecondaryKeys() {
+			return secondaryKeys;
+		}
+
+		public long getWeight() {
+			return weight;
+		}
+	}
+
+	private static class WeakEntity extends WeakReference<Cacheable> implements Collectable {
+		private final CachedEntity owner;
+		private final Object cacheKey;
+		private final Object groupKey;
+		private final Object[] secondaryKeys;
+		private final long weight;
+
+		WeakEntity(CachedEntity owner, Cacheable entity, long weight, ReferenceQueue<Cacheable> queue) {
+			super(entity, queue);
+			this.owner = owner;
+			this.cacheKey = entity.getCacheKey();
+			this.groupKey = groupKeyOf(entity);
+			this.secondaryKeys = secondaryKeysOf(entity);
+			this.weight = weight;
+		}
+
+		public CachedEntity getOwner() {
+			return owner;
+		}
+
+		public Object getCacheKey() {
+			return cacheKey;
+		}
+
+		public Object getGroupKey() {
+			return groupKey;
+		}
+
+		public Object[] getSecondaryKeys() {
+			return secondaryKeys;
+		}
+
+		public long getWeight() {
+			return weight;
+		}
+	}
+
+	private static class StrongEntity implements Collectable {
+		private final CachedEntity owner;
+		private final Cacheable entity;
+		private final Object groupKey;
+		private final Object[] secondaryKeys;
+		private final long weight;
+
+		StrongEntity(CachedEntity owner, Cacheable entity, long weight) {
+			this.owner = owner;
+			this.entity = entity;
+			this.groupKey = groupKeyOf(entity);
+			this.secondaryKeys = secondaryKeysOf(entity);
+			this.weight = weight;
+		}
+
+		public Cacheable get() {
+			return entity;
+		}
+
+		public CachedEntity getOwner() {
+			return owner;
+		}
+
+		public Object getCacheKey() {
+			return entity.getCacheKey();
+		}
+
+		public Object getGroupKey() {
+			return groupKey;
+		}
+
+		public Object[] getSecondaryKeys() {
+			return secondaryKeys;
+		}
+
+		public long getWeight() {
+			return weight;
+		}
+	}
+}
@@ -0,0 +1,16 @@
+package com.msc.cache;
+
+/**
+ * <P>Tells how much a cached entity weighs - usually an estimate of its size in bytes - so the capacity of a
+ * CacheManager (maxWeight, highWaterMark, lowWaterMark) can be given in those units instead of in number of
+ * entries.</P>
+ *
+ * <P>The weight of an entity is taken when it's cached and again when it's removed, so it must not change
+ * while the entity is cached.</P>
+ */
+public interface Weigher {
+	/**
+	 * @return The weight of the entity, 0 or more.
+	 */
+	public long weigh(Cacheable entity);
+}
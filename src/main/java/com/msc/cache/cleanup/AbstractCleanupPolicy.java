@@ -14,12 +14,22 @@ import java.util.logging.Logger;
  */
 public abstract class AbstractCleanupPolicy implements CacheCleanupPolicy {
     private static final Logger logger = Logger.getLogger(AbstractCleanupPolicy.class.getName());
-    private int frequency;
+    /**
+     * Frequency (in seconds) of the policies that don't set one.
+     */
+    public static final int DEFAULT_FREQUENCY = 60;
+    private int frequency = DEFAULT_FREQUENCY;
 
+    /**
+     * @return How often (in seconds) the policy runs.
+     */
     public int getFrequency() {
         return frequency;
     }
 
+    /**
+     * @param frequency How often (in seconds) the policy runs - like the expiration times it enforces.
+     */
     public void setFrequency(int frequency) {
         this.frequency = frequency;
     }
@@ -22,6 +22,9 @@ import com.msc.cache.CacheManager;
  */
 public interface CacheCleanupPolicy {
 	public void cleanup(CacheManager cacheManager);
+	/**
+	 * @param frequency How often (in seconds) the policy runs; 0 for AbstractCleanupPolicy.DEFAULT_FREQUENCY.
+	 */
     public void setFrequency(int frequency);
     public int getFrequency();
 }
@@ -0,0 +1,15 @@
+package com.msc.cache.cleanup;
+
+import com.msc.cache.CacheManager;
+
+/**
+ * A size based cleanup policy: besides running periodically, it picks the entities evicted when the cache goes
+ * over its maxWeight (see CacheManager.setMaxWeight()). The first one among the cleanup policies of a cache is
+ * used; without any, the cache evicts as the LRUCleanupPolicy does.
+ */
+public interface EvictionCleanupPolicy extends CacheCleanupPolicy {
+	/**
+	 * Evicts entities of the cache until its weight is down to the target.
+	 */
+	public void evict(CacheManager cacheManager, long targetWeight);
+}
@@ -0,0 +1,24 @@
+package com.msc.cache.cleanup;
+
+import com.msc.cache.CacheManager;
+
+/**
+ * <P>This Cleanup mechanism takes care of the entities expired by the ExpiryPolicy of the cache: they're kept
+ * on a timer wheel, so it only looks at the entities whose time is up (or about to be), not at every entity
+ * of every group. Entities of atomic groups are expired with their whole group.</P>
+ *
+ * <P>This Cleanup mechanism is automatically set up, every second, if the CacheManager has an expiryPolicy.
+ * Expired entities are never returned in between (get() checks their expiration time itself), they just
+ * take memory until then.</P>
+ */
+public class ExpiryCleanupPolicy extends AbstractCleanupPolicy {
+
+	public ExpiryCleanupPolicy() {
+		setFrequency(1);
+	}
+
+	public void cleanup(CacheManager cacheManager) {
+		cacheManager.expireEntries();
+	}
+
+}
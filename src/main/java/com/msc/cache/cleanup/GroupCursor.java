@@ -0,0 +1,53 @@
+package com.msc.cache.cleanup;
+
+import com.msc.cache.CacheManager;
+import com.msc.cache.CachedEntity;
+import com.msc.cache.GroupCacheable;
+import com.msc.cache.GroupCachedEntity;
+
+import java.util.Iterator;
+
+/**
+ * Position on a walk through the entities of a cache, group by group, kept between runs of a cleanup policy.
+ * It holds the weakly consistent iterators of the groups: entities registered meanwhile may or may not be
+ * seen by the walk in progress, and will be by the next one. Not thread safe.
+ */
+class GroupCursor {
+	private Iterator<GroupCacheable> groups;
+	private GroupCachedEntity group;
+	private Iterator<CachedEntity> entities;
+
+	/**
+	 * @return The next entity of the walk, or null if it's over (the next call starts a new one).
+	 */
+	CachedEntity next(CacheManager cacheManager) {
+		while (this.entities == null || !this.entities.hasNext()) {
+			if (this.groups == null) {
+				this.groups = cacheManager.getGroups().values().iterator();
+			}
+			if (!this.groups.hasNext()) {
+				this.groups = null;
+				this.group = null;
+				this.entities = null;
+				return null;
+			}
+			this.group = (GroupCachedEntity) this.groups.next();
+			this.entities = this.group.iterator();
+		}
+		return this.entities.next();
+	}
+
+	/**
+	 * @return The group of the last entity returned by next().
+	 */
+	GroupCachedEntity group() {
+		return this.group;
+	}
+
+	/**
+	 * Moves on to the next group: the entities left in this one are not returned.
+	 */
+	void skipGroup() {
+		this.entities = null;
+	}
+}
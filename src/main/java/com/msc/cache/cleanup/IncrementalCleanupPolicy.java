@@ -0,0 +1,114 @@
+package com.msc.cache.cleanup;
+
+import com.msc.cache.CacheManager;
+import com.msc.cache.CachedEntity;
+import com.msc.cache.GroupCachedEntity;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * <P>Base of the cleanup policies that check the entities one by one (the expiration ones). Instead of going
+ * through the whole cache every time it runs, it goes through up to batchSize entities and stops; the next run
+ * resumes from there, and starts over once it has gone through all of them. Every sliceSize entities it yields
+ * the processor. So each run takes about the same time whatever the size of the cache - a sweep of N entities
+ * takes N / batchSize runs (every second, unless another frequency is set). A batchSize of 0 goes through
+ * the whole cache every run.</P>
+ *
+ * <P>Entities registered during a sweep may or may not be seen by it, and will be by the next one (see
+ * GroupCursor). Expired entities of atomic groups are evicted with their whole group.</P>
+ */
+public abstract class IncrementalCleanupPolicy extends AbstractCleanupPolicy {
+	public static final int DEFAULT_BATCH_SIZE = 10000;
+	public static final int DEFAULT_SLICE_SIZE = 256;
+
+	private int batchSize = DEFAULT_BATCH_SIZE;
+	private int sliceSize = DEFAULT_SLICE_SIZE;
+	/** Where the sweep of each cache is: a policy may be shared by several caches. */
+	private final Map<CacheManager, Cursor> cursors = Collections.synchronizedMap(new WeakHashMap<CacheManager, Cursor>());
+
+	protected IncrementalCleanupPolicy() {
+		//Small batches, often.
+		setFrequency(1);
+	}
+
+	public void cleanup(CacheManager cacheManager) {
+		Cursor cursor = this.cursorOf(cacheManager);
+		if (!cursor.running.compareAndSet(false, true)) {
+			return; //Another thread is sweeping this cache.
+		}
+		try {
+			long currentTime = cacheManager.currentTimeMillis();
+			int limit = this.batchSize > 0 ? this.batchSize : Integer.MAX_VALUE;
+			int slice = Math.max(1, this.sliceSize);
+			for (int count = 1; count <= limit; count++) {
+				CachedEntity cachedEntity = cursor.next(cacheManager);
+				if (cachedEntity == null) { //Went through all of them: the next run starts over.
+					break;
+				}
+				GroupCachedEntity group = cursor.group();
+				if (this.isExpired(cacheManager, group, cachedEntity, currentTime)) {
+					if (group.isAtomicGroup()) {
+						cacheManager.evictGroup(group.getGroupKey());
+						cursor.skipGroup();
+					} else {
+						cacheManager.evict(cachedEntity);
+					}
+				}
+				if (count % slice == 0) {
+					Thread.yield();
+				}
+			}
+		} finally {
+			cursor.running.set(false);
+		}
+	}
+
+	/**
+	 * @param currentTime The time of the cache (see CacheManager.currentTimeMillis()).
+	 * @return Whether the entity should be evicted.
+	 */
+	protected abstract boolean isExpired(CacheManager cacheManager, GroupCachedEntity group, CachedEntity cachedEntity, long currentTime);
+
+	private Cursor cursorOf(CacheManager cacheManager) {
+		synchronized (this.cursors) {
+			Cursor cursor = this.cursors.get(cacheManager);
+			if (cursor == null) {
+				cursor = new Cursor();
+				this.cursors.put(cacheManager, cursor);
+			}
+			return cursor;
+		}
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * @param batchSize Maximum number of entities checked per run, or 0 for all of them.
+	 */
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	public int getSliceSize() {
+		return sliceSize;
+	}
+
+	/**
+	 * @param sliceSize Number of entities checked between two yields.
+	 */
+	public void setSliceSize(int sliceSize) {
+		this.sliceSize = sliceSize;
+	}
+
+	/**
+	 * Position of the sweep of one cache. Used by one thread at a time (see running).
+	 */
+	private static class Cursor extends GroupCursor {
+		final AtomicBoolean running = new AtomicBoolean();
+	}
+}
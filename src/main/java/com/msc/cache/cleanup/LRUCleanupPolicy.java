@@ -2,35 +2,85 @@ package com.msc.cache.cleanup;
 
 import com.msc.cache.CacheManager;
 import com.msc.cache.CachedEntity;
+import com.msc.cache.GroupCacheable;
 import com.msc.cache.GroupCachedEntity;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
 
 /**
+ * <P>Size based cleanup: when the weight of the cache (see CacheManager.getWeight()) goes over its
+ * highWaterMark, the least recently used entities are evicted until it's down to its lowWaterMark (to the
+ * highWaterMark if no lowWaterMark is set). Entities of atomic groups are evicted with their whole group.</P>
+ *
  * Created by IntelliJ IDEA.
  * @author <a href="mailto:mscaldas@gmail.comm">Marcelo Caldas</a>
  */
-public class LRUCleanupPolicy extends AbstractCleanupPolicy {
+public class LRUCleanupPolicy extends AbstractCleanupPolicy implements EvictionCleanupPolicy {
 
 	public LRUCleanupPolicy() {
 	}
 
 	public void cleanup(CacheManager cacheManager) {
-		//Go thru all Groups...
-		Iterator groupsIT = cacheManager.getGroups().entrySet().iterator();
-		GroupCachedEntity group;
-		long currentTime = System.currentTimeMillis();
-		while  (groupsIT.hasNext()) {
-			group = (GroupCachedEntity) groupsIT.next();
-			if (group.size() > 0) {
-				//Go thru all entities...
-				Iterator cachedEntityIT = group.iterator();
-				CachedEntity cachedEntity = null;
-				while (cachedEntityIT.hasNext()) {
-					cachedEntity = (CachedEntity) cachedEntityIT.next();
+		long highWaterMark = cacheManager.getHighWaterMark();
+		if (highWaterMark > 0 && cacheManager.getWeight() > highWaterMark) {
+			long lowWaterMark = cacheManager.getLowWaterMark();
+			evictLeastRecentlyUsed(cacheManager, lowWaterMark > 0 && lowWaterMark < highWaterMark ? lowWaterMark : highWaterMark);
+		}
+	}
+
+	public void evict(CacheManager cacheManager, long targetWeight) {
+		evictLeastRecentlyUsed(cacheManager, targetWeight);
+	}
+
+	/**
+	 * Evicts the least recently used entities of the cache until its weight is down to the target.
+	 */
+	public static void evictLeastRecentlyUsed(CacheManager cacheManager, long targetWeight) {
+		//Go thru all Groups and all entities, oldest access first...
+		List<Candidate> candidates = new ArrayList<Candidate>();
+		for (GroupCacheable aGroup : cacheManager.getGroups().values()) {
+			GroupCachedEntity group = (GroupCachedEntity) aGroup;
+			for (Iterator<CachedEntity> cachedEntityIT = group.iterator(); cachedEntityIT.hasNext(); ) {
+				CachedEntity cachedEntity = cachedEntityIT.next();
+				candidates.add(new Candidate(group, cachedEntity, group.getLastAccessedTime(cachedEntity)));
+			}
+		}
+		Collections.sort(candidates, new Comparator<Candidate>() {
+			public int compare(Candidate a, Candidate b) {
+				if (a.lastAccessedTime != b.lastAccessedTime) {
+					return a.lastAccessedTime < b.lastAccessedTime ? -1 : 1;
 				}
+				//Accessed within the same second: the least used goes first.
+				long aHits = a.cachedEntity.getNumberOfHits();
+				long bHits = b.cachedEntity.getNumberOfHits();
+				return aHits < bHits ? -1 : (aHits == bHits ? 0 : 1);
+			}
+		});
+		for (Candidate candidate : candidates) {
+			if (cacheManager.getWeight() <= targetWeight) {
+				break;
+			}
+			if (candidate.group.isAtomicGroup()) {
+				cacheManager.evictGroup(candidate.group.getGroupKey());
+			} else {
+				cacheManager.evict(candidate.cachedEntity);
 			}
 		}
 	}
 
+	private static class Candidate {
+		final GroupCachedEntity group;
+		final CachedEntity cachedEntity;
+		final long lastAccessedTime;
+
+		Candidate(GroupCachedEntity group, CachedEntity cachedEntity, long lastAccessedTime) {
+			this.group = group;
+			this.cachedEntity = cachedEntity;
+			this.lastAccessedTime = lastAccessedTime;
+		}
+	}
 }
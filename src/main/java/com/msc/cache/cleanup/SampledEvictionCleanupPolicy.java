@@ -0,0 +1,219 @@
+package com.msc.cache.cleanup;
+
+import com.msc.cache.CacheManager;
+import com.msc.cache.CachedEntity;
+import com.msc.cache.GroupCachedEntity;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * <P>Size based cleanup that approximates the LRUCleanupPolicy (or evicts the least frequently used entities)
+ * without going through the whole cache: when its weight goes over the highWaterMark (or its maxWeight),
+ * sampleSize entities are sampled and the worst of them evicted, over and over until the weight is down to
+ * the target. The best candidates seen are kept between evictions in a pool of poolSize (the worst first),
+ * so each eviction picks among many more than sampleSize entities. Each eviction costs sampleSize entities
+ * looked at instead of a sort of the whole cache, and reads do nothing more than they already do.</P>
+ *
+ * <P>The samples are taken from a walk of the cache kept between evictions (see GroupCursor): the order of
+ * the walk follows the hashes of the keys, which has nothing to do with how they're used. In LRU mode the
+ * entity accessed the longest ago is evicted first (the least hit if accessed at the same time); in LFU mode
+ * the least hit (the one accessed the longest ago if hit as many times). Hits are counted since the entity
+ * was cached and never decay. A candidate used since it was sampled is scored again, and kept if it's no longer
+ * the worst. Entities of atomic groups are evicted with their whole group.</P>
+ */
+public class SampledEvictionCleanupPolicy extends AbstractCleanupPolicy implements EvictionCleanupPolicy {
+	public static final int DEFAULT_SAMPLE_SIZE = 5;
+	public static final int DEFAULT_POOL_SIZE = 16;
+
+	public static enum Mode {
+		/** Least recently used first. */
+		LRU,
+		/** Least frequently used first. */
+		LFU
+	}
+
+	private Mode mode = Mode.LRU;
+	private int sampleSize = DEFAULT_SAMPLE_SIZE;
+	private int poolSize = DEFAULT_POOL_SIZE;
+	/** Walk and pool of each cache: a policy may be shared by several caches. */
+	private final Map<CacheManager, Sampler> samplers = new WeakHashMap<CacheManager, Sampler>();
+
+	public SampledEvictionCleanupPolicy() {
+	}
+
+	public SampledEvictionCleanupPolicy(Mode mode) {
+		this.mode = mode;
+	}
+
+	public void cleanup(CacheManager cacheManager) {
+		long highWaterMark = cacheManager.getHighWaterMark();
+		if (highWaterMark > 0 && cacheManager.getWeight() > highWaterMark) {
+			long lowWaterMark = cacheManager.getLowWaterMark();
+			this.evict(cacheManager, lowWaterMark > 0 && lowWaterMark < highWaterMark ? lowWaterMark : highWaterMark);
+		}
+	}
+
+	public void evict(CacheManager cacheManager, long targetWeight) {
+		Sampler sampler = this.samplerOf(cacheManager);
+		synchronized (sampler) {
+			while (cacheManager.getWeight() > targetWeight) {
+				Candidate worst = sampler.worst(cacheManager);
+				if (worst == null) { //Nothing left to evict.
+					break;
+				}
+				if (worst.group.isAtomicGroup()) {
+					if (cacheManager.getGroups().get(worst.group.getGroupKey()) == worst.group) {
+						cacheManager.evictGroup(worst.group.getGroupKey());
+					}
+				} else {
+					cacheManager.evict(worst.cachedEntity);
+				}
+			}
+		}
+	}
+
+	private Sampler samplerOf(CacheManager cacheManager) {
+		synchronized (this.samplers) {
+			Sampler sampler = this.samplers.get(cacheManager);
+			if (sampler == null) {
+				sampler = new Sampler();
+				this.samplers.put(cacheManager, sampler);
+			}
+			return sampler;
+		}
+	}
+
+	private Candidate score(GroupCachedEntity group, CachedEntity cachedEntity) {
+		long lastAccessedTime = group.getLastAccessedTime(cachedEntity);
+		long hits = cachedEntity.getNumberOfHits();
+		if (this.mode == Mode.LFU) {
+			return new Candidate(group, cachedEntity, hits, lastAccessedTime);
+		}
+		return new Candidate(group, cachedEntity, lastAccessedTime, hits);
+	}
+
+	/**
+	 * The walk of a cache and its pool of candidates, worst first. Guarded by itself.
+	 */
+	private class Sampler {
+		final GroupCursor cursor = new GroupCursor();
+		final List<Candidate> pool = new ArrayList<Candidate>();
+
+		/**
+		 * @return The worst candidate still cached (removed from the pool), or null if the cache is empty.
+		 */
+		Candidate worst(CacheManager cacheManager) {
+			while (true) {
+				this.sample(cacheManager);
+				if (this.pool.isEmpty()) {
+					return null;
+				}
+				Candidate candidate = this.pool.remove(0);
+				if (candidate.group.get(candidate.cachedEntity.getCacheKey()) != candidate.cachedEntity) {
+					continue; //Removed or replaced since it was sampled.
+				}
+				Candidate now = score(candidate.group, candidate.cachedEntity);
+				if (now.compareTo(candidate) == 0) {
+					return candidate;
+				}
+				this.offer(now); //Used meanwhile: maybe not the worst anymore.
+			}
+		}
+
+		/**
+		 * Adds sampleSize entities of the walk to the pool.
+		 */
+		void sample(CacheManager cacheManager) {
+			boolean restarted = false;
+			for (int count = 0; count < Math.max(1, sampleSize); ) {
+				CachedEntity cachedEntity = this.cursor.next(cacheManager);
+				if (cachedEntity == null) {
+					if (restarted) { //Empty cache.
+						return;
+					}
+					restarted = true;
+					continue;
+				}
+				restarted = false;
+				this.offer(score(this.cursor.group(), cachedEntity));
+				count++;
+			}
+		}
+
+		void offer(Candidate candidate) {
+			for (int i = 0; i < this.pool.size(); i++) {
+				if (this.pool.get(i).cachedEntity == candidate.cachedEntity) {
+					this.pool.remove(i);
+					break;
+				}
+			}
+			int size = Math.max(1, poolSize);
+			if (this.pool.size() >= size && candidate.compareTo(this.pool.get(this.pool.size() - 1)) >= 0) {
+				return; //Better than all of them.
+			}
+			int index = Collections.binarySearch(this.pool, candidate);
+			this.pool.add(index < 0 ? -index - 1 : index, candidate);
+			while (this.pool.size() > size) {
+				this.pool.remove(this.pool.size() - 1);
+			}
+		}
+	}
+
+	/**
+	 * An entity sampled, with its score: the lower, the sooner it's evicted.
+	 */
+	private static class Candidate implements Comparable<Candidate> {
+		final GroupCachedEntity group;
+		final CachedEntity cachedEntity;
+		final long score;
+		final long tieBreaker;
+
+		Candidate(GroupCachedEntity group, CachedEntity cachedEntity, long score, long tieBreaker) {
+			this.group = group;
+			this.cachedEntity = cachedEntity;
+			this.score = score;
+			this.tieBreaker = tieBreaker;
+		}
+
+		public int compareTo(Candidate other) {
+			if (this.score != other.score) {
+				return this.score < other.score ? -1 : 1;
+			}
+			return this.tieBreaker < other.tieBreaker ? -1 : (this.tieBreaker == other.tieBreaker ? 0 : 1);
+		}
+	}
+
+	public Mode getMode() {
+		return mode;
+	}
+
+	public void setMode(Mode mode) {
+		this.mode = mode;
+	}
+
+	/**
+	 * @return Number of entities looked at per eviction.
+	 */
+	public int getSampleSize() {
+		return sampleSize;
+	}
+
+	public void setSampleSize(int sampleSize) {
+		this.sampleSize = sampleSize;
+	}
+
+	/**
+	 * @return Number of candidates kept between evictions.
+	 */
+	public int getPoolSize() {
+		return poolSize;
+	}
+
+	public void setPoolSize(int poolSize) {
+		this.poolSize = poolSize;
+	}
+}
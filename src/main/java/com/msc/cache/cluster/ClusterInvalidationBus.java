@@ -0,0 +1,442 @@
+package com.msc.cache.cluster;
+
+import com.msc.cache.CacheManager;
+import com.msc.cache.FilteredObjectInputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <P>Broadcasts invalidations between the CacheManagers of different JVMs. One bus is shared by all the
+ * distributable CacheManagers of a JVM (they are told apart by their names) and uses a ClusterTransport
+ * to reach the other nodes.</P>
+ *
+ * <P>Operations published by the local caches are not sent right away: they are collected for
+ * batchInterval milliseconds (or until maxBatchSize operations are pending) and sent together. While
+ * pending, operations are deduplicated per cache and key, so a key invalidated a thousand times in a
+ * burst travels only once.</P>
+ *
+ * <P>Every node has a random nodeId, written on every packet. Packets coming back from this same node
+ * are ignored, and the operations received from other nodes are applied with the bus flagged as
+ * "applying remote" on the current thread - so the resulting local notifications are not broadcast again.</P>
+ *
+ * <P>Keys received are deserialized only if they're of the basic types (see FilteredObjectInputStream) or
+ * of the allowedClasses: anyone able to send packets to the transport would otherwise pick the classes
+ * instantiated on this node. Packets whose lengths don't add up are discarded.</P>
+ *
+ * <P>A packet that can't be sent is dropped and the bus goes on with the next ones, so an unreachable node
+ * doesn't keep the others from getting their invalidations.</P>
+ */
+public class ClusterInvalidationBus implements ClusterReceiver {
+    private static final Logger logger = Logger.getLogger(ClusterInvalidationBus.class.getName());
+
+    public static final byte OP_INVALIDATE = 1;
+    public static final byte OP_FLUSH_GROUP = 2;
+    public static final byte OP_FLUSH_ALL = 3;
+    private static final byte OP_END = 0;
+    private static final int MAGIC = 0x51434231;
+    /** How many (node, sequence) pairs are remembered to discard duplicated packets. */
+    private static final int SEEN_PACKETS = 4096;
+
+    private ClusterTransport transport;
+    /** Maximum time (in milliseconds) an operation waits before being sent. */
+    private long batchInterval = 100;
+    /** Number of pending operations that triggers a send before batchInterval expires. */
+    private int maxBatchSize = 512;
+    /** Classes (or packages, ending in ".") of the keys, besides the basic types, accepted from other nodes. */
+    private List<String> allowedClasses = Collections.emptyList();
+
+    private final long nodeId = UUID.randomUUID().getMostSignificantBits();
+    private final AtomicLong sequence = new AtomicLong();
+    private final Map<String, CacheManager> managers = new ConcurrentHashMap<String, CacheManager>();
+    /** Guarded by pendingLock. */
+    private Set<Operation> pending = new LinkedHashSet<Operation>();
+    private final Object pendingLock = new Object();
+    private final Map<String, Boolean> seenPackets = new LinkedHashMap<String, Boolean>() {
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > SEEN_PACKETS;
+        }
+    };
+    private final ThreadLocal<Boolean> applyingRemote = new ThreadLocal<Boolean>();
+
+    private final AtomicLong publishedCounter = new AtomicLong();
+    private final AtomicLong dedupedCounter = new AtomicLong();
+    private final AtomicLong sentPackets = new AtomicLong();
+    private final AtomicLong failedPackets = new AtomicLong();
+    private final AtomicLong receivedPackets = new AtomicLong();
+    private final AtomicLong echoCounter = new AtomicLong();
+    private final AtomicLong appliedCounter = new AtomicLong();
+
+    private volatile FlushThread flushThread;
+
+    public ClusterInvalidationBus() {
+    }
+
+    public ClusterInvalidationBus(ClusterTransport transport) {
+        this.transport = transport;
+    }
+
+    /**
+     * Opens the transport and starts sending batches.
+     */
+    public synchronized void init() throws IOException {
+        if (this.flushThread == null) {
+            this.transport.start(this);
+            this.flushThread = new FlushThread();
+            this.flushThread.start();
+        }
+    }
+
+    /**
+     * Sends whatever is pending and closes the transport.
+     */
+    public void shutdown() throws InterruptedException {
+        FlushThread current;
+        synchronized (this) {
+            current = this.flushThread;
+            this.flushThread = null;
+        }
+        if (current != null) {
+            current.halt();
+            current.join();
+            this.flush();
+            this.transport.stop();
+        }
+    }
+
+    /**
+     * Makes a CacheManager reachable by the invalidations sent by the other nodes.
+     */
+    public void register(CacheManager cacheManager) {
+        if (cacheManager.getName() == null) {
+            throw new IllegalArgumentException("Distributable CacheManagers must have a name");
+        }
+        this.managers.put(cacheManager.getName(), cacheManager);
+    }
+
+    public void unregister(CacheManager cacheManager) {
+        this.managers.remove(cacheManager.getName());
+    }
+
+    /**
+     * @return Whether the current thread is applying operations received from another node.
+     */
+    public boolean isApplyingRemote() {
+        return this.applyingRemote.get() != null;
+    }
+
+    /**
+     * Queues an operation to be broadcast to the other nodes.
+     *
+     * @param cacheName The name of the CacheManager (the same on every node).
+     * @param operation One of the OP_ constants.
+     * @param key       The key being invalidated, or the group key being flushed. Must be Serializable.
+     * @param immediate Whether to send it (and everything pending) before returning.
+     */
+    public void publish(String cacheName, byte operation, Object key, boolean immediate) {
+        Operation op = new Operation(cacheName, operation, key);
+        int size;
+        synchronized (this.pendingLock) {
+            if (!this.pending.add(op)) {
+                this.dedupedCounter.incrementAndGet();
+            }
+            size = this.pending.size();
+        }
+        this.publishedCounter.incrementAndGet();
+        if (immediate) {
+            this.flush();
+        } else if (size >= this.maxBatchSize) {
+            FlushThread current = this.flushThread;
+            if (current != null) {
+                current.interrupt();
+            }
+        }
+    }
+
+    /**
+     * Sends every pending operation now.
+     */
+    public void flush() {
+        Set<Operation> batch;
+        synchronized (this.pendingLock) {
+            if (this.pending.isEmpty()) {
+                return;
+            }
+            batch = this.pending;
+            this.pending = new LinkedHashSet<Operation>();
+        }
+        List<ByteArrayOutputStream> packets;
+        try {
+            packets = this.encode(batch);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Unable to encode " + batch.size() + " cache invalidations", e);
+            return;
+        }
+        for (ByteArrayOutputStream packet : packets) {
+            try {
+                this.transport.send(packet.toByteArray(), packet.size());
+                this.sentPackets.incrementAndGet();
+            } catch (IOException e) {
+                this.failedPackets.incrementAndGet();
+                logger.log(Level.WARNING, "Unable to broadcast a packet of cache invalidations", e);
+            }
+        }
+    }
+
+    private List<ByteArrayOutputStream> encode(Set<Operation> batch) throws IOException {
+        List<ByteArrayOutputStream> packets = new ArrayList<ByteArrayOutputStream>();
+        int limit = this.transport.getMaxPacketSize();
+        ByteArrayOutputStream packet = null;
+        DataOutputStream out = null;
+        for (Operation op : batch) {
+            byte[] key;
+            try {
+                key = serialize(op.key);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Unable to serialize cache key " + op.key + " - it will not be sent to the cluster", e);
+                continue;
+            }
+            int opSize = 1 + 2 + op.cacheName.length() * 3 + 4 + key.length;
+            if (packet != null && packet.size() + opSize + 1 > limit) {
+                out.writeByte(OP_END);
+                out.flush();
+                packet = null;
+            }
+            if (packet == null) {
+                packet = new ByteArrayOutputStream(Math.min(limit, 1024));
+                packets.add(packet);
+                out = new DataOutputStream(packet);
+                out.writeInt(MAGIC);
+                out.writeLong(this.nodeId);
+                out.writeLong(this.sequence.incrementAndGet());
+            }
+            out.writeByte(op.operation);
+            out.writeUTF(op.cacheName);
+            out.writeInt(key.length);
+            out.write(key);
+        }
+        if (out != null) {
+            out.writeByte(OP_END);
+            out.flush();
+        }
+        return packets;
+    }
+
+    private static byte[] serialize(Object key) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(key);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    public void receive(byte[] packet, int offset, int length) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(packet, offset, length));
+            if (in.readInt() != MAGIC) {
+                logger.fine("Ignoring unknown cluster packet");
+                return;
+            }
+            long sender = in.readLong();
+            long seq = in.readLong();
+            if (sender == this.nodeId) {
+                this.echoCounter.incrementAndGet();
+                return;
+            }
+            synchronized (this.seenPackets) {
+                if (this.seenPackets.put(sender + ":" + seq, Boolean.TRUE) != null) {
+                    return;
+                }
+            }
+            this.receivedPackets.incrementAndGet();
+            byte operation;
+            while ((operation = in.readByte()) != OP_END) {
+                String cacheName = in.readUTF();
+                int keyLength = in.readInt();
+                if (keyLength < 0 || keyLength > in.available()) {
+                    logger.warning("Discarding cluster packet with an invalid key length: " + keyLength);
+                    return;
+                }
+                byte[] keyBytes = new byte[keyLength];
+                in.readFully(keyBytes);
+                CacheManager manager = this.managers.get(cacheName);
+                if (manager != null) {
+                    this.apply(manager, operation, keyBytes);
+                }
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Invalid cluster packet", e);
+        }
+    }
+
+    private void apply(CacheManager manager, byte operation, byte[] keyBytes) {
+        this.applyingRemote.set(Boolean.TRUE);
+        try {
+            Object key = new FilteredObjectInputStream(new ByteArrayInputStream(keyBytes), this.allowedClasses).readObject();
+            switch (operation) {
+                case OP_INVALIDATE:
+                    manager.invalidateKey(key);
+                    break;
+                case OP_FLUSH_GROUP:
+                    manager.flushGroup(key);
+                    break;
+                case OP_FLUSH_ALL:
+                    manager.flushAll();
+                    break;
+                default:
+                    logger.fine("Ignoring unknown cluster operation " + operation);
+                    return;
+            }
+            this.appliedCounter.incrementAndGet();
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "Unable to apply cluster operation on " + manager.getName(), e);
+        } finally {
+            this.applyingRemote.remove();
+        }
+    }
+
+    public ClusterTransport getTransport() {
+        return transport;
+    }
+
+    public void setTransport(ClusterTransport transport) {
+        this.transport = transport;
+    }
+
+    public long getBatchInterval() {
+        return batchInterval;
+    }
+
+    public void setBatchInterval(long batchInterval) {
+        this.batchInterval = batchInterval;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    public void setMaxBatchSize(int maxBatchSize) {
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    public List<String> getAllowedClasses() {
+        return allowedClasses;
+    }
+
+    /**
+     * @param allowedClasses Classes (or packages, ending in ".") of the keys accepted from other nodes,
+     *                       besides the boxed primitives, String and the other basic types.
+     */
+    public void setAllowedClasses(List<String> allowedClasses) {
+        this.allowedClasses = allowedClasses;
+    }
+
+    public long getNodeId() {
+        return nodeId;
+    }
+
+    public long getPublishedCounter() {
+        return publishedCounter.get();
+    }
+
+    public long getDedupedCounter() {
+        return dedupedCounter.get();
+    }
+
+    public long getSentPackets() {
+        return sentPackets.get();
+    }
+
+    /**
+     * @return Number of packets that couldn't be sent (to some node at least, for transports that tell).
+     */
+    public long getFailedPackets() {
+        return failedPackets.get();
+    }
+
+    public long getReceivedPackets() {
+        return receivedPackets.get();
+    }
+
+    public long getEchoCounter() {
+        return echoCounter.get();
+    }
+
+    public long getAppliedCounter() {
+        return appliedCounter.get();
+    }
+
+    /**
+     * An operation waiting to be sent. Two operations are the same if they target the same key of the same cache.
+     */
+    private static class Operation {
+        final String cacheName;
+        final byte operation;
+        final Object key;
+
+        Operation(String cacheName, byte operation, Object key) {
+            this.cacheName = cacheName;
+            this.operation = operation;
+            this.key = key;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Operation)) {
+                return false;
+            }
+            Operation other = (Operation) o;
+            return operation == other.operation && cacheName.equals(other.cacheName)
+                    && (key == null ? other.key == null : key.equals(other.key));
+        }
+
+        @Override
+        public int hashCode() {
+            return (cacheName.hashCode() * 31 + operation) * 31 + (key == null ? 0 : key.hashCode());
+        }
+    }
+
+    /**
+     * Sends the pending operations every batchInterval milliseconds (or sooner, when interrupted by publish).
+     */
+    private class FlushThread extends Thread {
+        private volatile boolean shouldKeepRunning = true;
+
+        FlushThread() {
+            super("ClusterInvalidationBus");
+            setDaemon(true);
+        }
+
+        void halt() {
+            this.shouldKeepRunning = false;
+            this.interrupt();
+        }
+
+        public void run() {
+            while (this.shouldKeepRunning) {
+                try {
+                    Thread.sleep(batchInterval);
+                } catch (InterruptedException ignored) {
+                    logger.finest("Flushing cluster operations ahead of time");
+                }
+                flush();
+            }
+        }
+    }
+}
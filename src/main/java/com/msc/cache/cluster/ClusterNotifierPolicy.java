@@ -0,0 +1,74 @@
+package com.msc.cache.cluster;
+
+import com.msc.cache.CacheManager;
+import com.msc.cache.CacheManagerAware;
+import com.msc.cache.notifier.CacheNotifierPolicy;
+import com.msc.cache.notifier.NotificationMessage;
+
+import java.util.logging.Logger;
+
+/**
+ * <P>Notifier policy that keeps the copies of a distributable CacheManager on other JVMs in sync. Every
+ * invalidate, refresh, flushGroup and flushAll on the local cache is published on a ClusterInvalidationBus;
+ * the other nodes drop the affected entries and reload them from the persistence storage on the next get().</P>
+ *
+ * <P>The CacheManager must have a name (the same one on every node) and be configured as distributable.
+ * If syncCluster is true the changes are sent before invalidate/refresh return, otherwise they are batched
+ * by the bus. Publishing only queues the operation, so this policy doesn't need to be wrapped in an
+ * AsyncCacheNotifierPolicy (and must not be, since echo suppression relies on the caller thread).</P>
+ */
+public class ClusterNotifierPolicy implements CacheNotifierPolicy, CacheManagerAware {
+    private static final Logger logger = Logger.getLogger(ClusterNotifierPolicy.class.getName());
+
+    private ClusterInvalidationBus bus;
+    private CacheManager cacheManager;
+
+    public ClusterNotifierPolicy() {
+    }
+
+    public ClusterNotifierPolicy(ClusterInvalidationBus bus) {
+        this.bus = bus;
+    }
+
+    public void setCacheManager(CacheManager cacheManager) {
+        this.cacheManager = cacheManager;
+        if (cacheManager.isDistributable()) {
+            this.bus.register(cacheManager);
+        } else {
+            logger.warning("CacheManager " + cacheManager.getName() + " is not distributable. Changes will not be sent to the cluster.");
+        }
+    }
+
+    public void notifyCache(NotificationMessage message) {
+        CacheManager manager = this.cacheManager;
+        if (manager == null || !manager.isDistributable() || this.bus.isApplyingRemote() || message.getType() == null) {
+            return;
+        }
+        switch (message.getType()) {
+            case INVALIDATE:
+            case REFRESH:
+                Object key = message.getKey();
+                if (key == null && message.getEntity() != null) {
+                    key = message.getEntity().getCacheKey();
+                }
+                this.bus.publish(manager.getName(), ClusterInvalidationBus.OP_INVALIDATE, key, manager.isSyncCluster());
+                break;
+            case FLUSH_GROUP:
+                this.bus.publish(manager.getName(), ClusterInvalidationBus.OP_FLUSH_GROUP, message.getGroupKey(), manager.isSyncCluster());
+                break;
+            case FLUSH_ALL:
+                this.bus.publish(manager.getName(), ClusterInvalidationBus.OP_FLUSH_ALL, null, manager.isSyncCluster());
+                break;
+            default:
+                //Hits, misses and registrations are local matters.
+        }
+    }
+
+    public ClusterInvalidationBus getBus() {
+        return bus;
+    }
+
+    public void setBus(ClusterInvalidationBus bus) {
+        this.bus = bus;
+    }
+}
@@ -0,0 +1,8 @@
+package com.msc.cache.cluster;
+
+/**
+ * Callback used by a ClusterTransport to deliver the packets it receives.
+ */
+public interface ClusterReceiver {
+    public void receive(byte[] packet, int offset, int length);
+}
@@ -0,0 +1,33 @@
+package com.msc.cache.cluster;
+
+import java.io.IOException;
+
+/**
+ * Pluggable transport used by the ClusterInvalidationBus to exchange packets with the other JVMs of the
+ * cluster. Two implementations are provided: MulticastClusterTransport (UDP multicast, zero configuration
+ * on a LAN) and TcpClusterTransport (explicit list of peers, for networks where multicast is not available).
+ *
+ * <P>A transport only moves opaque byte arrays around: encoding, batching and echo suppression are handled
+ * by the bus. Packets sent by a node may or may not be delivered back to the same node.</P>
+ */
+public interface ClusterTransport {
+    /**
+     * Opens the transport. Every packet received from now on is handed over to the receiver.
+     */
+    public void start(ClusterReceiver receiver) throws IOException;
+
+    /**
+     * Sends a packet to every other node of the cluster.
+     *
+     * @param packet The buffer holding the packet.
+     * @param length The number of bytes of the buffer that are part of the packet.
+     */
+    public void send(byte[] packet, int length) throws IOException;
+
+    /**
+     * @return The biggest packet this transport is able to send.
+     */
+    public int getMaxPacketSize();
+
+    public void stop();
+}
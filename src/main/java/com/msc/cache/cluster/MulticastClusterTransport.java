@@ -0,0 +1,126 @@
+package com.msc.cache.cluster;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * ClusterTransport over UDP multicast. Every node joins the same multicast group and port, so no list of
+ * peers has to be maintained. Packets are limited to a single datagram (see maxPacketSize).
+ */
+public class MulticastClusterTransport implements ClusterTransport {
+    private static final Logger logger = Logger.getLogger(MulticastClusterTransport.class.getName());
+
+    private String groupAddress = "230.0.0.1";
+    private int port = 45566;
+    /** Number of network hops multicast packets are allowed to go through. */
+    private int timeToLive = 1;
+    /** Name of the network interface to use. The system default is used if null. */
+    private String networkInterface;
+    private int maxPacketSize = 60000;
+
+    private MulticastSocket socket;
+    private InetAddress group;
+    /** Interface the group is joined on, or null for the system default. */
+    private NetworkInterface joinedInterface;
+    private Thread receiverThread;
+    private volatile boolean shouldKeepRunning;
+
+    public synchronized void start(final ClusterReceiver receiver) throws IOException {
+        this.group = InetAddress.getByName(this.groupAddress);
+        this.socket = new MulticastSocket(this.port);
+        this.socket.setTimeToLive(this.timeToLive);
+        this.joinedInterface = null;
+        if (this.networkInterface != null) {
+            this.joinedInterface = NetworkInterface.getByName(this.networkInterface);
+            this.socket.setNetworkInterface(this.joinedInterface);
+        }
+        this.socket.joinGroup(new InetSocketAddress(this.group, this.port), this.joinedInterface);
+        this.shouldKeepRunning = true;
+        this.receiverThread = new Thread("MulticastClusterTransport-" + this.port) {
+            public void run() {
+                byte[] buffer = new byte[65536];
+                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                while (shouldKeepRunning) {
+                    try {
+                        packet.setLength(buffer.length);
+                        socket.receive(packet);
+                        receiver.receive(packet.getData(), packet.getOffset(), packet.getLength());
+                    } catch (SocketException e) {
+                        if (shouldKeepRunning) {
+                            logger.log(Level.WARNING, "Multicast socket failed", e);
+                        }
+                        break;
+                    } catch (Exception e) {
+                        logger.log(Level.WARNING, "Unable to process cluster packet", e);
+                    }
+                }
+            }
+        };
+        this.receiverThread.setDaemon(true);
+        this.receiverThread.start();
+    }
+
+    public void send(byte[] packet, int length) throws IOException {
+        this.socket.send(new DatagramPacket(packet, length, this.group, this.port));
+    }
+
+    public synchronized void stop() {
+        this.shouldKeepRunning = false;
+        if (this.socket != null) {
+            try {
+                this.socket.leaveGroup(new InetSocketAddress(this.group, this.port), this.joinedInterface);
+            } catch (IOException ignored) {
+                logger.finest("Unable to leave multicast group: " + ignored.getMessage());
+            }
+            this.socket.close();
+            this.socket = null;
+        }
+    }
+
+    public String getGroupAddress() {
+        return groupAddress;
+    }
+
+    public void setGroupAddress(String groupAddress) {
+        this.groupAddress = groupAddress;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    public int getTimeToLive() {
+        return timeToLive;
+    }
+
+    public void setTimeToLive(int timeToLive) {
+        this.timeToLive = timeToLive;
+    }
+
+    public String getNetworkInterface() {
+        return networkInterface;
+    }
+
+    public void setNetworkInterface(String networkInterface) {
+        this.networkInterface = networkInterface;
+    }
+
+    public int getMaxPacketSize() {
+        return maxPacketSize;
+    }
+
+    public void setMaxPacketSize(int maxPacketSize) {
+        this.maxPacketSize = maxPacketSize;
+    }
+}
@@ -0,0 +1,325 @@
+package com.msc.cache.cluster;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * ClusterTransport over plain TCP connections. Each node listens on a port and keeps one outgoing
+ * connection to each of the configured peers ("host:port"). Packets are framed by their length.
+ *
+ * <P>Each peer has its own sender thread and queue of up to maxQueuedPackets packets: send() only queues the
+ * packet for every peer, so a slow or dead peer never holds up the caller nor the other peers. The sender
+ * connects lazily, so peers can be started in any order; when it can't connect (or write), it waits
+ * retryDelay before trying again, twice as long after each failure up to maxRetryDelay. Packets queued
+ * for a peer while it's down are sent once it's back, and new ones are dropped while its queue is full.</P>
+ *
+ * <P>Packets received longer than maxPacketSize (or of a negative length) close the connection they came on.</P>
+ */
+public class TcpClusterTransport implements ClusterTransport {
+    private static final Logger logger = Logger.getLogger(TcpClusterTransport.class.getName());
+
+    /** Port to listen on. 0 picks any free port (see getLocalPort()). */
+    private int port;
+    /** Address to listen on. All local addresses if null. */
+    private String bindAddress;
+    private List<String> peers = new CopyOnWriteArrayList<String>();
+    private int maxPacketSize = 1024 * 1024;
+    private int connectTimeout = 2000;
+    private int maxQueuedPackets = 1000;
+    private long retryDelay = 1000;
+    private long maxRetryDelay = 30000;
+
+    private ServerSocket serverSocket;
+    private final ConcurrentMap<String, PeerSender> senders = new ConcurrentHashMap<String, PeerSender>();
+    private final AtomicLong droppedPackets = new AtomicLong();
+    private final List<Socket> incoming = new CopyOnWriteArrayList<Socket>();
+    private volatile boolean shouldKeepRunning;
+
+    public synchronized void start(final ClusterReceiver receiver) throws IOException {
+        InetAddress address = this.bindAddress == null ? null : InetAddress.getByName(this.bindAddress);
+        final ServerSocket server = new ServerSocket(this.port, 50, address);
+        this.serverSocket = server;
+        this.shouldKeepRunning = true;
+        Thread acceptor = new Thread("TcpClusterTransport-" + this.getLocalPort()) {
+            public void run() {
+                while (shouldKeepRunning) {
+                    try {
+                        Socket socket = server.accept();
+                        incoming.add(socket);
+                        startReader(socket, receiver);
+                    } catch (IOException e) {
+                        if (shouldKeepRunning) {
+                            logger.log(Level.WARNING, "Unable to accept cluster connection", e);
+                        }
+                    }
+                }
+            }
+        };
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    private void startReader(final Socket socket, final ClusterReceiver receiver) {
+        Thread reader = new Thread("TcpClusterTransport-reader-" + socket.getRemoteSocketAddress()) {
+            public void run() {
+                try {
+                    DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                    byte[] buffer = new byte[8192];
+                    while (shouldKeepRunning) {
+                        int length = in.readInt();
+                        if (length < 0 || length > maxPacketSize) {
+                            throw new IOException("Invalid cluster packet length: " + length);
+                        }
+                        if (length > buffer.length) {
+                            buffer = new byte[length];
+                        }
+                        in.readFully(buffer, 0, length);
+                        try {
+                            receiver.receive(buffer, 0, length);
+                        } catch (RuntimeException e) {
+                            logger.log(Level.WARNING, "Unable to process cluster packet", e);
+                        }
+                    }
+                } catch (EOFException ignored) {
+                    logger.finest("Cluster peer disconnected: " + socket.getRemoteSocketAddress());
+                } catch (IOException e) {
+                    if (shouldKeepRunning) {
+                        logger.log(Level.FINE, "Cluster connection lost: " + socket.getRemoteSocketAddress(), e);
+                    }
+                } finally {
+                    incoming.remove(socket);
+                    closeQuietly(socket);
+                }
+            }
+        };
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Queues the packet for every peer; never blocks, and never fails because of a peer.
+     */
+    public void send(byte[] packet, int length) throws IOException {
+        byte[] copy = Arrays.copyOf(packet, length);
+        for (String peer : this.peers) {
+            if (!this.senderOf(peer).queue.offer(copy)) {
+                this.droppedPackets.incrementAndGet();
+                logger.fine("Cluster peer " + peer + " is too far behind, packet dropped");
+            }
+        }
+    }
+
+    private PeerSender senderOf(String peer) {
+        PeerSender sender = this.senders.get(peer);
+        if (sender == null) {
+            sender = new PeerSender(peer);
+            PeerSender existing = this.senders.putIfAbsent(peer, sender);
+            if (existing != null) {
+                return existing;
+            }
+            sender.start();
+        }
+        return sender;
+    }
+
+    public synchronized void stop() {
+        this.shouldKeepRunning = false;
+        for (PeerSender sender : this.senders.values()) {
+            sender.interrupt();
+            sender.close();
+        }
+        this.senders.clear();
+        for (Socket socket : this.incoming) {
+            closeQuietly(socket);
+        }
+        if (this.serverSocket != null) {
+            try {
+                this.serverSocket.close();
+            } catch (IOException ignored) {
+                logger.finest("Unable to close server socket: " + ignored.getMessage());
+            }
+            this.serverSocket = null;
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+            logger.finest("Unable to close socket: " + ignored.getMessage());
+        }
+    }
+
+    /**
+     * @return The port this transport is actually listening on.
+     */
+    public int getLocalPort() {
+        return this.serverSocket == null ? this.port : this.serverSocket.getLocalPort();
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    public String getBindAddress() {
+        return bindAddress;
+    }
+
+    public void setBindAddress(String bindAddress) {
+        this.bindAddress = bindAddress;
+    }
+
+    public List<String> getPeers() {
+        return new ArrayList<String>(peers);
+    }
+
+    /**
+     * @param peers List of "host:port" of the other nodes.
+     */
+    public void setPeers(List<String> peers) {
+        this.peers = new CopyOnWriteArrayList<String>(peers);
+    }
+
+    public void addPeer(String peer) {
+        this.peers.add(peer);
+    }
+
+    public int getMaxPacketSize() {
+        return maxPacketSize;
+    }
+
+    public void setMaxPacketSize(int maxPacketSize) {
+        this.maxPacketSize = maxPacketSize;
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    /**
+     * @return Number of packets queued at most for each peer.
+     */
+    public int getMaxQueuedPackets() {
+        return maxQueuedPackets;
+    }
+
+    public void setMaxQueuedPackets(int maxQueuedPackets) {
+        this.maxQueuedPackets = maxQueuedPackets;
+    }
+
+    /**
+     * @return Milliseconds waited before reconnecting to a peer after a first failure.
+     */
+    public long getRetryDelay() {
+        return retryDelay;
+    }
+
+    public void setRetryDelay(long retryDelay) {
+        this.retryDelay = retryDelay;
+    }
+
+    public long getMaxRetryDelay() {
+        return maxRetryDelay;
+    }
+
+    public void setMaxRetryDelay(long maxRetryDelay) {
+        this.maxRetryDelay = maxRetryDelay;
+    }
+
+    /**
+     * @return Number of packets dropped because the queue of a peer was full.
+     */
+    public long getDroppedPackets() {
+        return droppedPackets.get();
+    }
+
+    /**
+     * The queue of packets of a peer and the thread sending them, which (re)connects to the peer as needed.
+     */
+    private class PeerSender extends Thread {
+        private final String peer;
+        private final BlockingQueue<byte[]> queue = new LinkedBlockingQueue<byte[]>(Math.max(1, maxQueuedPackets));
+        private volatile Socket socket;
+
+        PeerSender(String peer) {
+            super("TcpClusterTransport-sender-" + peer);
+            this.peer = peer;
+            this.setDaemon(true);
+        }
+
+        public void run() {
+            DataOutputStream out = null;
+            long delay = retryDelay;
+            try {
+                while (shouldKeepRunning) {
+                    byte[] packet = this.queue.take();
+                    while (shouldKeepRunning) {
+                        try {
+                            if (out == null) {
+                                out = this.connect();
+                            }
+                            out.writeInt(packet.length);
+                            out.write(packet);
+                            out.flush();
+                            delay = retryDelay;
+                            break;
+                        } catch (IOException e) {
+                            logger.log(Level.WARNING, "Unable to send cluster packet to " + this.peer + ", retrying in " + delay + "ms", e);
+                            this.close();
+                            out = null;
+                            Thread.sleep(delay);
+                            delay = Math.min(Math.max(1, delay * 2), Math.max(retryDelay, maxRetryDelay));
+                        }
+                    }
+                }
+            } catch (InterruptedException ignored) {
+                logger.finest("Cluster sender stopped: " + this.peer);
+            } finally {
+                this.close();
+            }
+        }
+
+        private DataOutputStream connect() throws IOException {
+            int separator = this.peer.lastIndexOf(':');
+            Socket socket = new Socket();
+            this.socket = socket;
+            socket.setTcpNoDelay(true);
+            socket.connect(new InetSocketAddress(this.peer.substring(0, separator), Integer.parseInt(this.peer.substring(separator + 1))), connectTimeout);
+            return new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+
+        void close() {
+            Socket socket = this.socket;
+            if (socket != null) {
+                closeQuietly(socket);
+            }
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.msc.cache.expiry;
+
+import com.msc.cache.Cacheable;
+
+/**
+ * This Policy decides, entry by entry, how long the entities stay cached - instead of every entry of a
+ * CacheManager sharing its defaultIdleTime and defaultTimeToLive. It's asked when an entity is cached, when
+ * it replaces a cached version of itself and when it's read; each answer is the time (in nanoseconds of the
+ * CacheManager's Ticker, from now) the entry has left. So volatile entities can expire within milliseconds
+ * while stable ones stay for hours, on the same cache.
+ *
+ * Returning currentDuration keeps the time the entry had left; returning
+ * CachedEntity.UNDEFINED_TIME_TO_LIVE means it doesn't expire. Expired entries are not returned by get()
+ * (they're loaded again), and are evicted within a second or so of their expiration time (see
+ * CacheManager.setExpiryPolicy()).
+ */
+public interface ExpiryPolicy {
+	/**
+	 * @param entity The entity just cached.
+	 * @return Nanoseconds it may stay cached, or CachedEntity.UNDEFINED_TIME_TO_LIVE.
+	 */
+	public long expireAfterCreate(Cacheable entity);
+	/**
+	 * @param entity          The new version of the entity.
+	 * @param previous        The version it replaced.
+	 * @param currentDuration Nanoseconds the previous version had left, or CachedEntity.UNDEFINED_TIME_TO_LIVE.
+	 * @return Nanoseconds it may stay cached, or CachedEntity.UNDEFINED_TIME_TO_LIVE.
+	 */
+	public long expireAfterUpdate(Cacheable entity, Cacheable previous, long currentDuration);
+	/**
+	 * Called on every hit: keep it cheap.
+	 *
+	 * @param entity          The entity read.
+	 * @param currentDuration Nanoseconds it has left, or CachedEntity.UNDEFINED_TIME_TO_LIVE.
+	 * @return Nanoseconds it may stay cached, or CachedEntity.UNDEFINED_TIME_TO_LIVE.
+	 */
+	public long expireAfterRead(Cacheable entity, long currentDuration);
+}
@@ -0,0 +1,79 @@
+package com.msc.cache.expiry;
+
+import com.msc.cache.CachedEntity;
+import com.msc.cache.Cacheable;
+import com.msc.cache.index.PropertyExtractor;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <P>ExpiryPolicy reading the time to live of each entity (in seconds, unless another unit is set) out of one
+ * of its JavaBean properties, so it can be configured on cache-context.xml without writing code:</P>
+ * <PRE>
+ * &lt;bean class="com.msc.cache.expiry.PropertyExpiryPolicy"&gt;
+ *     &lt;constructor-arg value="timeToLive"/&gt;
+ *     &lt;property name="defaultTimeToLive" value="3600"/&gt;
+ *     &lt;property name="unit" value="SECONDS"/&gt;
+ * &lt;/bean&gt;
+ * </PRE>
+ * <P>The property is read again whenever the entity is replaced by a new version. Entities without the
+ * property (or with a null or negative value) live for defaultTimeToLive. If idleTime is set, every read
+ * gives the entry at least that much more. All of them are in unit.</P>
+ */
+public class PropertyExpiryPolicy implements ExpiryPolicy {
+    private final PropertyExtractor extractor;
+    private long defaultTimeToLive = CachedEntity.UNDEFINED_TIME_TO_LIVE;
+    private long idleTime = CachedEntity.UNDEFINED_IDLE_TIME;
+    private TimeUnit unit = TimeUnit.SECONDS;
+
+    public PropertyExpiryPolicy(String property) {
+        this.extractor = new PropertyExtractor(property);
+    }
+
+    public long expireAfterCreate(Cacheable entity) {
+        Object value = this.extractor.extract(entity);
+        if (value instanceof Number && ((Number) value).longValue() >= 0) {
+            return this.unit.toNanos(((Number) value).longValue());
+        }
+        return this.defaultTimeToLive < 0 ? CachedEntity.UNDEFINED_TIME_TO_LIVE : this.unit.toNanos(this.defaultTimeToLive);
+    }
+
+    public long expireAfterUpdate(Cacheable entity, Cacheable previous, long currentDuration) {
+        return this.expireAfterCreate(entity);
+    }
+
+    public long expireAfterRead(Cacheable entity, long currentDuration) {
+        if (this.idleTime < 0 || currentDuration < 0) {
+            return currentDuration;
+        }
+        return Math.max(currentDuration, this.unit.toNanos(this.idleTime));
+    }
+
+    public String getProperty() {
+        return extractor.getProperty();
+    }
+
+    public long getDefaultTimeToLive() {
+        return defaultTimeToLive;
+    }
+
+    public void setDefaultTimeToLive(long defaultTimeToLive) {
+        this.defaultTimeToLive = defaultTimeToLive;
+    }
+
+    public TimeUnit getUnit() {
+        return unit;
+    }
+
+    public void setUnit(TimeUnit unit) {
+        this.unit = unit;
+    }
+
+    public long getIdleTime() {
+        return idleTime;
+    }
+
+    public void setIdleTime(long idleTime) {
+        this.idleTime = idleTime;
+    }
+}
@@ -0,0 +1,13 @@
+package com.msc.cache.index;
+
+import com.msc.cache.Cacheable;
+
+/**
+ * Reads the value of an attribute out of a cached entity, for an AttributeIndex.
+ */
+public interface AttributeExtractor {
+    /**
+     * @return The value of the attribute, or null if the entity doesn't have one (it won't be indexed).
+     */
+    public Object extract(Cacheable entity);
+}
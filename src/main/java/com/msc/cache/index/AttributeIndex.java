@@ -0,0 +1,173 @@
+package com.msc.cache.index;
+
+import com.msc.cache.CachedEntity;
+import com.msc.cache.Cacheable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * <P>Index of the cached entities by the value of one of their attributes, read by an AttributeExtractor.
+ * Lets CacheManager.query() answer "which entities have this value" without copying and filtering a whole
+ * group. A hash index answers equality queries; a sorted index (sorted = true) also answers range queries,
+ * and requires the values to be Comparable to each other.</P>
+ *
+ * <P>The CacheManager keeps its indexes up to date as entities are registered, invalidated, evicted and
+ * flushed. Only cached entities are indexed: a query never goes to the persistence storage.</P>
+ *
+ * <P>Each entry is dropped from the value it was indexed under, even if its entity was changed in place (or
+ * reclaimed by the garbage collector) since. Queries don't lock. Changes are serialized by the index.</P>
+ */
+public class AttributeIndex {
+    private String attribute;
+    private AttributeExtractor extractor;
+    private boolean sorted;
+
+    private volatile ConcurrentMap<Object, Set<CachedEntity>> values;
+    /** Value each entry was indexed under. Guarded by this. */
+    private final Map<CachedEntity, Object> indexed = new IdentityHashMap<CachedEntity, Object>();
+
+    public AttributeIndex() {
+    }
+
+    public AttributeIndex(String attribute, AttributeExtractor extractor, boolean sorted) {
+        this.attribute = attribute;
+        this.extractor = extractor;
+        this.sorted = sorted;
+    }
+
+    private ConcurrentMap<Object, Set<CachedEntity>> values() {
+        ConcurrentMap<Object, Set<CachedEntity>> current = this.values;
+        if (current == null) {
+            synchronized (this) {
+                current = this.values;
+                if (current == null) {
+                    current = this.sorted ? new ConcurrentSkipListMap<Object, Set<CachedEntity>>()
+                                          : new ConcurrentHashMap<Object, Set<CachedEntity>>();
+                    this.values = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Indexes an entry under the value of its attribute.
+     */
+    public synchronized void add(CachedEntity cached) {
+        this.remove(cached);
+        Object value = this.extractor.extract(cached.getEntity());
+        if (value != null) {
+            this.indexed.put(cached, value);
+            Set<CachedEntity> entries = this.values().get(value);
+            if (entries == null) {
+                //Entries are told apart by identity: two versions of an entity are equal to each other.
+                entries = Collections.newSetFromMap(Collections.synchronizedMap(new IdentityHashMap<CachedEntity, Boolean>()));
+                this.values().put(value, entries);
+            }
+            entries.add(cached);
+        }
+    }
+
+    /**
+     * Drops an entry from the value it was indexed under.
+     */
+    public synchronized void remove(CachedEntity cached) {
+        Object value = this.indexed.remove(cached);
+        if (value != null) {
+            Set<CachedEntity> entries = this.values().get(value);
+            if (entries != null && entries.remove(cached) && entries.isEmpty()) {
+                this.values().remove(value);
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        this.indexed.clear();
+        this.values().clear();
+    }
+
+    /**
+     * @return The cached entities whose attribute equals the value.
+     */
+    public Collection<Cacheable> query(Object value) {
+        Set<CachedEntity> entries = this.values().get(value);
+        return entries == null ? Collections.<Cacheable>emptyList() : extract(Collections.singleton(entries));
+    }
+
+    /**
+     * Only available on sorted indexes.
+     *
+     * @param from Lowest value (inclusive), or null for no lower bound.
+     * @param to   Highest value (inclusive), or null for no upper bound.
+     * @return The cached entities whose attribute is within the range, ordered by it.
+     */
+    public Collection<Cacheable> query(Object from, Object to) {
+        if (!this.sorted) {
+            throw new UnsupportedOperationException("Index on " + this.attribute + " is not sorted");
+        }
+        ConcurrentNavigableMap<Object, Set<CachedEntity>> range = (ConcurrentNavigableMap<Object, Set<CachedEntity>>) this.values();
+        if (from != null && to != null) {
+            range = range.subMap(from, true, to, true);
+        } else if (from != null) {
+            range = range.tailMap(from, true);
+        } else if (to != null) {
+            range = range.headMap(to, true);
+        }
+        return extract(range.values());
+    }
+
+    private static Collection<Cacheable> extract(Collection<Set<CachedEntity>> buckets) {
+        Collection<Cacheable> result = new ArrayList<Cacheable>();
+        for (Set<CachedEntity> entries : buckets) {
+            synchronized (entries) {
+                for (CachedEntity cached : entries) {
+                    Cacheable entity = cached.getEntity();
+                    if (entity != null) {
+                        result.add(entity);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return Number of distinct values indexed.
+     */
+    public int getValueCount() {
+        return this.values().size();
+    }
+
+    public String getAttribute() {
+        return attribute;
+    }
+
+    public void setAttribute(String attribute) {
+        this.attribute = attribute;
+    }
+
+    public AttributeExtractor getExtractor() {
+        return extractor;
+    }
+
+    public void setExtractor(AttributeExtractor extractor) {
+        this.extractor = extractor;
+    }
+
+    public boolean isSorted() {
+        return sorted;
+    }
+
+    public void setSorted(boolean sorted) {
+        this.sorted = sorted;
+    }
+}
@@ -0,0 +1,81 @@
+package com.msc.cache.index;
+
+import com.msc.cache.Cacheable;
+
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <P>AttributeExtractor reading a JavaBean property of the entities, so indexes can be configured on
+ * cache-context.xml without writing code:</P>
+ * <PRE>
+ * &lt;bean class="com.msc.cache.index.AttributeIndex"&gt;
+ *     &lt;property name="attribute" value="state"/&gt;
+ *     &lt;property name="extractor"&gt;
+ *         &lt;bean class="com.msc.cache.index.PropertyExtractor"&gt;&lt;constructor-arg value="state"/&gt;&lt;/bean&gt;
+ *     &lt;/property&gt;
+ * &lt;/bean&gt;
+ * </PRE>
+ * Entities without the property are not indexed.
+ */
+public class PropertyExtractor implements AttributeExtractor {
+    private static final Logger logger = Logger.getLogger(PropertyExtractor.class.getName());
+    private static final Method NO_PROPERTY;
+
+    static {
+        try {
+            NO_PROPERTY = Object.class.getMethod("toString");
+        } catch (NoSuchMethodException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final String property;
+    private final ConcurrentMap<Class<?>, Method> readers = new ConcurrentHashMap<Class<?>, Method>();
+
+    public PropertyExtractor(String property) {
+        this.property = property;
+    }
+
+    public Object extract(Cacheable entity) {
+        Method reader = this.readerFor(entity.getClass());
+        if (reader == NO_PROPERTY) {
+            return null;
+        }
+        try {
+            return reader.invoke(entity);
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "Unable to read " + this.property + " of " + entity.getCacheKey(), e);
+            return null;
+        }
+    }
+
+    private Method readerFor(Class<?> type) {
+        Method reader = this.readers.get(type);
+        if (reader == null) {
+            reader = NO_PROPERTY;
+            try {
+                for (PropertyDescriptor descriptor : Introspector.getBeanInfo(type).getPropertyDescriptors()) {
+                    if (descriptor.getName().equals(this.property) && descriptor.getReadMethod() != null) {
+                        reader = descriptor.getReadMethod();
+                        reader.setAccessible(true);
+                    }
+                }
+            } catch (IntrospectionException e) {
+                logger.log(Level.WARNING, "Unable to introspect " + type.getName(), e);
+            }
+            this.readers.put(type, reader);
+        }
+        return reader;
+    }
+
+    public String getProperty() {
+        return property;
+    }
+}
@@ -33,6 +33,14 @@ public class CacheControl implements CacheControlMBean {
         this.contract.refresh(entity);
     }
 
+    public void put(Cacheable entity) throws Exception {
+        this.contract.put(entity);
+    }
+
+    public void remove(Object cacheKey) throws Exception {
+        this.contract.remove(cacheKey);
+    }
+
     public Cacheable get(Object cacheKey) throws Exception {
         return this.contract.get(cacheKey);
     }
@@ -87,6 +95,10 @@ public class CacheControl implements CacheControlMBean {
         this.getCacheManager().cleanup();
     }
 
+    public void cleanup(CacheCleanupPolicy cleanupPolicy) throws Exception {
+        this.getCacheManager().cleanup(cleanupPolicy);
+    }
+
     public boolean isGrouped() throws Exception {
         return this.getCacheManager().isGrouped();
     }
@@ -186,6 +198,30 @@ public class CacheControl implements CacheControlMBean {
         return this.getCacheManager().getSize();
     }
 
+    public long getSecondaryKeyCount() throws Exception {
+        return this.getCacheManager().getSecondaryKeyCount();
+    }
+
+    public long getEvictionCounter() throws Exception {
+        return this.getCacheManager().getEvictionCounter();
+    }
+
+    public long getNegativeHitCounter() throws Exception {
+        return this.getCacheManager().getNegativeHitCounter();
+    }
+
+    public long getWeight() throws Exception {
+        return this.getCacheManager().getWeight();
+    }
+
+    public long getMaxWeight() throws Exception {
+        return this.getCacheManager().getMaxWeight();
+    }
+
+    public void setMaxWeight(long maxWeight) throws Exception {
+        this.getCacheManager().setMaxWeight(maxWeight);
+    }
+
     public CacheInitializerPolicy getInitializerPolicy() throws Exception {
         return this.getCacheManager().getInitializerPolicy();
     }
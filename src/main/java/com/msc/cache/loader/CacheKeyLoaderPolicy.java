@@ -0,0 +1,19 @@
+package com.msc.cache.loader;
+
+import com.msc.cache.CacheException;
+
+import java.util.Collection;
+
+/**
+ * An extension of the CacheLoaderPolicy for loaders that can list the keys of every entity on the underlying
+ * persistence storage, cheaply compared to loading the entities. The CacheManager uses them to build its key
+ * filter, so get() for a key that doesn't exist doesn't reach the storage (see CacheManager.setKeyFilter()).
+ */
+public interface CacheKeyLoaderPolicy extends CacheLoaderPolicy {
+	/**
+	 * This method should retrieve the keys of all entities on the persistence storage.
+	 *
+	 * @return A Collection with the keys. An empty collection if none found.
+	 */
+	public Collection<Object> fetchKeys() throws CacheException;
+}
@@ -0,0 +1,364 @@
+package com.msc.cache.memory;
+
+import com.msc.cache.CacheManager;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <P>Shrinks the caches before the heap fills up, and lets them grow back once it's relieved. It watches the
+ * old generation (the heap pool supporting usage thresholds - "Tenured Gen", "PS Old Gen", "G1 Old Gen"...):
+ * its collection usage threshold is set at threshold of its maximum, and the occupancy left after every
+ * collection of the old generation is checked. Young collections leave its occupancy (as last collected)
+ * unchanged, so they're ignored: only the pool's threshold notifications and the notifications of major
+ * collections count, and each collection of the old generation is acted upon once - the caches aren't shed
+ * again until the old generation was collected since.</P>
+ *
+ * <P>When the old generation is still over threshold after a collection, shedFraction of the weight of the
+ * registered caches is shed: each cache gets a weightCap below its current weight, so its least recently used
+ * entries are evicted right away (see CacheManager.setWeightCap()). The cap is kept apart from the maxWeight
+ * of the cache, which a CacheRegistry may go on rebalancing: the cache is held to the lower of the two. The weight shed is split among the caches
+ * by how little their entries are worth: a cache's share is proportional to its weight times its miss ratio,
+ * so a cache hit 99% of the time gives up much less than one hit 20% of the time. Pressure events closer than
+ * cooldown milliseconds are taken as one.</P>
+ *
+ * <P>Once occupancy after a collection is below releaseThreshold, the caps are raised by growFraction of the
+ * maxWeight the caches have (their allocation, for caches in a registry) per collection, until they reach it
+ * and are lifted.</P>
+ */
+public class HeapPressureController {
+    private static final Logger logger = Logger.getLogger(HeapPressureController.class.getName());
+    /** Type of the notifications GarbageCollectorMXBeans send after every collection (HotSpot). */
+    static final String GC_NOTIFICATION = "com.sun.management.gc.notification";
+
+    private final List<CacheManager> caches = new CopyOnWriteArrayList<CacheManager>();
+    /** Fraction of the old generation after which the caches are shed. */
+    private double threshold = 0.85;
+    /** Fraction of the old generation under which the caches may grow back. */
+    private double releaseThreshold = 0.6;
+    /** Fraction of the weight of the caches shed per pressure event. */
+    private double shedFraction = 0.2;
+    /** Fraction of their ceiling by which the caps are raised per collection, once pressure is gone. */
+    private double growFraction = 0.1;
+    /** Minimum time (in milliseconds) between two sheds. */
+    private long cooldown = 1000;
+
+    /** Caches shrunk, with what they're allowed now. Guarded by this. */
+    private final Map<CacheManager, Cap> caps = new IdentityHashMap<CacheManager, Cap>();
+    private long lastShed;
+    private MemoryPoolMXBean oldGeneration;
+    /** The collectors that collect the old generation (along with the rest of the heap, for some). */
+    private final List<GarbageCollectorMXBean> oldCollectors = new ArrayList<GarbageCollectorMXBean>();
+    /** Collections of the old generation when the last notification was acted upon. Guarded by this. */
+    private long lastCollectionCount = -1;
+    private final List<NotificationEmitter> emitters = new ArrayList<NotificationEmitter>();
+    private final NotificationListener listener = new NotificationListener() {
+        public void handleNotification(Notification notification, Object handback) {
+            try {
+                onNotification(notification);
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "Unable to adjust the caches to the heap", e);
+            }
+        }
+    };
+
+    private final AtomicLong pressureCounter = new AtomicLong();
+    private final AtomicLong shedCounter = new AtomicLong();
+
+    public HeapPressureController() {
+    }
+
+    /**
+     * Sets the collection usage threshold of the old generation and starts listening to the collections.
+     */
+    public synchronized void init() {
+        this.oldGeneration = findOldGeneration();
+        if (this.oldGeneration == null) {
+            logger.warning("No heap pool supports usage thresholds: the caches won't follow the heap");
+            return;
+        }
+        long max = this.oldGeneration.getUsage().getMax();
+        if (max > 0) {
+            this.oldGeneration.setCollectionUsageThreshold((long) (max * this.threshold));
+        }
+        this.listen(ManagementFactory.getMemoryMXBean());
+        this.oldCollectors.clear();
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (Arrays.asList(collector.getMemoryPoolNames()).contains(this.oldGeneration.getName())) {
+                this.oldCollectors.add(collector);
+            }
+            this.listen(collector);
+        }
+        logger.info("Watching " + this.oldGeneration.getName() + " for " + this.caches.size() + " caches");
+    }
+
+    private void listen(Object bean) {
+        if (bean instanceof NotificationEmitter) {
+            NotificationEmitter emitter = (NotificationEmitter) bean;
+            emitter.addNotificationListener(this.listener, null, null);
+            this.emitters.add(emitter);
+        }
+    }
+
+    /**
+     * Stops listening and lifts the caps of the caches.
+     */
+    public synchronized void shutdown() {
+        for (NotificationEmitter emitter : this.emitters) {
+            try {
+                emitter.removeNotificationListener(this.listener);
+            } catch (ListenerNotFoundException ignored) {
+                //Not listening anyway.
+            }
+        }
+        this.emitters.clear();
+        for (CacheManager cache : this.caps.keySet()) {
+            cache.setWeightCap(-1);
+        }
+        this.caps.clear();
+    }
+
+    private static MemoryPoolMXBean findOldGeneration() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            //Eden and survivor spaces support neither.
+            if (pool.getType() == MemoryType.HEAP && pool.isUsageThresholdSupported() && pool.isCollectionUsageThresholdSupported()) {
+                return pool;
+            }
+        }
+        return null;
+    }
+
+    void onNotification(Notification notification) {
+        MemoryPoolMXBean pool = this.oldGeneration;
+        if (pool == null) {
+            return;
+        }
+        String type = notification.getType();
+        if (MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(type) || (GC_NOTIFICATION.equals(type) && isMajor(notification))) {
+            long collectionCount = this.oldCollectionCount();
+            synchronized (this) {
+                if (collectionCount == this.lastCollectionCount) {
+                    return; //Same collection, already acted upon (a major collection over threshold sends both).
+                }
+                this.lastCollectionCount = collectionCount;
+                MemoryUsage usage = pool.getCollectionUsage();
+                if (usage != null) {
+                    this.onCollection(usage.getUsed(), usage.getMax());
+                }
+            }
+        }
+    }
+
+    /**
+     * @return Whether a GC notification is about a collection of the old generation ("end of major GC").
+     */
+    private static boolean isMajor(Notification notification) {
+        Object info = notification.getUserData();
+        if (info instanceof CompositeData && ((CompositeData) info).containsKey("gcAction")) {
+            Object action = ((CompositeData) info).get("gcAction");
+            return action != null && action.toString().contains("major");
+        }
+        return false;
+    }
+
+    private long oldCollectionCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean collector : this.oldCollectors) {
+            count += Math.max(0, collector.getCollectionCount());
+        }
+        return count;
+    }
+
+    /**
+     * Adjusts the caches to the occupancy of the old generation left by a collection.
+     *
+     * @param used Bytes used after the collection.
+     * @param max  Maximum size of the old generation, or -1 if undefined.
+     */
+    public synchronized void onCollection(long used, long max) {
+        if (max <= 0) {
+            return;
+        }
+        double occupancy = (double) used / max;
+        if (occupancy >= this.threshold) {
+            long now = System.currentTimeMillis();
+            if (now - this.lastShed >= this.cooldown) {
+                this.lastShed = now;
+                this.pressureCounter.incrementAndGet();
+                logger.info("Old generation at " + Math.round(occupancy * 100) + "%: shrinking the caches");
+                this.shed(this.shedFraction);
+            }
+        } else if (occupancy < this.releaseThreshold) {
+            this.grow(this.growFraction);
+        }
+    }
+
+    /**
+     * Sheds that fraction of the weight of the caches, the least valuable caches first.
+     */
+    public synchronized void shed(double fraction) {
+        long total = 0;
+        double totalCold = 0;
+        for (CacheManager cache : this.caches) {
+            total += cache.getWeight();
+            totalCold += coldness(cache);
+        }
+        long amount = (long) (total * fraction);
+        if (amount <= 0) {
+            return;
+        }
+        for (CacheManager cache : this.caches) {
+            long weight = cache.getWeight();
+            if (weight <= 0) {
+                continue;
+            }
+            //Caches hit every time: split by weight only.
+            long share = totalCold > 0 ? Math.round(amount * coldness(cache) / totalCold) : amount * weight / total;
+            if (share <= 0) {
+                continue;
+            }
+            Cap cap = this.caps.get(cache);
+            if (cap == null) {
+                cap = new Cap(weight);
+                this.caps.put(cache, cap);
+            }
+            //At least one entry stays: a maxWeight of 0 means unbounded.
+            cap.current = Math.max(1, weight - share);
+            cache.setWeightCap(cap.current);
+            this.shedCounter.addAndGet(weight - cache.getWeight());
+        }
+    }
+
+    /**
+     * Raises the caps of the shrunk caches by that fraction of their maxWeight (of the weight they had when
+     * shrunk, if they have no maxWeight), lifting them once they reach it.
+     */
+    public synchronized void grow(double fraction) {
+        for (Iterator<Map.Entry<CacheManager, Cap>> iterator = this.caps.entrySet().iterator(); iterator.hasNext(); ) {
+            Map.Entry<CacheManager, Cap> entry = iterator.next();
+            CacheManager cache = entry.getKey();
+            Cap cap = entry.getValue();
+            long ceiling = cache.getMaxWeight() > 0 ? cache.getMaxWeight() : cap.shrunkFrom;
+            cap.current += Math.max(1, (long) (ceiling * fraction));
+            if (cap.current >= ceiling) {
+                cache.setWeightCap(-1);
+                iterator.remove();
+            } else {
+                cache.setWeightCap(cap.current);
+            }
+        }
+    }
+
+    /**
+     * @return How much the cache's weight is worth giving up: its weight times its miss ratio.
+     */
+    private static double coldness(CacheManager cache) {
+        long hits = cache.getHitCounter();
+        long requests = hits + cache.getMissCounter();
+        double hitRatio = requests == 0 ? 0 : (double) hits / requests;
+        return cache.getWeight() * (1 - hitRatio);
+    }
+
+    /**
+     * @return Whether the cache is running under a cap set by this controller.
+     */
+    public synchronized boolean isShrunk(CacheManager cache) {
+        return this.caps.containsKey(cache);
+    }
+
+    public void addCache(CacheManager cache) {
+        this.caches.add(cache);
+    }
+
+    public List<CacheManager> getCaches() {
+        return caches;
+    }
+
+    public void setCaches(List<CacheManager> caches) {
+        this.caches.clear();
+        this.caches.addAll(caches);
+    }
+
+    public double getThreshold() {
+        return threshold;
+    }
+
+    public void setThreshold(double threshold) {
+        this.threshold = threshold;
+    }
+
+    public double getReleaseThreshold() {
+        return releaseThreshold;
+    }
+
+    public void setReleaseThreshold(double releaseThreshold) {
+        this.releaseThreshold = releaseThreshold;
+    }
+
+    public double getShedFraction() {
+        return shedFraction;
+    }
+
+    public void setShedFraction(double shedFraction) {
+        this.shedFraction = shedFraction;
+    }
+
+    public double getGrowFraction() {
+        return growFraction;
+    }
+
+    public void setGrowFraction(double growFraction) {
+        this.growFraction = growFraction;
+    }
+
+    public long getCooldown() {
+        return cooldown;
+    }
+
+    public void setCooldown(long cooldown) {
+        this.cooldown = cooldown;
+    }
+
+    /**
+     * @return How many times the caches were shed.
+     */
+    public long getPressureCounter() {
+        return pressureCounter.get();
+    }
+
+    /**
+     * @return Total weight evicted because of heap pressure.
+     */
+    public long getShedCounter() {
+        return shedCounter.get();
+    }
+
+    private static class Cap {
+        /** Weight of the cache when it was first shrunk. */
+        final long shrunkFrom;
+        long current;
+
+        Cap(long shrunkFrom) {
+            this.shrunkFrom = shrunkFrom;
+        }
+    }
+}
@@ -0,0 +1,476 @@
+package com.msc.cache.notifier;
+
+import com.msc.cache.CacheManager;
+import com.msc.cache.CacheManagerAware;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <P>Decorator that takes notifications away from the caller thread. The CacheManager publishes every
+ * hit, miss, register, refresh and invalidation through its notifier policy, so any slow notifier adds
+ * directly to the latency of get(). This policy accepts the message on a lock-free queue and returns
+ * immediately; a background thread delivers them in batches to the real (delegate) notifier.</P>
+ *
+ * <P>What happens when the queue is full is controlled by the backpressure property:
+ * <UL>
+ * <LI>DROP - the new message is discarded (default - the caller never waits).</LI>
+ * <LI>COALESCE - while the queue is full, the messages of each key are merged: only the latest one is
+ * delivered, in the place of the first one merged, so listeners still see the last state of every key last.
+ * Changes (invalidations, registrations, refreshes and flushes) and reads (hits and misses) are merged apart,
+ * so a read never replaces a change, and so are entity keys, group keys and the whole cache. Up to
+ * queueCapacity keys are merged that way; messages of other keys are discarded.</LI>
+ * <LI>BLOCK - the caller waits until the dispatcher frees some room on the queue.</LI>
+ * </UL>
+ * </P>
+ *
+ * <P>Messages can also be filtered per type before they reach the queue: ignoredTypes skips a type
+ * entirely and sampleRates delivers only one out of every N messages of a type (ideal for hit/miss
+ * statistics). Filtered messages are discarded without any allocation; accepted ones are copied, since
+ * the CacheManager reuses the original instance.</P>
+ *
+ * <P>Once shut down, messages are discarded until init() is called again.</P>
+ */
+public class AsyncCacheNotifierPolicy implements CacheNotifierPolicy, CacheManagerAware {
+    private static final Logger logger = Logger.getLogger(AsyncCacheNotifierPolicy.class.getName());
+
+    /**
+     * What to do with a new message when the queue already holds queueCapacity messages.
+     */
+    public enum Backpressure {
+        DROP, COALESCE, BLOCK
+    }
+
+    /** The notifier that actually handles the messages, on the dispatcher thread. */
+    private CacheNotifierPolicy delegate;
+    /** Maximum number of messages waiting to be delivered. */
+    private int queueCapacity = 8192;
+    /** Maximum number of messages handed to the delegate at once. */
+    private int batchSize = 256;
+    /** Maximum time (in milliseconds) a message waits on the queue before the dispatcher wakes up. */
+    private long flushInterval = 50;
+    private Backpressure backpressure = Backpressure.DROP;
+    /** Message types that are never delivered. */
+    private Set<NotificationType> ignoredTypes = Collections.emptySet();
+    /** Message type -> N, where only one out of N messages of that type is delivered. */
+    private Map<NotificationType, Integer> sampleRates = Collections.emptyMap();
+    /** ignoredTypes and sampleRates indexed by NotificationType ordinal, for constant time filtering. */
+    private volatile boolean[] ignored = new boolean[NotificationType.values().length];
+    private volatile int[] rates = new int[NotificationType.values().length];
+    private final AtomicLong[] sampleCounters = new AtomicLong[NotificationType.values().length];
+
+    private final ConcurrentLinkedQueue<Object> queue = new ConcurrentLinkedQueue<Object>();
+    private final AtomicInteger pending = new AtomicInteger();
+    /** Used only by COALESCE while the queue is full: the queue holds the keys merged, this map the latest message of each. */
+    private final ConcurrentMap<CoalescingKey, NotificationMessage> coalescing = new ConcurrentHashMap<CoalescingKey, NotificationMessage>();
+
+    private final AtomicLong deliveredCounter = new AtomicLong();
+    private final AtomicLong droppedCounter = new AtomicLong();
+    private final AtomicLong coalescedCounter = new AtomicLong();
+    private final AtomicLong filteredCounter = new AtomicLong();
+
+    private volatile DispatcherThread dispatcher;
+    private volatile boolean shutdown;
+
+    public AsyncCacheNotifierPolicy() {
+        for (int i = 0; i < this.sampleCounters.length; i++) {
+            this.sampleCounters[i] = new AtomicLong();
+        }
+    }
+
+    public AsyncCacheNotifierPolicy(CacheNotifierPolicy delegate) {
+        this();
+        this.delegate = delegate;
+    }
+
+    /**
+     * Starts the dispatcher thread. It is also started lazily by the first notification, so calling
+     * this method (or declaring it as init-method) is optional.
+     */
+    public synchronized void init() {
+        this.shutdown = false;
+        if (this.dispatcher == null) {
+            this.dispatcher = new DispatcherThread();
+            this.dispatcher.start();
+        }
+    }
+
+    /**
+     * Stops the dispatcher thread after delivering every message still on the queue.
+     */
+    public void shutdown() throws InterruptedException {
+        DispatcherThread current;
+        synchronized (this) {
+            current = this.dispatcher;
+            this.dispatcher = null;
+            this.shutdown = true;
+        }
+        if (current != null) {
+            current.halt();
+            current.join();
+        }
+    }
+
+    public void setCacheManager(CacheManager cacheManager) {
+        if (this.delegate instanceof CacheManagerAware) {
+            ((CacheManagerAware) this.delegate).setCacheManager(cacheManager);
+        }
+    }
+
+    public void notifyCache(NotificationMessage message) {
+        NotificationType type = message.getType();
+        if (type == null || !this.accept(type)) {
+            this.filteredCounter.incrementAndGet();
+            return;
+        }
+        DispatcherThread current = this.dispatcher;
+        if (current == null) {
+            synchronized (this) {
+                if (this.shutdown) {
+                    this.droppedCounter.incrementAndGet();
+                    return;
+                }
+                this.init();
+                current = this.dispatcher;
+            }
+        }
+        message = message.copy();
+        switch (this.backpressure) {
+            case COALESCE:
+                this.coalesce(message, current);
+                break;
+            case BLOCK:
+                this.reserveBlocking(current);
+                this.enqueue(message, current);
+                break;
+            default:
+                if (this.reserve()) {
+                    this.enqueue(message, current);
+                } else {
+                    this.droppedCounter.incrementAndGet();
+                }
+        }
+    }
+
+    /**
+     * Applies the type filter and the sampling rate for the message type.
+     */
+    private boolean accept(NotificationType type) {
+        int index = type.ordinal();
+        if (this.ignored[index]) {
+            return false;
+        }
+        int rate = this.rates[index];
+        return rate <= 1 || this.sampleCounters[index].getAndIncrement() % rate == 0;
+    }
+
+    private boolean reserve() {
+        int current;
+        do {
+            current = this.pending.get();
+            if (current >= this.queueCapacity) {
+                return false;
+            }
+        } while (!this.pending.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    private void reserveBlocking(DispatcherThread current) {
+        while (!this.reserve()) {
+            LockSupport.unpark(current);
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+        }
+    }
+
+    private void enqueue(Object element, DispatcherThread current) {
+        this.queue.offer(element);
+        //Wake up the dispatcher only when a full batch is available. Otherwise it wakes up on its own.
+        if (this.pending.get() == this.batchSize) {
+            LockSupport.unpark(current);
+        }
+    }
+
+    private void coalesce(NotificationMessage message, DispatcherThread current) {
+        CoalescingKey key = new CoalescingKey(message);
+        //Already merging messages of the key: this one replaces them, so it's still delivered after them.
+        if (this.coalescing.replace(key, message) != null) {
+            this.coalescedCounter.incrementAndGet();
+            return;
+        }
+        if (this.reserve()) {
+            this.enqueue(message, current);
+            return;
+        }
+        if (this.coalescing.size() >= this.queueCapacity) {
+            this.droppedCounter.incrementAndGet();
+            return;
+        }
+        if (this.coalescing.putIfAbsent(key, message) != null) {
+            //Somebody else started merging the same key in the mean time.
+            this.coalescing.put(key, message);
+            this.coalescedCounter.incrementAndGet();
+            return;
+        }
+        //Over queueCapacity: bounded by the size of the coalescing map.
+        this.pending.incrementAndGet();
+        this.enqueue(key, current);
+    }
+
+    /**
+     * The key the messages are merged by: the key of the entity, the key of the group or none (the whole
+     * cache), and whether the message is a read or a change.
+     */
+    private static final class CoalescingKey {
+        private static final int ENTITY = 0;
+        private static final int GROUP = 1;
+        private static final int ALL = 2;
+
+        private final int kind;
+        private final boolean read;
+        private final Object key;
+
+        CoalescingKey(NotificationMessage message) {
+            NotificationType type = message.getType();
+            Object key = null;
+            int kind;
+            if (type == null) { //Unknown message: by whatever key it has.
+                key = keyOf(message);
+                kind = message.getKey() == null && message.getEntity() == null ? GROUP : ENTITY;
+            } else {
+                switch (type) {
+                    case HIT_GROUP:
+                    case MISS_GROUP:
+                    case FLUSH_GROUP:
+                        key = message.getGroupKey();
+                        kind = GROUP;
+                        break;
+                    case HIT_ALL:
+                    case MISS_ALL:
+                    case FLUSH_ALL:
+                        kind = ALL;
+                        break;
+                    default:
+                        key = keyOf(message);
+                        kind = ENTITY;
+                }
+            }
+            this.kind = kind;
+            this.read = isRead(type);
+            this.key = key;
+        }
+
+        private static Object keyOf(NotificationMessage message) {
+            Object key = message.getKey();
+            if (key == null && message.getEntity() != null) {
+                key = message.getEntity().getCacheKey();
+            }
+            return key == null ? message.getGroupKey() : key;
+        }
+
+        private static boolean isRead(NotificationType type) {
+            if (type == null) {
+                return false;
+            }
+            switch (type) {
+                case HIT_INSTANCE:
+                case MISS_INSTANCE:
+                case HIT_GROUP:
+                case MISS_GROUP:
+                case HIT_ALL:
+                case MISS_ALL:
+                    return true;
+                default:
+                    return false;
+            }
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof CoalescingKey)) {
+                return false;
+            }
+            CoalescingKey that = (CoalescingKey) other;
+            return this.kind == that.kind && this.read == that.read
+                    && (this.key == null ? that.key == null : this.key.equals(that.key));
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = this.key == null ? 0 : this.key.hashCode();
+            return 31 * (31 * hash + this.kind) + (this.read ? 1 : 0);
+        }
+    }
+
+    /**
+     * Removes up to batchSize messages from the queue.
+     */
+    private List<NotificationMessage> drain() {
+        List<NotificationMessage> batch = null;
+        Object element;
+        while ((batch == null || batch.size() < this.batchSize) && (element = this.queue.poll()) != null) {
+            this.pending.decrementAndGet();
+            NotificationMessage message;
+            if (element instanceof CoalescingKey) {
+                message = this.coalescing.remove(element);
+            } else {
+                message = (NotificationMessage) element;
+            }
+            if (message != null) {
+                if (batch == null) {
+                    batch = new ArrayList<NotificationMessage>(Math.min(this.batchSize, this.pending.get() + 1));
+                }
+                batch.add(message);
+            }
+        }
+        return batch;
+    }
+
+    private void deliver(List<NotificationMessage> batch) {
+        try {
+            if (this.delegate instanceof BatchCacheNotifierPolicy) {
+                ((BatchCacheNotifierPolicy) this.delegate).notifyBatch(batch);
+            } else if (this.delegate != null) {
+                for (NotificationMessage message : batch) {
+                    this.delegate.notifyCache(message);
+                }
+            }
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "Notifier failed while delivering " + batch.size() + " messages", e);
+        }
+        this.deliveredCounter.addAndGet(batch.size());
+    }
+
+    /**
+     * The background thread delivering the messages to the delegate.
+     */
+    private class DispatcherThread extends Thread {
+        private volatile boolean shouldKeepRunning = true;
+
+        DispatcherThread() {
+            super("AsyncCacheNotifierThread");
+            setDaemon(true);
+        }
+
+        void halt() {
+            this.shouldKeepRunning = false;
+            LockSupport.unpark(this);
+        }
+
+        public void run() {
+            while (this.shouldKeepRunning) {
+                List<NotificationMessage> batch = drain();
+                if (batch != null) {
+                    deliver(batch);
+                } else {
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(flushInterval));
+                }
+            }
+            //Flush whatever is left before dying...
+            List<NotificationMessage> batch;
+            while ((batch = drain()) != null) {
+                deliver(batch);
+            }
+        }
+    }
+
+    public CacheNotifierPolicy getDelegate() {
+        return delegate;
+    }
+
+    public void setDelegate(CacheNotifierPolicy delegate) {
+        this.delegate = delegate;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public long getFlushInterval() {
+        return flushInterval;
+    }
+
+    public void setFlushInterval(long flushInterval) {
+        this.flushInterval = flushInterval;
+    }
+
+    public Backpressure getBackpressure() {
+        return backpressure;
+    }
+
+    public void setBackpressure(Backpressure backpressure) {
+        this.backpressure = backpressure;
+    }
+
+    public Set<NotificationType> getIgnoredTypes() {
+        return ignoredTypes;
+    }
+
+    public void setIgnoredTypes(Set<NotificationType> ignoredTypes) {
+        boolean[] newIgnored = new boolean[NotificationType.values().length];
+        for (NotificationType type : ignoredTypes) {
+            newIgnored[type.ordinal()] = true;
+        }
+        this.ignoredTypes = ignoredTypes;
+        this.ignored = newIgnored;
+    }
+
+    public Map<NotificationType, Integer> getSampleRates() {
+        return sampleRates;
+    }
+
+    public void setSampleRates(Map<NotificationType, Integer> sampleRates) {
+        int[] newRates = new int[NotificationType.values().length];
+        for (Map.Entry<NotificationType, Integer> entry : sampleRates.entrySet()) {
+            newRates[entry.getKey().ordinal()] = entry.getValue();
+        }
+        this.sampleRates = sampleRates;
+        this.rates = newRates;
+    }
+
+    /**
+     * @return The number of messages currently waiting to be delivered.
+     */
+    public int getPendingCount() {
+        return this.pending.get();
+    }
+
+    public long getDeliveredCounter() {
+        return this.deliveredCounter.get();
+    }
+
+    public long getDroppedCounter() {
+        return this.droppedCounter.get();
+    }
+
+    public long getCoalescedCounter() {
+        return this.coalescedCounter.get();
+    }
+
+    public long getFilteredCounter() {
+        return this.filteredCounter.get();
+    }
+}
@@ -0,0 +1,19 @@
+package com.msc.cache.notifier;
+
+import java.util.List;
+
+/**
+ * Optional extension of the CacheNotifierPolicy contract for notifiers that can handle several
+ * notifications at once (e.g. sending one network packet or one JMS message for a whole batch).
+ *
+ * <P>The AsyncCacheNotifierPolicy will hand over its batches through this method whenever the
+ * delegate implements it. Otherwise each message is delivered individually through notifyCache.</P>
+ */
+public interface BatchCacheNotifierPolicy extends CacheNotifierPolicy {
+    /**
+     * Delivers a batch of notifications, in the same order they were published by the CacheManager.
+     *
+     * @param messages The notifications being delivered. Never null nor empty.
+     */
+    public void notifyBatch(List<NotificationMessage> messages);
+}
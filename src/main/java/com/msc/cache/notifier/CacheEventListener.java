@@ -0,0 +1,12 @@
+package com.msc.cache.notifier;
+
+/**
+ * Listener SPI for cache events. Listeners are registered for specific NotificationTypes on an
+ * EventListenerNotifierPolicy and are only called for the types they were registered for.
+ *
+ * <P>The message received is reused by the CacheManager once this method returns. Keep a copy() of
+ * it if you need it afterwards.</P>
+ */
+public interface CacheEventListener {
+    public void onEvent(NotificationMessage message);
+}
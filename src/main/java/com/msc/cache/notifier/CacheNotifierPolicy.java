@@ -20,6 +20,11 @@ package com.msc.cache.notifier;
  * restricted. Some descendants will not want to implement all types of notification (but that can
  * be solved with an abstract Adapter); </P>
  *
+ * <P>The first approach was taken. Messages are typed by NotificationType, so implementations can switch on
+ * getType() (see SimpleCacheNotifierPolicy) or register listeners per type (see EventListenerNotifierPolicy).
+ * The CacheManager reuses the message instance after this method returns: implementations that keep it
+ * around must store message.copy() instead.</P>
+ *
  *
  *
  * @author <a href="mailto:mscaldas@gmail.com">Marcelo Caldas</a>
@@ -0,0 +1,84 @@
+package com.msc.cache.notifier;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <P>Notifier policy that dispatches each message to the CacheEventListeners registered for its type.
+ * Listeners are kept in an array indexed by the ordinal of the NotificationType, so finding who is
+ * interested in an event is constant time, and types nobody listens to cost nothing but an array read.</P>
+ *
+ * <P>Listeners can be added at any time; the listener arrays are copied on write so dispatching never
+ * needs a lock.</P>
+ */
+public class EventListenerNotifierPolicy implements CacheNotifierPolicy {
+    private static final CacheEventListener[] NO_LISTENERS = new CacheEventListener[0];
+
+    private volatile CacheEventListener[][] listeners;
+
+    public EventListenerNotifierPolicy() {
+        CacheEventListener[][] empty = new CacheEventListener[NotificationType.values().length][];
+        Arrays.fill(empty, NO_LISTENERS);
+        this.listeners = empty;
+    }
+
+    public void notifyCache(NotificationMessage message) {
+        NotificationType type = message.getType();
+        if (type != null) {
+            for (CacheEventListener listener : this.listeners[type.ordinal()]) {
+                listener.onEvent(message);
+            }
+        }
+    }
+
+    /**
+     * @return Whether any listener is registered for the given type.
+     */
+    public boolean hasListeners(NotificationType type) {
+        return this.listeners[type.ordinal()].length > 0;
+    }
+
+    /**
+     * Registers a listener for the given types. If no type is given, the listener receives all of them.
+     */
+    public synchronized void addListener(CacheEventListener listener, NotificationType... types) {
+        if (types == null || types.length == 0) {
+            types = NotificationType.values();
+        }
+        CacheEventListener[][] updated = this.listeners.clone();
+        for (NotificationType type : types) {
+            CacheEventListener[] current = updated[type.ordinal()];
+            CacheEventListener[] grown = Arrays.copyOf(current, current.length + 1);
+            grown[current.length] = listener;
+            updated[type.ordinal()] = grown;
+        }
+        this.listeners = updated;
+    }
+
+    public synchronized void removeListener(CacheEventListener listener) {
+        CacheEventListener[][] updated = this.listeners.clone();
+        for (int i = 0; i < updated.length; i++) {
+            CacheEventListener[] current = updated[i];
+            int found = Arrays.asList(current).indexOf(listener);
+            if (found >= 0) {
+                CacheEventListener[] shrunk = new CacheEventListener[current.length - 1];
+                System.arraycopy(current, 0, shrunk, 0, found);
+                System.arraycopy(current, found + 1, shrunk, found, current.length - found - 1);
+                updated[i] = shrunk;
+            }
+        }
+        this.listeners = updated;
+    }
+
+    /**
+     * Setter used by Spring configuration: type -> list of listeners for that type.
+     */
+    public void setListeners(Map<NotificationType, List<CacheEventListener>> newValue) {
+        for (Map.Entry<NotificationType, List<CacheEventListener>> entry : newValue.entrySet()) {
+            for (CacheEventListener listener : entry.getValue()) {
+                this.addListener(listener, entry.getKey());
+            }
+        }
+    }
+}
@@ -3,6 +3,11 @@ package com.msc.cache.notifier;
 import com.msc.cache.Cacheable;
 
 /**
+ * Event published by a CacheManager to its CacheNotifierPolicy.
+ *
+ * <P>The CacheManager reuses one instance per thread to avoid allocating on every get(). A notifier
+ * that needs to hold on to a message after notifyCache returns (queueing it, handing it to another
+ * thread, etc) must keep a copy() of it instead.</P>
  *
  * @author <a href="mailto:mscaldas@gmail.com">Marcelo Caldas</a>
  */
@@ -19,33 +24,99 @@ public class NotificationMessage {
     public static final String CACHE_HIT_ALL = "cacheHitAll";
     public static final String CACHE_MISS_ALL = "cacheMissAll";
 
+    public static final String FLUSH_GROUP_MESSAGE = "flushGroup";
+    public static final String FLUSH_ALL_MESSAGE = "flushAll";
+
 
-    private String message;
+    private NotificationType type;
     private Cacheable entity;
     private Object key;
     private Object groupKey;
+    /** Name of the CacheManager that published this message. */
+    private String source;
+    /** When the event happened (System.currentTimeMillis()). */
+    private long timestamp;
+    /** For misses, how long (in nanoseconds) the loader took to fetch the information. 0 otherwise. */
+    private long elapsedTime;
+
+
+    public NotificationMessage() {
+    }
 
+    public NotificationMessage(NotificationType type) {
+        this.type = type;
+        this.timestamp = System.currentTimeMillis();
+    }
 
     public NotificationMessage(String message) {
-        this.message = message;
+        this(NotificationType.fromMessage(message));
     }
 
     public NotificationMessage(String message, Cacheable entity) {
-        this.message = message;
+        this(message);
         this.entity = entity;
     }
 
     public NotificationMessage(String message, Object key) {
-        this.message = message;
+        this(message);
+        this.key = key;
+    }
+
+    /**
+     * Reinitializes this instance with a new event, so it can be reused without allocation.
+     */
+    public NotificationMessage reset(NotificationType type, String source, Cacheable entity, Object key, Object groupKey, long elapsedTime) {
+        this.type = type;
+        this.source = source;
+        this.entity = entity;
         this.key = key;
+        this.groupKey = groupKey;
+        this.elapsedTime = elapsedTime;
+        this.timestamp = System.currentTimeMillis();
+        return this;
+    }
+
+    /**
+     * Drops the references held by this instance once the event has been delivered.
+     */
+    public void clear() {
+        this.entity = null;
+        this.key = null;
+        this.groupKey = null;
+    }
+
+    /**
+     * @return A new instance holding the same information as this one.
+     */
+    public NotificationMessage copy() {
+        NotificationMessage copy = new NotificationMessage();
+        copy.type = this.type;
+        copy.source = this.source;
+        copy.entity = this.entity;
+        copy.key = this.key;
+        copy.groupKey = this.groupKey;
+        copy.timestamp = this.timestamp;
+        copy.elapsedTime = this.elapsedTime;
+        return copy;
     }
 
+    public NotificationType getType() {
+        return type;
+    }
+
+    public void setType(NotificationType type) {
+        this.type = type;
+    }
+
+    /**
+     * @return The legacy String name for the type of this message.
+     */
     public String getMessage() {
-        return message;
+        return type == null ? null : type.getMessage();
     }
 
     public void setMessage(String message) {
-        this.message = message;
+        this.type = NotificationType.fromMessage(message);
     }
 
     public Cacheable getEntity() {
@@ -71,4 +142,28 @@ public class NotificationMessage {
     public void setGroupKey(Object groupKey) {
         this.groupKey = groupKey;
     }
+
+    public String getSource() {
+        return source;
+    }
+
+    public void setSource(String source) {
+        this.source = source;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    public long getElapsedTime() {
+        return elapsedTime;
+    }
+
+    public void setElapsedTime(long elapsedTime) {
+        this.elapsedTime = elapsedTime;
+    }
 }
@@ -0,0 +1,50 @@
+package com.msc.cache.notifier;
+
+/**
+ * All the events a CacheManager publishes through its CacheNotifierPolicy.
+ *
+ * <P>Each type keeps the original String name (see the constants on NotificationMessage) so configuration
+ * and notifiers written against the String messages keep working. Dispatching should be done on the type
+ * itself though (switch or ordinal indexed arrays), which is constant time.</P>
+ */
+public enum NotificationType {
+    INVALIDATE(NotificationMessage.INVALIDATION_MESSAGE),
+    REGISTER(NotificationMessage.REGISTER_MESSAGE),
+    REFRESH(NotificationMessage.REFRESH_MESSAGE),
+    HIT_INSTANCE(NotificationMessage.CACHE_HIT_INSTANCE),
+    MISS_INSTANCE(NotificationMessage.CACHE_MISS_INSTANCE),
+    HIT_GROUP(NotificationMessage.CACHE_HIT_GROUP),
+    MISS_GROUP(NotificationMessage.CACHE_MISS_GROUP),
+    HIT_ALL(NotificationMessage.CACHE_HIT_ALL),
+    MISS_ALL(NotificationMessage.CACHE_MISS_ALL),
+    FLUSH_GROUP(NotificationMessage.FLUSH_GROUP_MESSAGE),
+    FLUSH_ALL(NotificationMessage.FLUSH_ALL_MESSAGE);
+
+    private final String message;
+
+    NotificationType(String message) {
+        this.message = message;
+    }
+
+    /**
+     * @return The legacy String name of this event.
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * Finds the type for one of the legacy String names.
+     *
+     * @param message One of the message constants of NotificationMessage.
+     * @return The matching type, or null if the message is unknown.
+     */
+    public static NotificationType fromMessage(String message) {
+        for (NotificationType type : values()) {
+            if (type.message.equals(message)) {
+                return type;
+            }
+        }
+        return null;
+    }
+}
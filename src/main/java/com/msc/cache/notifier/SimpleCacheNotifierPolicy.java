@@ -2,28 +2,49 @@ package com.msc.cache.notifier;
 
 
 /**
+ * Adapter for notifiers that want one method per type of notification. Override only the ones you need.
+ *
  * @author <a href="mailto:mscaldas@gmail.com">Marcelo Caldas</a>
  */
 public class SimpleCacheNotifierPolicy implements CacheNotifierPolicy {
     public void notifyCache(NotificationMessage message) {
-        if (message.equals(NotificationMessage.INVALIDATION_MESSAGE)) {
-            this.notifyInvalidateMessage(message);
-        } else if (message.equals(NotificationMessage.REGISTER_MESSAGE)) {
-            this.notifyRegisterMessage(message);
-        } else if (message.equals(NotificationMessage.REFRESH_MESSAGE)) {
-            this.notifyRefreshMessage(message);
-        } else if (message.equals(NotificationMessage.CACHE_HIT_INSTANCE)) {
-            this.notifyHitInstanceMessage(message);
-        } else if (message.equals(NotificationMessage.CACHE_MISS_INSTANCE)) {
-            this.notifyMissInstanceMessage(message);
-        } else if (message.equals(NotificationMessage.CACHE_HIT_GROUP)) {
-            this.notifyHitGroupMessage(message);
-        } else if (message.equals(NotificationMessage.CACHE_MISS_GROUP)) {
-            this.notifyMissGroupMessage(message);
-        } else if (message.equals(NotificationMessage.CACHE_HIT_ALL)) {
-            this.notifyHitAllMessage(message);
-        } else if (message.equals(NotificationMessage.CACHE_MISS_ALL)) {
-            this.notifyMissAllMessage(message);
+        if (message.getType() == null) {
+            return;
+        }
+        switch (message.getType()) {
+            case INVALIDATE:
+                this.notifyInvalidateMessage(message);
+                break;
+            case REGISTER:
+                this.notifyRegisterMessage(message);
+                break;
+            case REFRESH:
+                this.notifyRefreshMessage(message);
+                break;
+            case HIT_INSTANCE:
+                this.notifyHitInstanceMessage(message);
+                break;
+            case MISS_INSTANCE:
+                this.notifyMissInstanceMessage(message);
+                break;
+            case HIT_GROUP:
+                this.notifyHitGroupMessage(message);
+                break;
+            case MISS_GROUP:
+                this.notifyMissGroupMessage(message);
+                break;
+            case HIT_ALL:
+                this.notifyHitAllMessage(message);
+                break;
+            case MISS_ALL:
+                this.notifyMissAllMessage(message);
+                break;
+            case FLUSH_GROUP:
+                this.notifyFlushGroupMessage(message);
+                break;
+            case FLUSH_ALL:
+                this.notifyFlushAllMessage(message);
+                break;
         }
 
     }
@@ -51,4 +72,8 @@ public class SimpleCacheNotifierPolicy implements CacheNotifierPolicy {
     }
     protected void notifyMissAllMessage(NotificationMessage message) {
     }
+    protected void notifyFlushGroupMessage(NotificationMessage message) {
+    }
+    protected void notifyFlushAllMessage(NotificationMessage message) {
+    }
 }
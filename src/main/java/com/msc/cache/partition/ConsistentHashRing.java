@@ -0,0 +1,156 @@
+package com.msc.cache.partition;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * <P>Assigns keys to nodes by consistent hashing: every node is placed on a ring of 64 bit hashes at
+ * virtualNodes positions, and a key belongs to the first node found walking the ring clockwise from the
+ * hash of the key. Adding or removing a node only moves the keys between that node and its neighbours -
+ * about 1/N of them - and the virtual nodes keep the share of every node even.</P>
+ *
+ * <P>Keys are hashed by their hashCode(), so every node computes the same owner only if the hashCode of
+ * the keys is the same on every JVM (String, the boxed primitives and most value objects).</P>
+ *
+ * <P>Lookups are lock free: membership changes build a new immutable ring and swap it in.</P>
+ */
+public class ConsistentHashRing {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private int virtualNodes = 128;
+    /** Guarded by this. */
+    private final Set<String> nodes = new TreeSet<String>();
+    private volatile Ring ring = new Ring(new long[0], new String[0]);
+
+    public ConsistentHashRing() {
+    }
+
+    public ConsistentHashRing(int virtualNodes) {
+        this.virtualNodes = virtualNodes;
+    }
+
+    /**
+     * @return The node owning the key, or null if the ring has no nodes.
+     */
+    public String getOwner(Object key) {
+        Ring current = this.ring;
+        if (current.points.length == 0) {
+            return null;
+        }
+        int index = Arrays.binarySearch(current.points, hash(key));
+        if (index < 0) {
+            index = -index - 1;
+        }
+        if (index == current.points.length) {
+            index = 0;
+        }
+        return current.owners[index];
+    }
+
+    public synchronized void addNode(String node) {
+        if (this.nodes.add(node)) {
+            this.rebuild();
+        }
+    }
+
+    public synchronized void removeNode(String node) {
+        if (this.nodes.remove(node)) {
+            this.rebuild();
+        }
+    }
+
+    public synchronized void setNodes(Collection<String> newNodes) {
+        this.nodes.clear();
+        this.nodes.addAll(newNodes);
+        this.rebuild();
+    }
+
+    public synchronized List<String> getNodes() {
+        return Collections.unmodifiableList(new ArrayList<String>(this.nodes));
+    }
+
+    private void rebuild() {
+        final long[] hashes = new long[this.nodes.size() * this.virtualNodes];
+        final String[] names = new String[hashes.length];
+        int i = 0;
+        for (String node : this.nodes) {
+            for (int v = 0; v < this.virtualNodes; v++) {
+                hashes[i] = pointOf(node, v);
+                names[i++] = node;
+            }
+        }
+        Integer[] order = new Integer[hashes.length];
+        for (int j = 0; j < order.length; j++) {
+            order[j] = j;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                int byHash = Long.compare(hashes[a], hashes[b]);
+                //Same point for two nodes (unlikely): break the tie the same way on every JVM.
+                return byHash != 0 ? byHash : names[a].compareTo(names[b]);
+            }
+        });
+        long[] points = new long[hashes.length];
+        String[] owners = new String[hashes.length];
+        for (int j = 0; j < order.length; j++) {
+            points[j] = hashes[order[j]];
+            owners[j] = names[order[j]];
+        }
+        this.ring = new Ring(points, owners);
+    }
+
+    /**
+     * Spreads the hashCode of the key over 64 bits (MurmurHash3 finalizer), so keys with close hashCodes
+     * (sequential ids, characters) don't cluster on the ring.
+     */
+    static long hash(Object key) {
+        long h = key == null ? 0 : key.hashCode();
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static long pointOf(String node, int virtualNode) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest((node + "#" + virtualNode).getBytes(UTF8));
+            long point = 0;
+            for (int i = 0; i < 8; i++) {
+                point = (point << 8) | (digest[i] & 0xff);
+            }
+            return point;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 not available", e);
+        }
+    }
+
+    public int getVirtualNodes() {
+        return virtualNodes;
+    }
+
+    public synchronized void setVirtualNodes(int virtualNodes) {
+        this.virtualNodes = virtualNodes;
+        this.rebuild();
+    }
+
+    private static class Ring {
+        final long[] points;
+        final String[] owners;
+
+        Ring(long[] points, String[] owners) {
+            this.points = points;
+            this.owners = owners;
+        }
+    }
+}
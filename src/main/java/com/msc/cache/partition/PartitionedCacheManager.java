@@ -0,0 +1,388 @@
+package com.msc.cache.partition;
+
+import com.msc.cache.CacheException;
+import com.msc.cache.CacheManager;
+import com.msc.cache.CachedEntity;
+import com.msc.cache.Cacheable;
+import com.msc.cache.GroupCacheable;
+import com.msc.cache.GroupCachedEntity;
+import com.msc.cache.remote.CacheServer;
+import com.msc.cache.remote.RemoteCacheClient;
+import com.msc.cache.remote.RemoteProtocol;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <P>CacheManager holding only its share of a cache spread over several nodes, so the capacity of the cache
+ * is the sum of the heaps of the nodes instead of the heap of the smallest one. Keys are assigned to the
+ * nodes by a ConsistentHashRing; get, peek, invalidate and refresh of keys owned by another node are
+ * forwarded to that node, which loads and caches them. flushGroup and flushAll are applied on every node.</P>
+ *
+ * <P>Every node runs a CacheServer serving its PartitionedCacheManager, and nodes are identified by the
+ * "host:port" of their servers. Requests forwarded by other nodes (which mark them as such) are always
+ * served locally, so nodes with (briefly) different views of the membership don't bounce requests between
+ * them; requests of other clients of the server are forwarded to the owner of the key like local ones.</P>
+ *
+ * <P>When the membership changes, the entries this node holds that now belong to another node are handed
+ * over to it by a background thread, rebalanceBatchSize entries at a time with a pause of rebalancePause
+ * milliseconds between batches. Only the keys that changed owner move. A get() for a key not handed over
+ * yet is a miss on its new owner.</P>
+ *
+ * <P>Groups can't be partitioned by key, so getByGroup() and getAll() are read through the loader on the
+ * calling node (caching only the entities it owns) instead of being served from the cache. Entities and
+ * keys travel between nodes, so they must be Serializable - and their classes must be allowed both by the
+ * CacheServers and by the allowedClasses of the PartitionedCacheManagers.</P>
+ */
+public class PartitionedCacheManager extends CacheManager {
+    private static final Logger logger = Logger.getLogger(PartitionedCacheManager.class.getName());
+
+    private final ConsistentHashRing ring = new ConsistentHashRing();
+    /** "host:port" of the CacheServer of this node. */
+    private String localNode;
+    private final ConcurrentMap<String, RemoteCacheClient> clients = new ConcurrentHashMap<String, RemoteCacheClient>();
+    private int rebalanceBatchSize = 100;
+    private long rebalancePause = 10;
+    private List<String> allowedClasses = new ArrayList<String>();
+    private int maxFrameSize = RemoteProtocol.DEFAULT_MAX_FRAME_SIZE;
+
+    private volatile RebalanceThread rebalanceThread;
+    private final AtomicLong forwardedCounter = new AtomicLong();
+    private final AtomicLong handedOverCounter = new AtomicLong();
+
+    /**
+     * @return Whether this node owns the key (or is serving a request forwarded by another node).
+     */
+    public boolean isLocal(Object cacheKey) {
+        String owner = this.ring.getOwner(cacheKey);
+        return owner == null || owner.equals(this.localNode) || CacheServer.isForwardedRequest(this.getName());
+    }
+
+    private RemoteCacheClient clientFor(Object cacheKey) {
+        this.forwardedCounter.incrementAndGet();
+        return this.clientForNode(this.ring.getOwner(cacheKey));
+    }
+
+    private RemoteCacheClient clientForNode(String node) {
+        RemoteCacheClient client = this.clients.get(node);
+        if (client == null) {
+            int separator = node.lastIndexOf(':');
+            client = new RemoteCacheClient(node.substring(0, separator), Integer.parseInt(node.substring(separator + 1)));
+            client.setForwarding(true);
+            client.setAllowedClasses(this.allowedClasses);
+            client.setMaxFrameSize(this.maxFrameSize);
+            RemoteCacheClient existing = this.clients.putIfAbsent(node, client);
+            if (existing != null) {
+                client = existing;
+            }
+        }
+        return client;
+    }
+
+    @Override
+    public Cacheable get(Object cacheKey) throws Exception {
+        if (this.isLocal(cacheKey)) {
+            return super.get(cacheKey);
+        }
+        return this.clientFor(cacheKey).get(this.getName(), cacheKey);
+    }
+
+    @Override
+    public Cacheable peek(Object cacheKey) throws Exception {
+        if (this.isLocal(cacheKey)) {
+            return super.peek(cacheKey);
+        }
+        return this.clientFor(cacheKey).peek(this.getName(), cacheKey);
+    }
+
+    @Override
+    public void invalidate(Cacheable entity) {
+        this.invalidateKey(entity.getCacheKey());
+    }
+
+    @Override
+    public void invalidateKey(Object cacheKey) {
+        if (this.isLocal(cacheKey)) {
+            super.invalidateKey(cacheKey);
+            return;
+        }
+        //Might still be here if it hasn't been handed over yet.
+        this.removeLocal(cacheKey);
+        try {
+            this.clientFor(cacheKey).invalidate(this.getName(), cacheKey);
+        } catch (CacheException e) {
+            logger.log(Level.WARNING, "Unable to invalidate " + cacheKey + " on its owner", e);
+        }
+    }
+
+    @Override
+    public void refresh(Cacheable entity) throws Exception {
+        if (this.isLocal(entity.getCacheKey())) {
+            super.refresh(entity);
+            return;
+        }
+        this.removeLocal(entity.getCacheKey());
+        this.clientFor(entity.getCacheKey()).refresh(this.getName(), entity);
+    }
+
+    /**
+     * Written on this node, cached on the owner of the key.
+     */
+    @Override
+    public void put(Cacheable entity) throws Exception {
+        if (this.isLocal(entity.getCacheKey())) {
+            super.put(entity);
+            return;
+        }
+        if (this.getWriterPolicy() != null) {
+            this.getWriterPolicy().write(entity);
+        }
+        this.removeLocal(entity.getCacheKey());
+        this.clientFor(entity.getCacheKey()).refresh(this.getName(), entity);
+    }
+
+    @Override
+    public Collection<Cacheable> getByGroup(Object groupKey) throws Exception {
+        return this.fetchByGroup(groupKey);
+    }
+
+    @Override
+    public Collection<Cacheable> getAll() throws Exception {
+        return this.isGrouped() ? null : this.fetchAll();
+    }
+
+    @Override
+    public void flushGroup(Object groupKey) {
+        super.flushGroup(groupKey);
+        if (!CacheServer.isForwardedRequest(this.getName())) {
+            for (String node : this.ring.getNodes()) {
+                if (!node.equals(this.localNode)) {
+                    try {
+                        this.clientForNode(node).flushGroup(this.getName(), groupKey);
+                    } catch (CacheException e) {
+                        logger.log(Level.WARNING, "Unable to flush group " + groupKey + " on " + node, e);
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void flushAll() {
+        super.flushAll();
+        if (!CacheServer.isForwardedRequest(this.getName())) {
+            for (String node : this.ring.getNodes()) {
+                if (!node.equals(this.localNode)) {
+                    try {
+                        this.clientForNode(node).flushAll(this.getName());
+                    } catch (CacheException e) {
+                        logger.log(Level.WARNING, "Unable to flush " + node, e);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Entities loaded for keys owned by other nodes (by group loads, for instance) are not cached here.
+     */
+    @Override
+    protected void register(Cacheable entity) throws CacheException {
+        if (this.isLocal(entity.getCacheKey())) {
+            super.register(entity);
+        }
+    }
+
+    @Override
+    protected boolean registerLoaded(Cacheable entity, long ticket) throws CacheException {
+        return this.isLocal(entity.getCacheKey()) && super.registerLoaded(entity, ticket);
+    }
+
+    @Override
+    protected boolean isCachedHere(Object cacheKey) {
+        return this.isLocal(cacheKey);
+    }
+
+    /**
+     * Drops a local entry without notifying anyone.
+     */
+    private Cacheable removeLocal(Object cacheKey) {
+        return this.removeEntry(cacheKey);
+    }
+
+    /**
+     * Adds a node to the partition and starts handing over to it the entries it now owns.
+     */
+    public void addNode(String node) {
+        this.ring.addNode(node);
+        this.rebalance();
+    }
+
+    public void removeNode(String node) {
+        this.ring.removeNode(node);
+        RemoteCacheClient client = this.clients.remove(node);
+        if (client != null) {
+            client.close();
+        }
+        this.rebalance();
+    }
+
+    /**
+     * @param nodes The "host:port" of the CacheServers of every node, including this one.
+     */
+    public void setNodes(List<String> nodes) {
+        this.ring.setNodes(nodes);
+        this.rebalance();
+    }
+
+    public List<String> getNodes() {
+        return this.ring.getNodes();
+    }
+
+    /**
+     * Starts a background hand over of the entries that belong to other nodes, replacing any running one.
+     */
+    protected synchronized void rebalance() {
+        if (this.localNode == null) {
+            return;
+        }
+        RebalanceThread previous = this.rebalanceThread;
+        if (previous != null) {
+            previous.halt();
+        }
+        this.rebalanceThread = new RebalanceThread();
+        this.rebalanceThread.start();
+    }
+
+    public boolean isRebalancing() {
+        RebalanceThread current = this.rebalanceThread;
+        return current != null && current.isAlive();
+    }
+
+    private void handOver() throws InterruptedException {
+        List<Object> moving = new ArrayList<Object>();
+        for (GroupCacheable group : this.getGroups().values()) {
+            for (Iterator<CachedEntity> iterator = ((GroupCachedEntity) group).iterator(); iterator.hasNext(); ) {
+                Object cacheKey = iterator.next().getCacheKey();
+                String owner = this.ring.getOwner(cacheKey);
+                if (owner != null && !owner.equals(this.localNode)) {
+                    moving.add(cacheKey);
+                }
+            }
+        }
+        int inBatch = 0;
+        for (Object cacheKey : moving) {
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+            if (this.isLocal(cacheKey)) {
+                continue; //Membership changed again and it's ours after all.
+            }
+            Cacheable entity = this.removeLocal(cacheKey);
+            if (entity != null) {
+                try {
+                    this.clientFor(cacheKey).refresh(this.getName(), entity);
+                    this.handedOverCounter.incrementAndGet();
+                } catch (CacheException e) {
+                    logger.log(Level.FINE, "Unable to hand over " + cacheKey + " - its owner will load it on the next miss", e);
+                }
+            }
+            if (++inBatch == this.rebalanceBatchSize) {
+                inBatch = 0;
+                Thread.sleep(this.rebalancePause);
+            }
+        }
+    }
+
+    public void shutdown() {
+        RebalanceThread current = this.rebalanceThread;
+        if (current != null) {
+            current.halt();
+        }
+        for (RemoteCacheClient client : this.clients.values()) {
+            client.close();
+        }
+        this.clients.clear();
+    }
+
+    public String getLocalNode() {
+        return localNode;
+    }
+
+    public void setLocalNode(String localNode) {
+        this.localNode = localNode;
+    }
+
+    public ConsistentHashRing getRing() {
+        return ring;
+    }
+
+    public int getRebalanceBatchSize() {
+        return rebalanceBatchSize;
+    }
+
+    public void setRebalanceBatchSize(int rebalanceBatchSize) {
+        this.rebalanceBatchSize = rebalanceBatchSize;
+    }
+
+    public long getRebalancePause() {
+        return rebalancePause;
+    }
+
+    public void setRebalancePause(long rebalancePause) {
+        this.rebalancePause = rebalancePause;
+    }
+
+    public List<String> getAllowedClasses() {
+        return allowedClasses;
+    }
+
+    /**
+     * @param allowedClasses Classes (or packages, ending in ".") of the entities accepted from the other nodes.
+     */
+    public void setAllowedClasses(List<String> allowedClasses) {
+        this.allowedClasses = allowedClasses;
+    }
+
+    public int getMaxFrameSize() {
+        return maxFrameSize;
+    }
+
+    public void setMaxFrameSize(int maxFrameSize) {
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    public long getForwardedCounter() {
+        return forwardedCounter.get();
+    }
+
+    public long getHandedOverCounter() {
+        return handedOverCounter.get();
+    }
+
+    private class RebalanceThread extends Thread {
+        RebalanceThread() {
+            super("PartitionedCacheManager-rebalance-" + PartitionedCacheManager.this.getName());
+            setDaemon(true);
+        }
+
+        void halt() {
+            this.interrupt();
+        }
+
+        public void run() {
+            try {
+                handOver();
+            } catch (InterruptedException ignored) {
+                logger.fine("Rebalance of " + PartitionedCacheManager.this.getName() + " superseded");
+            }
+        }
+    }
+}
@@ -0,0 +1,492 @@
+package com.msc.cache.primitive;
+
+import com.msc.cache.CacheCleanupThread;
+import com.msc.cache.CacheException;
+import com.msc.cache.Cacheable;
+import com.msc.cache.Ticker;
+import com.msc.cache.cleanup.IncrementalCleanupPolicy;
+import com.msc.cache.loader.CacheLoaderPolicy;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Logger;
+
+/**
+ * <P>Cache for entities keyed by primitive long (or int) ids. A CacheManager boxes every key and keeps a map
+ * node and a CachedEntity per entry - around 100 bytes before the entity itself. This cache keeps its entries
+ * in parallel primitive arrays instead, indexed by open addressing (linear probing): the key, the entity and
+ * two int timestamps, about 27 bytes per entry at the maximum load factor. get(long) and peek(long) don't box
+ * the key; only misses do, to hand it to the loader.</P>
+ *
+ * <P>Timestamps are seconds since the cache was created, and expiration is set for the whole cache
+ * (defaultIdleTime, defaultTimeToLive, in seconds like on CacheManager) rather than per entry. get() and peek()
+ * check it on every hit, so an expired entry is never returned: get() reads it again from the loader. Expired
+ * entries are removed by cleanup(), which init() has run every frequency seconds. Like the
+ * IncrementalCleanupPolicy, each run goes through up to batchSize slots of the table and the next one resumes
+ * from there; the write lock is taken for sliceSize slots at a time.</P>
+ *
+ * <P>Lookups run under a read lock and changes under a write lock. A hit records its access time without the
+ * write lock: concurrent hits of the same entry may overwrite each other's time, which is harmless.</P>
+ */
+public class LongKeyCache {
+    private static final Logger logger = Logger.getLogger(LongKeyCache.class.getName());
+    /** Marks the slots of removed entries, so probing goes on past them. */
+    private static final Object REMOVED = new Object();
+    private static final float LOAD_FACTOR = 0.75f;
+    /** Estimated size of a reference (compressed oops), for getFootprint(). */
+    private static final int REFERENCE_SIZE = 4;
+
+    private String name;
+    private CacheLoaderPolicy loaderPolicy;
+    private long defaultIdleTime = -1;
+    private long defaultTimeToLive = -1;
+    private int initialCapacity = 1024;
+    /** How often (in seconds) the cleanup thread runs cleanup(). */
+    private int frequency = 1;
+    private int batchSize = IncrementalCleanupPolicy.DEFAULT_BATCH_SIZE;
+    private int sliceSize = IncrementalCleanupPolicy.DEFAULT_SLICE_SIZE;
+    private Ticker ticker = Ticker.SYSTEM;
+
+    private long epoch = this.ticker.read();
+    private CacheCleanupThread cleanupThread;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    //Slots, guarded by lock. A slot is free when its value is null and removed when it's REMOVED.
+    private long[] keys;
+    private Object[] values;
+    private int[] created;
+    private int[] lastAccessed;
+    private int size;
+    private int removed;
+    private int threshold;
+    /** Next slot cleanup() looks at. */
+    private int sweepSlot;
+
+    private final AtomicLong hitCounter = new AtomicLong();
+    private final AtomicLong missCounter = new AtomicLong();
+    private final AtomicLong evictionCounter = new AtomicLong();
+
+    /**
+     * Starts the thread running cleanup() every frequency seconds, if entries expire.
+     */
+    public synchronized void init() {
+        if (this.cleanupThread != null || (this.defaultIdleTime < 0 && this.defaultTimeToLive < 0)) {
+            return;
+        }
+        this.cleanupThread = new CacheCleanupThread(TimeUnit.SECONDS.toMillis(Math.max(1, this.frequency))) {
+            @Override
+            protected void runCleanup() {
+                cleanup();
+            }
+        };
+        this.cleanupThread.start();
+    }
+
+    /**
+     * Stops the cleanup thread.
+     */
+    public synchronized void shutdown() {
+        if (this.cleanupThread != null) {
+            this.cleanupThread.halt();
+            this.cleanupThread = null;
+        }
+    }
+
+    /**
+     * Read Method - the cached entity, or the one the loader reads (and caches) if it's a miss.
+     *
+     * @return The entity, or null if the loader doesn't know the key.
+     */
+    public Cacheable get(long key) throws CacheException {
+        this.lock.readLock().lock();
+        try {
+            int slot = this.slotOf(key);
+            if (slot >= 0) {
+                int now = this.now();
+                if (!this.isExpired(slot, now)) {
+                    this.hitCounter.incrementAndGet();
+                    this.lastAccessed[slot] = now;
+                    return (Cacheable) this.values[slot];
+                }
+            }
+        } finally {
+            this.lock.readLock().unlock();
+        }
+        this.missCounter.incrementAndGet();
+        if (this.loaderPolicy == null) {
+            return null;
+        }
+        //Replaces the expired entry, if any.
+        Cacheable entity = this.loaderPolicy.fetchEntity(key);
+        if (entity != null) {
+            this.put(key, entity);
+        }
+        return entity;
+    }
+
+    /**
+     * @return The cached entity, or null (if it expired too) - without touching it nor going to the loader.
+     */
+    public Cacheable peek(long key) {
+        this.lock.readLock().lock();
+        try {
+            int slot = this.slotOf(key);
+            return slot >= 0 && !this.isExpired(slot, this.now()) ? (Cacheable) this.values[slot] : null;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    private int slotOf(long key) {
+        if (this.keys == null) {
+            return -1;
+        }
+        int capacity = this.keys.length;
+        int slot = slotFor(key, capacity);
+        for (int probes = 0; probes < capacity; probes++) {
+            Object value = this.values[slot];
+            if (value == null) {
+                return -1;
+            }
+            if (value != REMOVED && this.keys[slot] == key) {
+                return slot;
+            }
+            slot = next(slot, capacity);
+        }
+        return -1;
+    }
+
+    /**
+     * @return Whether the entry of the slot is idle for longer than defaultIdleTime or older than defaultTimeToLive.
+     */
+    private boolean isExpired(int slot, int now) {
+        return (this.defaultIdleTime >= 0 && now - this.lastAccessed[slot] > this.defaultIdleTime)
+                || (this.defaultTimeToLive >= 0 && now - this.created[slot] > this.defaultTimeToLive);
+    }
+
+    /**
+     * Caches an entity, replacing the one cached under the same key.
+     */
+    public void put(long key, Cacheable entity) {
+        if (entity == null) {
+            throw new IllegalArgumentException("Can't cache null under " + key);
+        }
+        this.lock.writeLock().lock();
+        try {
+            this.ensureCapacity();
+            int now = this.now();
+            int capacity = this.keys.length;
+            int slot = slotFor(key, capacity);
+            int firstRemoved = -1;
+            for (Object value = this.values[slot]; value != null; value = this.values[slot]) {
+                if (value == REMOVED) {
+                    if (firstRemoved < 0) {
+                        firstRemoved = slot;
+                    }
+                } else if (this.keys[slot] == key) {
+                    this.values[slot] = entity;
+                    this.created[slot] = now;
+                    this.lastAccessed[slot] = now;
+                    return;
+                }
+                slot = next(slot, capacity);
+            }
+            if (firstRemoved >= 0) {
+                slot = firstRemoved;
+                this.removed--;
+            }
+            this.keys[slot] = key;
+            this.values[slot] = entity;
+            this.created[slot] = now;
+            this.lastAccessed[slot] = now;
+            this.size++;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes an entity from the cache.
+     *
+     * @return The entity removed, or null if it wasn't cached.
+     */
+    public Cacheable invalidate(long key) {
+        this.lock.writeLock().lock();
+        try {
+            int slot = this.slotOf(key);
+            if (slot < 0) {
+                return null;
+            }
+            Cacheable entity = (Cacheable) this.values[slot];
+            this.removeSlot(slot);
+            return entity;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    private void removeSlot(int slot) {
+        this.values[slot] = REMOVED;
+        this.size--;
+        this.removed++;
+    }
+
+    public void flushAll() {
+        logger.info("Flushing Cache " + this.name + "...");
+        this.lock.writeLock().lock();
+        try {
+            if (this.values != null) {
+                Arrays.fill(this.values, null);
+            }
+            this.size = 0;
+            this.removed = 0;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the entries idle for longer than defaultIdleTime or older than defaultTimeToLive, going through
+     * up to batchSize slots from where the last run stopped (the whole table if batchSize is 0). The write lock
+     * is released every sliceSize slots.
+     */
+    public void cleanup() {
+        if (this.defaultIdleTime < 0 && this.defaultTimeToLive < 0) {
+            return;
+        }
+        int limit = this.batchSize > 0 ? this.batchSize : Integer.MAX_VALUE;
+        int slice = Math.max(1, this.sliceSize);
+        for (int swept = 0; swept < limit; ) {
+            this.lock.writeLock().lock();
+            try {
+                if (this.values == null) {
+                    return;
+                }
+                int capacity = this.values.length;
+                if (this.sweepSlot >= capacity) {
+                    this.sweepSlot = 0;
+                }
+                int now = this.now();
+                int end = (int) Math.min(capacity, (long) this.sweepSlot + Math.min(slice, limit - swept));
+                swept += end - this.sweepSlot;
+                for (; this.sweepSlot < end; this.sweepSlot++) {
+                    Object value = this.values[this.sweepSlot];
+                    if (value != null && value != REMOVED && this.isExpired(this.sweepSlot, now)) {
+                        this.removeSlot(this.sweepSlot);
+                        this.evictionCounter.incrementAndGet();
+                    }
+                }
+                if (this.sweepSlot == capacity) { //Went through all of them: the next run starts over.
+                    this.sweepSlot = 0;
+                    if (this.removed > this.size) {
+                        this.rehash(capacity);
+                    }
+                    return;
+                }
+            } finally {
+                this.lock.writeLock().unlock();
+            }
+        }
+    }
+
+    private void ensureCapacity() {
+        if (this.keys == null) {
+            this.allocate((int) Math.ceil(Math.max(this.initialCapacity, 16) / LOAD_FACTOR) + 1);
+        } else if (this.size + this.removed + 1 > this.threshold) {
+            //Grow if it's mostly live entries, otherwise just sweep the removed ones.
+            this.rehash(this.size + 1 > this.threshold / 2 ? this.keys.length << 1 : this.keys.length);
+        }
+    }
+
+    private void allocate(int capacity) {
+        this.keys = new long[capacity];
+        this.values = new Object[capacity];
+        this.created = new int[capacity];
+        this.lastAccessed = new int[capacity];
+        this.threshold = (int) (capacity * LOAD_FACTOR);
+        this.size = 0;
+        this.removed = 0;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = this.keys;
+        Object[] oldValues = this.values;
+        int[] oldCreated = this.created;
+        int[] oldLastAccessed = this.lastAccessed;
+        this.allocate(capacity);
+        for (int i = 0; i < oldValues.length; i++) {
+            Object value = oldValues[i];
+            if (value != null && value != REMOVED) {
+                int slot = slotFor(oldKeys[i], capacity);
+                while (this.values[slot] != null) {
+                    slot = next(slot, capacity);
+                }
+                this.keys[slot] = oldKeys[i];
+                this.values[slot] = value;
+                this.created[slot] = oldCreated[i];
+                this.lastAccessed[slot] = oldLastAccessed[i];
+                this.size++;
+            }
+        }
+    }
+
+    private int now() {
+        return (int) TimeUnit.NANOSECONDS.toSeconds(this.ticker.read() - this.epoch);
+    }
+
+    /**
+     * Home slot of a key: its bits spread (MurmurHash3 finalizer), so sequential ids don't make long probe
+     * runs, and then scaled to the capacity by a multiply instead of a modulo. The capacity doesn't need to be
+     * a power of two, so a table sized by initialCapacity wastes no slots.
+     */
+    private static int slotFor(long key, int capacity) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) (((key & 0xffffffffL) * capacity) >>> 32);
+    }
+
+    private static int next(int slot, int capacity) {
+        return ++slot == capacity ? 0 : slot;
+    }
+
+    public long getSize() {
+        this.lock.readLock().lock();
+        try {
+            return this.size;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return Number of slots of the table.
+     */
+    public int getCapacity() {
+        this.lock.readLock().lock();
+        try {
+            return this.keys == null ? 0 : this.keys.length;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return Estimated bytes taken by the table (not by the entities themselves).
+     */
+    public long getFootprint() {
+        return (long) this.getCapacity() * (8 + REFERENCE_SIZE + 4 + 4);
+    }
+
+    public long getHitCounter() {
+        return hitCounter.get();
+    }
+
+    public long getMissCounter() {
+        return missCounter.get();
+    }
+
+    public long getEvictionCounter() {
+        return evictionCounter.get();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public CacheLoaderPolicy getLoaderPolicy() {
+        return loaderPolicy;
+    }
+
+    /**
+     * @param loaderPolicy Loader for the misses. It gets the keys as Long.
+     */
+    public void setLoaderPolicy(CacheLoaderPolicy loaderPolicy) {
+        this.loaderPolicy = loaderPolicy;
+    }
+
+    public long getDefaultIdleTime() {
+        return defaultIdleTime;
+    }
+
+    public void setDefaultIdleTime(long defaultIdleTime) {
+        this.defaultIdleTime = defaultIdleTime;
+    }
+
+    public long getDefaultTimeToLive() {
+        return defaultTimeToLive;
+    }
+
+    public void setDefaultTimeToLive(long defaultTimeToLive) {
+        this.defaultTimeToLive = defaultTimeToLive;
+    }
+
+    /**
+     * @return How often (in seconds) the cleanup thread runs.
+     */
+    public int getFrequency() {
+        return frequency;
+    }
+
+    /**
+     * @param frequency How often (in seconds) the cleanup thread runs. Set it before init().
+     */
+    public void setFrequency(int frequency) {
+        this.frequency = frequency;
+    }
+
+    /**
+     * @return Maximum number of slots a cleanup() goes through, or 0 for the whole table.
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @return Number of slots a cleanup() goes through at a time, holding the write lock.
+     */
+    public int getSliceSize() {
+        return sliceSize;
+    }
+
+    public void setSliceSize(int sliceSize) {
+        this.sliceSize = sliceSize;
+    }
+
+    public Ticker getTicker() {
+        return ticker;
+    }
+
+    /**
+     * @param ticker Time source of the timestamps. Set it before caching anything.
+     */
+    public void setTicker(Ticker ticker) {
+        this.ticker = ticker;
+        this.epoch = ticker.read();
+    }
+
+    public int getInitialCapacity() {
+        return initialCapacity;
+    }
+
+    /**
+     * @param initialCapacity Number of entries the table holds before it has to grow. Sizing it for the
+     *                        expected number of entries keeps them at about 27 bytes each; a table that had to
+     *                        double takes up to twice that until it fills up again.
+     */
+    public void setInitialCapacity(int initialCapacity) {
+        this.initialCapacity = initialCapacity;
+    }
+}
@@ -0,0 +1,514 @@
+package com.msc.cache.remote;
+
+import com.msc.cache.CacheManager;
+import com.msc.cache.Cacheable;
+import com.msc.cache.GroupCacheable;
+import com.msc.cache.loader.CacheGroupLoaderPolicy;
+import org.springframework.context.support.AbstractApplicationContext;
+import org.springframework.context.support.FileSystemXmlApplicationContext;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <P>Standalone cache server: exposes the read, invalidate, refresh and flush operations of its CacheManagers
+ * to RemoteCacheClients over TCP (see RemoteProtocol). Application nodes use a local CacheManager with a
+ * RemoteCacheLoaderPolicy as a near cache, so the whole fleet shares the big, warm caches held here and each
+ * key is read from the persistence storage only once.</P>
+ *
+ * <P>A single selector thread does all the network I/O. Requests are executed by a pool of workerThreads, so
+ * a miss waiting on the persistence storage doesn't hold the requests queued behind it - responses are sent
+ * as they complete, in any order. Clients subscribed to a cache are pushed every invalidation, refresh and
+ * flush of that cache (except the one that asked for it, which already knows).</P>
+ *
+ * <P>The CacheManagers registered with the server get a CacheServerNotifierPolicy, unless they already have
+ * a notifier - in which case the pushes only happen if that notifier delegates to a CacheServerNotifierPolicy.</P>
+ *
+ * <P>Clients are not authenticated, and may flush every cache served: unless bindAddress says otherwise, the
+ * server only listens on the loopback interface. Requests longer than maxFrameSize close the connection, and
+ * arguments are only deserialized if they're of the basic types or of the allowedClasses - which must list the
+ * classes of the entities refreshed by the clients.</P>
+ */
+public class CacheServer {
+    private static final Logger logger = Logger.getLogger(CacheServer.class.getName());
+
+    /** Port to listen on. 0 picks any free port (see getLocalPort()). */
+    private int port = 45570;
+    /** Address to listen on. The loopback address if null. */
+    private String bindAddress;
+    private int workerThreads = 8;
+    private int maxFrameSize = RemoteProtocol.DEFAULT_MAX_FRAME_SIZE;
+    private List<String> allowedClasses = new ArrayList<String>();
+    private volatile List<String> acceptedClasses = RemoteProtocol.acceptedClasses(null);
+
+    private final Map<String, CacheManager> caches = new ConcurrentHashMap<String, CacheManager>();
+    private final Set<Connection> connections = new CopyOnWriteArraySet<Connection>();
+    /** Connections with frames waiting for the selector to register interest on OP_WRITE. */
+    private final Queue<Connection> pendingWrites = new ConcurrentLinkedQueue<Connection>();
+    /** Connection whose request is being executed by the current thread. Not pushed the resulting changes. */
+    private final ThreadLocal<Connection> origin = new ThreadLocal<Connection>();
+    /** Name of the cache whose forwarded request (see RemoteProtocol.FLAG_FORWARDED) the current thread executes. */
+    private static final ThreadLocal<String> forwardedRequest = new ThreadLocal<String>();
+
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private ExecutorService workers;
+    private Thread selectorThread;
+    private volatile boolean shouldKeepRunning;
+
+    private final AtomicLong requestCounter = new AtomicLong();
+    private final AtomicLong errorCounter = new AtomicLong();
+    private final AtomicLong pushCounter = new AtomicLong();
+
+    public synchronized void init() throws IOException {
+        if (this.selectorThread != null) {
+            return;
+        }
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        this.serverChannel.configureBlocking(false);
+        this.serverChannel.socket().setReuseAddress(true);
+        this.serverChannel.socket().bind(this.bindAddress == null ? new InetSocketAddress(InetAddress.getLoopbackAddress(), this.port) : new InetSocketAddress(this.bindAddress, this.port));
+        this.serverChannel.register(this.selector, SelectionKey.OP_ACCEPT);
+        this.workers = Executors.newFixedThreadPool(this.workerThreads, new ThreadFactory() {
+            private final AtomicInteger counter = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "CacheServer-worker-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.shouldKeepRunning = true;
+        this.selectorThread = new Thread("CacheServer-" + this.getLocalPort()) {
+            public void run() {
+                serve();
+            }
+        };
+        this.selectorThread.start();
+        logger.info("Cache server listening on port " + this.getLocalPort() + " serving " + this.caches.keySet());
+    }
+
+    public void shutdown() throws InterruptedException {
+        Thread current;
+        synchronized (this) {
+            current = this.selectorThread;
+            this.selectorThread = null;
+        }
+        if (current != null) {
+            this.shouldKeepRunning = false;
+            this.selector.wakeup();
+            current.join();
+            this.workers.shutdown();
+            this.workers.awaitTermination(5, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Makes a CacheManager available to the clients, under its name.
+     */
+    public void register(CacheManager cacheManager) {
+        if (cacheManager.getName() == null) {
+            throw new IllegalArgumentException("CacheManagers served remotely must have a name");
+        }
+        if (cacheManager.getNotifierPolicy() == null) {
+            CacheServerNotifierPolicy notifier = new CacheServerNotifierPolicy(this);
+            cacheManager.setNotifierPolicy(notifier);
+            notifier.setCacheManager(cacheManager);
+        } else if (!(cacheManager.getNotifierPolicy() instanceof CacheServerNotifierPolicy)) {
+            logger.info("CacheManager " + cacheManager.getName() + " already has a notifier. Its changes are only pushed "
+                    + "to the clients if that notifier delegates to a CacheServerNotifierPolicy.");
+        }
+        this.caches.put(cacheManager.getName(), cacheManager);
+    }
+
+    /**
+     * Spring friendly version of register().
+     */
+    public void setCaches(List<CacheManager> cacheManagers) {
+        for (CacheManager cacheManager : cacheManagers) {
+            this.register(cacheManager);
+        }
+    }
+
+    /**
+     * Pushes a change of a cache to its subscribers.
+     *
+     * @param operation One of RemoteProtocol.OP_INVALIDATE, OP_FLUSH_GROUP or OP_FLUSH_ALL.
+     * @param key       The key invalidated or the group flushed.
+     */
+    public void publish(String cacheName, byte operation, Object key) {
+        Connection skip = this.origin.get();
+        byte[] frame = null;
+        for (Connection connection : this.connections) {
+            if (connection != skip && connection.subscriptions.contains(cacheName)) {
+                if (frame == null) {
+                    try {
+                        frame = RemoteProtocol.frame(RemoteProtocol.PUSH_ID, operation, cacheName, key);
+                    } catch (IOException e) {
+                        logger.log(Level.WARNING, "Unable to serialize cache key " + key + " - clients will not be notified", e);
+                        return;
+                    }
+                }
+                connection.send(frame);
+                this.pushCounter.incrementAndGet();
+            }
+        }
+    }
+
+    private void serve() {
+        try {
+            while (this.shouldKeepRunning) {
+                this.selector.select();
+                Connection pending;
+                while ((pending = this.pendingWrites.poll()) != null) {
+                    pending.writeScheduled.set(false);
+                    if (pending.key.isValid()) {
+                        pending.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    }
+                }
+                for (Iterator<SelectionKey> iterator = this.selector.selectedKeys().iterator(); iterator.hasNext(); ) {
+                    SelectionKey key = iterator.next();
+                    iterator.remove();
+                    try {
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            this.accept();
+                        } else {
+                            Connection connection = (Connection) key.attachment();
+                            if (key.isReadable()) {
+                                connection.read();
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                connection.write();
+                            }
+                        }
+                    } catch (IOException e) {
+                        logger.log(Level.FINE, "Closing client connection", e);
+                        if (key.attachment() != null) {
+                            ((Connection) key.attachment()).close();
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Cache server stopped", e);
+        } finally {
+            for (Connection connection : this.connections) {
+                connection.close();
+            }
+            try {
+                this.serverChannel.close();
+                this.selector.close();
+            } catch (IOException ignored) {
+                logger.finest("Unable to close server socket: " + ignored.getMessage());
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = this.serverChannel.accept();
+        if (channel != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            Connection connection = new Connection(channel);
+            connection.key = channel.register(this.selector, SelectionKey.OP_READ, connection);
+            this.connections.add(connection);
+        }
+    }
+
+    /**
+     * Executes a request and sends its response. Runs on a worker thread.
+     */
+    private void execute(Connection connection, byte[] frame) {
+        int requestId = 0;
+        byte[] response;
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(frame));
+            requestId = in.readInt();
+            byte operation = in.readByte();
+            boolean forwarded = (operation & RemoteProtocol.FLAG_FORWARDED) != 0;
+            operation &= ~RemoteProtocol.FLAG_FORWARDED;
+            String cacheName = in.readUTF();
+            Object argument = RemoteProtocol.readValue(in, this.acceptedClasses);
+            CacheManager cacheManager = this.caches.get(cacheName);
+            if (cacheManager == null) {
+                throw new IllegalArgumentException("Unknown cache: " + cacheName);
+            }
+            this.origin.set(connection);
+            if (forwarded) {
+                forwardedRequest.set(cacheName);
+            }
+            Object result = this.execute(connection, cacheManager, operation, argument);
+            response = RemoteProtocol.frame(requestId, RemoteProtocol.STATUS_OK, null, result);
+        } catch (Exception e) {
+            this.errorCounter.incrementAndGet();
+            logger.log(Level.FINE, "Remote cache request failed", e);
+            try {
+                response = RemoteProtocol.frame(requestId, RemoteProtocol.STATUS_ERROR, null, String.valueOf(e.getMessage()));
+            } catch (IOException unexpected) {
+                logger.log(Level.WARNING, "Unable to answer remote cache request", unexpected);
+                return;
+            }
+        } finally {
+            this.origin.remove();
+            forwardedRequest.remove();
+        }
+        connection.send(response);
+    }
+
+    private Object execute(Connection connection, CacheManager cacheManager, byte operation, Object argument) throws Exception {
+        this.requestCounter.incrementAndGet();
+        switch (operation) {
+            case RemoteProtocol.OP_GET:
+                return cacheManager.get(argument);
+            case RemoteProtocol.OP_PEEK:
+                return cacheManager.peek(argument);
+            case RemoteProtocol.OP_GET_GROUP:
+                return toList(cacheManager.getByGroup(argument));
+            case RemoteProtocol.OP_GET_ALL:
+                return toList(cacheManager.getAll());
+            case RemoteProtocol.OP_GET_GROUPS:
+                if (cacheManager.getLoaderPolicy() instanceof CacheGroupLoaderPolicy) {
+                    Collection<GroupCacheable> groups = ((CacheGroupLoaderPolicy) cacheManager.getLoaderPolicy()).fetchGroups();
+                    return groups == null ? null : new ArrayList<GroupCacheable>(groups);
+                }
+                return null;
+            case RemoteProtocol.OP_INVALIDATE:
+                cacheManager.invalidateKey(argument);
+                return null;
+            case RemoteProtocol.OP_REFRESH:
+                cacheManager.refresh((Cacheable) argument);
+                return null;
+            case RemoteProtocol.OP_FLUSH_GROUP:
+                cacheManager.flushGroup(argument);
+                return null;
+            case RemoteProtocol.OP_FLUSH_ALL:
+                cacheManager.flushAll();
+                return null;
+            case RemoteProtocol.OP_SUBSCRIBE:
+                connection.subscriptions.add(cacheManager.getName());
+                return null;
+            default:
+                throw new IllegalArgumentException("Unknown operation: " + operation);
+        }
+    }
+
+    private static <T> ArrayList<T> toList(Collection<T> values) {
+        if (values == null || values instanceof ArrayList) {
+            return (ArrayList<T>) values;
+        }
+        return new ArrayList<T>(values);
+    }
+
+    /**
+     * @return Whether the current thread is executing a request for the cache that another node forwarded
+     *         (see RemoteCacheClient.setForwarding()) - so a partitioned cache serves it locally instead of
+     *         forwarding it again.
+     */
+    public static boolean isForwardedRequest(String cacheName) {
+        return cacheName != null && cacheName.equals(forwardedRequest.get());
+    }
+
+    /**
+     * @return The port this server is actually listening on.
+     */
+    public int getLocalPort() {
+        return this.serverChannel == null ? this.port : this.serverChannel.socket().getLocalPort();
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    public String getBindAddress() {
+        return bindAddress;
+    }
+
+    /**
+     * @param bindAddress Address to listen on ("0.0.0.0" for all of them). The loopback address if null.
+     */
+    public void setBindAddress(String bindAddress) {
+        this.bindAddress = bindAddress;
+    }
+
+    public int getMaxFrameSize() {
+        return maxFrameSize;
+    }
+
+    /**
+     * @param maxFrameSize Biggest request accepted, in bytes.
+     */
+    public void setMaxFrameSize(int maxFrameSize) {
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    public List<String> getAllowedClasses() {
+        return allowedClasses;
+    }
+
+    /**
+     * @param allowedClasses Classes (or packages, ending in ".") of the keys and entities accepted from the
+     *                       clients, besides String, the boxed primitives and the other basic types.
+     */
+    public void setAllowedClasses(List<String> allowedClasses) {
+        this.allowedClasses = allowedClasses;
+        this.acceptedClasses = RemoteProtocol.acceptedClasses(allowedClasses);
+    }
+
+    public int getWorkerThreads() {
+        return workerThreads;
+    }
+
+    public void setWorkerThreads(int workerThreads) {
+        this.workerThreads = workerThreads;
+    }
+
+    public int getConnectionCount() {
+        return connections.size();
+    }
+
+    public long getRequestCounter() {
+        return requestCounter.get();
+    }
+
+    public long getErrorCounter() {
+        return errorCounter.get();
+    }
+
+    public long getPushCounter() {
+        return pushCounter.get();
+    }
+
+    /**
+     * A client connection. Reads happen on the selector thread only; send() may be called from any thread.
+     */
+    private class Connection {
+        private final SocketChannel channel;
+        private SelectionKey key;
+        private ByteBuffer in = ByteBuffer.allocate(8192);
+        private final Queue<ByteBuffer> out = new ConcurrentLinkedQueue<ByteBuffer>();
+        private final AtomicBoolean writeScheduled = new AtomicBoolean();
+        private final Set<String> subscriptions = new CopyOnWriteArraySet<String>();
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        void read() throws IOException {
+            if (this.channel.read(this.in) < 0) {
+                this.close();
+                return;
+            }
+            this.in.flip();
+            while (this.in.remaining() >= 4) {
+                int length = this.in.getInt(this.in.position());
+                if (length < RemoteProtocol.HEADER_SIZE - 4 || length > maxFrameSize) {
+                    throw new IOException("Invalid frame length: " + length);
+                }
+                if (this.in.remaining() < 4 + length) {
+                    if (4 + length > this.in.capacity()) {
+                        ByteBuffer bigger = ByteBuffer.allocate(4 + length);
+                        bigger.put(this.in);
+                        this.in = bigger;
+                        return;
+                    }
+                    break;
+                }
+                this.in.getInt();
+                final byte[] frame = new byte[length];
+                this.in.get(frame);
+                workers.execute(new Runnable() {
+                    public void run() {
+                        execute(Connection.this, frame);
+                    }
+                });
+            }
+            this.in.compact();
+        }
+
+        void send(byte[] frame) {
+            this.out.add(ByteBuffer.wrap(frame));
+            if (this.writeScheduled.compareAndSet(false, true)) {
+                pendingWrites.add(this);
+                selector.wakeup();
+            }
+        }
+
+        void write() throws IOException {
+            ByteBuffer buffer;
+            while ((buffer = this.out.peek()) != null) {
+                this.channel.write(buffer);
+                if (buffer.hasRemaining()) {
+                    return; //Socket buffer full, wait for the next OP_WRITE.
+                }
+                this.out.poll();
+            }
+            this.key.interestOps(SelectionKey.OP_READ);
+            //A frame might have been queued after the loop - make sure it's not left behind.
+            if (!this.out.isEmpty()) {
+                this.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+        }
+
+        void close() {
+            connections.remove(this);
+            if (this.key != null) {
+                this.key.cancel();
+            }
+            try {
+                this.channel.close();
+            } catch (IOException ignored) {
+                logger.finest("Unable to close client connection: " + ignored.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Starts a standalone server out of a Spring configuration file declaring a CacheServer bean (with
+     * init-method="init") and the CacheManagers it serves.
+     *
+     * @param args The path(s) of the Spring configuration file(s).
+     */
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            System.err.println("Usage: CacheServer <spring configuration file>...");
+            System.exit(1);
+        }
+        AbstractApplicationContext context = new FileSystemXmlApplicationContext(args);
+        context.registerShutdownHook();
+    }
+}
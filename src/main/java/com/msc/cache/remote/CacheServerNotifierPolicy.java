@@ -0,0 +1,59 @@
+package com.msc.cache.remote;
+
+import com.msc.cache.CacheManager;
+import com.msc.cache.CacheManagerAware;
+import com.msc.cache.notifier.CacheNotifierPolicy;
+import com.msc.cache.notifier.NotificationMessage;
+
+/**
+ * Notifier policy of the CacheManagers served by a CacheServer: pushes their invalidations, refreshes and
+ * flushes to the near caches subscribed to them. Installed automatically by CacheServer.register() on caches
+ * without a notifier.
+ */
+public class CacheServerNotifierPolicy implements CacheNotifierPolicy, CacheManagerAware {
+    private CacheServer server;
+    private String cacheName;
+
+    public CacheServerNotifierPolicy() {
+    }
+
+    public CacheServerNotifierPolicy(CacheServer server) {
+        this.server = server;
+    }
+
+    public void setCacheManager(CacheManager cacheManager) {
+        this.cacheName = cacheManager.getName();
+    }
+
+    public void notifyCache(NotificationMessage message) {
+        if (this.cacheName == null || message.getType() == null) {
+            return;
+        }
+        switch (message.getType()) {
+            case INVALIDATE:
+            case REFRESH:
+                Object key = message.getKey();
+                if (key == null && message.getEntity() != null) {
+                    key = message.getEntity().getCacheKey();
+                }
+                this.server.publish(this.cacheName, RemoteProtocol.OP_INVALIDATE, key);
+                break;
+            case FLUSH_GROUP:
+                this.server.publish(this.cacheName, RemoteProtocol.OP_FLUSH_GROUP, message.getGroupKey());
+                break;
+            case FLUSH_ALL:
+                this.server.publish(this.cacheName, RemoteProtocol.OP_FLUSH_ALL, null);
+                break;
+            default:
+                //Hits, misses and registrations don't concern the near caches.
+        }
+    }
+
+    public CacheServer getServer() {
+        return server;
+    }
+
+    public void setServer(CacheServer server) {
+        this.server = server;
+    }
+}
@@ -0,0 +1,431 @@
+package com.msc.cache.remote;
+
+import com.msc.cache.CacheException;
+import com.msc.cache.Cacheable;
+import com.msc.cache.GroupCacheable;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <P>Connection to a CacheServer. One client can be shared by any number of threads and caches: requests are
+ * pipelined on a single TCP connection and matched with their responses by id, so a slow request doesn't
+ * hold the others.</P>
+ *
+ * <P>The connection is opened on the first request and reopened on the first request after it's lost. Since
+ * pushes may have been missed in the meantime, subscribers are delivered an OP_FLUSH_ALL when it's lost.</P>
+ *
+ * <P>Responses are only deserialized if they're of the basic types or of the allowedClasses, which must list
+ * the classes of the entities. Frames longer than maxFrameSize close the connection.</P>
+ */
+public class RemoteCacheClient {
+    private static final Logger logger = Logger.getLogger(RemoteCacheClient.class.getName());
+
+    private String host = "localhost";
+    private int port = 45570;
+    private int connectTimeout = 2000;
+    /** How long (in milliseconds) to wait for a response. */
+    private long requestTimeout = 5000;
+    private int maxFrameSize = RemoteProtocol.DEFAULT_MAX_FRAME_SIZE;
+    /** Whether the requests are forwarded by a node of a partitioned cache. */
+    private boolean forwarding;
+    private List<String> allowedClasses = new ArrayList<String>();
+    private volatile List<String> acceptedClasses = RemoteProtocol.acceptedClasses(null);
+
+    private final AtomicInteger nextId = new AtomicInteger();
+    private final Map<Integer, Call> calls = new ConcurrentHashMap<Integer, Call>();
+    private final Map<String, RemotePushListener> subscribers = new ConcurrentHashMap<String, RemotePushListener>();
+    private final ThreadLocal<Boolean> applyingPush = new ThreadLocal<Boolean>();
+    /** Guarded by this. */
+    private Socket socket;
+    /** Guarded by this. */
+    private OutputStream out;
+    private volatile boolean closed;
+
+    public RemoteCacheClient() {
+    }
+
+    public RemoteCacheClient(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    public Cacheable get(String cacheName, Object cacheKey) throws CacheException {
+        return (Cacheable) this.call(RemoteProtocol.OP_GET, cacheName, cacheKey);
+    }
+
+    public Cacheable peek(String cacheName, Object cacheKey) throws CacheException {
+        return (Cacheable) this.call(RemoteProtocol.OP_PEEK, cacheName, cacheKey);
+    }
+
+    public Collection<Cacheable> getByGroup(String cacheName, Object groupKey) throws CacheException {
+        return collectionOf(this.call(RemoteProtocol.OP_GET_GROUP, cacheName, groupKey), Cacheable.class);
+    }
+
+    public Collection<Cacheable> getAll(String cacheName) throws CacheException {
+        return collectionOf(this.call(RemoteProtocol.OP_GET_ALL, cacheName, null), Cacheable.class);
+    }
+
+    public Collection<GroupCacheable> getGroups(String cacheName) throws CacheException {
+        return collectionOf(this.call(RemoteProtocol.OP_GET_GROUPS, cacheName, null), GroupCacheable.class);
+    }
+
+    /**
+     * @return The response, checked to be a collection of elements of the given type.
+     */
+    private static <T> Collection<T> collectionOf(Object response, Class<T> type) throws CacheException {
+        if (response == null) {
+            return null;
+        }
+        if (!(response instanceof Collection)) {
+            throw new CacheException("Unexpected response from cache server: " + response.getClass().getName(), "remoteError");
+        }
+        Collection<?> elements = (Collection<?>) response;
+        List<T> collection = new ArrayList<T>(elements.size());
+        for (Object element : elements) {
+            if (element != null && !type.isInstance(element)) {
+                throw new CacheException("Unexpected element from cache server: " + element.getClass().getName(), "remoteError");
+            }
+            collection.add(type.cast(element));
+        }
+        return collection;
+    }
+
+    public void invalidate(String cacheName, Object cacheKey) throws CacheException {
+        this.call(RemoteProtocol.OP_INVALIDATE, cacheName, cacheKey);
+    }
+
+    public void refresh(String cacheName, Cacheable entity) throws CacheException {
+        this.call(RemoteProtocol.OP_REFRESH, cacheName, entity);
+    }
+
+    public void flushGroup(String cacheName, Object groupKey) throws CacheException {
+        this.call(RemoteProtocol.OP_FLUSH_GROUP, cacheName, groupKey);
+    }
+
+    public void flushAll(String cacheName) throws CacheException {
+        this.call(RemoteProtocol.OP_FLUSH_ALL, cacheName, null);
+    }
+
+    /**
+     * Asks the server to push the changes of a cache to this client. There's one listener per cache.
+     */
+    public void subscribe(String cacheName, RemotePushListener listener) throws CacheException {
+        this.subscribers.put(cacheName, listener);
+        this.call(RemoteProtocol.OP_SUBSCRIBE, cacheName, null);
+    }
+
+    /**
+     * @return Whether the current thread is delivering a change pushed by the server - which must not be
+     *         sent back to it.
+     */
+    public boolean isApplyingPush() {
+        return this.applyingPush.get() != null;
+    }
+
+    /**
+     * Sends a request and waits for its response.
+     */
+    public Object call(byte operation, String cacheName, Object argument) throws CacheException {
+        Future<Object> call = this.submit(operation, cacheName, argument);
+        try {
+            return call.get(this.requestTimeout, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            throw new CacheException(e.getCause().getMessage(), "remoteError");
+        } catch (TimeoutException e) {
+            call.cancel(false);
+            throw new CacheException("No response from cache server " + this.host + ":" + this.port + " after " + this.requestTimeout + "ms", "remoteTimeout");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            call.cancel(false);
+            throw new CacheException("Interrupted while waiting for the cache server", "remoteInterrupted");
+        }
+    }
+
+    /**
+     * Sends a request without waiting for its response, so a single thread can have many requests in flight.
+     */
+    public Future<Object> submit(byte operation, String cacheName, Object argument) throws CacheException {
+        if (this.closed) {
+            throw new CacheException("Client closed", "remoteClosed");
+        }
+        int id = this.nextId.incrementAndGet();
+        if (id == RemoteProtocol.PUSH_ID) {
+            id = this.nextId.incrementAndGet();
+        }
+        Call call = new Call(id);
+        this.calls.put(id, call);
+        try {
+            byte code = this.forwarding ? (byte) (operation | RemoteProtocol.FLAG_FORWARDED) : operation;
+            byte[] frame = RemoteProtocol.frame(id, code, cacheName, argument);
+            this.write(frame);
+        } catch (IOException e) {
+            this.calls.remove(id);
+            throw new CacheException("Unable to reach cache server " + this.host + ":" + this.port + ": " + e.getMessage(), "remoteUnavailable");
+        }
+        return call;
+    }
+
+    private synchronized void write(byte[] frame) throws IOException {
+        if (this.socket == null) {
+            this.connect();
+        }
+        try {
+            this.out.write(frame);
+            this.out.flush();
+        } catch (IOException e) {
+            this.disconnect(this.socket);
+            throw e;
+        }
+    }
+
+    private void connect() throws IOException {
+        final Socket newSocket = new Socket();
+        newSocket.setTcpNoDelay(true);
+        newSocket.connect(new InetSocketAddress(this.host, this.port), this.connectTimeout);
+        this.socket = newSocket;
+        this.out = newSocket.getOutputStream();
+        Thread reader = new Thread("RemoteCacheClient-" + this.host + ":" + this.port) {
+            public void run() {
+                read(newSocket);
+            }
+        };
+        reader.setDaemon(true);
+        reader.start();
+        //Subscriptions belong to the connection: renew them. Responses are not waited for (we're holding the lock).
+        for (String cacheName : this.subscribers.keySet()) {
+            int id = this.nextId.incrementAndGet();
+            this.out.write(RemoteProtocol.frame(id, RemoteProtocol.OP_SUBSCRIBE, cacheName, null));
+        }
+    }
+
+    private void read(Socket connection) {
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+            while (!this.closed) {
+                int length = in.readInt();
+                if (length < RemoteProtocol.HEADER_SIZE - 4 || length > this.maxFrameSize) {
+                    throw new IOException("Invalid frame length: " + length);
+                }
+                byte[] frame = new byte[length];
+                in.readFully(frame);
+                this.dispatch(frame);
+            }
+        } catch (EOFException ignored) {
+            logger.fine("Cache server closed the connection");
+        } catch (IOException e) {
+            if (!this.closed) {
+                logger.log(Level.WARNING, "Lost connection to cache server " + this.host + ":" + this.port, e);
+            }
+        } finally {
+            this.disconnect(connection);
+        }
+    }
+
+    private void dispatch(byte[] frame) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(frame));
+        int id = in.readInt();
+        byte code = in.readByte();
+        if (id == RemoteProtocol.PUSH_ID) {
+            String cacheName = in.readUTF();
+            Object key = RemoteProtocol.readValue(in, this.acceptedClasses);
+            this.deliver(cacheName, code, key);
+            return;
+        }
+        Call call = this.calls.remove(id);
+        if (call != null) {
+            try {
+                call.complete(code, RemoteProtocol.readValue(in, this.acceptedClasses));
+            } catch (IOException e) {
+                call.complete(RemoteProtocol.STATUS_ERROR, "Invalid response: " + e.getMessage());
+            }
+        }
+    }
+
+    private void deliver(String cacheName, byte operation, Object key) {
+        RemotePushListener listener = this.subscribers.get(cacheName);
+        if (listener != null) {
+            this.applyingPush.set(Boolean.TRUE);
+            try {
+                listener.pushed(cacheName, operation, key);
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "Unable to apply change pushed for cache " + cacheName, e);
+            } finally {
+                this.applyingPush.remove();
+            }
+        }
+    }
+
+    /**
+     * Drops the connection (if it's still the current one), failing the calls waiting on it.
+     */
+    private void disconnect(Socket connection) {
+        synchronized (this) {
+            if (connection == null || this.socket != connection) {
+                return;
+            }
+            this.socket = null;
+            this.out = null;
+        }
+        try {
+            connection.close();
+        } catch (IOException ignored) {
+            logger.finest("Unable to close socket: " + ignored.getMessage());
+        }
+        for (Call call : this.calls.values()) {
+            this.calls.remove(call.id);
+            call.complete(RemoteProtocol.STATUS_ERROR, "Connection to cache server lost");
+        }
+        for (String cacheName : this.subscribers.keySet()) {
+            this.deliver(cacheName, RemoteProtocol.OP_FLUSH_ALL, null);
+        }
+    }
+
+    public void close() {
+        this.closed = true;
+        Socket current;
+        synchronized (this) {
+            current = this.socket;
+        }
+        this.disconnect(current);
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public void setHost(String host) {
+        this.host = host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    public long getRequestTimeout() {
+        return requestTimeout;
+    }
+
+    public void setRequestTimeout(long requestTimeout) {
+        this.requestTimeout = requestTimeout;
+    }
+
+    public boolean isForwarding() {
+        return forwarding;
+    }
+
+    /**
+     * @param forwarding Whether to mark every request as forwarded by a node of a partitioned cache, so the
+     *                   server serves it from its own share of the cache.
+     */
+    public void setForwarding(boolean forwarding) {
+        this.forwarding = forwarding;
+    }
+
+    public int getMaxFrameSize() {
+        return maxFrameSize;
+    }
+
+    /**
+     * @param maxFrameSize Biggest response accepted, in bytes.
+     */
+    public void setMaxFrameSize(int maxFrameSize) {
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    public List<String> getAllowedClasses() {
+        return allowedClasses;
+    }
+
+    /**
+     * @param allowedClasses Classes (or packages, ending in ".") of the entities and keys accepted from the
+     *                       server, besides String, the boxed primitives and the other basic types.
+     */
+    public void setAllowedClasses(List<String> allowedClasses) {
+        this.allowedClasses = allowedClasses;
+        this.acceptedClasses = RemoteProtocol.acceptedClasses(allowedClasses);
+    }
+
+    /**
+     * A request waiting for its response.
+     */
+    private class Call implements Future<Object> {
+        private final int id;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile byte status;
+        private volatile Object value;
+
+        Call(int id) {
+            this.id = id;
+        }
+
+        void complete(byte status, Object value) {
+            this.status = status;
+            this.value = value;
+            this.done.countDown();
+        }
+
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            //The request is already on its way; just stop waiting for it.
+            return calls.remove(this.id) != null;
+        }
+
+        public boolean isCancelled() {
+            return false;
+        }
+
+        public boolean isDone() {
+            return this.done.getCount() == 0;
+        }
+
+        public Object get() throws InterruptedException, ExecutionException {
+            this.done.await();
+            return this.result();
+        }
+
+        public Object get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            if (!this.done.await(timeout, unit)) {
+                throw new TimeoutException();
+            }
+            return this.result();
+        }
+
+        private Object result() throws ExecutionException {
+            if (this.status == RemoteProtocol.STATUS_ERROR) {
+                throw new ExecutionException(new CacheException(String.valueOf(this.value), ""));
+            }
+            return this.value;
+        }
+    }
+}
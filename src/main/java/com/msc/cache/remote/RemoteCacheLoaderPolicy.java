@@ -0,0 +1,114 @@
+package com.msc.cache.remote;
+
+import com.msc.cache.CacheException;
+import com.msc.cache.CacheManager;
+import com.msc.cache.CacheManagerAware;
+import com.msc.cache.Cacheable;
+import com.msc.cache.GroupCacheable;
+import com.msc.cache.loader.CacheGroupLoaderPolicy;
+
+import java.util.Collection;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <P>Loader that turns a local CacheManager into a near cache of a CacheManager held by a CacheServer: misses
+ * are read from the server (which reads the persistence storage only if it misses as well) instead of the
+ * persistence storage.</P>
+ *
+ * <P>The loader subscribes to the changes of the remote cache and applies them to the local one, so entries
+ * invalidated, refreshed or flushed on the server (by any node) are dropped here too. To send the changes made
+ * on this node to the server, use a RemoteCacheNotifierPolicy on the local CacheManager as well.</P>
+ */
+public class RemoteCacheLoaderPolicy implements CacheGroupLoaderPolicy, CacheManagerAware, RemotePushListener {
+    private static final Logger logger = Logger.getLogger(RemoteCacheLoaderPolicy.class.getName());
+
+    private RemoteCacheClient client;
+    /** Name of the cache on the server. Defaults to the name of the local CacheManager. */
+    private String cacheName;
+    private CacheManager cacheManager;
+    private volatile boolean subscribed;
+
+    public RemoteCacheLoaderPolicy() {
+    }
+
+    public RemoteCacheLoaderPolicy(RemoteCacheClient client, String cacheName) {
+        this.client = client;
+        this.cacheName = cacheName;
+    }
+
+    public void setCacheManager(CacheManager cacheManager) {
+        this.cacheManager = cacheManager;
+        if (this.cacheName == null) {
+            this.cacheName = cacheManager.getName();
+        }
+        try {
+            this.subscribe();
+        } catch (CacheException e) {
+            logger.log(Level.WARNING, "Unable to subscribe to remote cache " + this.cacheName + " - will retry on the next miss", e);
+        }
+    }
+
+    private void subscribe() throws CacheException {
+        if (!this.subscribed && this.cacheManager != null) {
+            this.client.subscribe(this.cacheName, this);
+            this.subscribed = true;
+        }
+    }
+
+    public Cacheable fetchEntity(Object cacheKey) throws CacheException {
+        this.subscribe();
+        return this.client.get(this.cacheName, cacheKey);
+    }
+
+    public Collection<Cacheable> fetchAll() throws CacheException {
+        this.subscribe();
+        return this.client.getAll(this.cacheName);
+    }
+
+    public Collection<GroupCacheable> fetchGroups() throws CacheException {
+        this.subscribe();
+        return this.client.getGroups(this.cacheName);
+    }
+
+    public Collection<Cacheable> fetchByGroup(Object groupKey) throws CacheException {
+        this.subscribe();
+        return this.client.getByGroup(this.cacheName, groupKey);
+    }
+
+    public void pushed(String cacheName, byte operation, Object key) {
+        CacheManager manager = this.cacheManager;
+        if (manager == null) {
+            return;
+        }
+        switch (operation) {
+            case RemoteProtocol.OP_INVALIDATE:
+                manager.invalidateKey(key);
+                break;
+            case RemoteProtocol.OP_FLUSH_GROUP:
+                manager.flushGroup(key);
+                break;
+            case RemoteProtocol.OP_FLUSH_ALL:
+                manager.flushAll();
+                break;
+            default:
+                logger.fine("Ignoring unknown remote operation " + operation);
+        }
+    }
+
+    public RemoteCacheClient getClient() {
+        return client;
+    }
+
+    public void setClient(RemoteCacheClient client) {
+        this.client = client;
+    }
+
+    public String getCacheName() {
+        return cacheName;
+    }
+
+    public void setCacheName(String cacheName) {
+        this.cacheName = cacheName;
+    }
+}
@@ -0,0 +1,83 @@
+package com.msc.cache.remote;
+
+import com.msc.cache.CacheException;
+import com.msc.cache.CacheManager;
+import com.msc.cache.CacheManagerAware;
+import com.msc.cache.notifier.CacheNotifierPolicy;
+import com.msc.cache.notifier.NotificationMessage;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Notifier policy of a near cache (see RemoteCacheLoaderPolicy): sends the invalidations, refreshes and flushes
+ * made on this node to the CacheServer, which applies them and pushes them to the other near caches.
+ * Changes pushed by the server are not sent back.
+ */
+public class RemoteCacheNotifierPolicy implements CacheNotifierPolicy, CacheManagerAware {
+    private static final Logger logger = Logger.getLogger(RemoteCacheNotifierPolicy.class.getName());
+
+    private RemoteCacheClient client;
+    /** Name of the cache on the server. Defaults to the name of the local CacheManager. */
+    private String cacheName;
+
+    public RemoteCacheNotifierPolicy() {
+    }
+
+    public RemoteCacheNotifierPolicy(RemoteCacheClient client, String cacheName) {
+        this.client = client;
+        this.cacheName = cacheName;
+    }
+
+    public void setCacheManager(CacheManager cacheManager) {
+        if (this.cacheName == null) {
+            this.cacheName = cacheManager.getName();
+        }
+    }
+
+    public void notifyCache(NotificationMessage message) {
+        if (this.cacheName == null || message.getType() == null || this.client.isApplyingPush()) {
+            return;
+        }
+        try {
+            switch (message.getType()) {
+                case INVALIDATE:
+                    Object key = message.getKey();
+                    if (key == null && message.getEntity() != null) {
+                        key = message.getEntity().getCacheKey();
+                    }
+                    this.client.invalidate(this.cacheName, key);
+                    break;
+                case REFRESH:
+                    this.client.refresh(this.cacheName, message.getEntity());
+                    break;
+                case FLUSH_GROUP:
+                    this.client.flushGroup(this.cacheName, message.getGroupKey());
+                    break;
+                case FLUSH_ALL:
+                    this.client.flushAll(this.cacheName);
+                    break;
+                default:
+                    //Hits, misses and registrations are local matters.
+            }
+        } catch (CacheException e) {
+            logger.log(Level.WARNING, "Unable to send " + message.getType() + " to the cache server", e);
+        }
+    }
+
+    public RemoteCacheClient getClient() {
+        return client;
+    }
+
+    public void setClient(RemoteCacheClient client) {
+        this.client = client;
+    }
+
+    public String getCacheName() {
+        return cacheName;
+    }
+
+    public void setCacheName(String cacheName) {
+        this.cacheName = cacheName;
+    }
+}
@@ -0,0 +1,121 @@
+package com.msc.cache.remote;
+
+import com.msc.cache.FilteredObjectInputStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Wire format shared by the CacheServer and the RemoteCacheClient.
+ *
+ * <P>Everything travels in frames: <code>int length | int requestId | byte code | body</code>, where length
+ * counts every byte after itself. Requests carry an operation as code and a body of
+ * <code>UTF cacheName | argument</code>; responses carry the requestId of their request and a status as code,
+ * followed by the result. Since every response names its request, a client may send any number of requests
+ * without waiting (pipelining) and the server may answer them in any order.</P>
+ *
+ * <P>Frames with requestId PUSH_ID are invalidations pushed by the server to its subscribers: the code is
+ * the operation and the body is <code>UTF cacheName | key</code>. Arguments, results and keys are
+ * Java-serialized, so they must be Serializable.</P>
+ *
+ * <P>Values are only deserialized if they're of the basic types (see FilteredObjectInputStream), ArrayLists
+ * or of the classes each end allows (its allowedClasses, which must list the classes of the entities), and
+ * frames longer than the maxFrameSize of the receiving end close the connection.</P>
+ */
+public final class RemoteProtocol {
+    public static final byte OP_GET = 1;
+    public static final byte OP_PEEK = 2;
+    public static final byte OP_GET_GROUP = 3;
+    public static final byte OP_GET_ALL = 4;
+    public static final byte OP_GET_GROUPS = 5;
+    public static final byte OP_INVALIDATE = 6;
+    public static final byte OP_REFRESH = 7;
+    public static final byte OP_FLUSH_GROUP = 8;
+    public static final byte OP_FLUSH_ALL = 9;
+    /** Asks the server to push the invalidations of a cache to this connection. */
+    public static final byte OP_SUBSCRIBE = 10;
+    /** Or'ed into the operation of requests forwarded by a node of a partitioned cache to another node. */
+    public static final byte FLAG_FORWARDED = 0x40;
+
+    public static final byte STATUS_OK = 0;
+    /** The body is the message of the error. */
+    public static final byte STATUS_ERROR = 1;
+
+    public static final int PUSH_ID = 0;
+    /** Size of length + requestId + code. */
+    public static final int HEADER_SIZE = 9;
+    /** Default biggest frame accepted: responses to getAll() of big caches may need more. */
+    public static final int DEFAULT_MAX_FRAME_SIZE = 1024 * 1024;
+    /** Classes the protocol itself needs, on top of the ones allowed by each end. */
+    private static final String[] PROTOCOL_CLASSES = {"java.util.ArrayList"};
+
+    private RemoteProtocol() {
+    }
+
+    /**
+     * Encodes a frame.
+     *
+     * @param cacheName Null for responses.
+     * @param value     The argument, result or key. May be null.
+     */
+    public static byte[] frame(int requestId, byte code, String cacheName, Object value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0);
+        out.writeInt(requestId);
+        out.writeByte(code);
+        if (cacheName != null) {
+            out.writeUTF(cacheName);
+        }
+        if (value != null) {
+            ObjectOutputStream objects = new ObjectOutputStream(out);
+            objects.writeObject(value);
+            objects.flush();
+        }
+        out.flush();
+        byte[] frame = bytes.toByteArray();
+        int length = frame.length - 4;
+        frame[0] = (byte) (length >>> 24);
+        frame[1] = (byte) (length >>> 16);
+        frame[2] = (byte) (length >>> 8);
+        frame[3] = (byte) length;
+        return frame;
+    }
+
+    /**
+     * @param allowedClasses Classes (or packages, ending in ".") of the values configured by an end.
+     * @return The classes that end accepts, including the ones the protocol needs.
+     */
+    public static List<String> acceptedClasses(Collection<String> allowedClasses) {
+        List<String> accepted = new ArrayList<String>();
+        for (String className : PROTOCOL_CLASSES) {
+            accepted.add(className);
+        }
+        if (allowedClasses != null) {
+            accepted.addAll(allowedClasses);
+        }
+        return accepted;
+    }
+
+    /**
+     * Reads the value at the end of a frame (null if the frame has none).
+     *
+     * @param acceptedClasses See acceptedClasses().
+     */
+    public static Object readValue(DataInputStream in, Collection<String> acceptedClasses) throws IOException {
+        if (in.available() == 0) {
+            return null;
+        }
+        try {
+            return new FilteredObjectInputStream(in, acceptedClasses).readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Unknown class on remote cache message: " + e.getMessage());
+        }
+    }
+}
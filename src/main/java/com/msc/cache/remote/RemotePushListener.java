@@ -0,0 +1,13 @@
+package com.msc.cache.remote;
+
+/**
+ * Receives the changes pushed by a CacheServer for a cache the RemoteCacheClient subscribed to.
+ */
+public interface RemotePushListener {
+    /**
+     * @param operation One of RemoteProtocol.OP_INVALIDATE, OP_FLUSH_GROUP or OP_FLUSH_ALL. OP_FLUSH_ALL is also
+     *                  delivered when the connection to the server is lost, since pushes might have been missed.
+     * @param key       The key invalidated or the group flushed. Null for OP_FLUSH_ALL.
+     */
+    public void pushed(String cacheName, byte operation, Object key);
+}
@@ -0,0 +1,25 @@
+package com.msc.cache.writer;
+
+import com.msc.cache.CacheException;
+import com.msc.cache.Cacheable;
+
+import java.util.List;
+
+/**
+ * Optional extension of the CacheWriterPolicy contract for writers that can handle several writes at once
+ * (e.g. one JDBC batch or one multi-row statement for a whole batch).
+ *
+ * <P>The WriteBehindCacheWriterPolicy will hand over its batches through these methods whenever the
+ * delegate implements it. Otherwise each write is done individually.</P>
+ */
+public interface BatchCacheWriterPolicy extends CacheWriterPolicy {
+    /**
+     * Creates or updates the entities on the persistence storage. Never called with an empty list.
+     */
+    public void writeAll(List<Cacheable> entities) throws CacheException;
+
+    /**
+     * Deletes the entities with these keys from the persistence storage. Never called with an empty list.
+     */
+    public void deleteAll(List<Object> cacheKeys) throws CacheException;
+}
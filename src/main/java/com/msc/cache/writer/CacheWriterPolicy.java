@@ -0,0 +1,29 @@
+package com.msc.cache.writer;
+
+import com.msc.cache.CacheException;
+import com.msc.cache.Cacheable;
+
+/**
+ * This Policy is responsible for handling how to write information to the underlying persistence storage
+ * mechanism - the counterpart of the CacheLoaderPolicy. With one set, the application can write through the
+ * cache (see CacheContract.put() and remove()) instead of writing to the storage itself and then telling the
+ * cache.
+ *
+ * Plugged directly into the CacheManager, writes go through to the storage before the cache is changed
+ * (write-through). Wrapped by a WriteBehindCacheWriterPolicy, they are queued and written later, in batches
+ * (write-behind).
+ */
+public interface CacheWriterPolicy {
+	/**
+	 * This method should create or update the entity on the persistence storage.
+	 *
+	 * @param entity The entity being written.
+	 */
+	public void write(Cacheable entity) throws CacheException;
+	/**
+	 * This method should delete the entity with this key from the persistence storage.
+	 *
+	 * @param cacheKey The identifier of the entity being deleted.
+	 */
+	public void delete(Object cacheKey) throws CacheException;
+}
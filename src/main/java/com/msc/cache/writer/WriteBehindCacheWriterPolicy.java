@@ -0,0 +1,390 @@
+package com.msc.cache.writer;
+
+import com.msc.cache.CacheException;
+import com.msc.cache.Cacheable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <P>Decorator that takes writes away from the caller thread: write() and delete() only record the change
+ * and return, and a background thread hands them to the real (delegate) writer in batches of up to batchSize,
+ * at least every flushInterval milliseconds.</P>
+ *
+ * <P>Writes are coalesced per key: while a key is waiting, a new write or delete for it replaces the pending
+ * one, so a counter updated a thousand times between two flushes is written once. At most queueCapacity keys
+ * wait at a time; beyond that, writes of new keys block until the writer catches up (writes are never dropped).</P>
+ *
+ * <P>A batch that fails is retried up to maxRetries times, waiting retryDelay milliseconds before the first
+ * retry and twice as long before each of the next ones. The latest pending value of each key is what's
+ * retried. Writes still failing after that are dropped, logged and counted (see getFailedCounter()).</P>
+ *
+ * <P>Until it's written, the pending value of a key is what the CacheManager loads for it (see getPending()),
+ * so a key evicted before its write reaches the storage isn't read back stale.</P>
+ */
+public class WriteBehindCacheWriterPolicy implements CacheWriterPolicy {
+    private static final Logger logger = Logger.getLogger(WriteBehindCacheWriterPolicy.class.getName());
+
+    /** The writer that actually writes to the storage, on the writer thread. */
+    private CacheWriterPolicy delegate;
+    /** Maximum number of keys waiting to be written. */
+    private int queueCapacity = 8192;
+    /** Maximum number of writes handed to the delegate at once. */
+    private int batchSize = 256;
+    /** Maximum time (in milliseconds) a write waits before the writer thread wakes up. */
+    private long flushInterval = 1000;
+    private int maxRetries = 3;
+    /** Time (in milliseconds) before the first retry of a failed batch, doubled for each of the next. */
+    private long retryDelay = 100;
+
+    /** Latest pending change of each key. Removed only once written, so it's there to read meanwhile. */
+    private final ConcurrentMap<Object, PendingWrite> pending = new ConcurrentHashMap<Object, PendingWrite>();
+    /** Keys waiting to be written, oldest first. */
+    private final ConcurrentLinkedQueue<Object> queue = new ConcurrentLinkedQueue<Object>();
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    private final AtomicLong writtenCounter = new AtomicLong();
+    private final AtomicLong coalescedCounter = new AtomicLong();
+    private final AtomicLong retryCounter = new AtomicLong();
+    private final AtomicLong failedCounter = new AtomicLong();
+
+    private volatile WriterThread writer;
+
+    public WriteBehindCacheWriterPolicy() {
+    }
+
+    public WriteBehindCacheWriterPolicy(CacheWriterPolicy delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * Starts the writer thread. It is also started lazily by the first write, so calling this method (or
+     * declaring it as init-method) is optional.
+     */
+    public synchronized void init() {
+        if (this.writer == null) {
+            this.writer = new WriterThread();
+            this.writer.start();
+        }
+    }
+
+    /**
+     * Stops the writer thread after writing every change still pending.
+     */
+    public void shutdown() throws InterruptedException {
+        WriterThread current;
+        synchronized (this) {
+            current = this.writer;
+            this.writer = null;
+        }
+        if (current != null) {
+            current.halt();
+            current.join();
+        }
+    }
+
+    public void write(Cacheable entity) throws CacheException {
+        this.enqueue(entity.getCacheKey(), new PendingWrite(entity.getCacheKey(), entity));
+    }
+
+    public void delete(Object cacheKey) throws CacheException {
+        this.enqueue(cacheKey, new PendingWrite(cacheKey, null));
+    }
+
+    private void enqueue(Object key, PendingWrite change) {
+        WriterThread current = this.writer;
+        if (current == null) {
+            this.init();
+            current = this.writer;
+        }
+        if (this.pending.replace(key, change) != null) {
+            //Already queued: it'll be written with this value.
+            this.coalescedCounter.incrementAndGet();
+            return;
+        }
+        this.reserve(current);
+        if (this.pending.putIfAbsent(key, change) != null) {
+            //Somebody else queued the same key in the mean time.
+            this.waiting.decrementAndGet();
+            this.pending.put(key, change);
+            this.coalescedCounter.incrementAndGet();
+            return;
+        }
+        this.queue.offer(key);
+        if (this.waiting.get() >= this.batchSize) {
+            LockSupport.unpark(current);
+        }
+    }
+
+    /**
+     * Takes a place on the queue, waiting for the writer to free one if it's full.
+     */
+    private void reserve(WriterThread current) {
+        int count;
+        while (true) {
+            count = this.waiting.get();
+            if (count < this.queueCapacity) {
+                if (this.waiting.compareAndSet(count, count + 1)) {
+                    return;
+                }
+            } else {
+                LockSupport.unpark(current);
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+            }
+        }
+    }
+
+    /**
+     * @return The change waiting to be written for the key, or null if there's none.
+     */
+    public PendingWrite getPending(Object cacheKey) {
+        return this.pending.get(cacheKey);
+    }
+
+    /**
+     * Waits until every change pending when it was called (and any made meanwhile) is written or dropped.
+     */
+    public void flush() throws InterruptedException {
+        WriterThread current = this.writer;
+        while (current != null && this.waiting.get() > 0) {
+            LockSupport.unpark(current);
+            Thread.sleep(1);
+        }
+    }
+
+    /**
+     * Removes up to batchSize keys from the queue, with their pending changes.
+     */
+    private List<PendingWrite> drain() {
+        List<PendingWrite> batch = null;
+        Object key;
+        while ((batch == null || batch.size() < this.batchSize) && (key = this.queue.poll()) != null) {
+            if (batch == null) {
+                batch = new ArrayList<PendingWrite>(Math.min(this.batchSize, this.waiting.get()));
+            }
+            batch.add(this.pending.get(key));
+        }
+        return batch;
+    }
+
+    /**
+     * Writes the batch, retrying it if it fails, and then releases its keys - unless they changed meanwhile,
+     * in which case they're queued again with their new value.
+     */
+    private void flush(List<PendingWrite> batch) throws InterruptedException {
+        long delay = this.retryDelay;
+        for (int attempt = 0; ; attempt++) {
+            try {
+                this.deliver(batch);
+                this.writtenCounter.addAndGet(batch.size());
+                break;
+            } catch (Exception e) {
+                if (attempt == this.maxRetries) {
+                    logger.log(Level.SEVERE, "Dropping " + batch.size() + " writes after " + attempt + " retries", e);
+                    this.failedCounter.addAndGet(batch.size());
+                    break;
+                }
+                logger.log(Level.WARNING, "Writing " + batch.size() + " changes failed, retrying in " + delay + "ms", e);
+                this.retryCounter.incrementAndGet();
+                Thread.sleep(delay);
+                delay *= 2;
+                //Retry with the latest values.
+                for (int i = 0; i < batch.size(); i++) {
+                    batch.set(i, this.pending.get(batch.get(i).getCacheKey()));
+                }
+            }
+        }
+        for (PendingWrite written : batch) {
+            if (this.pending.remove(written.getCacheKey(), written)) {
+                this.waiting.decrementAndGet();
+            } else {
+                this.queue.offer(written.getCacheKey());
+            }
+        }
+    }
+
+    private void deliver(List<PendingWrite> batch) throws CacheException {
+        if (this.delegate instanceof BatchCacheWriterPolicy) {
+            List<Cacheable> writes = new ArrayList<Cacheable>(batch.size());
+            List<Object> deletes = new ArrayList<Object>();
+            for (PendingWrite change : batch) {
+                if (change.isDelete()) {
+                    deletes.add(change.getCacheKey());
+                } else {
+                    writes.add(change.getEntity());
+                }
+            }
+            BatchCacheWriterPolicy batchWriter = (BatchCacheWriterPolicy) this.delegate;
+            if (!writes.isEmpty()) {
+                batchWriter.writeAll(writes);
+            }
+            if (!deletes.isEmpty()) {
+                batchWriter.deleteAll(deletes);
+            }
+        } else {
+            for (PendingWrite change : batch) {
+                if (change.isDelete()) {
+                    this.delegate.delete(change.getCacheKey());
+                } else {
+                    this.delegate.write(change.getEntity());
+                }
+            }
+        }
+    }
+
+    /**
+     * A change waiting to be written: an entity to write, or a key to delete.
+     */
+    public static final class PendingWrite {
+        private final Object cacheKey;
+        private final Cacheable entity;
+
+        PendingWrite(Object cacheKey, Cacheable entity) {
+            this.cacheKey = cacheKey;
+            this.entity = entity;
+        }
+
+        public Object getCacheKey() {
+            return cacheKey;
+        }
+
+        /**
+         * @return The entity to write, or null if it's a delete.
+         */
+        public Cacheable getEntity() {
+            return entity;
+        }
+
+        public boolean isDelete() {
+            return this.entity == null;
+        }
+    }
+
+    /**
+     * The background thread writing the changes to the delegate.
+     */
+    private class WriterThread extends Thread {
+        private volatile boolean shouldKeepRunning = true;
+
+        WriterThread() {
+            super("WriteBehindCacheWriterThread");
+            setDaemon(true);
+        }
+
+        void halt() {
+            this.shouldKeepRunning = false;
+            LockSupport.unpark(this);
+        }
+
+        public void run() {
+            try {
+                while (this.shouldKeepRunning) {
+                    //Give the writes time to coalesce, unless a full batch is waiting already.
+                    if (waiting.get() < batchSize) {
+                        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(flushInterval));
+                    }
+                    List<PendingWrite> batch;
+                    while (this.shouldKeepRunning && (batch = drain()) != null) {
+                        flush(batch);
+                    }
+                }
+                //Write whatever is left before dying...
+                List<PendingWrite> batch;
+                while ((batch = drain()) != null) {
+                    flush(batch);
+                }
+            } catch (InterruptedException e) {
+                logger.warning(waiting.get() + " changes not written: writer interrupted");
+            }
+        }
+    }
+
+    public CacheWriterPolicy getDelegate() {
+        return delegate;
+    }
+
+    public void setDelegate(CacheWriterPolicy delegate) {
+        this.delegate = delegate;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public long getFlushInterval() {
+        return flushInterval;
+    }
+
+    public void setFlushInterval(long flushInterval) {
+        this.flushInterval = flushInterval;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    public void setMaxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+    }
+
+    public long getRetryDelay() {
+        return retryDelay;
+    }
+
+    public void setRetryDelay(long retryDelay) {
+        this.retryDelay = retryDelay;
+    }
+
+    /**
+     * @return Number of keys waiting to be written.
+     */
+    public int getPendingCount() {
+        return waiting.get();
+    }
+
+    /**
+     * @return Number of changes handed to the delegate.
+     */
+    public long getWrittenCounter() {
+        return writtenCounter.get();
+    }
+
+    /**
+     * @return Number of changes replaced by a newer one for the same key before being written.
+     */
+    public long getCoalescedCounter() {
+        return coalescedCounter.get();
+    }
+
+    public long getRetryCounter() {
+        return retryCounter.get();
+    }
+
+    /**
+     * @return Number of changes dropped after maxRetries failed retries.
+     */
+    public long getFailedCounter() {
+        return failedCounter.get();
+    }
+}
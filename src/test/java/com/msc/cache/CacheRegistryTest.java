@@ -0,0 +1,157 @@
+package com.msc.cache;
+
+import com.msc.cache.cleanup.AbstractCleanupPolicy;
+import com.msc.cache.mock.TestAlphabetLoader;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CacheRegistryTest {
+    private CacheRegistry registry;
+
+    @Before
+    public void setUp() {
+        registry = new CacheRegistry();
+    }
+
+    @After
+    public void tearDown() {
+        registry.shutdown();
+    }
+
+    private static CacheManager newCache(String name) {
+        CacheManager cache = new CacheManager();
+        cache.setName(name);
+        cache.setLoaderPolicy(new TestAlphabetLoader());
+        return cache;
+    }
+
+    @Test
+    public void testBudgetIsSharedEvenly() {
+        registry.setBudget(30);
+        CacheManager a = newCache("a");
+        CacheManager b = newCache("b");
+        CacheManager c = newCache("c");
+        registry.register(a);
+        assertEquals(30, a.getMaxWeight());
+        registry.register(b);
+        registry.register(c);
+        assertEquals(10, registry.getAllocation(a));
+        assertEquals(10, registry.getAllocation(b));
+        assertEquals(10, c.getMaxWeight());
+        assertSame(b, registry.getCache("b"));
+
+        registry.unregister(b);
+        assertEquals(15, a.getMaxWeight());
+        assertEquals(15, c.getMaxWeight());
+        assertEquals(2, registry.getCacheCount());
+    }
+
+    @Test
+    public void testBudgetMovesToTheCacheMissingMost() throws Exception {
+        registry.setBudget(40);
+        registry.setRebalanceStep(0.2);
+        CacheManager busy = newCache("busy");
+        CacheManager idle = newCache("idle");
+        registry.register(busy);
+        registry.register(idle);
+        for (char c = 'a'; c <= 'z'; c++) {
+            busy.get(c);
+        }
+        for (int i = 0; i < 10; i++) {
+            idle.get('a');
+        }
+        assertTrue(registry.rebalance());
+        assertEquals(28, busy.getMaxWeight());
+        assertEquals(12, idle.getMaxWeight());
+        //Nothing happened since: nothing to gain.
+        assertFalse(registry.rebalance());
+
+        assertEquals(27, registry.getMissCounter());
+        assertEquals(9, registry.getHitCounter());
+        assertEquals(21, registry.getSize());
+        assertEquals(6, registry.getEvictionCounter());
+    }
+
+    @Test
+    public void testCleanupRunsOnTheSharedScheduler() throws Exception {
+        final CountDownLatch cleanups = new CountDownLatch(2);
+        AbstractCleanupPolicy policy = new AbstractCleanupPolicy() {
+            public void cleanup(CacheManager cacheManager) {
+                cleanups.countDown();
+            }
+        };
+        policy.setFrequency(1);
+        CacheManager cache = newCache("scheduled");
+        cache.addCleanupPolicy(policy);
+        cache.setRegistry(registry);
+        registry.init();
+        cache.init();
+        cache.get('x');
+        assertTrue(cleanups.await(10, TimeUnit.SECONDS));
+        assertEquals(1, registry.getCacheCount());
+    }
+
+    @Test
+    public void testCacheListedInTheRegistryJoinsIt() throws Exception {
+        CacheManager cache = newCache("listed");
+        cache.init();
+        registry.setCaches(Collections.singletonList(cache));
+        assertSame(registry, cache.getRegistry());
+        //Already there: init() again doesn't register it twice.
+        cache.init();
+        assertEquals(1, registry.getCacheCount());
+    }
+
+    /**
+     * Adds a policy running every second and one running every minute, and checks only the first one runs.
+     */
+    private static void assertEachPolicyRunsOnItsOwnFrequency(CacheManager cache) throws Exception {
+        final CountDownLatch fastRuns = new CountDownLatch(3);
+        final AtomicInteger slowRuns = new AtomicInteger();
+        AbstractCleanupPolicy fast = new AbstractCleanupPolicy() {
+            public void cleanup(CacheManager cacheManager) {
+                fastRuns.countDown();
+            }
+        };
+        fast.setFrequency(1);
+        AbstractCleanupPolicy slow = new AbstractCleanupPolicy() {
+            public void cleanup(CacheManager cacheManager) {
+                slowRuns.incrementAndGet();
+            }
+        };
+        slow.setFrequency(60);
+        cache.addCleanupPolicy(fast);
+        cache.addCleanupPolicy(slow);
+        cache.init();
+        cache.get('x');
+        assertTrue(fastRuns.await(10, TimeUnit.SECONDS));
+        assertEquals(0, slowRuns.get());
+    }
+
+    @Test
+    public void testEachPolicyRunsOnItsOwnFrequency() throws Exception {
+        CacheManager cache = newCache("scheduled");
+        cache.setRegistry(registry);
+        registry.init();
+        assertEachPolicyRunsOnItsOwnFrequency(cache);
+    }
+
+    @Test
+    public void testEachPolicyHasAThreadOfItsOwn() throws Exception {
+        CacheManager cache = newCache("threaded");
+        assertEachPolicyRunsOnItsOwnFrequency(cache);
+        //Stops its threads.
+        registry.register(cache);
+    }
+}
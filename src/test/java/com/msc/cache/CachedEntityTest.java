@@ -0,0 +1,46 @@
+package com.msc.cache;
+
+import com.msc.cache.mock.Letter;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CachedEntityTest {
+
+    @Test
+    public void testCompactLayout() {
+        assertTrue(FootprintBenchmark.shallowSize(CachedEntity.class) <= 40);
+    }
+
+    @Test
+    public void testHitsSaturate() {
+        CachedEntity cached = new CachedEntity();
+        for (int i = 0; i < 70000; i++) {
+            cached.hit();
+        }
+        assertEquals(CachedEntity.MAX_HITS, cached.getNumberOfHits());
+    }
+
+    @Test
+    public void testTimesAreKeptToTheSecond() {
+        long before = System.currentTimeMillis();
+        CachedEntity cached = new CachedEntity();
+        assertTrue(Math.abs(cached.getCreationTime() - before) < 2000);
+        assertTrue(Math.abs(cached.getLastAccessedTime() - before) < 2000);
+    }
+
+    @Test
+    public void testExpirationInheritedUnlessOverridden() {
+        CachedEntity cached = new CachedEntity();
+        cached.setEntity(new Letter('a'));
+        assertEquals(60, cached.getMaxIdleTime(60));
+        assertEquals(CachedEntity.UNDEFINED_IDLE_TIME, cached.getMaxIdleTime());
+        cached.setMaxIdleTime(5);
+        assertEquals(5, cached.getMaxIdleTime(60));
+        assertEquals(3600, cached.getMaxTimeToLive(3600));
+        cached.setMaxTimeToLive(10);
+        assertEquals(10, cached.getMaxTimeToLive(3600));
+        assertEquals(5, cached.getMaxIdleTime(60));
+    }
+}
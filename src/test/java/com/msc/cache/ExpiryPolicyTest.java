@@ -0,0 +1,145 @@
+package com.msc.cache;
+
+import com.msc.cache.expiry.ExpiryPolicy;
+import com.msc.cache.expiry.PropertyExpiryPolicy;
+import com.msc.cache.mock.Letter;
+import com.msc.cache.mock.TestAlphabetLoader;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ExpiryPolicyTest {
+
+    /** Vowels are gone as soon as they're cached; the other letters stay. */
+    private static class VowelExpiryPolicy implements ExpiryPolicy {
+        public long expireAfterCreate(Cacheable entity) {
+            return "aeiou".indexOf(((Letter) entity).getLetter()) >= 0 ? 0 : CachedEntity.UNDEFINED_TIME_TO_LIVE;
+        }
+
+        public long expireAfterUpdate(Cacheable entity, Cacheable previous, long currentDuration) {
+            return this.expireAfterCreate(entity);
+        }
+
+        public long expireAfterRead(Cacheable entity, long currentDuration) {
+            return currentDuration;
+        }
+    }
+
+    @Test
+    public void testEntriesExpireByTheirOwnTime() throws Exception {
+        CacheManager cache = new CacheManager();
+        cache.setName("vowels");
+        cache.setLoaderPolicy(new TestAlphabetLoader());
+        cache.setExpiryPolicy(new VowelExpiryPolicy());
+        cache.init();
+
+        Cacheable b = cache.get('b');
+        assertSame(b, cache.get('b'));
+        assertNotNull(cache.get('a'));
+        assertNull(cache.peek('a'));
+        assertNotNull(cache.get('a'));
+        assertEquals(3, cache.getMissCounter());
+        assertEquals(1, cache.getExpiredCounter());
+        assertEquals(1, cache.getCleanupPolicies().size());
+    }
+
+    @Test
+    public void testReplacedEntriesLeaveTheWheel() throws Exception {
+        CacheManager cache = new CacheManager();
+        cache.setName("letters");
+        PropertyExpiryPolicy policy = new PropertyExpiryPolicy("timeToLive");
+        policy.setDefaultTimeToLive(60);
+        cache.setExpiryPolicy(policy);
+        for (int i = 0; i < 1000; i++) {
+            cache.put(new Letter('x'));
+        }
+        cache.put(new Letter('y'));
+        assertEquals(2, cache.getExpirationWheel().size());
+        cache.invalidateKey('y');
+        assertEquals(1, cache.getExpirationWheel().size());
+    }
+
+    @Test
+    public void testWheelExpiresOnlyWhatIsDue() {
+        KeyIndex keyIndex = new KeyIndex();
+        ExpirationWheel wheel = new ExpirationWheel(keyIndex, seconds(100));
+        CachedEntity soon = this.index(keyIndex, 'a', seconds(5), seconds(100));
+        CachedEntity later = this.index(keyIndex, 'b', seconds(5000), seconds(100));
+        CachedEntity replaced = this.index(keyIndex, 'c', seconds(10), seconds(100));
+        wheel.schedule(soon, soon.getExpiresAt());
+        wheel.schedule(later, later.getExpiresAt());
+        wheel.schedule(replaced, replaced.getExpiresAt());
+        this.index(keyIndex, 'c', seconds(10), seconds(100));
+
+        assertTrue(wheel.advance(seconds(105) - 1).isEmpty());
+        //Buckets are about a millisecond wide.
+        assertEquals(1, wheel.advance(seconds(105) + TimeUnit.MILLISECONDS.toNanos(2)).size());
+        //The replaced version is dropped when its bucket is reached.
+        assertTrue(wheel.advance(seconds(200)).isEmpty());
+        assertEquals(1, wheel.size());
+        assertTrue(wheel.advance(seconds(5100) - 1).isEmpty());
+        List<CachedEntity> expired = wheel.advance(seconds(5100) + TimeUnit.MILLISECONDS.toNanos(2));
+        assertEquals(1, expired.size());
+        assertSame(later, expired.get(0));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void testReadsExtendTheTimeLeft() {
+        KeyIndex keyIndex = new KeyIndex();
+        ExpirationWheel wheel = new ExpirationWheel(keyIndex, seconds(100));
+        CachedEntity cached = this.index(keyIndex, 'a', seconds(10), seconds(100));
+        wheel.schedule(cached, cached.getExpiresAt());
+        //Read at 105 for 10 more seconds: rescheduled when its first bucket is reached.
+        cached.expireAfter(seconds(10), seconds(105));
+        assertTrue(wheel.advance(seconds(110)).isEmpty());
+        assertEquals(1, wheel.size());
+        assertEquals(1, wheel.advance(seconds(115) + TimeUnit.MILLISECONDS.toNanos(2)).size());
+    }
+
+    @Test
+    public void testPropertyExpiryPolicy() {
+        PropertyExpiryPolicy policy = new PropertyExpiryPolicy("timeToLive");
+        policy.setDefaultTimeToLive(60);
+        policy.setIdleTime(30);
+        assertEquals(seconds(5), policy.expireAfterCreate(new Quote('x', 5)));
+        assertEquals(seconds(60), policy.expireAfterCreate(new Letter('x')));
+        assertEquals(seconds(7), policy.expireAfterUpdate(new Quote('x', 7), new Quote('x', 5), seconds(3)));
+        assertEquals(seconds(30), policy.expireAfterRead(new Quote('x', 5), seconds(2)));
+        assertEquals(seconds(45), policy.expireAfterRead(new Quote('x', 5), seconds(45)));
+        policy.setUnit(TimeUnit.MILLISECONDS);
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(5), policy.expireAfterCreate(new Quote('x', 5)));
+    }
+
+    private static long seconds(long seconds) {
+        return TimeUnit.SECONDS.toNanos(seconds);
+    }
+
+    private CachedEntity index(KeyIndex keyIndex, char key, long timeToLive, long now) {
+        CachedEntity cached = new CachedEntity();
+        cached.setEntity(new Letter(key));
+        cached.expireAfter(timeToLive, now);
+        keyIndex.put(cached);
+        return cached;
+    }
+
+    public static class Quote extends Letter {
+        private final long timeToLive;
+
+        public Quote(char letter, long timeToLive) {
+            super(letter);
+            this.timeToLive = timeToLive;
+        }
+
+        public long getTimeToLive() {
+            return timeToLive;
+        }
+    }
+}
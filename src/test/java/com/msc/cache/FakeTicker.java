@@ -0,0 +1,37 @@
+package com.msc.cache;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ticker whose time only moves when told to, for tests of expiration:
+ * <PRE>
+ * FakeTicker ticker = new FakeTicker();
+ * cacheManager.setTicker(ticker);
+ * ...
+ * ticker.advance(5, TimeUnit.MINUTES);
+ * cacheManager.cleanup();
+ * </PRE>
+ */
+public class FakeTicker implements Ticker {
+    private final AtomicLong nanos = new AtomicLong();
+
+    public long read() {
+        return this.nanos.get();
+    }
+
+    /**
+     * Moves the time forward.
+     */
+    public FakeTicker advance(long duration, TimeUnit unit) {
+        return this.advance(unit.toNanos(duration));
+    }
+
+    /**
+     * Moves the time forward, in nanoseconds.
+     */
+    public FakeTicker advance(long nanoseconds) {
+        this.nanos.addAndGet(nanoseconds);
+        return this;
+    }
+}
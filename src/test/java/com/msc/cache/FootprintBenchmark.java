@@ -0,0 +1,111 @@
+package com.msc.cache;
+
+import com.msc.cache.primitive.LongKeyCache;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+
+/**
+ * <P>Memory footprint of the cache structures per entry, not counting the entities themselves. Run its main()
+ * with a large heap and no other load, e.g.:</P>
+ * <PRE>java -Xmx2g -cp target/classes:target/test-classes com.msc.cache.FootprintBenchmark 1000000</PRE>
+ *
+ * <P>It reports the shallow size of the per-entry objects, estimated like JOL does for a 64 bit JVM with
+ * compressed references (12 byte headers, 4 byte references, fields packed largest first, 8 byte alignment),
+ * and the heap actually retained per entry by a CacheManager and by a LongKeyCache filled with N entries,
+ * measured as the difference of used heap after full collections.</P>
+ */
+public class FootprintBenchmark {
+    private static final int HEADER = 12;
+    private static final int REFERENCE = 4;
+    private static final int ALIGNMENT = 8;
+
+    public static void main(String[] args) throws Exception {
+        int entries = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        System.out.println("Shallow size of CachedEntity: " + shallowSize(CachedEntity.class) + " bytes");
+
+        Entity[] payload = new Entity[entries];
+        for (int i = 0; i < entries; i++) {
+            payload[i] = new Entity(i);
+        }
+
+        long before = usedHeap();
+        CacheManager cacheManager = new CacheManager();
+        cacheManager.setName("footprint");
+        for (Entity entity : payload) {
+            cacheManager.register(entity);
+        }
+        long after = usedHeap();
+        System.out.println("CacheManager: " + (after - before) / entries + " bytes per entry (" + cacheManager.getSize() + " entries)");
+        cacheManager.flushAll();
+        cacheManager = null;
+
+        before = usedHeap();
+        LongKeyCache longKeyCache = new LongKeyCache();
+        longKeyCache.setInitialCapacity(entries);
+        for (Entity entity : payload) {
+            longKeyCache.put(entity.id, entity);
+        }
+        after = usedHeap();
+        System.out.println("LongKeyCache: " + (after - before) / entries + " bytes per entry (" + longKeyCache.getSize() + " entries)");
+    }
+
+    /**
+     * @return Estimated size of an instance of the class, without what its fields reference.
+     */
+    static long shallowSize(Class type) {
+        long size = HEADER;
+        for (Class current = type; current != null; current = current.getSuperclass()) {
+            for (Field field : current.getDeclaredFields()) {
+                if (!Modifier.isStatic(field.getModifiers())) {
+                    size += sizeOf(field.getType());
+                }
+            }
+        }
+        return (size + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+
+    private static int sizeOf(Class type) {
+        if (type == long.class || type == double.class) {
+            return 8;
+        }
+        if (type == int.class || type == float.class) {
+            return 4;
+        }
+        if (type == short.class || type == char.class) {
+            return 2;
+        }
+        if (type == byte.class || type == boolean.class) {
+            return 1;
+        }
+        return REFERENCE;
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        //Collect until it doesn't shrink anymore.
+        for (int i = 0; i < 10; i++) {
+            System.gc();
+            Thread.sleep(50);
+            long now = runtime.totalMemory() - runtime.freeMemory();
+            if (now >= used) {
+                break;
+            }
+            used = now;
+        }
+        return used;
+    }
+
+    private static class Entity implements Cacheable {
+        final long id;
+
+        Entity(long id) {
+            this.id = id;
+        }
+
+        public Object getCacheKey() {
+            return this.id;
+        }
+    }
+}
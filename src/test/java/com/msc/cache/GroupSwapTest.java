@@ -0,0 +1,197 @@
+package com.msc.cache;
+
+import com.msc.cache.expiry.PropertyExpiryPolicy;
+import com.msc.cache.loader.CacheGroupLoaderPolicy;
+import com.msc.cache.mock.Letter;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Group loads: shared by concurrent misses, and swapped in at once on refresh of atomic groups.
+ */
+public class GroupSwapTest {
+    private GroupLoader loader;
+    private CacheManager cache;
+
+    @Before
+    public void setUp() {
+        loader = new GroupLoader();
+        cache = new CacheManager();
+        cache.setName("alphabet");
+        cache.setGrouped(true);
+        cache.setLoaderPolicy(loader);
+    }
+
+    @Test
+    public void testConcurrentMissesShareOneLoad() throws Exception {
+        loader.blockNextLoad();
+        final List<Collection<Cacheable>> results = new ArrayList<Collection<Cacheable>>();
+        List<Thread> readers = new ArrayList<Thread>();
+        for (int i = 0; i < 4; i++) {
+            Thread reader = new Thread() {
+                public void run() {
+                    try {
+                        Collection<Cacheable> lower = cache.getByGroup("lower");
+                        synchronized (results) {
+                            results.add(lower);
+                        }
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+            reader.start();
+            readers.add(reader);
+        }
+        assertTrue(loader.started.await(5, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        loader.release.countDown();
+        for (Thread reader : readers) {
+            reader.join(5000);
+        }
+        assertEquals(1, loader.loads.get());
+        assertEquals(4, results.size());
+        for (Collection<Cacheable> lower : results) {
+            assertEquals(26, lower.size());
+        }
+        assertEquals(26, cache.getSize());
+    }
+
+    @Test
+    public void testAtomicRefreshNeverHidesGroup() throws Exception {
+        cache.setAtomicGroup(true);
+        cache.getByGroup("lower");
+        GroupCachedEntity before = (GroupCachedEntity) cache.getGroups().get("lower");
+        long misses = cache.getMissCounter();
+
+        loader.blockNextLoad();
+        Thread refresher = new Thread() {
+            public void run() {
+                try {
+                    cache.refresh(new CasedLetter('a', 0));
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        refresher.start();
+        assertTrue(loader.started.await(5, TimeUnit.SECONDS));
+        //While the new version is being read, readers keep the old one.
+        assertEquals(26, cache.getByGroup("lower").size());
+        assertEquals(1, ((CasedLetter) cache.peek('q')).version);
+        loader.release.countDown();
+        refresher.join(5000);
+
+        assertEquals(misses, cache.getMissCounter());
+        assertEquals(2, loader.loads.get());
+        assertNotSame(before, cache.getGroups().get("lower"));
+        assertEquals(2, ((CasedLetter) cache.peek('q')).version);
+        assertSame(cache.peek('q'), ((GroupCachedEntity) cache.getGroups().get("lower")).get('q').getEntity());
+        assertEquals(26, cache.getSize());
+    }
+
+    @Test
+    public void testGroupFlushedWhileLoadingIsNotCached() throws Exception {
+        loader.blockNextLoad();
+        Thread reader = new Thread() {
+            public void run() {
+                try {
+                    cache.getByGroup("upper");
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        reader.start();
+        assertTrue(loader.started.await(5, TimeUnit.SECONDS));
+        cache.flushGroup("upper");
+        loader.release.countDown();
+        reader.join(5000);
+
+        assertEquals(null, cache.getGroups().get("upper"));
+        assertEquals(0, cache.getSize());
+        assertEquals(26, cache.getDiscardedLoadCounter());
+    }
+
+    private static class CasedLetter extends Letter implements GroupCacheable {
+        final int version;
+
+        CasedLetter(char letter, int version) {
+            super(letter);
+            this.version = version;
+        }
+
+        public Object getGroupKey() {
+            return Character.isUpperCase(this.getLetter()) ? "upper" : "lower";
+        }
+
+        public long size() {
+            return 1;
+        }
+    }
+
+    @Test
+    public void testGroupLoadsAreScheduledToExpire() throws Exception {
+        FakeTicker ticker = new FakeTicker();
+        cache.setTicker(ticker);
+        PropertyExpiryPolicy policy = new PropertyExpiryPolicy("timeToLive");
+        policy.setDefaultTimeToLive(60);
+        cache.setExpiryPolicy(policy);
+        cache.getByGroup("lower");
+        assertEquals(26, cache.getExpirationWheel().size());
+        ticker.advance(61, TimeUnit.SECONDS);
+        assertEquals(26, cache.expireEntries());
+        assertEquals(0, cache.getSize());
+    }
+
+    private static class GroupLoader implements CacheGroupLoaderPolicy {
+        final AtomicInteger loads = new AtomicInteger();
+        volatile CountDownLatch started = new CountDownLatch(0);
+        volatile CountDownLatch release = new CountDownLatch(0);
+
+        void blockNextLoad() {
+            started = new CountDownLatch(1);
+            release = new CountDownLatch(1);
+        }
+
+        public Collection<Cacheable> fetchByGroup(Object groupKey) throws CacheException {
+            int version = loads.incrementAndGet();
+            started.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            Collection<Cacheable> group = new ArrayList<Cacheable>();
+            char first = "upper".equals(groupKey) ? 'A' : 'a';
+            for (char c = first; c < first + 26; c++) {
+                group.add(new CasedLetter(c, version));
+            }
+            return group;
+        }
+
+        public Collection<GroupCacheable> fetchGroups() throws CacheException {
+            return new ArrayList<GroupCacheable>();
+        }
+
+        public Cacheable fetchEntity(Object cacheKey) throws CacheException {
+            return new CasedLetter((Character) cacheKey, loads.get());
+        }
+
+        public Collection<Cacheable> fetchAll() throws CacheException {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.msc.cache;
+
+import com.msc.cache.initializer.FullInitializationPolicy;
+import com.msc.cache.mock.Letter;
+import com.msc.cache.mock.TestAlphabetLoader;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Fully initialized with the lower case letters: the only keys there are, as far as the filter knows.
+ */
+public class KeyFilterTest {
+    private CacheManager cache;
+
+    @Before
+    public void setUp() throws Exception {
+        cache = new CacheManager();
+        cache.setName("alphabet");
+        cache.setLoaderPolicy(new TestAlphabetLoader());
+        cache.setInitializerPolicy(new FullInitializationPolicy());
+        cache.setKeyFilter(true);
+        cache.init();
+    }
+
+    @Test
+    public void testUnknownKeysAreRejected() throws Exception {
+        assertEquals(1, cache.getKeyFilterRebuildCounter());
+        assertNotNull(cache.get('b'));
+        assertNotNull(cache.peek('c'));
+        //The loader would build it, but it's not among the keys the cache was initialized with.
+        assertNull(cache.get('Z'));
+        assertNull(cache.peek('Y'));
+        assertEquals(1, cache.getNegativeHitCounter());
+        assertEquals(0, cache.getMissCounter());
+    }
+
+    @Test
+    public void testRegisteredKeysAreAdmitted() throws Exception {
+        Letter z = new Letter('Z');
+        cache.put(z);
+        cache.flushAll();
+        assertNotNull(cache.get('Z'));
+        assertEquals(1, cache.getMissCounter());
+    }
+
+    @Test
+    public void testDegradedFilterIsRebuilt() throws Exception {
+        //Sized for 1024 keys: three times as many degrade it.
+        for (int i = 0; i < 3000; i++) {
+            cache.put(new Letter((char) (1000 + i)));
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (cache.getKeyFilterRebuildCounter() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        //Puts made while it's rebuilt may degrade it once more.
+        assertTrue(cache.getKeyFilterRebuildCounter() >= 2);
+        for (int i = 0; i < 3000; i++) {
+            assertNotNull(cache.peek((char) (1000 + i)));
+        }
+        assertSame(cache.peek('a'), cache.get('a'));
+    }
+}
@@ -0,0 +1,133 @@
+package com.msc.cache;
+
+import com.msc.cache.loader.CacheKeyLoaderPolicy;
+import com.msc.cache.mock.Letter;
+import com.msc.cache.mock.TestAlphabetLoader;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Only letters exist; the loader doesn't find anything else.
+ */
+public class NegativeCacheTest {
+    private final AtomicInteger fetches = new AtomicInteger();
+    private CacheManager cache;
+
+    private class LetterLoader extends TestAlphabetLoader implements CacheKeyLoaderPolicy {
+        @Override
+        public Cacheable fetchEntity(Object cacheKey) throws CacheException {
+            fetches.incrementAndGet();
+            return Character.isLetter((Character) cacheKey) ? super.fetchEntity(cacheKey) : null;
+        }
+
+        public Collection<Object> fetchKeys() {
+            Collection<Object> keys = new ArrayList<Object>();
+            for (char c = 'a'; c <= 'z'; c++) {
+                keys.add(c);
+            }
+            return keys;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        cache = new CacheManager();
+        cache.setName("alphabet");
+        cache.setLoaderPolicy(new LetterLoader());
+    }
+
+    @Test
+    public void testMissingKeysAreRemembered() throws Exception {
+        cache.setNegativeCacheSize(100);
+        assertNull(cache.get('1'));
+        assertNull(cache.get('1'));
+        assertNull(cache.get('1'));
+        assertEquals(1, fetches.get());
+        assertEquals(1, cache.getMissCounter());
+        assertEquals(2, cache.getNegativeHitCounter());
+        assertEquals(1, cache.getNegativeCacheCount());
+
+        //Created since: not missing anymore.
+        Letter one = new Letter('1');
+        cache.put(one);
+        assertSame(one, cache.get('1'));
+        assertEquals(0, cache.getNegativeCacheCount());
+    }
+
+    @Test
+    public void testNegativeCacheIsBounded() throws Exception {
+        cache.setNegativeCacheSize(2);
+        cache.get('1');
+        cache.get('2');
+        cache.get('3');
+        assertEquals(2, cache.getNegativeCacheCount());
+        cache.get('1');
+        assertEquals(4, fetches.get());
+        cache.get('3');
+        assertEquals(4, fetches.get());
+    }
+
+    @Test
+    public void testMissingKeysExpire() throws Exception {
+        FakeTicker ticker = new FakeTicker();
+        cache.setTicker(ticker);
+        cache.setNegativeCacheSize(10);
+        cache.setNegativeTimeToLive(60);
+        cache.get('1');
+        ticker.advance(59, TimeUnit.SECONDS);
+        cache.get('1');
+        assertEquals(1, fetches.get());
+        ticker.advance(2, TimeUnit.SECONDS);
+        cache.get('1');
+        assertEquals(2, fetches.get());
+        assertEquals(1, cache.getNegativeHitCounter());
+    }
+
+    @Test
+    public void testKeyFilterStopsUnknownKeys() throws Exception {
+        cache.setKeyFilter(true);
+        cache.init();
+        for (char c = '0'; c <= '9'; c++) {
+            assertNull(cache.get(c));
+        }
+        //1% false positives: a few digits at most get through to the loader.
+        assertTrue(fetches.get() <= 2);
+        assertTrue(cache.getNegativeHitCounter() >= 8);
+        assertNotNull(cache.get('q'));
+
+        //Keys the cache writes are let through from then on.
+        cache.put(new Letter('#'));
+        cache.invalidateKey('#');
+        int before = fetches.get();
+        assertNull(cache.get('#'));
+        assertEquals(before + 1, fetches.get());
+    }
+
+    @Test
+    public void testBloomFilter() {
+        BloomFilter filter = new BloomFilter(10000, 0.01);
+        for (int i = 0; i < 10000; i++) {
+            filter.put(i);
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(filter.mightContain(i));
+            if (filter.mightContain(i + 1000000)) {
+                falsePositives++;
+            }
+        }
+        assertTrue("False positives: " + falsePositives, falsePositives < 200);
+        assertEquals(7, filter.getHashCount());
+    }
+}
@@ -0,0 +1,67 @@
+package com.msc.cache;
+
+import com.msc.cache.mock.TestAlphabetLoader;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collection;
+import java.util.Iterator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * getAll() handing back a view of the cached alphabet instead of a copy.
+ */
+public class ReadOnlyViewTest {
+    private CacheManager cache;
+
+    @Before
+    public void setUp() throws Exception {
+        cache = new CacheManager();
+        cache.setName("alphabet");
+        cache.setLoaderPolicy(new TestAlphabetLoader());
+        cache.setReadOnlyViews(true);
+        cache.getAll(); //Miss: loads the alphabet.
+    }
+
+    @Test
+    public void testViewCountsOneHitPerGroup() throws Exception {
+        Collection<Cacheable> alphabet = cache.getAll();
+        assertEquals(26, alphabet.size());
+        assertEquals(1, cache.getHitCounter());
+        GroupCachedEntity group = (GroupCachedEntity) cache.getGroups().get(CacheManager.DEFAULT_GROUP_KEY);
+        assertEquals(1, group.getNumberOfHits());
+        assertEquals(0, group.get('a').getNumberOfHits());
+        assertTrue(group.getLastViewedTime() > 0);
+    }
+
+    @Test
+    public void testViewIsReadOnly() throws Exception {
+        Collection<Cacheable> alphabet = cache.getAll();
+        Iterator<Cacheable> iterator = alphabet.iterator();
+        iterator.next();
+        try {
+            iterator.remove();
+            fail("Views can't be changed");
+        } catch (UnsupportedOperationException expected) {
+        }
+        try {
+            alphabet.clear();
+            fail("Views can't be changed");
+        } catch (UnsupportedOperationException expected) {
+        }
+        assertEquals(26, cache.getSize());
+    }
+
+    @Test
+    public void testViewIsLive() throws Exception {
+        Collection<Cacheable> alphabet = cache.getAll();
+        cache.invalidateKey('z');
+        assertEquals(25, alphabet.size());
+        for (Cacheable letter : alphabet) {
+            assertTrue(!letter.getCacheKey().equals('z'));
+        }
+    }
+}
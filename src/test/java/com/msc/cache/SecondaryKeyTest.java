@@ -0,0 +1,75 @@
+package com.msc.cache;
+
+import com.msc.cache.cleanup.IdleTimeCleanupPolicy;
+import com.msc.cache.mock.AsciiLetter;
+import com.msc.cache.mock.TestAlphabetLoader;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Entities found by their secondary keys (letters by their ASCII code).
+ */
+public class SecondaryKeyTest {
+    private CacheManager cache;
+
+    @Before
+    public void setUp() {
+        cache = new CacheManager();
+        cache.setName("ascii");
+        cache.setLoaderPolicy(new TestAlphabetLoader() {
+            @Override
+            public Cacheable fetchEntity(Object cacheKey) throws CacheException {
+                super.fetchEntity(cacheKey);
+                return new AsciiLetter((Character) cacheKey);
+            }
+        });
+    }
+
+    @Test
+    public void testSecondaryKeyResolvesToCachedEntity() throws Exception {
+        Cacheable a = cache.get('a');
+        assertSame(a, cache.get((int) 'a'));
+        assertSame(a, cache.peek(97));
+        assertEquals(1, cache.getSize());
+        assertEquals(1, cache.getSecondaryKeyCount());
+        assertEquals(1, cache.getHitCounter());
+    }
+
+    @Test
+    public void testInvalidateBySecondaryKey() throws Exception {
+        cache.get('a');
+        cache.get('b');
+        cache.invalidateKey(98);
+        assertNull(cache.peek('b'));
+        assertNull(cache.peek(98));
+        assertEquals(1, cache.getSize());
+        assertEquals(1, cache.getSecondaryKeyCount());
+    }
+
+    @Test
+    public void testEvictionCleansIndex() throws Exception {
+        cache.setDefaultIdleTime(60);
+        cache.get('a');
+        cache.get('b');
+        cache.setMaxIdleTime('a', -1);
+        new IdleTimeCleanupPolicy().cleanup(cache);
+        assertNull(cache.peek(97));
+        assertEquals('b', ((AsciiLetter) cache.peek(98)).getLetter());
+        assertEquals(1, cache.getSize());
+        assertEquals(1, cache.getSecondaryKeyCount());
+        assertEquals(1, cache.getEvictionCounter());
+    }
+
+    @Test
+    public void testFlushAllCleansIndex() throws Exception {
+        cache.get('a');
+        cache.flushAll();
+        assertNull(cache.peek(97));
+        assertEquals(0, cache.getSize());
+        assertEquals(0, cache.getSecondaryKeyCount());
+    }
+}
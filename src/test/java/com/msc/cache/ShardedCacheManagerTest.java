@@ -0,0 +1,155 @@
+package com.msc.cache;
+
+import com.msc.cache.loader.CacheLoaderPolicy;
+import com.msc.cache.mock.Letter;
+import com.msc.cache.mock.TestAlphabetLoader;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ShardedCacheManagerTest {
+    private final FakeTicker ticker = new FakeTicker();
+    private ShardedCacheManager cache;
+
+    @Before
+    public void setUp() throws Exception {
+        cache = new ShardedCacheManager(4);
+        cache.setName("alphabet");
+        cache.setLoaderPolicy(new TestAlphabetLoader());
+        cache.setTicker(ticker);
+    }
+
+    @After
+    public void tearDown() {
+        cache.shutdown();
+    }
+
+    @Test
+    public void testKeysSpreadAmongShards() throws Exception {
+        for (char c = 'a'; c <= 'z'; c++) {
+            assertNotNull(cache.get(c));
+        }
+        assertEquals(26, cache.getSize());
+        assertEquals(26, cache.getMissCounter());
+        int shardsUsed = 0;
+        for (CacheManager shard : cache.getShards()) {
+            if (shard.getSize() > 0) {
+                shardsUsed++;
+            }
+        }
+        assertTrue(shardsUsed > 1);
+        for (char c = 'a'; c <= 'z'; c++) {
+            for (CacheManager shard : cache.getShards()) {
+                if (shard == cache.shardFor(c)) {
+                    assertNotNull(shard.peek(c));
+                } else {
+                    assertNull(shard.peek(c));
+                }
+            }
+        }
+        cache.invalidateKey('a');
+        assertNull(cache.peek('a'));
+        assertEquals(25, cache.getSize());
+    }
+
+    @Test
+    public void testGetAllLoadsOnceForAllShards() throws Exception {
+        assertEquals(26, cache.getAll().size());
+        assertEquals(1, cache.getMissCounter());
+        assertEquals(26, cache.getSize());
+        assertEquals(26, cache.getAll().size());
+        assertEquals(1, cache.getHitCounter());
+        assertNotNull(cache.peek('q'));
+        cache.flushAll();
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void testMaxWeightIsForTheWholeCache() throws Exception {
+        cache.setMaxWeight(8);
+        for (CacheManager shard : cache.getShards()) {
+            assertEquals(2, shard.getMaxWeight());
+        }
+        for (char c = 'a'; c <= 'z'; c++) {
+            cache.get(c);
+        }
+        assertTrue(cache.getWeight() <= 8);
+        assertEquals(26 - cache.getSize(), cache.getEvictionCounter());
+    }
+
+    @Test
+    public void testCleansUpEveryShard() throws Exception {
+        cache.setDefaultTimeToLive(10);
+        cache.init();
+        for (char c = 'a'; c <= 'z'; c++) {
+            cache.get(c);
+        }
+        ticker.advance(20, TimeUnit.SECONDS);
+        cache.cleanup();
+        assertEquals(0, cache.getSize());
+        assertEquals(26, cache.getEvictionCounter());
+    }
+
+    @Test
+    public void testSecondaryKeysOfOtherShardsAreFound() throws Exception {
+        final AtomicInteger loads = new AtomicInteger();
+        cache.setLoaderPolicy(new CacheLoaderPolicy() {
+            public Cacheable fetchEntity(Object cacheKey) throws CacheException {
+                loads.incrementAndGet();
+                String key = cacheKey.toString();
+                return new CodedLetter(key.charAt(key.length() - 1));
+            }
+
+            public Collection<Cacheable> fetchAll() throws CacheException {
+                return null;
+            }
+        });
+        char c = 'a';
+        while (cache.shardFor(c) == cache.shardFor("#" + c)) {
+            c++;
+        }
+        assertNotSame(cache.shardFor(c), cache.shardFor("#" + c));
+        Cacheable letter = cache.get(c);
+        assertSame(letter, cache.get("#" + c));
+        assertSame(letter, cache.peek("#" + c));
+        assertEquals(1, loads.get());
+        assertEquals(1, cache.getHitCounter());
+
+        cache.invalidateKey("#" + c);
+        assertNull(cache.peek(c));
+        assertEquals(0, cache.getSize());
+
+        //Loaded by the shard of the secondary key, then cached by the one of the primary key.
+        letter = cache.get("#" + c);
+        assertEquals(2, loads.get());
+        assertSame(letter, cache.get("#" + c));
+        assertSame(letter, cache.shardFor(c).peek(c));
+        assertEquals(0, cache.shardFor("#" + c).getSize());
+        assertEquals(2, loads.get());
+        assertEquals(1, cache.getSize());
+    }
+
+    /**
+     * A Letter also found by "#" and the letter, which doesn't hash like the letter itself.
+     */
+    private static class CodedLetter extends Letter implements CompoundKeyCacheable {
+        CodedLetter(char letter) {
+            super(letter);
+        }
+
+        public Object[] getSecondaryKeys() {
+            return new Object[]{"#" + this.getLetter()};
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.msc.cache;
+
+import com.msc.cache.mock.TestAlphabetLoader;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Invalidations arriving while a miss is still reading the persistence storage.
+ */
+public class StaleLoadTest {
+    private SlowLoader loader;
+    private CacheManager cache;
+
+    @Before
+    public void setUp() {
+        loader = new SlowLoader();
+        cache = new CacheManager();
+        cache.setName("alphabet");
+        cache.setLoaderPolicy(loader);
+    }
+
+    @Test
+    public void testLoadInvalidatedWhileRunningIsNotCached() throws Exception {
+        Thread reader = readInBackground('a');
+        assertTrue(loader.started.await(5, TimeUnit.SECONDS));
+        cache.invalidateKey('a');
+        loader.release.countDown();
+        reader.join(5000);
+
+        assertNull(cache.peek('a'));
+        assertEquals(1, cache.getDiscardedLoadCounter());
+        //The next miss reads the new information and caches it:
+        cache.get('a');
+        assertNotNull(cache.peek('a'));
+    }
+
+    @Test
+    public void testLoadFlushedWhileRunningIsNotCached() throws Exception {
+        Thread reader = readInBackground('b');
+        assertTrue(loader.started.await(5, TimeUnit.SECONDS));
+        cache.flushAll();
+        loader.release.countDown();
+        reader.join(5000);
+
+        assertNull(cache.peek('b'));
+        assertEquals(1, cache.getDiscardedLoadCounter());
+    }
+
+    @Test
+    public void testUnrelatedInvalidationDoesNotDiscardLoad() throws Exception {
+        final AtomicReference<Cacheable> result = new AtomicReference<Cacheable>();
+        Thread reader = readInBackground('c', result);
+        assertTrue(loader.started.await(5, TimeUnit.SECONDS));
+        cache.invalidateKey('d');
+        loader.release.countDown();
+        reader.join(5000);
+
+        assertNotNull(result.get());
+        assertNotNull(cache.peek('c'));
+        assertEquals(0, cache.getDiscardedLoadCounter());
+    }
+
+    private Thread readInBackground(char key) {
+        return readInBackground(key, new AtomicReference<Cacheable>());
+    }
+
+    private Thread readInBackground(final char key, final AtomicReference<Cacheable> result) {
+        Thread reader = new Thread() {
+            public void run() {
+                try {
+                    result.set(cache.get(key));
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        reader.start();
+        return reader;
+    }
+
+    /**
+     * Blocks the first load until released.
+     */
+    private static class SlowLoader extends TestAlphabetLoader {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public Cacheable fetchEntity(Object cacheKey) throws CacheException {
+            Cacheable entity = super.fetchEntity(cacheKey);
+            started.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return entity;
+        }
+    }
+}
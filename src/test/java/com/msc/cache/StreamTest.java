@@ -0,0 +1,80 @@
+package com.msc.cache;
+
+import com.msc.cache.mock.Letter;
+import com.msc.cache.mock.TestAlphabetLoader;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Scans of the alphabet, grouped by case.
+ */
+public class StreamTest {
+    private CacheManager cache;
+
+    @Before
+    public void setUp() throws Exception {
+        cache = new CacheManager();
+        cache.setName("alphabet");
+        cache.setLoaderPolicy(new TestAlphabetLoader());
+        for (char c = 'a'; c <= 'z'; c++) {
+            cache.register(new CasedLetter(c));
+            cache.register(new CasedLetter(Character.toUpperCase(c)));
+        }
+    }
+
+    @Test
+    public void testStreamSeesEveryEntityOnce() throws Exception {
+        List<Cacheable> all = cache.stream().collect(Collectors.<Cacheable>toList());
+        assertEquals(52, all.size());
+        assertEquals(52, new HashSet<Cacheable>(all).size());
+        assertEquals(0, cache.getHitCounter());
+    }
+
+    @Test
+    public void testParallelStream() throws Exception {
+        Set<Object> keys = cache.parallelStream().map(entity -> entity.getCacheKey()).collect(Collectors.toSet());
+        assertEquals(52, keys.size());
+        assertTrue(cache.parallelStream().isParallel());
+    }
+
+    @Test
+    public void testStreamOfGroup() throws Exception {
+        assertEquals(26, cache.stream("upper").filter(entity -> Character.isUpperCase(((Letter) entity).getLetter())).count());
+        assertEquals(0, cache.stream("digits").count());
+    }
+
+    @Test
+    public void testSplitsWithinSingleGroup() throws Exception {
+        Spliterator<Cacheable> all = CacheSpliterator.over((GroupCachedEntity) cache.getGroups().get("lower"));
+        Spliterator<Cacheable> half = all.trySplit();
+        assertNotNull(half);
+        final int[] count = new int[1];
+        all.forEachRemaining(entity -> count[0]++);
+        half.forEachRemaining(entity -> count[0]++);
+        assertEquals(26, count[0]);
+    }
+
+    private static class CasedLetter extends Letter implements GroupCacheable {
+        CasedLetter(char letter) {
+            super(letter);
+        }
+
+        public Object getGroupKey() {
+            return Character.isUpperCase(this.getLetter()) ? "upper" : "lower";
+        }
+
+        public long size() {
+            return 1;
+        }
+    }
+}
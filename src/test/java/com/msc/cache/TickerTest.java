@@ -0,0 +1,84 @@
+package com.msc.cache;
+
+import com.msc.cache.cleanup.ExpiryCleanupPolicy;
+import com.msc.cache.cleanup.LRUCleanupPolicy;
+import com.msc.cache.cleanup.TimeToLiveCleanupPolicy;
+import com.msc.cache.expiry.ExpiryPolicy;
+import com.msc.cache.mock.TestAlphabetLoader;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Expiration driven by a FakeTicker: no sleeping.
+ */
+public class TickerTest {
+    private final FakeTicker ticker = new FakeTicker();
+    private CacheManager cache;
+
+    @Before
+    public void setUp() {
+        cache = new CacheManager();
+        cache.setName("alphabet");
+        cache.setLoaderPolicy(new TestAlphabetLoader());
+        cache.setTicker(ticker);
+    }
+
+    @Test
+    public void testTimeFollowsTheTicker() {
+        long before = cache.currentTimeMillis();
+        ticker.advance(5, TimeUnit.MINUTES);
+        assertEquals(before + TimeUnit.MINUTES.toMillis(5), cache.currentTimeMillis());
+    }
+
+    @Test
+    public void testTimeToLive() throws Exception {
+        cache.setDefaultTimeToLive(2);
+        cache.addCleanupPolicy(new TimeToLiveCleanupPolicy());
+        cache.get('a');
+        ticker.advance(1, TimeUnit.SECONDS);
+        cache.cleanup();
+        assertNotNull(cache.peek('a'));
+        ticker.advance(2, TimeUnit.SECONDS);
+        cache.cleanup();
+        assertNull(cache.peek('a'));
+    }
+
+    @Test
+    public void testSubSecondExpiry() throws Exception {
+        cache.setExpiryPolicy(new ExpiryPolicy() {
+            public long expireAfterCreate(Cacheable entity) {
+                return TimeUnit.MILLISECONDS.toNanos(250);
+            }
+
+            public long expireAfterUpdate(Cacheable entity, Cacheable previous, long currentDuration) {
+                return currentDuration;
+            }
+
+            public long expireAfterRead(Cacheable entity, long currentDuration) {
+                return currentDuration;
+            }
+        });
+        Cacheable a = cache.get('a');
+        ticker.advance(200, TimeUnit.MILLISECONDS);
+        assertSame(a, cache.get('a'));
+        assertEquals(0, cache.expireEntries());
+        ticker.advance(50, TimeUnit.MILLISECONDS);
+        assertNull(cache.peek('a'));
+        assertEquals(1, cache.expireEntries());
+        assertEquals(1, cache.getExpiredCounter());
+    }
+
+    @Test
+    public void testFrequenciesAreInSeconds() {
+        assertEquals(60, new LRUCleanupPolicy().getFrequency());
+        assertEquals(1, new TimeToLiveCleanupPolicy().getFrequency());
+        assertEquals(1, new ExpiryCleanupPolicy().getFrequency());
+    }
+}
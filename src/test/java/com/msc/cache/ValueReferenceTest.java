@@ -0,0 +1,79 @@
+package com.msc.cache;
+
+import com.msc.cache.mock.Letter;
+import com.msc.cache.mock.TestAlphabetLoader;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Letters held by weak references: gone as soon as the test lets go of them.
+ */
+public class ValueReferenceTest {
+    private CacheManager cache;
+
+    @Before
+    public void setUp() {
+        cache = new CacheManager();
+        cache.setName("alphabet");
+        cache.setLoaderPolicy(new TestAlphabetLoader());
+        cache.setValueReference(ValueReference.WEAK);
+    }
+
+    private void collectUntil(int expectedSize) throws Exception {
+        for (int i = 0; i < 50 && cache.getSize() > expectedSize; i++) {
+            System.gc();
+            Thread.sleep(20);
+            cache.cleanup();
+        }
+    }
+
+    @Test
+    public void testReachableEntitiesStay() throws Exception {
+        Cacheable a = cache.get('a');
+        System.gc();
+        cache.cleanup();
+        assertSame(a, cache.get('a'));
+        assertEquals(1, cache.getHitCounter());
+        assertEquals(0, cache.getCollectedCounter());
+    }
+
+    @Test
+    public void testCollectedEntitiesAreEvicted() throws Exception {
+        List<Cacheable> kept = new ArrayList<Cacheable>();
+        for (char c = 'a'; c <= 'z'; c++) {
+            Cacheable letter = cache.get(c);
+            if (c < 'f') {
+                kept.add(letter);
+            }
+        }
+        assertEquals(26, cache.getSize());
+        collectUntil(5);
+
+        assertEquals(5, cache.getSize());
+        assertEquals(21, cache.getCollectedCounter());
+        assertEquals(21, cache.getEvictionCounter());
+        assertEquals(5, cache.getWeight());
+        assertNull(cache.peek('z'));
+        assertEquals(5, kept.size());
+        assertSame(kept.get(0), cache.get('a'));
+    }
+
+    @Test
+    public void testCollectedEntityIsReloaded() throws Exception {
+        cache.get('q');
+        collectUntil(0);
+        assertEquals(0, cache.getSize());
+        long misses = cache.getMissCounter();
+        assertNotNull(cache.get('q'));
+        assertEquals(misses + 1, cache.getMissCounter());
+        assertEquals('q', ((Letter) cache.peek('q')).getLetter());
+    }
+}
@@ -0,0 +1,94 @@
+package com.msc.cache;
+
+import com.msc.cache.cleanup.LRUCleanupPolicy;
+import com.msc.cache.mock.Letter;
+import com.msc.cache.mock.TestAlphabetLoader;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Letters weighing 10, vowels 30.
+ */
+public class WeigherTest {
+    private CacheManager cache;
+
+    @Before
+    public void setUp() {
+        cache = new CacheManager();
+        cache.setName("alphabet");
+        cache.setLoaderPolicy(new TestAlphabetLoader());
+        cache.setWeigher(new Weigher() {
+            public long weigh(Cacheable entity) {
+                return "aeiou".indexOf(((Letter) entity).getLetter()) >= 0 ? 30 : 10;
+            }
+        });
+    }
+
+    @Test
+    public void testWeightFollowsContents() throws Exception {
+        cache.get('a');
+        cache.get('b');
+        cache.get('c');
+        assertEquals(50, cache.getWeight());
+        cache.invalidateKey('a');
+        assertEquals(20, cache.getWeight());
+        CacheSize size = cache.getSizeInfo();
+        assertEquals(2, size.getCount());
+        assertEquals(20, size.getWeight());
+        cache.flushAll();
+        assertEquals(0, cache.getWeight());
+    }
+
+    @Test
+    public void testEntityChangedInPlaceLeavesWithItsWeight() throws Exception {
+        final long[] weight = {10};
+        cache.setWeigher(new Weigher() {
+            public long weigh(Cacheable entity) {
+                return weight[0];
+            }
+        });
+        Letter letter = new Letter('x');
+        cache.put(letter);
+        weight[0] = 50;
+        cache.put(letter);
+        assertEquals(50, cache.getWeight());
+        weight[0] = 20;
+        cache.invalidateKey('x');
+        assertEquals(0, cache.getWeight());
+    }
+
+    @Test
+    public void testMaxWeightEvictsLeastUsed() throws Exception {
+        cache.setMaxWeight(50);
+        cache.setLowWaterMark(40);
+        for (char c = 'b'; c <= 'g'; c++) {
+            if (c != 'e') {
+                cache.get(c);
+            }
+        }
+        cache.get('b');
+        cache.get('c');
+        cache.get('h'); //60: over the limit
+        assertTrue(cache.getWeight() <= 40);
+        assertEquals(2, cache.getEvictionCounter());
+        assertNotNull(cache.peek('b'));
+        assertNotNull(cache.peek('c'));
+    }
+
+    @Test
+    public void testLRUCleanupPolicyShrinksToLowWaterMark() throws Exception {
+        cache.setHighWaterMark(100);
+        cache.setLowWaterMark(50);
+        for (char c = 'a'; c <= 'j'; c++) {
+            cache.get(c);
+        }
+        assertEquals(160, cache.getWeight());
+        new LRUCleanupPolicy().cleanup(cache);
+        assertTrue(cache.getWeight() <= 50);
+        assertEquals(cache.getSize(), 10 - cache.getEvictionCounter());
+    }
+}
@@ -0,0 +1,70 @@
+package com.msc.cache.cleanup;
+
+import com.msc.cache.CacheManager;
+import com.msc.cache.FakeTicker;
+import com.msc.cache.mock.TestAlphabetLoader;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+public class IncrementalCleanupPolicyTest {
+    private final FakeTicker ticker = new FakeTicker();
+    private CacheManager cache;
+
+    @Before
+    public void setUp() throws Exception {
+        cache = new CacheManager();
+        cache.setName("alphabet");
+        cache.setLoaderPolicy(new TestAlphabetLoader());
+        cache.setTicker(ticker);
+        cache.setDefaultTimeToLive(10);
+        for (char c = 'a'; c <= 'z'; c++) {
+            cache.get(c);
+        }
+    }
+
+    @Test
+    public void testSweepResumesWhereItStopped() throws Exception {
+        TimeToLiveCleanupPolicy policy = new TimeToLiveCleanupPolicy();
+        policy.setBatchSize(10);
+        policy.setSliceSize(3);
+        cache.addCleanupPolicy(policy);
+        ticker.advance(20, TimeUnit.SECONDS);
+        cache.cleanup();
+        assertEquals(16, cache.getSize());
+        cache.cleanup();
+        assertEquals(6, cache.getSize());
+        cache.cleanup();
+        assertEquals(0, cache.getSize());
+        assertEquals(26, cache.getEvictionCounter());
+    }
+
+    @Test
+    public void testNewSweepAfterTheLastEntity() throws Exception {
+        TimeToLiveCleanupPolicy policy = new TimeToLiveCleanupPolicy();
+        policy.setBatchSize(20);
+        cache.addCleanupPolicy(policy);
+        //First sweep: nothing expired yet, and it ends on the second run.
+        cache.cleanup();
+        cache.cleanup();
+        ticker.advance(20, TimeUnit.SECONDS);
+        assertNotNull(cache.get('a'));
+        cache.cleanup();
+        assertEquals(6, cache.getSize());
+    }
+
+    @Test
+    public void testWholeCacheWithoutBatchSize() throws Exception {
+        IdleTimeCleanupPolicy policy = new IdleTimeCleanupPolicy();
+        policy.setBatchSize(0);
+        cache.setDefaultIdleTime(5);
+        cache.addCleanupPolicy(policy);
+        ticker.advance(6, TimeUnit.SECONDS);
+        cache.cleanup();
+        assertEquals(0, cache.getSize());
+    }
+}
@@ -0,0 +1,94 @@
+package com.msc.cache.cleanup;
+
+import com.msc.cache.CacheManager;
+import com.msc.cache.FakeTicker;
+import com.msc.cache.mock.Letter;
+import com.msc.cache.mock.TestAlphabetLoader;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SampledEvictionCleanupPolicyTest {
+    private final FakeTicker ticker = new FakeTicker();
+    private CacheManager cache;
+
+    @Before
+    public void setUp() throws Exception {
+        cache = new CacheManager();
+        cache.setName("alphabet");
+        cache.setLoaderPolicy(new TestAlphabetLoader());
+        cache.setTicker(ticker);
+    }
+
+    private void load(char from, char to) throws Exception {
+        for (char c = from; c <= to; c++) {
+            cache.get(c);
+            ticker.advance(1, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testLeastRecentlyUsedWhenSamplingEverything() throws Exception {
+        SampledEvictionCleanupPolicy policy = new SampledEvictionCleanupPolicy();
+        policy.setSampleSize(20);
+        policy.setPoolSize(20);
+        cache.addCleanupPolicy(policy);
+        load('a', 'j');
+        cache.get('a');
+        cache.get('b');
+        cache.setMaxWeight(8);
+        assertEquals(8, cache.getWeight());
+        assertNull(cache.peek('c'));
+        assertNull(cache.peek('d'));
+        assertNotNull(cache.peek('a'));
+        assertNotNull(cache.peek('b'));
+        assertNotNull(cache.peek('e'));
+    }
+
+    @Test
+    public void testLeastFrequentlyUsed() throws Exception {
+        SampledEvictionCleanupPolicy policy = new SampledEvictionCleanupPolicy(SampledEvictionCleanupPolicy.Mode.LFU);
+        policy.setSampleSize(20);
+        cache.addCleanupPolicy(policy);
+        load('a', 'e');
+        for (int i = 0; i < 3; i++) {
+            cache.get('a');
+            cache.get('c');
+        }
+        cache.get('d');
+        cache.setHighWaterMark(3);
+        cache.cleanup();
+        assertEquals(3, cache.getWeight());
+        //b and e were hit the least; a, hit the most, stays although it was accessed the longest ago.
+        assertNull(cache.peek('b'));
+        assertNull(cache.peek('e'));
+        assertNotNull(cache.peek('a'));
+    }
+
+    @Test
+    public void testApproximatesLeastRecentlyUsed() throws Exception {
+        cache.addCleanupPolicy(new SampledEvictionCleanupPolicy());
+        for (int i = 0; i < 100; i++) {
+            cache.put(new Letter((char) (1000 + i)));
+        }
+        ticker.advance(10, TimeUnit.SECONDS);
+        for (int i = 100; i < 200; i++) {
+            cache.put(new Letter((char) (1000 + i)));
+        }
+        cache.setMaxWeight(150);
+        assertEquals(150, cache.getWeight());
+        int oldEvicted = 0;
+        for (int i = 0; i < 100; i++) {
+            if (cache.peek((char) (1000 + i)) == null) {
+                oldEvicted++;
+            }
+        }
+        assertTrue("Only " + oldEvicted + " of the 50 evicted were old", oldEvicted >= 40);
+    }
+}
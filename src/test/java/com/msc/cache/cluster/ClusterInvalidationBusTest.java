@@ -0,0 +1,129 @@
+package com.msc.cache.cluster;
+
+import com.msc.cache.CacheManager;
+import com.msc.cache.mock.TestAlphabetLoader;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.ServerSocket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs two "nodes" in the same JVM, talking to each other over TCP on the loopback interface.
+ */
+public class ClusterInvalidationBusTest {
+    private TcpClusterTransport transportA;
+    private ClusterInvalidationBus busA;
+    private ClusterInvalidationBus busB;
+    private CacheManager cacheA;
+    private CacheManager cacheB;
+
+    @Before
+    public void setUp() throws Exception {
+        transportA = new TcpClusterTransport();
+        TcpClusterTransport transportB = new TcpClusterTransport();
+        busA = new ClusterInvalidationBus(transportA);
+        busB = new ClusterInvalidationBus(transportB);
+        busA.setBatchInterval(20);
+        busB.setBatchInterval(20);
+        busA.init();
+        busB.init();
+        transportA.addPeer("127.0.0.1:" + transportB.getLocalPort());
+        transportB.addPeer("127.0.0.1:" + transportA.getLocalPort());
+
+        cacheA = createCache(busA);
+        cacheB = createCache(busB);
+    }
+
+    private CacheManager createCache(ClusterInvalidationBus bus) {
+        CacheManager cache = new CacheManager();
+        cache.setName("alphabet");
+        cache.setDistributable(true);
+        cache.setLoaderPolicy(new TestAlphabetLoader());
+        ClusterNotifierPolicy notifier = new ClusterNotifierPolicy(bus);
+        cache.setNotifierPolicy(notifier);
+        notifier.setCacheManager(cache);
+        return cache;
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        busA.shutdown();
+        busB.shutdown();
+    }
+
+    @Test
+    public void testInvalidationReachesOtherNode() throws Exception {
+        cacheA.get('a');
+        cacheB.get('a');
+        assertNotNull(cacheB.peek('a'));
+
+        cacheA.invalidateKey('a');
+        waitUntilApplied(busB, 1);
+        assertNull(cacheB.peek('a'));
+
+        //B applied it, but must not send it back to A.
+        Thread.sleep(100);
+        assertEquals(0, busB.getSentPackets());
+        assertEquals(0, busA.getReceivedPackets());
+    }
+
+    @Test
+    public void testBatchingAndDeduplication() throws Exception {
+        for (char c = 'a'; c <= 'z'; c++) {
+            cacheB.get(c);
+        }
+        for (int i = 0; i < 10; i++) {
+            for (char c = 'a'; c <= 'j'; c++) {
+                cacheA.invalidateKey(c);
+            }
+        }
+        busA.flush();
+        waitUntilApplied(busB, 10);
+        assertEquals(10, busB.getAppliedCounter());
+        assertEquals(90, busA.getDedupedCounter());
+        assertEquals(16, cacheB.getSize());
+    }
+
+    @Test
+    public void testFlushAll() throws Exception {
+        cacheB.get('x');
+        cacheA.setSyncCluster(true);
+        cacheA.flushAll();
+        waitUntilApplied(busB, 1);
+        assertEquals(0, cacheB.getSize());
+    }
+
+    @Test
+    public void testDeadPeerDoesNotHoldUpTheOthers() throws Exception {
+        ServerSocket closed = new ServerSocket(0);
+        int deadPort = closed.getLocalPort();
+        closed.close();
+        transportA.addPeer("127.0.0.1:" + deadPort);
+        cacheB.get('a');
+        cacheB.get('b');
+        long start = System.currentTimeMillis();
+        cacheA.invalidateKey('a');
+        busA.flush();
+        cacheA.invalidateKey('b');
+        busA.flush();
+        assertTrue(System.currentTimeMillis() - start < 1000);
+        waitUntilApplied(busB, 2);
+        assertNull(cacheB.peek('a'));
+        assertNull(cacheB.peek('b'));
+        assertEquals(0, busA.getFailedPackets());
+    }
+
+    private static void waitUntilApplied(ClusterInvalidationBus bus, long expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (bus.getAppliedCounter() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue("Timed out waiting for cluster operations", bus.getAppliedCounter() >= expected);
+    }
+}
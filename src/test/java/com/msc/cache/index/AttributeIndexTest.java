@@ -0,0 +1,98 @@
+package com.msc.cache.index;
+
+import com.msc.cache.CacheException;
+import com.msc.cache.CacheManager;
+import com.msc.cache.CachedEntity;
+import com.msc.cache.Cacheable;
+import com.msc.cache.mock.Letter;
+import com.msc.cache.mock.TestAlphabetLoader;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Queries over the alphabet by whether letters are vowels (hash index) and by the letters themselves (sorted).
+ */
+public class AttributeIndexTest {
+    private CacheManager cache;
+
+    @Before
+    public void setUp() throws Exception {
+        cache = new CacheManager();
+        cache.setName("alphabet");
+        cache.setLoaderPolicy(new TestAlphabetLoader());
+        cache.setAttributeIndexes(Arrays.asList(
+                new AttributeIndex("vowel", new AttributeExtractor() {
+                    public Object extract(Cacheable entity) {
+                        return "aeiouAEIOU".indexOf(((Letter) entity).getLetter()) >= 0;
+                    }
+                }, false),
+                new AttributeIndex("letter", new PropertyExtractor("letter"), true)));
+        cache.getAll();
+    }
+
+    @Test
+    public void testEqualityQuery() throws Exception {
+        assertEquals(5, cache.query("vowel", true).size());
+        assertEquals(21, cache.query("vowel", false).size());
+    }
+
+    @Test
+    public void testRangeQuery() throws Exception {
+        assertEquals("[d, e, f]", cache.query("letter", 'd', 'f').toString());
+        assertEquals(3, cache.query("letter", 'x', null).size());
+        assertEquals(26, cache.query("letter", null, null).size());
+    }
+
+    @Test
+    public void testIndexesFollowInvalidationsAndLoads() throws Exception {
+        cache.invalidateKey('a');
+        assertEquals(4, cache.query("vowel", true).size());
+        cache.get('E');
+        assertEquals(5, cache.query("vowel", true).size());
+        cache.flushAll();
+        assertTrue(cache.query("letter", null, null).isEmpty());
+    }
+
+    @Test
+    public void testEntityChangedInPlaceIsDroppedFromItsOldValue() throws Exception {
+        AttributeIndex index = new AttributeIndex("upper", new AttributeExtractor() {
+            public Object extract(Cacheable entity) {
+                return Character.isUpperCase(((Letter) entity).getLetter());
+            }
+        }, false);
+        Letter letter = new Letter('a');
+        CachedEntity cached = new CachedEntity();
+        cached.setEntity(letter);
+        index.add(cached);
+        letter.setLetter('A');
+        index.remove(cached);
+        assertEquals(0, index.getValueCount());
+        assertTrue(index.query(false).isEmpty());
+    }
+
+    @Test
+    public void testIndexAddedLaterIndexesCachedEntities() throws Exception {
+        cache.addAttributeIndex(new AttributeIndex("upper", new AttributeExtractor() {
+            public Object extract(Cacheable entity) {
+                return Character.isUpperCase(((Letter) entity).getLetter());
+            }
+        }, false));
+        assertEquals(26, cache.query("upper", false).size());
+    }
+
+    @Test(expected = CacheException.class)
+    public void testQueryWithoutIndex() throws Exception {
+        cache.query("consonant", true);
+    }
+
+    @Test(expected = CacheException.class)
+    public void testRangeQueryOnHashIndex() throws Exception {
+        cache.query("vowel", false, true);
+    }
+}
@@ -0,0 +1,125 @@
+package com.msc.cache.memory;
+
+import com.msc.cache.CacheManager;
+import com.msc.cache.CacheRegistry;
+import com.msc.cache.mock.TestAlphabetLoader;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.management.Notification;
+import java.lang.management.MemoryNotificationInfo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A hot cache (hit 90% of the time) and a cold one (never hit), with the lower case letters each.
+ */
+public class HeapPressureControllerTest {
+    private CacheManager hot;
+    private CacheManager cold;
+    private HeapPressureController controller;
+
+    @Before
+    public void setUp() throws Exception {
+        hot = newCache("hot");
+        cold = newCache("cold");
+        for (char c = 'a'; c <= 'z'; c++) {
+            cold.get(c);
+            for (int i = 0; i < 10; i++) {
+                hot.get(c);
+            }
+        }
+        controller = new HeapPressureController();
+        controller.addCache(hot);
+        controller.addCache(cold);
+        controller.setCooldown(0);
+    }
+
+    private static CacheManager newCache(String name) {
+        CacheManager cache = new CacheManager();
+        cache.setName(name);
+        cache.setLoaderPolicy(new TestAlphabetLoader());
+        return cache;
+    }
+
+    @Test
+    public void testColdCacheGivesUpMost() throws Exception {
+        controller.onCollection(90, 100);
+        //10 of 52 entries shed, split 2.6 : 26 by weight times miss ratio.
+        assertEquals(1, controller.getPressureCounter());
+        assertEquals(10, controller.getShedCounter());
+        assertEquals(25, hot.getSize());
+        assertEquals(17, cold.getSize());
+        assertEquals(25, hot.getEffectiveMaxWeight());
+        assertEquals(17, cold.getEffectiveMaxWeight());
+    }
+
+    @Test
+    public void testNothingHappensInBetween() throws Exception {
+        controller.onCollection(70, 100);
+        assertEquals(0, controller.getPressureCounter());
+        assertEquals(26, cold.getSize());
+        assertEquals(-1, cold.getEffectiveMaxWeight());
+    }
+
+    @Test
+    public void testCapsGrowBackOncePressureIsGone() throws Exception {
+        cold.setMaxWeight(100);
+        controller.onCollection(90, 100);
+        assertTrue(controller.isShrunk(cold));
+        controller.onCollection(50, 100);
+        //Hot is back to the weight it had; cold grows 10% of it per collection up to its own maxWeight.
+        assertFalse(controller.isShrunk(hot));
+        assertEquals(-1, hot.getEffectiveMaxWeight());
+        assertEquals(27, cold.getEffectiveMaxWeight());
+        for (int i = 0; i < 10; i++) {
+            controller.onCollection(50, 100);
+        }
+        assertFalse(controller.isShrunk(cold));
+        assertEquals(100, cold.getEffectiveMaxWeight());
+    }
+
+    @Test
+    public void testOnlyCollectionsOfTheOldGenerationCount() throws Exception {
+        controller.setThreshold(0);
+        controller.init();
+        controller.onNotification(new Notification(HeapPressureController.GC_NOTIFICATION, "test", 1));
+        assertEquals(0, controller.getPressureCounter());
+        controller.onNotification(new Notification(MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED, "test", 2));
+        assertEquals(1, controller.getPressureCounter());
+        controller.shutdown();
+    }
+
+    @Test
+    public void testShutdownRestoresMaxWeight() throws Exception {
+        controller.init();
+        controller.onCollection(95, 100);
+        controller.shutdown();
+        assertEquals(-1, hot.getEffectiveMaxWeight());
+        assertEquals(-1, cold.getEffectiveMaxWeight());
+    }
+
+    @Test
+    public void testCapHoldsUnderTheRegistryAllocation() throws Exception {
+        CacheRegistry registry = new CacheRegistry();
+        registry.setBudget(60);
+        registry.register(cold);
+        assertEquals(60, cold.getMaxWeight());
+        controller.onCollection(90, 100);
+        assertEquals(17, cold.getEffectiveMaxWeight());
+        //The registry gives half of its budget to a newcomer: the cap holds.
+        registry.register(newCache("newcomer"));
+        assertEquals(30, cold.getMaxWeight());
+        assertEquals(17, cold.getEffectiveMaxWeight());
+        assertEquals(17, cold.getSize());
+        //The cap grows back up to the allocation the cache has now, not the one it had when shed.
+        for (int i = 0; i < 10; i++) {
+            controller.onCollection(50, 100);
+        }
+        assertFalse(controller.isShrunk(cold));
+        assertEquals(30, cold.getEffectiveMaxWeight());
+        registry.shutdown();
+    }
+}
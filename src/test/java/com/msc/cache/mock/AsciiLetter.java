@@ -0,0 +1,18 @@
+package com.msc.cache.mock;
+
+import com.msc.cache.CompoundKeyCacheable;
+
+/**
+ * A Letter that can also be found by its ASCII code.
+ */
+public class AsciiLetter extends Letter implements CompoundKeyCacheable {
+
+    public AsciiLetter(char letter) {
+        super(letter);
+    }
+
+    @Override
+    public Object[] getSecondaryKeys() {
+        return new Object[]{(int) this.getLetter()};
+    }
+}
@@ -2,6 +2,7 @@ package com.msc.cache.mock;
 
 import com.msc.cache.Cacheable;
 
+import java.io.Serializable;
 import java.util.logging.Logger;
 
 /**
@@ -14,7 +15,7 @@ import java.util.logging.Logger;
  * <p/>
  * Enjoy the details of life.
  */
-public class Letter implements Cacheable {
+public class Letter implements Cacheable, Serializable {
     private static final Logger logger = Logger.getLogger(Letter.class.getName());
 
     private Character letter;
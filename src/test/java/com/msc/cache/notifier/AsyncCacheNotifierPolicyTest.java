@@ -0,0 +1,182 @@
+package com.msc.cache.notifier;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the batching, filtering and backpressure of the AsyncCacheNotifierPolicy.
+ */
+public class AsyncCacheNotifierPolicyTest {
+    private AsyncCacheNotifierPolicy policy;
+
+    @After
+    public void tearDown() throws Exception {
+        if (policy != null) {
+            policy.shutdown();
+        }
+    }
+
+    @Test
+    public void testDeliversInBatches() throws Exception {
+        RecordingNotifier recorder = new RecordingNotifier();
+        policy = new AsyncCacheNotifierPolicy(recorder);
+        policy.setBatchSize(10);
+        for (int i = 0; i < 100; i++) {
+            policy.notifyCache(new NotificationMessage(NotificationMessage.INVALIDATION_MESSAGE, (Object) i));
+        }
+        policy.shutdown();
+        assertEquals(100, recorder.messages.size());
+        assertEquals(100, policy.getDeliveredCounter());
+        for (Integer size : recorder.batchSizes) {
+            assertTrue(size <= 10);
+        }
+        //Order is preserved
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, recorder.messages.get(i).getKey());
+        }
+    }
+
+    @Test
+    public void testFilteringAndSampling() throws Exception {
+        RecordingNotifier recorder = new RecordingNotifier();
+        policy = new AsyncCacheNotifierPolicy(recorder);
+        policy.setIgnoredTypes(Collections.singleton(NotificationType.HIT_GROUP));
+        Map<NotificationType, Integer> rates = new HashMap<NotificationType, Integer>();
+        rates.put(NotificationType.HIT_INSTANCE, 10);
+        policy.setSampleRates(rates);
+        for (int i = 0; i < 100; i++) {
+            policy.notifyCache(new NotificationMessage(NotificationMessage.CACHE_HIT_INSTANCE, (Object) i));
+            policy.notifyCache(new NotificationMessage(NotificationMessage.CACHE_HIT_GROUP));
+        }
+        policy.shutdown();
+        assertEquals(10, recorder.messages.size());
+        assertEquals(190, policy.getFilteredCounter());
+    }
+
+    @Test
+    public void testDropWhenFull() throws Exception {
+        BlockingNotifier blocker = new BlockingNotifier();
+        policy = new AsyncCacheNotifierPolicy(blocker);
+        policy.setQueueCapacity(5);
+        policy.setBatchSize(1);
+        policy.notifyCache(new NotificationMessage(NotificationMessage.REGISTER_MESSAGE, (Object) "first"));
+        assertTrue(blocker.entered.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 20; i++) {
+            policy.notifyCache(new NotificationMessage(NotificationMessage.REGISTER_MESSAGE, (Object) i));
+        }
+        assertEquals(5, policy.getPendingCount());
+        assertEquals(15, policy.getDroppedCounter());
+        blocker.release.countDown();
+    }
+
+    @Test
+    public void testCoalesceWhenFull() throws Exception {
+        BlockingNotifier blocker = new BlockingNotifier();
+        policy = new AsyncCacheNotifierPolicy(blocker);
+        policy.setBackpressure(AsyncCacheNotifierPolicy.Backpressure.COALESCE);
+        policy.setQueueCapacity(3);
+        policy.setBatchSize(1);
+        policy.notifyCache(new NotificationMessage(NotificationMessage.REGISTER_MESSAGE, (Object) "first"));
+        assertTrue(blocker.entered.await(5, TimeUnit.SECONDS));
+        //Invalidations and registrations of 3 keys, alternating: the 3 first fit in the queue.
+        for (int i = 0; i < 30; i++) {
+            String type = (i / 3) % 2 == 0 ? NotificationMessage.INVALIDATION_MESSAGE : NotificationMessage.REGISTER_MESSAGE;
+            policy.notifyCache(new NotificationMessage(type, (Object) (i % 3)));
+        }
+        assertEquals(6, policy.getPendingCount());
+        assertEquals(24, policy.getCoalescedCounter());
+        assertEquals(0, policy.getDroppedCounter());
+        blocker.release.countDown();
+        policy.shutdown();
+        assertEquals(7, blocker.messages.size());
+        //The last message of every key is the last one sent.
+        for (int i = 4; i < 7; i++) {
+            assertEquals(NotificationType.REGISTER, blocker.messages.get(i).getType());
+        }
+    }
+
+    @Test
+    public void testReadsNeverReplaceChangesWhenCoalescing() throws Exception {
+        BlockingNotifier blocker = new BlockingNotifier();
+        policy = new AsyncCacheNotifierPolicy(blocker);
+        policy.setBackpressure(AsyncCacheNotifierPolicy.Backpressure.COALESCE);
+        policy.setQueueCapacity(5);
+        policy.setBatchSize(1);
+        policy.notifyCache(new NotificationMessage(NotificationMessage.REGISTER_MESSAGE, (Object) "first"));
+        assertTrue(blocker.entered.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 5; i++) {
+            policy.notifyCache(new NotificationMessage(NotificationMessage.REGISTER_MESSAGE, (Object) i));
+        }
+        //The queue is full: these are merged.
+        policy.notifyCache(new NotificationMessage(NotificationMessage.INVALIDATION_MESSAGE, (Object) "k"));
+        policy.notifyCache(new NotificationMessage(NotificationMessage.CACHE_HIT_INSTANCE, (Object) "k"));
+        policy.notifyCache(new NotificationMessage(NotificationMessage.CACHE_HIT_INSTANCE, (Object) "k"));
+        //A group named like the key, and the whole cache.
+        policy.notifyCache(new NotificationMessage().reset(NotificationType.FLUSH_GROUP, null, null, null, "k", 0));
+        policy.notifyCache(new NotificationMessage(NotificationMessage.FLUSH_ALL_MESSAGE));
+        policy.notifyCache(new NotificationMessage(NotificationMessage.CACHE_MISS_ALL));
+        assertEquals(1, policy.getCoalescedCounter());
+        blocker.release.countDown();
+        policy.shutdown();
+        List<NotificationType> types = new ArrayList<NotificationType>();
+        for (NotificationMessage message : blocker.messages.subList(6, blocker.messages.size())) {
+            types.add(message.getType());
+        }
+        assertEquals(Arrays.asList(NotificationType.INVALIDATE,
+                NotificationType.HIT_INSTANCE, NotificationType.FLUSH_GROUP, NotificationType.FLUSH_ALL,
+                NotificationType.MISS_ALL), types);
+    }
+
+    @Test
+    public void testDiscardsAfterShutdown() throws Exception {
+        RecordingNotifier recorder = new RecordingNotifier();
+        policy = new AsyncCacheNotifierPolicy(recorder);
+        policy.notifyCache(new NotificationMessage(NotificationMessage.INVALIDATION_MESSAGE, (Object) "before"));
+        policy.shutdown();
+        policy.notifyCache(new NotificationMessage(NotificationMessage.INVALIDATION_MESSAGE, (Object) "after"));
+        assertEquals(1, recorder.messages.size());
+        assertEquals(1, policy.getDroppedCounter());
+        assertEquals(0, policy.getPendingCount());
+    }
+
+    private static class RecordingNotifier implements BatchCacheNotifierPolicy {
+        final List<NotificationMessage> messages = new ArrayList<NotificationMessage>();
+        final List<Integer> batchSizes = new ArrayList<Integer>();
+
+        public void notifyBatch(List<NotificationMessage> batch) {
+            batchSizes.add(batch.size());
+            messages.addAll(batch);
+        }
+
+        public void notifyCache(NotificationMessage message) {
+            notifyBatch(Collections.singletonList(message));
+        }
+    }
+
+    private static class BlockingNotifier implements CacheNotifierPolicy {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<NotificationMessage> messages = new ArrayList<NotificationMessage>();
+
+        public void notifyCache(NotificationMessage message) {
+            messages.add(message);
+            entered.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.msc.cache.notifier;
+
+import com.msc.cache.CacheManager;
+import com.msc.cache.mock.TestAlphabetLoader;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the typed dispatching of notifications.
+ */
+public class EventListenerNotifierPolicyTest {
+
+    @Test
+    public void testDispatchByType() throws Exception {
+        EventListenerNotifierPolicy policy = new EventListenerNotifierPolicy();
+        RecordingListener invalidations = new RecordingListener();
+        RecordingListener everything = new RecordingListener();
+        policy.addListener(invalidations, NotificationType.INVALIDATE);
+        policy.addListener(everything);
+
+        NotificationMessage message = new NotificationMessage();
+        policy.notifyCache(message.reset(NotificationType.INVALIDATE, "test", null, "a", null, 0));
+        policy.notifyCache(message.reset(NotificationType.HIT_INSTANCE, "test", null, "b", null, 0));
+
+        assertEquals(1, invalidations.keys.size());
+        assertEquals("a", invalidations.keys.get(0));
+        assertEquals(2, everything.keys.size());
+
+        policy.removeListener(everything);
+        assertFalse(policy.hasListeners(NotificationType.HIT_INSTANCE));
+        assertTrue(policy.hasListeners(NotificationType.INVALIDATE));
+    }
+
+    @Test
+    public void testSimpleNotifierDispatchesLegacyMessages() throws Exception {
+        final List<String> called = new ArrayList<String>();
+        SimpleCacheNotifierPolicy policy = new SimpleCacheNotifierPolicy() {
+            @Override
+            protected void notifyInvalidateMessage(NotificationMessage message) {
+                called.add(message.getMessage());
+            }
+        };
+        policy.notifyCache(new NotificationMessage(NotificationMessage.INVALIDATION_MESSAGE, (Object) "a"));
+        policy.notifyCache(new NotificationMessage(NotificationMessage.REFRESH_MESSAGE, (Object) "a"));
+        assertEquals(1, called.size());
+        assertEquals(NotificationMessage.INVALIDATION_MESSAGE, called.get(0));
+    }
+
+    @Test
+    public void testListenerReadingTheCache() throws Exception {
+        final CacheManager cache = new CacheManager();
+        cache.setName("alphabet");
+        cache.setLoaderPolicy(new TestAlphabetLoader());
+        EventListenerNotifierPolicy policy = new EventListenerNotifierPolicy();
+        policy.addListener(new CacheEventListener() {
+            public void onEvent(NotificationMessage message) {
+                if ('a' == (Character) message.getKey()) {
+                    try {
+                        cache.get('b');
+                    } catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            }
+        }, NotificationType.HIT_INSTANCE);
+        RecordingListener hits = new RecordingListener();
+        policy.addListener(hits, NotificationType.HIT_INSTANCE, NotificationType.MISS_INSTANCE);
+        cache.setNotifierPolicy(policy);
+        cache.get('a');
+        cache.get('a');
+        //The miss of b, published while the hit of a was being delivered, didn't replace it.
+        assertEquals(Arrays.<Object>asList('a', 'b', 'a'), hits.keys);
+    }
+
+    private static class RecordingListener implements CacheEventListener {
+        final List<Object> keys = new ArrayList<Object>();
+
+        public void onEvent(NotificationMessage message) {
+            keys.add(message.getKey());
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.msc.cache.partition;
+
+import com.msc.cache.mock.Letter;
+import com.msc.cache.mock.TestAlphabetLoader;
+import com.msc.cache.remote.CacheServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs a partitioned cache over three (then four) nodes in the same JVM, talking over the loopback interface.
+ */
+public class PartitionedCacheManagerTest {
+    private static final List<String> MOCKS = Collections.singletonList("com.msc.cache.mock.");
+
+    private final List<PartitionedCacheManager> caches = new ArrayList<PartitionedCacheManager>();
+    private final List<CacheServer> servers = new ArrayList<CacheServer>();
+    private final List<String> nodes = new ArrayList<String>();
+
+    @Before
+    public void setUp() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            startNode();
+        }
+        for (PartitionedCacheManager cache : caches) {
+            cache.setNodes(nodes);
+        }
+    }
+
+    private PartitionedCacheManager startNode() throws Exception {
+        PartitionedCacheManager cache = new PartitionedCacheManager();
+        cache.setName("alphabet");
+        cache.setLoaderPolicy(new TestAlphabetLoader());
+        cache.setAllowedClasses(MOCKS);
+        CacheServer server = new CacheServer();
+        server.setPort(0);
+        server.setAllowedClasses(MOCKS);
+        server.register(cache);
+        server.init();
+        String node = "127.0.0.1:" + server.getLocalPort();
+        cache.setLocalNode(node);
+        caches.add(cache);
+        servers.add(server);
+        nodes.add(node);
+        return cache;
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (PartitionedCacheManager cache : caches) {
+            cache.shutdown();
+        }
+        for (CacheServer server : servers) {
+            server.shutdown();
+        }
+    }
+
+    @Test
+    public void testEachKeyIsCachedOnceByItsOwner() throws Exception {
+        PartitionedCacheManager entryPoint = caches.get(0);
+        for (char c = 'a'; c <= 'z'; c++) {
+            assertEquals(c, ((Letter) entryPoint.get(c)).getLetter());
+        }
+        long total = 0;
+        long misses = 0;
+        for (PartitionedCacheManager cache : caches) {
+            assertTrue("Every node gets a share", cache.getSize() > 0);
+            total += cache.getSize();
+            misses += cache.getMissCounter();
+        }
+        assertEquals(26, total);
+        assertEquals(26, misses);
+
+        //Reading them again from another node hits their owners.
+        for (char c = 'a'; c <= 'z'; c++) {
+            assertNotNull(caches.get(1).get(c));
+        }
+        misses = 0;
+        for (PartitionedCacheManager cache : caches) {
+            misses += cache.getMissCounter();
+        }
+        assertEquals(26, misses);
+    }
+
+    @Test
+    public void testInvalidateIsForwardedToOwner() throws Exception {
+        for (char c = 'a'; c <= 'z'; c++) {
+            caches.get(0).get(c);
+        }
+        for (char c = 'a'; c <= 'z'; c++) {
+            caches.get(2).invalidateKey(c);
+        }
+        for (PartitionedCacheManager cache : caches) {
+            assertEquals(0, cache.getSize());
+        }
+    }
+
+    @Test
+    public void testNewNodeOnlyReceivesItsShare() throws Exception {
+        for (char c = 'a'; c <= 'z'; c++) {
+            caches.get(0).get(c);
+            caches.get(0).get(Character.toUpperCase(c));
+        }
+        PartitionedCacheManager newcomer = startNode();
+        for (PartitionedCacheManager cache : caches) {
+            cache.setNodes(nodes);
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        for (PartitionedCacheManager cache : caches) {
+            while (cache.isRebalancing() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertFalse(cache.isRebalancing());
+        }
+
+        long total = 0;
+        long handedOver = 0;
+        for (PartitionedCacheManager cache : caches) {
+            total += cache.getSize();
+            handedOver += cache.getHandedOverCounter();
+        }
+        //Nothing lost, and only the keys of the new node moved.
+        assertEquals(52, total);
+        assertEquals(newcomer.getSize(), handedOver);
+        assertTrue(handedOver > 0 && handedOver < 52);
+        //The new node holds the keys it owns, warm.
+        for (char c = 'a'; c <= 'z'; c++) {
+            if (newcomer.isLocal(c)) {
+                assertNotNull(newcomer.peek(c));
+            }
+        }
+        assertEquals(0, newcomer.getMissCounter());
+    }
+}
@@ -0,0 +1,168 @@
+package com.msc.cache.primitive;
+
+import com.msc.cache.CacheException;
+import com.msc.cache.Cacheable;
+import com.msc.cache.FakeTicker;
+import com.msc.cache.loader.CacheLoaderPolicy;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class LongKeyCacheTest {
+    private LongKeyCache cache;
+
+    @Before
+    public void setUp() {
+        cache = new LongKeyCache();
+        cache.setName("ids");
+        cache.setInitialCapacity(16);
+        cache.setLoaderPolicy(new CacheLoaderPolicy() {
+            public Cacheable fetchEntity(Object cacheKey) throws CacheException {
+                long id = (Long) cacheKey;
+                return id < 0 ? null : new Id(id);
+            }
+
+            public Collection<Cacheable> fetchAll() throws CacheException {
+                return null;
+            }
+        });
+    }
+
+    @Test
+    public void testMissThenHit() throws Exception {
+        Cacheable first = cache.get(42);
+        assertEquals(42L, first.getCacheKey());
+        assertSame(first, cache.get(42));
+        assertEquals(1, cache.getMissCounter());
+        assertEquals(1, cache.getHitCounter());
+        assertNull(cache.get(-1));
+        assertEquals(1, cache.getSize());
+    }
+
+    @Test
+    public void testGrowsAndKeepsEveryEntry() throws Exception {
+        for (long id = 0; id < 100000; id++) {
+            cache.put(id * 31, new Id(id * 31));
+        }
+        assertEquals(100000, cache.getSize());
+        for (long id = 0; id < 100000; id++) {
+            assertEquals(id * 31, cache.peek(id * 31).getCacheKey());
+        }
+        assertNull(cache.peek(1));
+    }
+
+    @Test
+    public void testFootprintOfPresizedTable() throws Exception {
+        cache.setInitialCapacity(100000);
+        for (long id = 0; id < 100000; id++) {
+            cache.put(id, new Id(id));
+        }
+        long bytesPerEntry = cache.getFootprint() / cache.getSize();
+        assertTrue("Bytes per entry: " + bytesPerEntry, bytesPerEntry < 30);
+    }
+
+    @Test
+    public void testInvalidateKeepsProbingPastRemovedSlots() throws Exception {
+        for (long id = 0; id < 12; id++) {
+            cache.put(id, new Id(id));
+        }
+        for (long id = 0; id < 12; id += 2) {
+            assertNotNull(cache.invalidate(id));
+        }
+        assertEquals(6, cache.getSize());
+        for (long id = 1; id < 12; id += 2) {
+            assertNotNull(cache.peek(id));
+        }
+        assertNull(cache.peek(0));
+        //Removed slots are reused without growing.
+        int capacity = cache.getCapacity();
+        for (int round = 0; round < 100; round++) {
+            cache.put(100 + round, new Id(100 + round));
+            cache.invalidate(100 + round);
+        }
+        assertEquals(capacity, cache.getCapacity());
+        assertEquals(6, cache.getSize());
+    }
+
+    @Test
+    public void testFlushAll() throws Exception {
+        cache.get(1);
+        cache.get(2);
+        cache.flushAll();
+        assertEquals(0, cache.getSize());
+        assertNull(cache.peek(1));
+    }
+
+    @Test
+    public void testExpiredEntriesAreNeverReturned() throws Exception {
+        FakeTicker ticker = new FakeTicker();
+        cache.setTicker(ticker);
+        cache.setDefaultTimeToLive(10);
+        Cacheable first = cache.get(1);
+        ticker.advance(11, TimeUnit.SECONDS);
+        assertNull(cache.peek(1));
+        Cacheable second = cache.get(1);
+        assertNotSame(first, second);
+        assertEquals(2, cache.getMissCounter());
+        assertSame(second, cache.peek(1));
+        assertEquals(1, cache.getSize());
+    }
+
+    @Test
+    public void testCleanupSweepsInBatches() throws Exception {
+        FakeTicker ticker = new FakeTicker();
+        cache.setTicker(ticker);
+        cache.setDefaultIdleTime(10);
+        cache.setBatchSize(8);
+        cache.setSliceSize(3);
+        for (long id = 0; id < 12; id++) {
+            cache.put(id, new Id(id));
+        }
+        ticker.advance(11, TimeUnit.SECONDS);
+        cache.cleanup();
+        //Up to 8 slots looked at.
+        assertTrue(cache.getEvictionCounter() <= 8);
+        for (int runs = (cache.getCapacity() + 7) / 8; runs > 1; runs--) {
+            cache.cleanup();
+        }
+        assertEquals(12, cache.getEvictionCounter());
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void testInitCleansUpPeriodically() throws Exception {
+        cache.setDefaultTimeToLive(0);
+        cache.put(1, new Id(1));
+        cache.init();
+        try {
+            for (int i = 0; i < 50 && cache.getSize() > 0; i++) {
+                Thread.sleep(100);
+            }
+            assertEquals(0, cache.getSize());
+            assertEquals(1, cache.getEvictionCounter());
+        } finally {
+            cache.shutdown();
+        }
+    }
+
+    private static class Id implements Cacheable {
+        private final long id;
+
+        Id(long id) {
+            this.id = id;
+        }
+
+        public Object getCacheKey() {
+            return this.id;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.msc.cache.remote;
+
+import com.msc.cache.CacheException;
+import com.msc.cache.CacheManager;
+import com.msc.cache.mock.Letter;
+import com.msc.cache.mock.TestAlphabetLoader;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * One CacheServer and two near caches talking to it over the loopback interface.
+ */
+public class RemoteCacheTest {
+    private static final List<String> MOCKS = Collections.singletonList("com.msc.cache.mock.");
+
+    private CacheServer server;
+    private CacheManager serverCache;
+    private RemoteCacheClient clientA;
+    private RemoteCacheClient clientB;
+    private CacheManager nearA;
+    private CacheManager nearB;
+
+    @Before
+    public void setUp() throws Exception {
+        serverCache = new CacheManager();
+        serverCache.setName("alphabet");
+        serverCache.setLoaderPolicy(new TestAlphabetLoader());
+        server = new CacheServer();
+        server.setPort(0);
+        server.setAllowedClasses(MOCKS);
+        server.register(serverCache);
+        server.init();
+
+        clientA = new RemoteCacheClient("127.0.0.1", server.getLocalPort());
+        clientB = new RemoteCacheClient("127.0.0.1", server.getLocalPort());
+        clientA.setAllowedClasses(MOCKS);
+        clientB.setAllowedClasses(MOCKS);
+        nearA = createNearCache(clientA);
+        nearB = createNearCache(clientB);
+    }
+
+    private CacheManager createNearCache(RemoteCacheClient client) {
+        CacheManager cache = new CacheManager();
+        cache.setName("alphabet");
+        RemoteCacheLoaderPolicy loader = new RemoteCacheLoaderPolicy(client, null);
+        RemoteCacheNotifierPolicy notifier = new RemoteCacheNotifierPolicy(client, null);
+        cache.setLoaderPolicy(loader);
+        cache.setNotifierPolicy(notifier);
+        loader.setCacheManager(cache);
+        notifier.setCacheManager(cache);
+        return cache;
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        clientA.close();
+        clientB.close();
+        server.shutdown();
+    }
+
+    @Test
+    public void testNearCachesShareServerCache() throws Exception {
+        assertEquals('a', ((Letter) nearA.get('a')).getLetter());
+        assertNotNull(serverCache.peek('a'));
+        assertEquals('a', ((Letter) nearB.get('a')).getLetter());
+        //Only the first near cache miss reached the loader.
+        assertEquals(1, serverCache.getMissCounter());
+        assertEquals(1, serverCache.getHitCounter());
+        assertNotNull(nearB.peek('a'));
+    }
+
+    @Test
+    public void testInvalidationIsPushedToOtherNearCaches() throws Exception {
+        nearA.get('a');
+        nearB.get('a');
+
+        nearA.invalidateKey('a');
+        assertNull(serverCache.peek('a'));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (nearB.peek('a') != null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertNull(nearB.peek('a'));
+        assertEquals(1, server.getPushCounter());
+    }
+
+    @Test
+    public void testPipelinedRequests() throws Exception {
+        List<Future<Object>> calls = new ArrayList<Future<Object>>();
+        for (char c = 'a'; c <= 'z'; c++) {
+            calls.add(clientA.submit(RemoteProtocol.OP_GET, "alphabet", c));
+        }
+        char expected = 'a';
+        for (Future<Object> call : calls) {
+            assertEquals(expected++, ((Letter) call.get(5, TimeUnit.SECONDS)).getLetter());
+        }
+        assertEquals(26, serverCache.getSize());
+    }
+
+    @Test
+    public void testErrorsAreReported() throws Exception {
+        try {
+            clientA.get("alphabet", '1');
+            fail("The loader only knows letters");
+        } catch (CacheException e) {
+            assertTrue(e.getMessage().contains("Alphabets"));
+        }
+        //The connection is still usable.
+        assertNotNull(clientA.get("alphabet", 'b'));
+        assertEquals(1, server.getErrorCounter());
+    }
+
+    @Test
+    public void testOnlyAllowedClassesAreDeserialized() throws Exception {
+        server.setAllowedClasses(Collections.<String>emptyList());
+        try {
+            clientA.refresh("alphabet", new Letter('a'));
+            fail("Letters are not allowed anymore");
+        } catch (CacheException e) {
+            assertTrue(e.getMessage().contains("not allowed"));
+        }
+        assertNull(serverCache.peek('a'));
+    }
+}
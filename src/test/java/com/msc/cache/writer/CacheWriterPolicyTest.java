@@ -0,0 +1,159 @@
+package com.msc.cache.writer;
+
+import com.msc.cache.CacheException;
+import com.msc.cache.CacheManager;
+import com.msc.cache.Cacheable;
+import com.msc.cache.mock.Letter;
+import com.msc.cache.mock.TestAlphabetLoader;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Writes letters to a map standing for the database.
+ */
+public class CacheWriterPolicyTest {
+    private final Map<Object, Cacheable> database = new ConcurrentHashMap<Object, Cacheable>();
+    private final List<Integer> batches = new ArrayList<Integer>();
+    private final AtomicInteger failures = new AtomicInteger();
+    private CacheManager cache;
+    private WriteBehindCacheWriterPolicy writeBehind;
+
+    private final BatchCacheWriterPolicy writer = new BatchCacheWriterPolicy() {
+        public void write(Cacheable entity) throws CacheException {
+            this.writeAll(Collections.singletonList(entity));
+        }
+
+        public void delete(Object cacheKey) throws CacheException {
+            this.deleteAll(Collections.singletonList(cacheKey));
+        }
+
+        public void writeAll(List<Cacheable> entities) throws CacheException {
+            if (failures.get() > 0) {
+                failures.decrementAndGet();
+                throw new CacheException("Database down", "test");
+            }
+            batches.add(entities.size());
+            for (Cacheable entity : entities) {
+                database.put(entity.getCacheKey(), entity);
+            }
+        }
+
+        public void deleteAll(List<Object> cacheKeys) throws CacheException {
+            for (Object key : cacheKeys) {
+                database.remove(key);
+            }
+        }
+    };
+
+    @Before
+    public void setUp() {
+        cache = new CacheManager();
+        cache.setName("alphabet");
+        cache.setLoaderPolicy(new TestAlphabetLoader());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (writeBehind != null) {
+            writeBehind.shutdown();
+        }
+    }
+
+    private void writeBehind() {
+        writeBehind = new WriteBehindCacheWriterPolicy(writer);
+        writeBehind.setFlushInterval(10000);
+        writeBehind.setRetryDelay(1);
+        cache.setWriterPolicy(writeBehind);
+    }
+
+    @Test
+    public void testWriteThrough() throws Exception {
+        cache.setWriterPolicy(writer);
+        Letter a = new Letter('a');
+        cache.put(a);
+        assertSame(a, database.get('a'));
+        assertSame(a, cache.peek('a'));
+
+        failures.set(1);
+        try {
+            cache.put(new Letter('b'));
+            fail("The write failed");
+        } catch (CacheException expected) {
+            assertNull(cache.peek('b'));
+        }
+
+        cache.remove('a');
+        assertFalse(database.containsKey('a'));
+        assertNull(cache.peek('a'));
+    }
+
+    @Test
+    public void testWriteBehindCoalescesPerKey() throws Exception {
+        writeBehind();
+        Letter last = null;
+        for (int i = 0; i < 100; i++) {
+            last = new Letter('c');
+            cache.put(last);
+            cache.put(new Letter((char) ('d' + i % 10)));
+        }
+        assertSame(last, cache.peek('c'));
+        assertTrue(database.isEmpty());
+        assertEquals(11, writeBehind.getPendingCount());
+
+        writeBehind.flush();
+        assertSame(last, database.get('c'));
+        assertEquals(11, database.size());
+        assertEquals(11, writeBehind.getWrittenCounter());
+        assertEquals(189, writeBehind.getCoalescedCounter());
+        assertEquals(1, batches.size());
+    }
+
+    @Test
+    public void testFailedBatchesAreRetried() throws Exception {
+        writeBehind();
+        failures.set(2);
+        Letter e = new Letter('e');
+        cache.put(e);
+        cache.remove('f');
+        writeBehind.flush();
+        assertSame(e, database.get('e'));
+        assertEquals(2, writeBehind.getRetryCounter());
+        assertEquals(0, writeBehind.getFailedCounter());
+
+        writeBehind.setMaxRetries(1);
+        failures.set(5);
+        cache.put(new Letter('g'));
+        writeBehind.flush();
+        assertFalse(database.containsKey('g'));
+        assertEquals(1, writeBehind.getFailedCounter());
+    }
+
+    @Test
+    public void testPendingWriteIsWhatGetsLoaded() throws Exception {
+        writeBehind();
+        Letter h = new Letter('h');
+        cache.put(h);
+        cache.flushAll();
+        //Not in the database yet: the loader would create a new one.
+        assertSame(h, cache.get('h'));
+        cache.remove('h');
+        assertNull(cache.get('h'));
+        writeBehind.flush();
+        assertFalse(database.containsKey('h'));
+    }
+}